@@ -0,0 +1,179 @@
+package com.jclaw.http;
+
+import com.jclaw.config.JClawConfig;
+import com.jclaw.json.JsonReader;
+import com.jclaw.json.JsonWriter;
+import com.jclaw.metrics.Metrics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test comparing the HTTP transports: each one serves {@code POST /api/chat} with a
+ * handler that parses the JSON request and answers a small JSON reply, no agent behind it,
+ * while {@code clients} keep-alive connections send requests back to back. Prints requests
+ * per second and latency percentiles per transport.
+ *
+ * <p>Options are one comma-separated argument, e.g.
+ * {@code clients=64,seconds=10,warmup=3,transports=virtual+jdk}; anything else is ignored:
+ * <pre>
+ * mvn -Pbench test-compile exec:exec@bench -Dbench.main=com.jclaw.http.HttpLoadDriver -Dbench=clients=64
+ * </pre>
+ */
+public final class HttpLoadDriver {
+
+    private static final byte[] REQUEST_BODY =
+            "{\"message\":\"hello\",\"senderId\":\"load\"}".getBytes(StandardCharsets.UTF_8);
+
+    private HttpLoadDriver() {}
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (var arg : args) {
+            for (var option : arg.split(",")) {
+                int eq = option.indexOf('=');
+                if (eq > 0) options.put(option.substring(0, eq).strip(), option.substring(eq + 1).strip());
+            }
+        }
+        int clients = Integer.parseInt(options.getOrDefault("clients", "64"));
+        int seconds = Integer.parseInt(options.getOrDefault("seconds", "10"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "3"));
+        for (var transport : options.getOrDefault("transports", "virtual+jdk").split("\\+")) {
+            run(transport, clients, warmup, seconds);
+        }
+    }
+
+    private static void run(String transport, int clients, int warmupSeconds, int seconds) throws Exception {
+        int port;
+        try (var probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        var config = new JClawConfig.HttpConfig(transport, 1024, 10_000, 30, 1 << 20, 16 << 10);
+        var server = HttpTransport.create(port, config, new Metrics());
+        server.start(HttpLoadDriver::chat);
+        try {
+            load(port, clients, warmupSeconds);
+            var latencies = load(port, clients, seconds);
+            Arrays.sort(latencies);
+            System.out.printf("%-8s %d clients: %,.0f req/s, p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                    transport, clients, latencies.length / (double) seconds,
+                    millis(percentile(latencies, 0.50)), millis(percentile(latencies, 0.99)),
+                    millis(latencies.length == 0 ? 0 : latencies[latencies.length - 1]));
+        } finally {
+            server.stop();
+        }
+    }
+
+    /** What {@code POST /api/chat} does around the agent: read the message, answer JSON. */
+    private static void chat(Exchange ex) throws IOException {
+        String message = null;
+        try (InputStream is = ex.requestBody()) {
+            var in = new JsonReader(is);
+            in.beginObject();
+            while (in.hasNext()) {
+                if (in.nextName().equals("message")) {
+                    message = in.nextString();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+        }
+        var out = JsonWriter.inMemory();
+        out.beginObject().name("reply").value("echo: " + message).endObject();
+        ex.responseHeader("Content-Type", "application/json");
+        ex.respond(200, out.toByteArray());
+    }
+
+    /** Run {@code clients} connections for {@code seconds}; returns each request's latency in nanos. */
+    private static long[] load(int port, int clients, int seconds) throws Exception {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Future<long[]>> results = new ArrayList<>();
+        // Platform threads, so the clients do not compete with the server for carrier threads
+        try (var pool = Executors.newFixedThreadPool(clients)) {
+            for (int i = 0; i < clients; i++) results.add(pool.submit(() -> client(port, end)));
+        }
+        int total = 0;
+        for (var result : results) total += result.get().length;
+        long[] all = new long[total];
+        int at = 0;
+        for (var result : results) {
+            long[] one = result.get();
+            System.arraycopy(one, 0, all, at, one.length);
+            at += one.length;
+        }
+        return all;
+    }
+
+    /** One keep-alive connection sending requests back to back until {@code end}. */
+    private static long[] client(int port, long end) throws IOException {
+        byte[] head = ("POST /api/chat HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/json\r\n"
+                + "Content-Length: " + REQUEST_BODY.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        long[] latencies = new long[1024];
+        int n = 0;
+        try (var socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            long now;
+            while ((now = System.nanoTime()) < end) {
+                out.write(head);
+                out.write(REQUEST_BODY);
+                out.flush();
+                readResponse(in);
+                if (n == latencies.length) latencies = Arrays.copyOf(latencies, n * 2);
+                latencies[n++] = System.nanoTime() - now;
+            }
+        }
+        return Arrays.copyOf(latencies, n);
+    }
+
+    /** Read one response with a Content-Length body; fails on anything but 200. */
+    private static void readResponse(InputStream in) throws IOException {
+        String status = readLine(in);
+        if (!status.startsWith("HTTP/1.1 200")) throw new IOException("Unexpected response: " + status);
+        long length = 0;
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).equalsIgnoreCase("Content-Length")) {
+                length = Long.parseLong(line.substring(colon + 1).strip());
+            }
+        }
+        in.skipNBytes(length);
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        var line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) throw new IOException("Connection closed");
+            if (c != '\r') line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * p) - 1)];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,100 @@
+package com.jclaw.json;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The codec on a chat request and a session line: a typical short message, and a 100 KB one
+ * such as a pasted document. The message mixes ASCII with escapes and multi-byte characters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonCodecBenchmark {
+
+    @Param({"typical", "100k"})
+    public String payload;
+
+    private String message;
+    private byte[] request;
+    private ByteBuffer line;
+
+    @Setup
+    public void setUp() throws IOException {
+        if (payload.equals("typical")) {
+            message = "Can you summarise yesterday's \"release notes\" for the team? Merci — 谢谢";
+        } else {
+            var text = new StringBuilder();
+            for (int i = 0; text.length() < 100 * 1024; i++) {
+                text.append("Paragraph ").append(i).append(": see \"section ").append(i)
+                        .append("\" and C:\\docs\\notes.txt — café, 中文.\n");
+            }
+            message = text.toString();
+        }
+        var out = JsonWriter.inMemory();
+        out.beginObject()
+                .name("sessionId").value("webchat:alice")
+                .name("senderId").value("alice")
+                .name("message").value(message)
+                .endObject();
+        request = out.toByteArray();
+        line = ByteBuffer.allocate(request.length * 2 + 1024);
+    }
+
+    /** Decode a request body from a stream, as {@code POST /api/chat} does. */
+    @Benchmark
+    public String readRequest() throws IOException {
+        var in = new JsonReader(new ByteArrayInputStream(request));
+        String text = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            if (in.nextName().equals("message")) {
+                text = in.nextString();
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return text;
+    }
+
+    /** Encode a complete reply body in memory. */
+    @Benchmark
+    public byte[] writeReply() throws IOException {
+        var out = JsonWriter.inMemory();
+        out.beginObject().name("reply").value(message).name("agentId").value("main").endObject();
+        return out.toByteArray();
+    }
+
+    /** Encode a session line into a reused buffer, as the session store does. */
+    @Benchmark
+    public int writeSessionLine() throws IOException {
+        line.clear();
+        var out = new JsonWriter(bytes -> line);
+        out.beginObject()
+                .name("role").value("user")
+                .name("content").value(message)
+                .name("timestamp").value("2026-01-02T03:04:05.678Z")
+                .endObject()
+                .raw("\n")
+                .flush();
+        return line.position();
+    }
+}
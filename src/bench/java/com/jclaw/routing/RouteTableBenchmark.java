@@ -0,0 +1,99 @@
+package com.jclaw.routing;
+
+import com.jclaw.config.JClawConfig.BindingConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolving messages against thousands of bindings: exact-peer bindings spread over two
+ * channels, followed by a few glob and role bindings that every miss has to scan.
+ * {@link #linearScan} is the per-message scan the table replaced, for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteTableBenchmark {
+
+    private static final String[] CHANNELS = {"webchat", "telegram"};
+
+    @Param({"1000", "5000"})
+    public int bindings;
+
+    private List<BindingConfig> configs;
+    private RouteTable table;
+    private String[] boundPeers;
+    private String[] boundChannels;
+    private String[] unboundPeers;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        configs = new ArrayList<>();
+        for (int i = 0; i < bindings; i++) {
+            configs.add(new BindingConfig("peer-" + i, CHANNELS[i % 2], "a", Map.of("peerId", "user-" + i)));
+        }
+        for (var channel : CHANNELS) {
+            configs.add(new BindingConfig(channel + "-ops", channel, "b", Map.of("peerId", "ops-*")));
+            configs.add(new BindingConfig(channel + "-admins", channel, "b", Map.of("roles", "admin")));
+            configs.add(new BindingConfig(channel + "-all", channel, "main", null));
+        }
+        table = RouteTable.compile(configs, "main", Set.of("main", "a", "b"));
+        boundPeers = new String[1024];
+        boundChannels = new String[1024];
+        unboundPeers = new String[1024];
+        for (int i = 0; i < boundPeers.length; i++) {
+            int peer = i * 7919 % bindings;
+            boundPeers[i] = "user-" + peer;
+            boundChannels[i] = CHANNELS[peer % 2];
+            unboundPeers[i] = "guest-" + i;
+        }
+    }
+
+    private int next() {
+        return next = (next + 1) & 1023;
+    }
+
+    @Benchmark
+    public Object exactPeer() {
+        int i = next();
+        return table.resolve(boundChannels[i], boundPeers[i], null, null, null);
+    }
+
+    /** Misses every bucket and scans the channel's pattern bindings down to the catch-all. */
+    @Benchmark
+    public Object unboundPeer() {
+        int i = next();
+        return table.resolve(CHANNELS[i & 1], unboundPeers[i], null, null, null);
+    }
+
+    @Benchmark
+    public String linearScan() {
+        int i = next();
+        String channel = boundChannels[i];
+        String peer = boundPeers[i];
+        for (var binding : configs) {
+            if (!binding.channel().equals(channel)) continue;
+            var filter = binding.filter();
+            if (filter == null || peer.equals(filter.get("peerId"))) return binding.agentId();
+        }
+        return null;
+    }
+}
@@ -4,6 +4,7 @@ import com.jclaw.agent.AgentRegistry;
 import com.jclaw.agent.AgentRunner;
 import com.jclaw.channel.Channel;
 import com.jclaw.config.JClawConfig;
+import com.jclaw.metrics.Metrics;
 import com.jclaw.routing.RouteResolver;
 import com.jclaw.session.SessionManager;
 import com.jclaw.skill.SkillRegistry;
@@ -11,6 +12,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
  * The Gateway — central orchestrator that wires channels, routing, sessions, and agents together.
@@ -21,6 +26,7 @@ public final class Gateway {
     private static final Logger log = LoggerFactory.getLogger(Gateway.class);
 
     private final JClawConfig config;
+    private final Metrics metrics = new Metrics();
     private final RouteResolver router;
     private final SessionManager sessionManager;
     private final SkillRegistry skillRegistry;
@@ -30,16 +36,17 @@ public final class Gateway {
     public Gateway(JClawConfig config) {
         this.config = config;
         this.router = new RouteResolver(config);
-        this.sessionManager = new SessionManager(config.session());
+        this.sessionManager = new SessionManager(config.session(), metrics);
         this.skillRegistry = new SkillRegistry(
-                Path.of(System.getProperty("user.home"), ".jclaw", "skills"));
-        this.agentRegistry = new AgentRegistry(config, skillRegistry);
+                Path.of(System.getProperty("user.home"), ".jclaw", "skills"), metrics);
+        this.agentRegistry = new AgentRegistry(config, skillRegistry, metrics);
         this.agentRunner = new AgentRunner(
                 agentRegistry,
                 sessionManager,
-                config.agents().defaults().maxConcurrent(),
+                config.agents().defaults(),
                 config.gateway().agentTimeoutSeconds(),
-                config.gateway().shutdownTimeoutSeconds()
+                config.gateway().shutdownTimeoutSeconds(),
+                metrics
         );
     }
 
@@ -49,12 +56,39 @@ public final class Gateway {
      * channel → routing → session → agent → response.
      */
     public void start(Channel channel) {
-        log.info("JClaw Gateway starting on channel: {}", channel.id());
+        start(List.of(channel));
+    }
+
+    /**
+     * Start the gateway with several channels, each on its own thread, all sharing the
+     * pipeline. Blocks until every channel has stopped.
+     */
+    public void start(List<Channel> channels) {
+        log.info("JClaw Gateway starting on channels: {}", channels.stream().map(Channel::id).toList());
         log.info("Default agent: {}", config.agents().defaultAgent());
         log.info("Configured agents: {}",
                 config.agents().list().stream().map(JClawConfig.AgentDef::id).toList());
 
-        channel.start((senderId, text) -> handleMessage(channel.id(), senderId, text));
+        var threads = new ArrayList<Thread>(channels.size());
+        for (var channel : channels) {
+            var handler = new Channel.AsyncMessageHandler() {
+                @Override
+                public String onMessage(String senderId, String text, Consumer<String> onPartial) {
+                    return handleMessage(channel.id(), senderId, text, onPartial);
+                }
+
+                @Override
+                public CompletableFuture<String> submit(String senderId, String text) {
+                    return submitMessage(channel.id(), senderId, text);
+                }
+            };
+            threads.add(Thread.ofVirtual().name("channel-" + channel.id()).start(() -> channel.start(handler)));
+        }
+        try {
+            for (var thread : threads) thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
@@ -63,22 +97,25 @@ public final class Gateway {
     public void shutdown() {
         log.info("Gateway shutting down...");
         agentRunner.shutdown();
+        sessionManager.close();
         log.info("Gateway shut down complete");
     }
 
+    /** Gateway-wide counters and gauges, exposed by channels that support it. */
+    public Metrics metrics() {
+        return metrics;
+    }
+
     /**
      * Message handling pipeline:
-     * 1. Route to agent by channel
+     * 1. Route to agent by channel and sender
      * 2. Resolve session key
-     * 3. Run agent turn (with concurrency control)
+     * 3. Run agent turn (with concurrency control), streaming partial text to
+     *    {@code onPartial} when the channel asked for it
      */
-    private String handleMessage(String channelId, String senderId, String text) {
-        // 1. Resolve target agent by channel
-        String agentId = router.resolve(channelId);
-        if (!agentRegistry.hasAgent(agentId)) {
-            log.warn("Routed to unknown agent '{}', falling back to default", agentId);
-            agentId = config.agents().defaultAgent();
-        }
+    private String handleMessage(String channelId, String senderId, String text, Consumer<String> onPartial) {
+        // 1. Resolve target agent by channel and sender; bindings were validated when the table was compiled
+        String agentId = router.resolve(channelId, senderId);
 
         // 2. Resolve session key
         String sessionKey = sessionManager.resolveSessionKey(
@@ -89,6 +126,18 @@ public final class Gateway {
                 channelId, senderId, agentId, sessionKey);
 
         // 3. Run agent turn (virtual thread handles blocking)
-        return agentRunner.run(agentId, sessionKey, text);
+        return agentRunner.run(agentId, sessionKey, text, onPartial);
+    }
+
+    /**
+     * Same pipeline as {@link #handleMessage}, without waiting for the turn, under the jobs
+     * timeout rather than {@code agentTimeoutSeconds}: nobody holds a connection open for it.
+     */
+    private CompletableFuture<String> submitMessage(String channelId, String senderId, String text) {
+        String agentId = router.resolve(channelId, senderId);
+        String sessionKey = sessionManager.resolveSessionKey(agentId, channelId, "direct", senderId);
+        log.debug("Async message: channel={}, sender={}, agent={}, session={}",
+                channelId, senderId, agentId, sessionKey);
+        return agentRunner.runAsync(agentId, sessionKey, text, null, config.gateway().jobs().timeoutSeconds());
     }
 }
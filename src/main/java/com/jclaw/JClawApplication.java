@@ -1,12 +1,15 @@
 package com.jclaw;
 
+import com.jclaw.channel.Channel;
 import com.jclaw.channel.WebChatChannel;
+import com.jclaw.channel.WebSocketChannel;
 import com.jclaw.config.ConfigLoader;
 import com.jclaw.config.JClawConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
 
 /**
  * JClaw — Java port of OpenClaw core.
@@ -49,15 +52,24 @@ public final class JClawApplication {
         String adminToken = config.gateway().adminToken();
 
         final WebChatChannel[] holder = new WebChatChannel[1];
-        var channel = new WebChatChannel(port, adminToken, () -> {
+        String uiDir = config.gateway().uiDir();
+        var webSocket = config.gateway().websocket().enabled()
+                ? new WebSocketChannel(config.gateway().websocket(), gateway.metrics()) : null;
+        var channel = new WebChatChannel(port, adminToken, config.gateway().http(),
+                uiDir != null ? Path.of(uiDir.replace("~", System.getProperty("user.home"))) : null,
+                webSocket, config.gateway().jobs(), gateway.metrics(), () -> {
             log.info("Initiating graceful shutdown...");
-            holder[0].stop();        // 1. Stop accepting new HTTP requests
-            gateway.shutdown();      // 2. Drain in-flight agent tasks, close executor
+            if (webSocket != null) webSocket.stop();  // 1. Close WebSocket connections
+            holder[0].stop();        // 2. Stop accepting new HTTP requests
+            gateway.shutdown();      // 3. Drain in-flight agent tasks, close executor
             log.info("All resources released. Exiting.");
             System.exit(0);
         });
         holder[0] = channel;
 
-        gateway.start(channel);
+        var channels = new ArrayList<Channel>();
+        channels.add(channel);
+        if (webSocket != null) channels.add(webSocket);
+        gateway.start(channels);
     }
 }
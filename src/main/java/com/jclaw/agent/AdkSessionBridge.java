@@ -0,0 +1,127 @@
+package com.jclaw.agent;
+
+import com.google.adk.events.Event;
+import com.google.adk.sessions.BaseSessionService;
+import com.google.adk.sessions.Session;
+import com.google.genai.types.Content;
+import com.google.genai.types.Part;
+import com.jclaw.compaction.CompactionPipeline;
+import com.jclaw.compaction.Compactor;
+import com.jclaw.session.SessionEntry;
+import com.jclaw.session.SessionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps a JClaw session key to one long-lived ADK {@link Session} of an agent (ADK app name =
+ * agent id) in the session service shared by all of the agent's runners.
+ *
+ * <p>The ADK session is looked up by a deterministic id (the session key) and created only
+ * when missing, so the model sees the same conversation context turn after turn. When
+ * {@link SessionManager} evicts a transcript the matching ADK session is deleted (once no turn
+ * of the session is running or waiting), which keeps the in-memory session service bounded by
+ * the same limits; on the next turn the ADK session is recreated and seeded from the
+ * rehydrated transcript.
+ *
+ * <p>Seeding goes through the {@link Compactor}: once a background compaction has produced a
+ * smaller context for a session, the next turn replaces the ADK session with one seeded from
+ * that context, so history sent to the model stays within the model's budget.
+ *
+ * <p>Not synchronized: callers resolve a session only from inside its turn, and turns of one
+ * session never overlap.
+ */
+final class AdkSessionBridge {
+
+    private static final Logger log = LoggerFactory.getLogger(AdkSessionBridge.class);
+
+    private final String agentId;
+    private final BaseSessionService service;
+    private final SessionManager sessionManager;
+    private final Compactor compactor;
+    private final CompactionPipeline compaction;
+
+    AdkSessionBridge(String agentId, BaseSessionService service, SessionManager sessionManager,
+                     Compactor compactor, CompactionPipeline compaction) {
+        this.agentId = agentId;
+        this.service = service;
+        this.sessionManager = sessionManager;
+        this.compactor = compactor;
+        this.compaction = compaction;
+    }
+
+    /**
+     * Return the ADK session for {@code sessionKey}, creating it and replaying the JClaw
+     * transcript into it if the runner does not hold one. Call before recording the new turn.
+     */
+    Session resolve(String sessionKey) {
+        if (compactor.takeUpdate(sessionKey)) {
+            // A compacted context is ready: reseed instead of growing the old session
+            evict(sessionKey);
+        } else {
+            Session session = service.getSession(agentId, sessionKey, sessionKey, Optional.empty())
+                    .blockingGet();
+            if (session != null) return session;
+        }
+
+        var session = service.createSession(agentId, sessionKey, new ConcurrentHashMap<>(), sessionKey)
+                .blockingGet();
+        // Only the in-memory window is applied here; anything costlier runs in the background
+        var context = compaction.trim(compactor.context(sessionKey, sessionManager.getHistory(sessionKey)));
+        for (var entry : context) {
+            var event = toEvent(entry);
+            if (event != null) service.appendEvent(session, event).blockingGet();
+        }
+        log.debug("Created ADK session: app={}, session={}, seededEntries={}",
+                agentId, sessionKey, context.size());
+        return session;
+    }
+
+    /** End of turn: compact the session's context in the background if it outgrew the budget. */
+    void afterTurn(String sessionKey) {
+        compactor.schedule(sessionKey, compaction, sessionManager.getHistory(sessionKey));
+    }
+
+    /**
+     * Mirror a turn answered without the runner (a cached reply) into the ADK session, if it
+     * has one; otherwise it is seeded from the transcript, which already holds the turn.
+     */
+    void record(String sessionKey, SessionEntry user, SessionEntry reply) {
+        Session session = service.getSession(agentId, sessionKey, sessionKey, Optional.empty()).blockingGet();
+        if (session == null) return;
+        service.appendEvent(session, toEvent(user)).blockingGet();
+        service.appendEvent(session, toEvent(reply)).blockingGet();
+    }
+
+    /** Drop the ADK session for a key; the JClaw transcript stays in the session store. */
+    void evict(String sessionKey) {
+        service.deleteSession(agentId, sessionKey, sessionKey)
+                .onErrorComplete()
+                .blockingAwait();
+    }
+
+    /**
+     * Replay a transcript entry as an ADK event. Tool outputs and summary digests have no
+     * matching call to pair with, so they are replayed as user-side text (tool results are
+     * user-role content in the model APIs as well).
+     */
+    private Event toEvent(SessionEntry entry) {
+        if (entry.content() == null) return null;
+        String text = switch (entry.role()) {
+            case "user", "assistant", "system" -> entry.content();
+            case "tool" -> "[output of tool %s]\n%s".formatted(entry.toolName(), entry.content());
+            default -> null;
+        };
+        if (text == null) return null;
+        boolean fromModel = "assistant".equals(entry.role());
+        var builder = Event.builder()
+                .id(Event.generateEventId())
+                .invocationId("rehydrated")
+                .author(fromModel ? agentId : "user")
+                .content(Content.builder().role(fromModel ? "model" : "user").parts(Part.fromText(text)).build());
+        if (entry.timestamp() != null) builder.timestamp(entry.timestamp().toEpochMilli());
+        return builder.build();
+    }
+}
@@ -0,0 +1,222 @@
+package com.jclaw.agent;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Non-blocking admission control for agent turns.
+ * Turns within a session run one at a time in arrival order; across sessions at most
+ * {@code maxConcurrent} turns run at once. Waiting turns hold no thread — they are
+ * futures completed when a slot frees up. Each wait queue is bounded (global, per agent,
+ * per session) and a turn that would exceed a bound is rejected immediately with
+ * {@link AgentBusyException}.
+ */
+final class AdmissionController {
+
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final int maxQueuedPerAgent;
+    private final int maxQueuedPerSession;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Session heads waiting for a global slot, in FIFO order. */
+    private final ArrayDeque<Ticket> ready = new ArrayDeque<>();
+    /** Only sessions with a running or waiting turn have an entry; idle sessions leave no state. */
+    private final Map<String, ArrayDeque<Ticket>> sessions = new HashMap<>();
+    private final Map<String, Integer> queuedPerAgent = new HashMap<>();
+    /** Actions waiting for a busy session to go idle; see {@link #runWhenIdle}. */
+    private final Map<String, List<Runnable>> whenIdle = new HashMap<>();
+    private int queued;
+    private int running;
+
+    AdmissionController(int maxConcurrent, int maxQueued, int maxQueuedPerAgent, int maxQueuedPerSession) {
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        this.maxQueuedPerAgent = maxQueuedPerAgent;
+        this.maxQueuedPerSession = maxQueuedPerSession;
+    }
+
+    /** A turn's place in line; completes when the turn may start and must be released afterwards. */
+    static final class Ticket {
+        final String agentId;
+        final String sessionKey;
+        final CompletableFuture<Ticket> admitted = new CompletableFuture<>();
+
+        private Ticket(String agentId, String sessionKey) {
+            this.agentId = agentId;
+            this.sessionKey = sessionKey;
+        }
+    }
+
+    /**
+     * Request a slot for a turn. The returned future completes once the turn is at the head
+     * of its session and holds a global slot, or fails fast with {@link AgentBusyException}.
+     */
+    CompletableFuture<Ticket> admit(String agentId, String sessionKey) {
+        var ticket = new Ticket(agentId, sessionKey);
+        List<Ticket> started = new ArrayList<>(1);
+        lock.lock();
+        try {
+            var sessionQueue = sessions.get(sessionKey);
+            int sessionWaiting = sessionQueue == null ? 0 : sessionQueue.size();
+            int agentWaiting = queuedPerAgent.getOrDefault(agentId, 0);
+            if (queued >= maxQueued) {
+                return CompletableFuture.failedFuture(new AgentBusyException(
+                        "Gateway busy: %d turns already waiting".formatted(queued)));
+            }
+            if (agentWaiting >= maxQueuedPerAgent) {
+                return CompletableFuture.failedFuture(new AgentBusyException(
+                        "Agent '%s' busy: %d turns already waiting".formatted(agentId, agentWaiting)));
+            }
+            if (sessionWaiting >= maxQueuedPerSession) {
+                return CompletableFuture.failedFuture(new AgentBusyException(
+                        "Session busy: %d turns already waiting".formatted(sessionWaiting)));
+            }
+            queued++;
+            queuedPerAgent.merge(agentId, 1, Integer::sum);
+            if (sessionQueue == null) {
+                sessionQueue = new ArrayDeque<>();
+                sessions.put(sessionKey, sessionQueue);
+                sessionQueue.add(ticket);
+                ready.add(ticket);
+                drain(started);
+            } else {
+                sessionQueue.add(ticket);
+            }
+        } finally {
+            lock.unlock();
+        }
+        started.forEach(t -> t.admitted.complete(t));
+        return ticket.admitted;
+    }
+
+    /**
+     * Release the slot held by a started turn and hand it to the next waiter.
+     */
+    void release(Ticket ticket) {
+        List<Ticket> started = new ArrayList<>(1);
+        List<Runnable> idle;
+        lock.lock();
+        try {
+            running--;
+            idle = handOff(ticket.sessionKey, started);
+        } finally {
+            lock.unlock();
+        }
+        started.forEach(t -> t.admitted.complete(t));
+        runClaimed(ticket.sessionKey, idle);
+    }
+
+    /**
+     * Take a session's turn without a global slot, for work that never reaches the model
+     * (a cached reply). Succeeds only if the session has no running or waiting turn; turns
+     * admitted meanwhile wait until {@link #releaseSession}.
+     */
+    boolean tryClaimSession(String sessionKey) {
+        lock.lock();
+        try {
+            if (sessions.containsKey(sessionKey)) return false;
+            sessions.put(sessionKey, new ArrayDeque<>());
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Release a session claimed with {@link #tryClaimSession}. */
+    void releaseSession(String sessionKey) {
+        List<Ticket> started = new ArrayList<>(1);
+        List<Runnable> idle;
+        lock.lock();
+        try {
+            idle = handOff(sessionKey, started);
+        } finally {
+            lock.unlock();
+        }
+        started.forEach(t -> t.admitted.complete(t));
+        runClaimed(sessionKey, idle);
+    }
+
+    /**
+     * Run {@code action} while the session has no running or waiting turn: at once if it is
+     * idle, otherwise on the releasing thread when its last turn ends. The session is claimed
+     * while the action runs, so a turn arriving meanwhile waits for it.
+     */
+    void runWhenIdle(String sessionKey, Runnable action) {
+        lock.lock();
+        try {
+            if (sessions.containsKey(sessionKey)) {
+                whenIdle.computeIfAbsent(sessionKey, _ -> new ArrayList<>(1)).add(action);
+                return;
+            }
+            sessions.put(sessionKey, new ArrayDeque<>());
+        } finally {
+            lock.unlock();
+        }
+        runClaimed(sessionKey, List.of(action));
+    }
+
+    /** Number of turns currently holding a slot. */
+    int running() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Number of admitted turns waiting for a slot. */
+    int queued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A session's turn ended: queue its next turn for a slot, or forget the idle session.
+     * Returns the session's {@link #runWhenIdle} actions if it went idle with some pending, in
+     * which case it stays claimed for the caller to run them. Caller holds the lock.
+     */
+    private List<Runnable> handOff(String sessionKey, List<Ticket> started) {
+        var sessionQueue = sessions.get(sessionKey);
+        List<Runnable> idle = null;
+        if (!sessionQueue.isEmpty()) {
+            ready.add(sessionQueue.peek());
+        } else if ((idle = whenIdle.remove(sessionKey)) == null) {
+            sessions.remove(sessionKey);
+        }
+        drain(started);
+        return idle;
+    }
+
+    /** Run actions for a session claimed on their behalf, then release it. Outside the lock. */
+    private void runClaimed(String sessionKey, List<Runnable> actions) {
+        if (actions == null) return;
+        try {
+            actions.forEach(Runnable::run);
+        } finally {
+            releaseSession(sessionKey);
+        }
+    }
+
+    /** Start as many session heads as there are free slots. Caller holds the lock. */
+    private void drain(List<Ticket> started) {
+        while (running < maxConcurrent && !ready.isEmpty()) {
+            var next = ready.poll();
+            sessions.get(next.sessionKey).poll();
+            queued--;
+            queuedPerAgent.computeIfPresent(next.agentId, (_, n) -> n > 1 ? n - 1 : null);
+            running++;
+            started.add(next);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.jclaw.agent;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown when a turn is refused at admission because a wait queue is full.
+ * Extends {@link RejectedExecutionException} so channels can map it to a "busy"
+ * response (HTTP 429) without depending on the agent package.
+ */
+public final class AgentBusyException extends RejectedExecutionException {
+
+    private static final long serialVersionUID = 1L;
+
+    public AgentBusyException(String message) {
+        super(message);
+    }
+}
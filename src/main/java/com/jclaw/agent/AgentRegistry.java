@@ -3,66 +3,142 @@ package com.jclaw.agent;
 import com.google.adk.agents.BaseAgent;
 import com.google.adk.agents.LlmAgent;
 import com.google.adk.models.BaseLlm;
-import com.google.adk.models.langchain4j.LangChain4j;
+import com.google.adk.tools.BaseTool;
+import com.google.genai.types.Content;
+import com.jclaw.compaction.CompactionPipeline;
+import com.jclaw.compaction.LlmSummarizer;
 import com.jclaw.config.JClawConfig;
+import com.jclaw.llm.FailoverLlm;
+import com.jclaw.llm.ModelClientPool;
+import com.jclaw.llm.ModelLimiter;
+import com.jclaw.metrics.Metrics;
+import com.jclaw.tool.ActivateSkillTool;
 import com.jclaw.tool.ExecTool;
 import com.jclaw.tool.ReadFileTool;
 import com.jclaw.tool.WriteFileTool;
-import dev.langchain4j.model.anthropic.AnthropicChatModel;
-import dev.langchain4j.model.ollama.OllamaChatModel;
-import dev.langchain4j.model.openai.OpenAiChatModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 import com.jclaw.skill.SkillDef;
+import com.jclaw.skill.SkillIndex;
 import com.jclaw.skill.SkillRegistry;
 
 /**
  * Registry of configured agents. Each agent is built from config and equipped with tools.
- * Supports multiple LLM providers via LangChain4j integration.
- * Agents are lazily rebuilt when available skills change.
+ * Supports multiple LLM providers via LangChain4j integration; LLM clients come from a
+ * {@link ModelClientPool}, so agents on the same model share one client, its connections
+ * and its {@link ModelLimiter}. Agents with {@code fallbackModelIds} run on a
+ * {@link FailoverLlm} over their models.
+ * When skills change, the agents whose skill set is affected are rebuilt on a background
+ * thread and published with a single swap of an immutable map, so {@link #getAgent} is a
+ * plain lock-free read and never builds anything on the request path.
  */
 public final class AgentRegistry {
 
     private static final Logger log = LoggerFactory.getLogger(AgentRegistry.class);
 
-    private final Map<String, BaseAgent> agents = new ConcurrentHashMap<>();
+    /** Immutable; replaced as a whole by the rebuild thread. */
+    private volatile Map<String, AgentBuild> agents;
     private final Map<String, JClawConfig.AgentDef> agentDefs = new ConcurrentHashMap<>();
     private final Map<String, JClawConfig.ModelDef> modelDefs = new ConcurrentHashMap<>();
+    private final Map<String, CompactionPipeline> compactions = new ConcurrentHashMap<>();
+    private final Map<String, ResponseCache> responseCaches = new ConcurrentHashMap<>();
+    private final Map<String, FailoverLlm> failovers = new ConcurrentHashMap<>();
     private final SkillRegistry skillRegistry;
-    private volatile long lastSkillVersion;
+    private final SkillIndex skillIndex;
+    private final ModelClientPool modelClients;
+    private final Metrics metrics;
+    private final AtomicLong buildVersions = new AtomicLong();
+    private final ExecutorService rebuilder =
+            Executors.newSingleThreadExecutor(Thread.ofVirtual().name("agent-rebuild").factory());
+    /** Skill names changed since the last rebuild started. Guarded by itself, as are the two flags below. */
+    private final Set<String> pendingSkillChanges = new HashSet<>();
+    /** Every agent needs rebuilding, whatever {@link #pendingSkillChanges} holds. */
+    private boolean rebuildAll;
+    private boolean rebuildScheduled;
 
-    public AgentRegistry(JClawConfig config, SkillRegistry skillRegistry) {
+    private final LongAdder rebuilds;
+    private final LongAdder rebuildFailures;
+    private final LongAdder rebuildNanos;
+
+    /** A built agent and its build version; every rebuild of an agent gets a higher version. */
+    public record AgentBuild(BaseAgent agent, long version) {}
+
+    public AgentRegistry(JClawConfig config, SkillRegistry skillRegistry, Metrics metrics) {
         this.skillRegistry = skillRegistry;
-        this.lastSkillVersion = skillRegistry.version();
+        this.skillIndex = new SkillIndex(skillRegistry);
+        this.modelClients = new ModelClientPool(config.modelClient(), metrics);
+        this.metrics = metrics;
+        this.rebuilds = metrics.counter("agent.rebuilds");
+        this.rebuildFailures = metrics.counter("agent.rebuildFailures");
+        this.rebuildNanos = metrics.counter("agent.rebuildNanos");
+        long skillVersion = skillRegistry.version();
         // Index models by id
         for (var m : config.models()) {
             modelDefs.put(m.id(), m);
         }
+        var built = new HashMap<String, AgentBuild>();
         for (var def : config.agents().list()) {
             var modelDef = resolveModelDef(def);
             validateConfig(def, modelDef);
-            var agent = buildAgent(def, modelDef);
-            agents.put(def.id(), agent);
+            built.put(def.id(), build(def, modelDef));
             agentDefs.put(def.id(), def);
+            compactions.put(def.id(), CompactionPipeline.of(def.compaction(), modelDef.contextTokens(),
+                    new LlmSummarizer(summaryLlmFor(def, modelDef))));
+            if (def.responseCache() != null) {
+                responseCaches.put(def.id(), buildResponseCache(def, metrics));
+            }
         }
+        this.agents = Map.copyOf(built);
+        modelClients.warmUp(modelDefs.values());
+        skillRegistry.addChangeListener(this::onSkillsChanged);
+        // Skills that changed while the agents above were being built
+        if (skillRegistry.version() != skillVersion) scheduleRebuild(null);
         log.info("AgentRegistry initialized: {} agent(s), {} model(s) registered", agents.size(), modelDefs.size());
     }
 
     private JClawConfig.ModelDef resolveModelDef(JClawConfig.AgentDef def) {
-        var modelDef = modelDefs.get(def.modelId());
+        return resolveModelDef(def.id(), def.modelId());
+    }
+
+    private JClawConfig.ModelDef resolveModelDef(String agentId, String modelId) {
+        var modelDef = modelDefs.get(modelId);
         if (modelDef == null) {
             throw new IllegalStateException(
-                    "Agent '%s': references unknown modelId '%s'".formatted(def.id(), def.modelId()));
+                    "Agent '%s': references unknown modelId '%s'".formatted(agentId, modelId));
         }
         return modelDef;
     }
 
+    private ResponseCache buildResponseCache(JClawConfig.AgentDef def, Metrics metrics) {
+        var cacheConfig = def.responseCache();
+        if (cacheConfig.maxEntries() <= 0 || cacheConfig.ttlSeconds() <= 0) {
+            throw new IllegalStateException(
+                    "Agent '%s': responseCache needs positive maxEntries and ttlSeconds".formatted(def.id()));
+        }
+        var embedder = cacheConfig.embeddingModelId() == null ? null : modelClients.embeddingModel(
+                resolveModelDef(def.id(), cacheConfig.embeddingModelId()));
+        log.info("Agent '{}': response cache enabled (maxEntries={}, ttl={}s, similarity={})", def.id(),
+                cacheConfig.maxEntries(), cacheConfig.ttlSeconds(), embedder != null ? cacheConfig.similarity() : "off");
+        return new ResponseCache(def.id(), def.instruction(), cacheConfig, embedder, metrics);
+    }
+
     /**
      * Validate agent config at startup. Fail fast on misconfiguration.
      */
@@ -70,6 +146,17 @@ public final class AgentRegistry {
         if (def.id() == null || def.id().isBlank()) {
             throw new IllegalStateException("Agent config missing 'id'");
         }
+        validateModel(def, modelDef);
+        for (var fallbackId : fallbackModelIds(def)) {
+            if (fallbackId.equals(def.modelId())) {
+                throw new IllegalStateException(
+                        "Agent '%s': fallbackModelIds repeats its modelId '%s'".formatted(def.id(), fallbackId));
+            }
+            validateModel(def, resolveModelDef(def.id(), fallbackId));
+        }
+    }
+
+    private void validateModel(JClawConfig.AgentDef def, JClawConfig.ModelDef modelDef) {
         String provider = modelDef.provider() != null ? modelDef.provider() : "gemini";
         switch (provider) {
             case "gemini" -> {
@@ -110,68 +197,92 @@ public final class AgentRegistry {
                 def.id(), modelDef.id(), provider, modelDef.model());
     }
 
+    private AgentBuild build(JClawConfig.AgentDef def, JClawConfig.ModelDef modelDef) {
+        return new AgentBuild(buildAgent(def, modelDef), buildVersions.incrementAndGet());
+    }
+
     private BaseAgent buildAgent(JClawConfig.AgentDef def, JClawConfig.ModelDef modelDef) {
         String model = modelDef.model();
-        BaseLlm resolvedLlm = resolveLlm(def, modelDef);
 
         String instruction = def.instruction() != null ? def.instruction() : "You are a helpful assistant.";
-        instruction = injectSkillCatalog(instruction, def);
+        List<SkillDef> skills = skillRegistry.resolveSkills(def.skills());
+        boolean retrieves = retrievesSkills(def, skills);
+        instruction = retrieves
+                ? instruction + "\n\n## Skills\n"
+                        + "Skills relevant to the current message are listed at the end of these instructions. "
+                        + "When a task matches a skill, load its full instructions with activateSkill before proceeding."
+                : injectSkillCatalog(instruction, skills);
+
+        var tools = new ArrayList<BaseTool>(List.of(ExecTool.create(), ReadFileTool.create(), WriteFileTool.create()));
+        if (!skills.isEmpty()) tools.add(ActivateSkillTool.create(skillRegistry, def.skills()));
 
         var builder = LlmAgent.builder()
                 .name(def.id())
                 .description("JClaw agent: " + def.id())
                 .instruction(instruction)
-                .tools(ExecTool.create(), ReadFileTool.create(), WriteFileTool.create());
-
-        if (resolvedLlm != null) {
-            builder.model(resolvedLlm);
-        } else {
-            builder.model(model);
+                .tools(tools)
+                .model(llmFor(def, modelDef));
+        if (retrieves) {
+            // Added per model request, so the hint never becomes part of the session's events
+            builder.beforeModelCallbackSync((context, request) -> {
+                String hint = context.userContent()
+                        .map(Content::text)
+                        .map(message -> skillHint(def.id(), message))
+                        .orElse(null);
+                if (hint != null) request.appendInstructions(List.of(hint));
+                return Optional.empty();
+            });
         }
 
         log.info("Built agent '{}' with modelId={}, model={}", def.id(), modelDef.id(), model);
         return builder.build();
     }
 
-    private BaseLlm resolveLlm(JClawConfig.AgentDef def, JClawConfig.ModelDef modelDef) {
-        String provider = modelDef.provider() != null ? modelDef.provider() : "gemini";
-        String model = modelDef.model();
-        String apiKey = resolveApiKey(modelDef);
-        String baseUrl = modelDef.baseUrl();
+    /**
+     * The agent's model, or its models behind a {@link FailoverLlm} when it has fallbacks. The
+     * failover wrapper outlives rebuilds so its latency history is kept.
+     */
+    private BaseLlm llmFor(JClawConfig.AgentDef def, JClawConfig.ModelDef modelDef) {
+        var fallbacks = fallbackModelIds(def);
+        if (fallbacks.isEmpty()) return modelClients.get(modelDef);
+        return failovers.computeIfAbsent(def.id(), id -> {
+            var ids = new ArrayList<String>();
+            ids.add(modelDef.id());
+            ids.addAll(fallbacks);
+            var llms = ids.stream().map(m -> modelClients.get(resolveModelDef(id, m))).toList();
+            return new FailoverLlm(id, ids, llms,
+                    def.failover() != null ? def.failover() : new JClawConfig.FailoverConfig(), metrics);
+        });
+    }
 
-        return switch (provider) {
-            case "gemini" -> {
-                log.info("Agent '{}': using Gemini (native), model={}", def.id(), model);
-                yield null;
-            }
-            case "ollama" -> {
-                log.info("Agent '{}': using Ollama at {}, model={}", def.id(), baseUrl, model);
-                yield new LangChain4j(
-                        OllamaChatModel.builder().modelName(model).baseUrl(baseUrl).build());
-            }
-            case "anthropic" -> {
-                log.info("Agent '{}': using Anthropic at {}, model={}", def.id(), baseUrl, model);
-                yield new LangChain4j(
-                        AnthropicChatModel.builder().apiKey(apiKey).modelName(model).baseUrl(baseUrl).build(),
-                        model);
-            }
-            case "openai" -> {
-                log.info("Agent '{}': using OpenAI-compatible at {}, model={}", def.id(), baseUrl, model);
-                yield new LangChain4j(
-                        OpenAiChatModel.builder().apiKey(apiKey).modelName(model).baseUrl(baseUrl).build());
-            }
-            default -> throw new IllegalStateException(
-                    "Model '%s': unknown provider '%s'".formatted(modelDef.id(), provider));
-        };
+    /**
+     * The model compaction summaries run on: the agent's models as in {@link #llmFor}, through
+     * their background clients and without hedging.
+     */
+    private BaseLlm summaryLlmFor(JClawConfig.AgentDef def, JClawConfig.ModelDef modelDef) {
+        var fallbacks = fallbackModelIds(def);
+        if (fallbacks.isEmpty()) return modelClients.background(modelDef);
+        var ids = new ArrayList<String>();
+        ids.add(modelDef.id());
+        ids.addAll(fallbacks);
+        var llms = ids.stream().map(m -> modelClients.background(resolveModelDef(def.id(), m))).toList();
+        var failover = def.failover() != null ? def.failover() : new JClawConfig.FailoverConfig();
+        return new FailoverLlm(def.id(), ids, llms,
+                new JClawConfig.FailoverConfig(failover.attemptTimeoutSeconds(), false, failover.hedgeDelayMillis()),
+                metrics);
     }
 
-    private String resolveApiKey(JClawConfig.ModelDef modelDef) {
-        if (modelDef.apiKeyEnvVar() == null || modelDef.apiKeyEnvVar().isBlank()) return null;
-        return System.getenv(modelDef.apiKeyEnvVar());
+    private static List<String> fallbackModelIds(JClawConfig.AgentDef def) {
+        return def.fallbackModelIds() != null ? def.fallbackModelIds() : List.of();
     }
 
     public BaseAgent getAgent(String agentId) {
-        checkSkillVersion();
+        var build = getBuild(agentId);
+        return build != null ? build.agent() : null;
+    }
+
+    /** The current build of an agent, or null for an unknown agent. */
+    public AgentBuild getBuild(String agentId) {
         return agents.get(agentId);
     }
 
@@ -183,37 +294,122 @@ public final class AgentRegistry {
         return agents.containsKey(agentId);
     }
 
+    /**
+     * The skills most relevant to a user message, as text to append to the system instruction
+     * of the turn's model requests, for agents with more skills than their {@code skillsTopK};
+     * null for other agents or when none match. It follows the agent's fixed instruction, so
+     * the part of the prompt before it is unchanged from turn to turn.
+     */
+    private String skillHint(String agentId, String message) {
+        var def = agentDefs.get(agentId);
+        if (def == null) return null;
+        List<SkillDef> skills = skillRegistry.resolveSkills(def.skills());
+        if (!retrievesSkills(def, skills)) return null;
+        var relevant = skillIndex.search(message, skills, def.skillsTopK());
+        if (relevant.isEmpty()) return null;
+        return relevant.stream()
+                .map(s -> "- %s: %s".formatted(s.name(), normalize(s.description())))
+                .collect(Collectors.joining("\n", "[Relevant skills]\n", ""));
+    }
+
+    private static boolean retrievesSkills(JClawConfig.AgentDef def, List<SkillDef> skills) {
+        return def.skillsTopK() > 0 && skills.size() > def.skillsTopK();
+    }
+
+    /** Context compaction pipeline for an agent, built from its model's {@code contextTokens}. */
+    public CompactionPipeline getCompaction(String agentId) {
+        return compactions.get(agentId);
+    }
+
+    /** Reply cache of an agent, or null if the agent has none. */
+    ResponseCache getResponseCache(String agentId) {
+        return responseCaches.get(agentId);
+    }
+
     // ── Skills integration ──────────────────────────────────────────────
 
+    private void onSkillsChanged(Set<String> changed) {
+        log.info("Skills changed: {}", changed);
+        scheduleRebuild(changed);
+    }
+
     /**
-     * If skills have changed since last build, rebuild all agents.
+     * Queue a rebuild for agents using any of {@code changed} (null: all agents). Changes that
+     * arrive while a rebuild is queued are coalesced into it.
      */
-    private void checkSkillVersion() {
-        long current = skillRegistry.version();
-        if (current != lastSkillVersion) {
-            log.info("Skills changed (version {} → {}), rebuilding agents...", lastSkillVersion, current);
-            lastSkillVersion = current;
-            for (var entry : agentDefs.entrySet()) {
-                var modelDef = resolveModelDef(entry.getValue());
-                agents.put(entry.getKey(), buildAgent(entry.getValue(), modelDef));
+    private void scheduleRebuild(Set<String> changed) {
+        synchronized (pendingSkillChanges) {
+            if (changed == null) rebuildAll = true;
+            else pendingSkillChanges.addAll(changed);
+            if (rebuildScheduled) return;
+            rebuildScheduled = true;
+        }
+        rebuilder.execute(this::rebuildAffected);
+    }
+
+    private void rebuildAffected() {
+        Set<String> changed;
+        boolean all;
+        synchronized (pendingSkillChanges) {
+            changed = Set.copyOf(pendingSkillChanges);
+            all = rebuildAll;
+            pendingSkillChanges.clear();
+            rebuildAll = false;
+            rebuildScheduled = false;
+        }
+        long start = System.nanoTime();
+        var next = new HashMap<>(agents);
+        int count = 0;
+        for (var def : agentDefs.values()) {
+            if (!all && !usesAny(def, changed)) continue;
+            try {
+                next.put(def.id(), build(def, resolveModelDef(def)));
+                count++;
+            } catch (RuntimeException e) {
+                rebuildFailures.increment();
+                log.error("Rebuild of agent '{}' failed, keeping previous build: {}", def.id(), e.getMessage());
             }
         }
+        if (count == 0) return;
+        agents = Map.copyOf(next);
+        long elapsed = System.nanoTime() - start;
+        rebuilds.add(count);
+        rebuildNanos.add(elapsed);
+        log.info("Rebuilt {} agent(s) in {} ms", count, TimeUnit.NANOSECONDS.toMillis(elapsed));
+    }
+
+    /** Whether an agent's skill selection includes any of the given skill names. */
+    private static boolean usesAny(JClawConfig.AgentDef def, Set<String> skills) {
+        var selected = def.skills();
+        if (selected == null || selected.isEmpty() || selected.contains("all")) return true;
+        for (var name : selected) {
+            if (skills.contains(name)) return true;
+        }
+        return false;
     }
 
     /**
      * Append available skills catalog to the agent instruction.
+     *
+     * <p>Instruction and catalog form the fixed start of every prompt, which providers cache
+     * and bill at a discount only while it stays byte-identical. So skills are listed by name
+     * with normalized descriptions, and a rebuild with unchanged skills yields the same text.
      */
-    private String injectSkillCatalog(String instruction, JClawConfig.AgentDef def) {
-        List<SkillDef> available = skillRegistry.resolveSkills(def.skills());
+    private static String injectSkillCatalog(String instruction, List<SkillDef> available) {
         if (available.isEmpty()) return instruction;
 
         String catalog = available.stream()
-                .map(s -> "- %s: %s".formatted(s.name(), s.description()))
+                .sorted(Comparator.comparing(SkillDef::name))
+                .map(s -> "- %s: %s".formatted(s.name(), normalize(s.description())))
                 .collect(Collectors.joining("\n"));
 
         return instruction + "\n\n## Available Skills\n"
                 + "You have access to the following skills. "
-                + "When a task matches a skill, read its full instructions from the skill directory before proceeding.\n"
+                + "When a task matches a skill, load its full instructions with activateSkill before proceeding.\n"
                 + catalog;
     }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.strip().replaceAll("\\s+", " ");
+    }
 }
@@ -2,10 +2,15 @@ package com.jclaw.agent;
 
 import com.google.adk.agents.RunConfig;
 import com.google.adk.events.Event;
-import com.google.adk.runner.InMemoryRunner;
+import com.google.adk.sessions.InMemorySessionService;
 import com.google.adk.sessions.Session;
 import com.google.genai.types.Content;
 import com.google.genai.types.Part;
+import com.jclaw.compaction.Compactor;
+import com.jclaw.config.JClawConfig;
+import com.jclaw.llm.ModelLimiter;
+import com.jclaw.metrics.Metrics;
+import com.jclaw.metrics.TokenUsage;
 import com.jclaw.session.SessionEntry;
 import com.jclaw.session.SessionManager;
 import io.reactivex.rxjava3.core.Flowable;
@@ -14,11 +19,16 @@ import org.slf4j.LoggerFactory;
 
 import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
  * Orchestrates agent runs with concurrency control.
- * Uses virtual threads + per-session semaphore (serial within session)
- * and a global semaphore (bounded total concurrency).
+ * Turns pass through an {@link AdmissionController} (serial within session, bounded total
+ * concurrency, bounded wait queues) and then run on virtual threads, each on the runner of
+ * its agent's current build (see {@link RunnerCache}); each model call within a turn holds a
+ * permit of its model's {@link ModelLimiter} while it runs. Agents with a
+ * {@link ResponseCache} answer cache hits before admission, without taking a global slot.
  */
 public final class AgentRunner {
 
@@ -28,18 +38,36 @@ public final class AgentRunner {
     private final SessionManager sessionManager;
     private final long agentTimeoutSeconds;
     private final long shutdownTimeoutSeconds;
-    private final Semaphore globalConcurrency;
-    private final Map<String, Semaphore> sessionLocks = new ConcurrentHashMap<>();
-    private final Map<String, InMemoryRunner> runners = new ConcurrentHashMap<>();
+    private final AdmissionController admission;
+    private final Compactor compactor;
+    private final InMemorySessionService adkSessions = new InMemorySessionService();
+    private final RunnerCache runners;
+    /** Per-agent sessionKey → ADK session mapping. */
+    private final Map<String, AdkSessionBridge> bridges = new ConcurrentHashMap<>();
     private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Metrics metrics;
+    /** Per-agent token counters, created on an agent's first turn. */
+    private final Map<String, TokenUsage> tokenUsage = new ConcurrentHashMap<>();
 
     public AgentRunner(AgentRegistry registry, SessionManager sessionManager,
-                       int maxConcurrent, int agentTimeoutSeconds, int shutdownTimeoutSeconds) {
+                       JClawConfig.AgentDefaults defaults, int agentTimeoutSeconds, int shutdownTimeoutSeconds,
+                       Metrics metrics) {
         this.registry = registry;
         this.sessionManager = sessionManager;
         this.agentTimeoutSeconds = agentTimeoutSeconds;
         this.shutdownTimeoutSeconds = shutdownTimeoutSeconds;
-        this.globalConcurrency = new Semaphore(maxConcurrent);
+        this.admission = new AdmissionController(defaults.maxConcurrent(), defaults.maxQueued(),
+                defaults.maxQueuedPerAgent(), defaults.maxQueuedPerSession());
+        this.metrics = metrics;
+        this.compactor = new Compactor(metrics);
+        this.runners = new RunnerCache(registry, adkSessions, metrics);
+        // ADK sessions follow the resident transcripts: evicted here, reseeded on the next turn.
+        // A transcript can be evicted while its session has a turn running or waiting, so the
+        // ADK session is dropped only once the session is idle.
+        sessionManager.addEvictionListener(key -> admission.runWhenIdle(key, () -> {
+            bridges.values().forEach(b -> b.evict(key));
+            compactor.evict(key);
+        }));
     }
 
     /**
@@ -47,88 +75,237 @@ public final class AgentRunner {
      * Same session is serialized; different sessions run concurrently up to maxConcurrent.
      */
     public String run(String agentId, String sessionKey, String userMessage) {
-        var agent = registry.getAgent(agentId);
-        if (agent == null) {
-            return "[error] Unknown agent: " + agentId;
+        return run(agentId, sessionKey, userMessage, null);
+    }
+
+    /**
+     * Run an agent turn, forwarding reply fragments to {@code onPartial} as the model streams them.
+     * A null {@code onPartial} runs the turn without streaming. The full reply is returned either way.
+     */
+    public String run(String agentId, String sessionKey, String userMessage, Consumer<String> onPartial) {
+        try {
+            return runAsync(agentId, sessionKey, userMessage, onPartial).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof RuntimeException re) throw re;
+            throw new RuntimeException(cause.getMessage(), cause);
         }
+    }
 
-        // Per-session lock ensures serial execution within a session
-        var sessionLock = sessionLocks.computeIfAbsent(sessionKey, _ -> new Semaphore(1));
+    /**
+     * Admit and run an agent turn without blocking the caller. Waiting for a session or global
+     * slot holds no thread; the turn itself runs on a virtual thread once admitted.
+     * The future fails with {@link AgentBusyException} when a wait queue is full,
+     * and with a {@link TimeoutException} when the turn exceeds {@code agentTimeoutSeconds}.
+     */
+    public CompletableFuture<String> runAsync(String agentId, String sessionKey, String userMessage,
+                                              Consumer<String> onPartial) {
+        return runAsync(agentId, sessionKey, userMessage, onPartial, agentTimeoutSeconds);
+    }
 
-        sessionLock.acquireUninterruptibly();
+    /**
+     * {@link #runAsync(String, String, String, Consumer)} with its own turn timeout, for
+     * callers that do not hold a client waiting, such as background jobs.
+     */
+    public CompletableFuture<String> runAsync(String agentId, String sessionKey, String userMessage,
+                                              Consumer<String> onPartial, long timeoutSeconds) {
+        var agent = registry.getAgent(agentId);
+        if (agent == null) {
+            return CompletableFuture.completedFuture("[error] Unknown agent: " + agentId);
+        }
+        var cache = registry.getResponseCache(agentId);
+        if (cache == null) {
+            return admit(agentId, sessionKey, userMessage, onPartial, null, timeoutSeconds);
+        }
+        // The cache check may call an embedding model, so it runs off the caller's thread
+        var lookup = new AtomicReference<ResponseCache.Lookup>();
+        CompletableFuture<String> cached;
         try {
-            globalConcurrency.acquireUninterruptibly();
+            cached = CompletableFuture.supplyAsync(
+                    () -> replyFromCache(agentId, sessionKey, userMessage, onPartial, cache, lookup), executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new AgentBusyException("AgentRunner is shutting down"));
+        }
+        return cached.thenCompose(reply -> reply != null
+                ? CompletableFuture.completedFuture(reply)
+                : admit(agentId, sessionKey, userMessage, onPartial, lookup.get(), timeoutSeconds));
+    }
+
+    /**
+     * Wait for a session and gateway slot, then run the turn. On timeout the turn's thread is
+     * interrupted, which cancels its model call and so returns the call's model permit.
+     */
+    private CompletableFuture<String> admit(String agentId, String sessionKey, String userMessage,
+                                            Consumer<String> onPartial, ResponseCache.Lookup lookup,
+                                            long timeoutSeconds) {
+        return admission.admit(agentId, sessionKey).thenCompose(ticket -> {
+            var turn = new CompletableFuture<String>();
+            Future<?> task;
             try {
-                Future<String> future = executor.submit(() -> executeAgentTurn(agentId, sessionKey, userMessage));
-                try {
-                    return future.get(agentTimeoutSeconds, TimeUnit.SECONDS);
-                } catch (TimeoutException e) {
-                    future.cancel(true);
-                    log.error("Agent timeout after {}s: agent={}, session={}", agentTimeoutSeconds, agentId, sessionKey);
-                    throw new RuntimeException("Agent '%s' timed out after %ds".formatted(agentId, agentTimeoutSeconds));
-                } catch (ExecutionException e) {
-                    throw new RuntimeException(e.getCause() != null ? e.getCause().getMessage() : e.getMessage(), e);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    throw new RuntimeException("Agent execution interrupted", e);
+                task = executor.submit(() -> {
+                    try {
+                        turn.complete(executeAgentTurn(agentId, sessionKey, userMessage, onPartial, lookup));
+                    } catch (Throwable t) {
+                        turn.completeExceptionally(t);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                admission.release(ticket);
+                return CompletableFuture.failedFuture(new AgentBusyException("AgentRunner is shutting down"));
+            }
+            CompletableFuture.delayedExecutor(timeoutSeconds, TimeUnit.SECONDS).execute(() -> {
+                if (turn.completeExceptionally(new TimeoutException(
+                        "Agent '%s' timed out after %ds".formatted(agentId, timeoutSeconds)))) {
+                    task.cancel(true);
+                    log.error("Agent timeout after {}s: agent={}, session={}", timeoutSeconds, agentId, sessionKey);
                 }
-            } finally {
-                globalConcurrency.release();
+            });
+            turn.whenComplete((_, _) -> admission.release(ticket));
+            return turn;
+        });
+    }
+
+    /**
+     * Answer a turn from the agent's response cache, holding only the session (no global slot).
+     * Returns null on a miss, or when the session is busy; a cacheable miss leaves its cache
+     * coordinates in {@code lookup} so the turn can store its reply.
+     */
+    private String replyFromCache(String agentId, String sessionKey, String userMessage,
+                                  Consumer<String> onPartial, ResponseCache cache,
+                                  AtomicReference<ResponseCache.Lookup> lookup) {
+        var build = registry.getBuild(agentId);
+        if (build == null || !admission.tryClaimSession(sessionKey)) return null;
+        try {
+            var key = cache.lookup(build.version(),
+                    sessionManager.getHistory(sessionKey, cache.historyWindow()), userMessage);
+            if (key == null) return null;
+            String reply = cache.get(key);
+            if (reply == null) {
+                lookup.set(key);
+                return null;
             }
+            var user = SessionEntry.user(userMessage);
+            var assistant = SessionEntry.assistant(reply);
+            sessionManager.append(sessionKey, user);
+            sessionManager.append(sessionKey, assistant);
+            sessionManager.commit(sessionKey);
+            bridges.computeIfAbsent(agentId, this::newBridge).record(sessionKey, user, assistant);
+            if (onPartial != null) onPartial.accept(reply);
+            log.debug("Agent turn served from cache: agent={}, session={}", agentId, sessionKey);
+            return reply;
         } finally {
-            sessionLock.release();
+            admission.releaseSession(sessionKey);
         }
     }
 
-    private String executeAgentTurn(String agentId, String sessionKey, String userMessage) {
-        try {
-            // Record user message
-            sessionManager.append(sessionKey, SessionEntry.user(userMessage));
+    /** Number of turns currently running. */
+    public int runningTurns() {
+        return admission.running();
+    }
 
-            var runner = runners.computeIfAbsent(agentId, id -> {
-                var agent = registry.getAgent(id);
-                return new InMemoryRunner(agent);
-            });
+    /** Number of admitted turns waiting for a session or global slot. */
+    public int queuedTurns() {
+        return admission.queued();
+    }
+
+    private String executeAgentTurn(String agentId, String sessionKey, String userMessage,
+                                    Consumer<String> onPartial, ResponseCache.Lookup cacheLookup) {
+        // The lease pins this agent build's runner until the turn ends, even if it is rebuilt meanwhile
+        try (var lease = runners.acquire(agentId)) {
+            if (lease == null) throw new IllegalStateException("Unknown agent: " + agentId);
+            var bridge = bridges.computeIfAbsent(agentId, this::newBridge);
+            var cache = registry.getResponseCache(agentId);
+            if (cache != null) {
+                // Recomputed under the session's turn, which may have been preceded by another one
+                var key = cache.lookup(lease.version(),
+                        sessionManager.getHistory(sessionKey, cache.historyWindow()), userMessage);
+                cacheLookup = key != null && cacheLookup != null && key.key.equals(cacheLookup.key) ? cacheLookup : key;
+            }
 
-            // Create or reuse ADK session (keyed by sessionKey as userId for simplicity)
-            Session session = runner.sessionService()
-                    .createSession(runner.appName(), sessionKey)
-                    .blockingGet();
+            // Reuse the ADK session across turns; (re)seed it from the transcript before this turn is recorded
+            Session session = bridge.resolve(sessionKey);
+
+            // Record user message
+            sessionManager.append(sessionKey, SessionEntry.user(userMessage));
 
             Content userMsg = Content.fromParts(Part.fromText(userMessage));
-            RunConfig runConfig = RunConfig.builder().build();
+            RunConfig runConfig = RunConfig.builder()
+                    .setStreamingMode(onPartial != null ? RunConfig.StreamingMode.SSE : RunConfig.StreamingMode.NONE)
+                    .build();
 
-            Flowable<Event> events = runner.runAsync(session.userId(), session.id(), userMsg, runConfig);
+            Flowable<Event> events = lease.runner().runAsync(session.userId(), session.id(), userMsg, runConfig);
 
-            // Collect final response
+            // Collect final response; in streaming mode forward fragments as they arrive.
+            // Gemini emits partial chunks followed by an aggregated final event, while the
+            // LangChain4j bridge emits each chunk as a final event — forward whichever comes first.
             var responseBuilder = new StringBuilder();
+            boolean[] streamedPartials = {false};
+            boolean[] usedTools = {false};
+            // Prompt, cached prompt and output tokens over the turn's model calls
+            long[] tokens = new long[3];
             events.blockingForEach(event -> {
-                if (event.finalResponse()) {
-                    String text = event.stringifyContent();
-                    if (text != null && !text.isBlank()) {
-                        responseBuilder.append(text);
+                if (!event.functionCalls().isEmpty()) usedTools[0] = true;
+                if (!event.partial().orElse(false)) {
+                    event.usageMetadata().ifPresent(u -> {
+                        tokens[0] += u.promptTokenCount().orElse(0);
+                        tokens[1] += u.cachedContentTokenCount().orElse(0);
+                        tokens[2] += u.candidatesTokenCount().orElse(0);
+                    });
+                }
+                for (var output : event.functionResponses()) {
+                    sessionManager.append(sessionKey, SessionEntry.tool(
+                            String.valueOf(output.response().orElse(Map.of())),
+                            output.id().orElse(null), output.name().orElse(null)));
+                }
+                String text = event.stringifyContent();
+                if (text == null || text.isEmpty()) return;
+                if (event.partial().orElse(false)) {
+                    if (onPartial != null) {
+                        onPartial.accept(text);
+                        streamedPartials[0] = true;
+                    }
+                } else if (event.finalResponse()) {
+                    responseBuilder.append(text);
+                    if (onPartial != null && !streamedPartials[0]) {
+                        onPartial.accept(text);
                     }
+                    streamedPartials[0] = false;
                 }
             });
 
             String response = responseBuilder.toString().trim();
             if (response.isEmpty()) {
                 response = "[no response from agent]";
+            } else if (cacheLookup != null && !usedTools[0]) {
+                // A replay would skip the tools' side effects, so only tool-free replies are cached
+                cache.put(cacheLookup, response);
             }
 
             // Record assistant response
             sessionManager.append(sessionKey, SessionEntry.assistant(response));
+            sessionManager.commit(sessionKey);
+            bridge.afterTurn(sessionKey);
 
-            log.debug("Agent turn complete: agent={}, session={}, responseLen={}",
-                    agentId, sessionKey, response.length());
+            tokenUsage.computeIfAbsent(agentId, id -> new TokenUsage(metrics, "agent.tokens", id))
+                    .add(tokens[0], tokens[1], tokens[2]);
+            log.info("Agent turn complete: agent={}, build={}, session={}, responseLen={}, promptTokens={}, cachedTokens={}, outputTokens={}",
+                    agentId, lease.version(), sessionKey, response.length(), tokens[0], tokens[1], tokens[2]);
 
             return response;
+        } catch (RejectedExecutionException e) {
+            // The model's own queue is full: busy, like a full admission queue
+            log.warn("Agent turn rejected: agent={}, session={}, error={}", agentId, sessionKey, e.getMessage());
+            throw new AgentBusyException(e.getMessage());
         } catch (Exception e) {
             log.error("Agent execution failed: agent={}, session={}, error={}", agentId, sessionKey, e.getMessage(), e);
             throw new RuntimeException("Agent '%s' failed: %s".formatted(agentId, e.getMessage()), e);
         }
     }
 
+    private AdkSessionBridge newBridge(String agentId) {
+        return new AdkSessionBridge(agentId, adkSessions, sessionManager, compactor, registry.getCompaction(agentId));
+    }
+
     /**
      * Gracefully shut down the executor, waiting for in-flight tasks.
      */
@@ -144,6 +321,7 @@ public final class AgentRunner {
             executor.shutdownNow();
             Thread.currentThread().interrupt();
         }
+        compactor.close();
         log.info("AgentRunner shut down complete");
     }
 }
@@ -0,0 +1,249 @@
+package com.jclaw.agent;
+
+import com.jclaw.config.JClawConfig;
+import com.jclaw.metrics.Metrics;
+import com.jclaw.session.SessionEntry;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Opt-in cache of one agent's replies, consulted before a turn is admitted.
+ *
+ * <p>Two tiers share one LRU store bounded by {@code maxEntries}, with a per-entry TTL:
+ * <ul>
+ *   <li>exact: keyed by (agent id, instruction hash, agent build version, normalized context,
+ *       normalized message);</li>
+ *   <li>similarity (only with an {@code embeddingModelId}): within the same (agent, instruction,
+ *       build, context) scope, the entry whose message embedding is closest by cosine similarity,
+ *       if it reaches {@code similarity}. Each scope is searched brute-force; scopes stay small
+ *       because only short contexts are cached.</li>
+ * </ul>
+ * Only turns whose session history has at most {@code contextEntries} entries are looked up or
+ * stored, and turns that called tools are never stored, since replaying them would skip the
+ * tools' side effects. Including the build version drops every entry of an agent once it is
+ * rebuilt with different skills.
+ */
+final class ResponseCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ResponseCache.class);
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final String agentId;
+    private final String instructionHash;
+    private final JClawConfig.ResponseCacheConfig config;
+    /** Null when only exact matches are served. */
+    private final EmbeddingModel embedder;
+    private final long ttlNanos;
+
+    /** Access-ordered; guarded by itself, as is {@link #byScope}. */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, List<Entry>> byScope = new HashMap<>();
+
+    private final LongAdder hits;
+    private final LongAdder similarHits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+    private final LongAdder embedFailures;
+
+    /** A stored reply. */
+    private record Entry(String key, String scope, String response, float[] vector, long expiresAt) {}
+
+    /** Cache coordinates of one turn, computed once and reused to store the reply after a miss. */
+    static final class Lookup {
+        final String scope;
+        final String key;
+        final String message;
+        private float[] vector;
+
+        private Lookup(String scope, String key, String message) {
+            this.scope = scope;
+            this.key = key;
+            this.message = message;
+        }
+    }
+
+    ResponseCache(String agentId, String instruction, JClawConfig.ResponseCacheConfig config,
+                  EmbeddingModel embedder, Metrics metrics) {
+        this.agentId = agentId;
+        this.instructionHash = HexFormat.of().formatHex(sha256().digest(
+                String.valueOf(instruction).getBytes(StandardCharsets.UTF_8)));
+        this.config = config;
+        this.embedder = embedder;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(config.ttlSeconds());
+        this.hits = metrics.counter("responseCache.hits");
+        this.similarHits = metrics.counter("responseCache.similarHits");
+        this.misses = metrics.counter("responseCache.misses");
+        this.evictions = metrics.counter("responseCache.evictions");
+        this.embedFailures = metrics.counter("responseCache.embedFailures");
+        metrics.gauge("responseCache.entries." + agentId, this::size);
+    }
+
+    /** History entries needed to decide {@link #lookup}: one more than the cacheable maximum. */
+    int historyWindow() {
+        return config.contextEntries() + 1;
+    }
+
+    /**
+     * Cache coordinates for a turn, or null if the turn is not cacheable.
+     *
+     * @param history at least the last {@link #historyWindow()} entries of the session
+     */
+    Lookup lookup(long buildVersion, List<SessionEntry> history, String message) {
+        if (history.size() > config.contextEntries()) return null;
+        var digest = sha256();
+        update(digest, agentId);
+        update(digest, instructionHash);
+        update(digest, Long.toString(buildVersion));
+        for (var entry : history) {
+            update(digest, entry.role());
+            update(digest, normalize(entry.content()));
+        }
+        String scope = HexFormat.of().formatHex(digest.digest());
+        String normalized = normalize(message);
+        update(digest, scope);
+        update(digest, normalized);
+        return new Lookup(scope, HexFormat.of().formatHex(digest.digest()), normalized);
+    }
+
+    /** The cached reply for a turn, or null on a miss. May call the embedding model. */
+    String get(Lookup lookup) {
+        long now = System.nanoTime();
+        List<Entry> candidates;
+        synchronized (entries) {
+            var entry = entries.get(lookup.key);
+            if (entry != null && now - entry.expiresAt < 0) {
+                hits.increment();
+                return entry.response;
+            }
+            if (entry != null) remove(entry);
+            var scoped = byScope.get(lookup.scope);
+            candidates = embedder == null || scoped == null ? List.of() : List.copyOf(scoped);
+        }
+        if (!candidates.isEmpty() && embed(lookup) != null) {
+            Entry best = null;
+            double bestScore = config.similarity();
+            for (var candidate : candidates) {
+                if (candidate.vector == null || now - candidate.expiresAt >= 0) continue;
+                double score = cosine(lookup.vector, candidate.vector);
+                if (score >= bestScore) {
+                    best = candidate;
+                    bestScore = score;
+                }
+            }
+            if (best != null) {
+                synchronized (entries) {
+                    entries.get(best.key); // refresh recency
+                }
+                similarHits.increment();
+                log.debug("Response cache similarity hit: agent={}, score={}", agentId, bestScore);
+                return best.response;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /** Store the reply of a turn that missed. */
+    void put(Lookup lookup, String response) {
+        float[] vector = embedder != null ? embed(lookup) : null;
+        var entry = new Entry(lookup.key, lookup.scope, response, vector, System.nanoTime() + ttlNanos);
+        synchronized (entries) {
+            var previous = entries.put(entry.key, entry);
+            if (previous != null) byScope.get(previous.scope).remove(previous);
+            byScope.computeIfAbsent(entry.scope, _ -> new ArrayList<>()).add(entry);
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (entries.size() > config.maxEntries() && eldest.hasNext()) {
+                var evicted = eldest.next();
+                eldest.remove();
+                unindex(evicted);
+                evictions.increment();
+            }
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /** Caller holds the lock. */
+    private void remove(Entry entry) {
+        entries.remove(entry.key);
+        unindex(entry);
+    }
+
+    /** Caller holds the lock. */
+    private void unindex(Entry entry) {
+        var scoped = byScope.get(entry.scope);
+        if (scoped == null) return;
+        scoped.remove(entry);
+        if (scoped.isEmpty()) byScope.remove(entry.scope);
+    }
+
+    /** Embed the message once per lookup; null if the embedding model failed. */
+    private float[] embed(Lookup lookup) {
+        if (lookup.vector == null) {
+            try {
+                lookup.vector = embedder.embed(lookup.message).content().vector();
+            } catch (RuntimeException e) {
+                embedFailures.increment();
+                log.debug("Response cache embedding failed: agent={}, error={}", agentId, e.getMessage());
+            }
+        }
+        return lookup.vector;
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        if (a.length != b.length) return -1;
+        double dot = 0, na = 0, nb = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            na += a[i] * a[i];
+            nb += b[i] * b[i];
+        }
+        return na == 0 || nb == 0 ? -1 : dot / Math.sqrt(na * nb);
+    }
+
+    /** Unicode-compatible, case-insensitive, whitespace-collapsed form of a message. */
+    private static String normalize(String text) {
+        if (text == null) return "";
+        String s = Normalizer.normalize(text, Normalizer.Form.NFKC).strip().toLowerCase(Locale.ROOT);
+        return WHITESPACE.matcher(s).replaceAll(" ");
+    }
+
+    /** Length-prefixed, so field boundaries cannot collide. */
+    private static void update(MessageDigest digest, String field) {
+        byte[] bytes = field != null ? field.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        digest.update((byte) (bytes.length >>> 24));
+        digest.update((byte) (bytes.length >>> 16));
+        digest.update((byte) (bytes.length >>> 8));
+        digest.update((byte) bytes.length);
+        digest.update(bytes);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.jclaw.agent;
+
+import com.google.adk.artifacts.BaseArtifactService;
+import com.google.adk.artifacts.InMemoryArtifactService;
+import com.google.adk.memory.BaseMemoryService;
+import com.google.adk.memory.InMemoryMemoryService;
+import com.google.adk.runner.Runner;
+import com.google.adk.sessions.BaseSessionService;
+import com.jclaw.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ADK runners keyed by (agentId, agent build version).
+ *
+ * <p>When {@link AgentRegistry} rebuilds an agent, the next {@link #acquire} builds a runner for
+ * the new version and swaps it in atomically; turns already running keep their lease on the old
+ * runner, which is released once the last of them finishes. All runners share one session,
+ * artifact and memory service (app name = agent id), so ADK sessions survive a rebuild.
+ */
+final class RunnerCache {
+
+    private static final Logger log = LoggerFactory.getLogger(RunnerCache.class);
+
+    private final BaseSessionService sessionService;
+    private final BaseArtifactService artifactService = new InMemoryArtifactService();
+    private final BaseMemoryService memoryService = new InMemoryMemoryService();
+    private final AgentRegistry registry;
+    private final Map<String, Entry> current = new ConcurrentHashMap<>();
+    private final AtomicInteger retired = new AtomicInteger();
+
+    private final LongAdder swaps;
+    private final LongAdder released;
+
+    RunnerCache(AgentRegistry registry, BaseSessionService sessionService, Metrics metrics) {
+        this.registry = registry;
+        this.sessionService = sessionService;
+        this.swaps = metrics.counter("runner.swaps");
+        this.released = metrics.counter("runner.released");
+        metrics.gauge("runner.draining", retired::get);
+    }
+
+    /** A runner in use by one turn. Close it when the turn ends. */
+    static final class Lease implements AutoCloseable {
+        private final Entry entry;
+        private boolean closed;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        Runner runner() {
+            return entry.runner;
+        }
+
+        long version() {
+            return entry.version;
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            entry.release();
+        }
+    }
+
+    private final class Entry {
+        final String agentId;
+        final long version;
+        final Runner runner;
+        /** One reference for being current, plus one per lease; released at zero. */
+        final AtomicInteger refs = new AtomicInteger(1);
+
+        Entry(String agentId, AgentRegistry.AgentBuild build) {
+            this.agentId = agentId;
+            this.version = build.version();
+            this.runner = Runner.builder()
+                    .agent(build.agent())
+                    .appName(agentId)
+                    .artifactService(artifactService)
+                    .sessionService(sessionService)
+                    .memoryService(memoryService)
+                    .build();
+        }
+
+        boolean retain() {
+            int n;
+            do {
+                n = refs.get();
+                if (n == 0) return false;
+            } while (!refs.compareAndSet(n, n + 1));
+            return true;
+        }
+
+        void release() {
+            if (refs.decrementAndGet() == 0) {
+                retired.decrementAndGet();
+                released.increment();
+                log.info("Released runner for agent '{}' (build {})", agentId, version);
+            }
+        }
+    }
+
+    /**
+     * Lease the runner for the agent's current build, swapping in a new runner if the agent has
+     * been rebuilt. Returns null for an unknown agent.
+     */
+    Lease acquire(String agentId) {
+        while (true) {
+            var build = registry.getBuild(agentId);
+            if (build == null) return null;
+            Entry[] replaced = {null};
+            var entry = current.compute(agentId, (_, existing) -> {
+                if (existing != null && existing.version >= build.version()) return existing;
+                replaced[0] = existing;
+                return new Entry(agentId, build);
+            });
+            if (replaced[0] != null) {
+                swaps.increment();
+                retired.incrementAndGet();
+                log.info("Swapped runner for agent '{}': build {} → {}", agentId, replaced[0].version, entry.version);
+                // Drop the "current" reference; in-flight turns keep the old runner until they finish
+                replaced[0].release();
+            }
+            if (entry.retain()) return new Lease(entry);
+            // Lost a race with a newer swap that already released this entry; try again
+        }
+    }
+}
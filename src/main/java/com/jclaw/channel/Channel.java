@@ -1,5 +1,8 @@
 package com.jclaw.channel;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
 /**
  * A message channel — the surface through which users interact with agents.
  */
@@ -27,4 +30,42 @@ public interface Channel {
          */
         String onMessage(String senderId, String text);
     }
+
+    /**
+     * Streaming variant of {@link MessageHandler}: partial reply text is pushed to
+     * {@code onPartial} as the agent produces it, and the full reply is still returned.
+     * Channels that cannot stream simply call the non-streaming overload.
+     */
+    @FunctionalInterface
+    interface StreamingMessageHandler extends MessageHandler {
+        /**
+         * Called when a message arrives on a streaming-capable endpoint.
+         * @param senderId  who sent it
+         * @param text      message content
+         * @param onPartial receives reply fragments in order, as they arrive
+         * @return agent's full reply text
+         */
+        String onMessage(String senderId, String text, Consumer<String> onPartial);
+
+        @Override
+        default String onMessage(String senderId, String text) {
+            return onMessage(senderId, text, null);
+        }
+    }
+
+    /**
+     * Handler that can also start a turn without waiting for it, for channels that hand the
+     * reply over later (e.g. as a job to poll). Unlike the blocking variants, the turn does not
+     * occupy a caller thread while it waits for admission or runs.
+     */
+    interface AsyncMessageHandler extends StreamingMessageHandler {
+        /**
+         * Start a turn for a message and return at once.
+         * @param senderId who sent it
+         * @param text     message content
+         * @return completes with the agent's reply; fails with a
+         *         {@link java.util.concurrent.RejectedExecutionException} when the agent is busy
+         */
+        CompletableFuture<String> submit(String senderId, String text);
+    }
 }
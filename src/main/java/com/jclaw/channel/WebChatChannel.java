@@ -1,19 +1,39 @@
 package com.jclaw.channel;
 
-import com.sun.net.httpserver.HttpExchange;
-import com.sun.net.httpserver.HttpServer;
+import com.jclaw.config.JClawConfig;
+import com.jclaw.http.Exchange;
+import com.jclaw.http.HttpTransport;
+import com.jclaw.http.StaticAssets;
+import com.jclaw.job.JobStore;
+import com.jclaw.json.JsonException;
+import com.jclaw.json.JsonReader;
+import com.jclaw.json.JsonWriter;
+import com.jclaw.metrics.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.InetSocketAddress;
+import java.net.URI;
 import java.nio.charset.StandardCharsets;
-import java.util.concurrent.Executors;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Web-based chat channel — serves a browser UI and exposes a REST API.
- * Uses JDK built-in HttpServer, no extra dependencies.
+ * Runs on the {@link HttpTransport} chosen by {@code gateway.http}, no extra dependencies.
+ * {@code POST /api/chat} returns the whole reply as JSON; {@code POST /api/chat/stream}
+ * streams reply fragments as Server-Sent Events while the agent is still generating.
+ * {@code POST /api/chat?async=true} answers 202 with a job at once and runs the turn as a
+ * {@link JobStore} job, whose result is fetched with {@code GET /api/jobs/{id}} or posted to
+ * the request's {@code webhook}.
+ * Request bodies are parsed with {@link JsonReader} as they are read, and replies are encoded
+ * with {@link JsonWriter} straight to UTF-8. The chat page, and the files of a UI directory
+ * if one is configured, are {@link StaticAssets} prepared once at startup. {@code /ws} hands
+ * WebSocket connections to the {@link WebSocketChannel}, when one is configured; replies here
+ * are request-response, so {@link #send} has nowhere to push and pushes go through that channel.
  */
 public final class WebChatChannel implements Channel {
 
@@ -21,14 +41,33 @@ public final class WebChatChannel implements Channel {
 
     private final int port;
     private final String adminToken;
+    private final JClawConfig.HttpConfig http;
+    private final Path uiDir;
+    private final WebSocketChannel webSocket;
+    private final JClawConfig.JobsConfig jobsConfig;
+    private final Metrics metrics;
     private final Runnable shutdownHook;
-    private HttpServer server;
+    private HttpTransport server;
+    private StaticAssets assets;
+    private JobStore jobs;
     private MessageHandler handler;
     private volatile Thread blockedThread;
 
-    public WebChatChannel(int port, String adminToken, Runnable shutdownHook) {
+    /**
+     * @param uiDir directory of UI files served beside the built-in chat page, whose
+     *              {@code index.html} replaces the page; null for the built-in page only
+     * @param webSocket channel that {@code /ws} connections are handed to; null to refuse them
+     */
+    public WebChatChannel(int port, String adminToken, JClawConfig.HttpConfig http, Path uiDir,
+                          WebSocketChannel webSocket, JClawConfig.JobsConfig jobsConfig, Metrics metrics,
+                          Runnable shutdownHook) {
         this.port = port;
         this.adminToken = adminToken;
+        this.http = http;
+        this.uiDir = uiDir;
+        this.webSocket = webSocket;
+        this.jobsConfig = jobsConfig;
+        this.metrics = metrics;
         this.shutdownHook = shutdownHook;
     }
 
@@ -41,13 +80,13 @@ public final class WebChatChannel implements Channel {
     public void start(MessageHandler handler) {
         this.handler = handler;
         try {
-            server = HttpServer.create(new InetSocketAddress(port), 0);
-            server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
-            server.createContext("/", this::handlePage);
-            server.createContext("/api/chat", this::handleChat);
-            server.createContext("/api/shutdown", this::handleShutdown);
-            server.start();
-            log.info("WebChat channel started on http://localhost:{}", port);
+            assets = new StaticAssets();
+            assets.add("/index.html", CHAT_HTML.getBytes(StandardCharsets.UTF_8));
+            if (uiDir != null) assets.addDirectory(uiDir);
+            jobs = new JobStore(jobsConfig, metrics);
+            server = HttpTransport.create(port, http, metrics);
+            server.start(this::dispatch);
+            log.info("WebChat channel started on http://localhost:{} ({} transport)", port, http.transport());
             System.out.println("WebChat channel started on http://localhost:" + port);
 
             // Block the calling thread; stop() will interrupt to unblock
@@ -62,16 +101,17 @@ public final class WebChatChannel implements Channel {
 
     @Override
     public void send(String to, String message) {
-        // WebChat is request-response based; replies are returned inline via handleChat.
+        // WebChat is request-response based; replies are returned inline, pushes go over /ws
         log.debug("WebChat send (no-op push): to={}, msg={}", to, message);
     }
 
     @Override
     public void stop() {
         if (server != null) {
-            server.stop(1);
+            server.stop();
             log.info("WebChat channel stopped");
         }
+        if (jobs != null) jobs.close();
         if (blockedThread != null) {
             blockedThread.interrupt();
         }
@@ -79,63 +119,161 @@ public final class WebChatChannel implements Channel {
 
     // ── HTTP handlers ──────────────────────────────────────────────────
 
-    private void handlePage(HttpExchange ex) throws IOException {
-        if (!"/".equals(ex.getRequestURI().getPath())) {
-            respond(ex, 404, "text/plain", "Not Found");
-            return;
+    private void dispatch(Exchange ex) throws IOException {
+        switch (ex.path()) {
+            case "/api/chat" -> handleChat(ex);
+            case "/api/chat/stream" -> handleChatStream(ex);
+            case "/api/shutdown" -> handleShutdown(ex);
+            case "/api/metrics" -> handleMetrics(ex);
+            case "/ws" -> {
+                if (webSocket != null) webSocket.accept(ex); else respond(ex, 404, "text/plain", "Not Found");
+            }
+            default -> {
+                if (ex.path().startsWith("/api/jobs/")) {
+                    handleJob(ex);
+                } else if (!assets.serve(ex)) {
+                    respond(ex, 404, "text/plain", "Not Found");
+                }
+            }
         }
-        String html = loadHtml();
-        respond(ex, 200, "text/html; charset=utf-8", html);
     }
 
-    private void handleChat(HttpExchange ex) throws IOException {
-        if (!"POST".equalsIgnoreCase(ex.getRequestMethod())) {
+    private void handleChat(Exchange ex) throws IOException {
+        if (!"POST".equalsIgnoreCase(ex.method())) {
             respond(ex, 405, "text/plain", "Method Not Allowed");
             return;
         }
-        String body;
-        try (InputStream is = ex.getRequestBody()) {
-            body = new String(is.readAllBytes(), StandardCharsets.UTF_8);
-        }
-
-        // Expect JSON: {"message":"...","senderId":"..."}
-        String message = extractJsonValue(body, "message");
-        String senderId = extractJsonValue(body, "senderId");
+        // Expect JSON: {"message":"...","senderId":"...","webhook":"..."}; webhook only with async=true
+        var fields = readFields(ex, "message", "senderId", "webhook");
+        if (fields == null) return;
+        String message = fields.get("message");
+        String senderId = fields.get("senderId");
         if (senderId == null || senderId.isBlank()) senderId = "web-user";
         if (message == null || message.isBlank()) {
-            respond(ex, 400, "application/json", "{\"error\":\"empty message\"}");
+            respondError(ex, 400, "empty message");
+            return;
+        }
+        if (queryFlag(ex, "async")) {
+            submitJob(ex, senderId, message, fields.get("webhook"));
             return;
         }
 
         try {
             String reply = handler.onMessage(senderId, message);
-            String json = "{\"reply\":" + escapeJsonString(reply) + "}";
-            respond(ex, 200, "application/json", json);
+            respondJson(ex, 200, out -> out.beginObject().name("reply").value(reply).endObject());
+        } catch (RejectedExecutionException e) {
+            respondBusy(ex, e);
         } catch (Exception e) {
             log.error("Error handling chat message: {}", e.getMessage(), e);
-            String errorJson = "{\"error\":" + escapeJsonString("Agent error: " + e.getMessage()) + "}";
-            respond(ex, 500, "application/json", errorJson);
+            respondError(ex, 500, "Agent error: " + e.getMessage());
         }
     }
 
-    // ── Helpers ─────────────────────────────────────────────────────────
+    private void handleChatStream(Exchange ex) throws IOException {
+        if (!"POST".equalsIgnoreCase(ex.method())) {
+            respond(ex, 405, "text/plain", "Method Not Allowed");
+            return;
+        }
+        var fields = readFields(ex, "message", "senderId");
+        if (fields == null) return;
+        String message = fields.get("message");
+        String senderId = fields.get("senderId");
+        if (senderId == null || senderId.isBlank()) senderId = "web-user";
+        if (message == null || message.isBlank()) {
+            respondError(ex, 400, "empty message");
+            return;
+        }
 
-    private void handleShutdown(HttpExchange ex) throws IOException {
-        if (!"POST".equalsIgnoreCase(ex.getRequestMethod())) {
+        var sse = new SseStream(ex);
+        try {
+            String reply = handler instanceof StreamingMessageHandler streaming
+                    ? streaming.onMessage(senderId, message,
+                            delta -> sse.event(null, out -> out.beginObject().name("delta").value(delta).endObject()))
+                    : handler.onMessage(senderId, message);
+            sse.event("done", out -> out.beginObject().name("reply").value(reply).endObject());
+        } catch (RejectedExecutionException e) {
+            respondBusy(ex, e);
+            return;
+        } catch (Exception e) {
+            log.error("Error handling streaming chat message: {}", e.getMessage(), e);
+            String error = "Agent error: " + e.getMessage();
+            if (sse.opened) {
+                sse.event("error", out -> out.beginObject().name("error").value(error).endObject());
+            } else {
+                respondError(ex, 500, error);
+                return;
+            }
+        }
+        sse.close();
+    }
+
+    private void submitJob(Exchange ex, String senderId, String message, String webhookUrl) throws IOException {
+        if (!(handler instanceof AsyncMessageHandler async)) {
+            respondError(ex, 501, "Async chat not supported");
+            return;
+        }
+        URI webhook = null;
+        if (webhookUrl != null && !webhookUrl.isBlank()) {
+            try {
+                webhook = jobs.webhook(webhookUrl);
+            } catch (IllegalArgumentException e) {
+                respondError(ex, 400, e.getMessage());
+                return;
+            }
+        }
+        try {
+            var job = jobs.submit(() -> async.submit(senderId, message), webhook);
+            ex.responseHeader("Location", "/api/jobs/" + job.id());
+            respondJson(ex, 202, job::write);
+        } catch (RejectedExecutionException e) {
+            respondBusy(ex, e);
+        }
+    }
+
+    private void handleJob(Exchange ex) throws IOException {
+        if (!"GET".equalsIgnoreCase(ex.method())) {
             respond(ex, 405, "text/plain", "Method Not Allowed");
             return;
         }
-        String body;
-        try (InputStream is = ex.getRequestBody()) {
-            body = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        var job = jobs.get(ex.path().substring("/api/jobs/".length()));
+        if (job == null) {
+            respondError(ex, 404, "Unknown or expired job");
+            return;
         }
-        String token = extractJsonValue(body, "adminToken");
+        // A pending job changes; a finished one does not, but may expire
+        ex.responseHeader("Cache-Control", "no-store");
+        respondJson(ex, 200, job::write);
+    }
+
+    private void handleMetrics(Exchange ex) throws IOException {
+        if (!"GET".equalsIgnoreCase(ex.method())) {
+            respond(ex, 405, "text/plain", "Method Not Allowed");
+            return;
+        }
+        var snapshot = metrics.snapshot();
+        respondJson(ex, 200, out -> {
+            out.beginObject();
+            for (var metric : snapshot.entrySet()) out.name(metric.getKey()).value(metric.getValue());
+            out.endObject();
+        });
+    }
+
+    // ── Helpers ─────────────────────────────────────────────────────────
+
+    private void handleShutdown(Exchange ex) throws IOException {
+        if (!"POST".equalsIgnoreCase(ex.method())) {
+            respond(ex, 405, "text/plain", "Method Not Allowed");
+            return;
+        }
+        var fields = readFields(ex, "adminToken");
+        if (fields == null) return;
+        String token = fields.get("adminToken");
         if (token == null || !token.equals(adminToken)) {
-            respond(ex, 403, "application/json", "{\"error\":\"Invalid admin token\"}");
+            respondError(ex, 403, "Invalid admin token");
             return;
         }
         log.info("Shutdown requested via WebChat admin API");
-        respond(ex, 200, "application/json", "{\"message\":\"Shutting down...\"}");
+        respondJson(ex, 200, out -> out.beginObject().name("message").value("Shutting down...").endObject());
         // Run shutdown hook in a separate thread to allow response to be sent
         Thread.startVirtualThread(() -> {
             try { Thread.sleep(500); } catch (InterruptedException ignored) {}
@@ -145,44 +283,121 @@ public final class WebChatChannel implements Channel {
 
     // ── Helpers (continued) ─────────────────────────────────────────────
 
-    private void respond(HttpExchange ex, int code, String contentType, String body) throws IOException {
-        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
-        ex.getResponseHeaders().set("Content-Type", contentType);
-        ex.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
-        ex.sendResponseHeaders(code, bytes.length);
-        try (var os = ex.getResponseBody()) {
-            os.write(bytes);
+    /** A JSON body, written member by member. */
+    @FunctionalInterface
+    private interface JsonBody {
+        void write(JsonWriter out) throws IOException;
+    }
+
+    /**
+     * Read the string members {@code names} of the request's JSON object as the body streams
+     * in; other members are skipped undecoded. On a malformed body answers 400 and returns null.
+     */
+    private Map<String, String> readFields(Exchange ex, String... names) throws IOException {
+        var fields = new HashMap<String, String>(4);
+        try (InputStream is = ex.requestBody()) {
+            var in = new JsonReader(is);
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonReader.Token.STRING && isOneOf(name, names)) {
+                    fields.put(name, in.nextString());
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+        } catch (JsonException e) {
+            respondError(ex, 400, "Invalid JSON: " + e.getMessage());
+            return null;
         }
+        return fields;
     }
 
-    /** Minimal JSON string value extractor — no library needed. */
-    private static String extractJsonValue(String json, String key) {
-        String search = "\"" + key + "\"";
-        int idx = json.indexOf(search);
-        if (idx < 0) return null;
-        idx = json.indexOf(':', idx + search.length());
-        if (idx < 0) return null;
-        idx = json.indexOf('"', idx + 1);
-        if (idx < 0) return null;
-        int end = idx + 1;
-        while (end < json.length()) {
-            if (json.charAt(end) == '"' && json.charAt(end - 1) != '\\') break;
-            end++;
+    /** Whether the query has {@code name=true} (or a bare {@code name}). */
+    private static boolean queryFlag(Exchange ex, String name) {
+        String query = ex.query();
+        if (query == null) return false;
+        for (var param : query.split("&")) {
+            if (param.equals(name) || param.equals(name + "=true") || param.equals(name + "=1")) return true;
         }
-        return json.substring(idx + 1, end);
+        return false;
     }
 
-    private static String escapeJsonString(String s) {
-        if (s == null) return "null";
-        return "\"" + s.replace("\\", "\\\\")
-                .replace("\"", "\\\"")
-                .replace("\n", "\\n")
-                .replace("\r", "\\r")
-                .replace("\t", "\\t") + "\"";
+    private static boolean isOneOf(String name, String[] names) {
+        for (var candidate : names) {
+            if (candidate.equals(name)) return true;
+        }
+        return false;
     }
 
-    private String loadHtml() {
-        return CHAT_HTML;
+    private void respond(Exchange ex, int code, String contentType, String body) throws IOException {
+        ex.responseHeader("Content-Type", contentType);
+        ex.responseHeader("Access-Control-Allow-Origin", "*");
+        ex.respond(code, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void respondJson(Exchange ex, int code, JsonBody body) throws IOException {
+        var out = JsonWriter.inMemory();
+        body.write(out);
+        ex.responseHeader("Content-Type", "application/json");
+        ex.responseHeader("Access-Control-Allow-Origin", "*");
+        ex.respond(code, out.toByteArray());
+    }
+
+    private void respondError(Exchange ex, int code, String error) throws IOException {
+        respondJson(ex, code, out -> out.beginObject().name("error").value(error).endObject());
+    }
+
+    /** Admission rejected the turn: tell the client to back off instead of holding the connection. */
+    private void respondBusy(Exchange ex, RejectedExecutionException e) throws IOException {
+        log.warn("Chat message rejected: {}", e.getMessage());
+        ex.responseHeader("Retry-After", "1");
+        respondError(ex, 429, e.getMessage());
+    }
+
+    /**
+     * Server-Sent Events writer over a chunked response. Headers are sent lazily on the first
+     * event so that a turn failing before any output can still be answered with a plain error.
+     * A client that disconnects mid-stream only stops delivery; the agent turn runs to completion.
+     */
+    private static final class SseStream {
+        private final Exchange ex;
+        private JsonWriter out;
+        private boolean opened;
+        private boolean broken;
+
+        SseStream(Exchange ex) {
+            this.ex = ex;
+        }
+
+        /** Send one event; {@code data} is encoded straight into the response stream. */
+        synchronized void event(String name, JsonBody data) {
+            if (broken) return;
+            try {
+                if (!opened) {
+                    ex.responseHeader("Content-Type", "text/event-stream; charset=utf-8");
+                    ex.responseHeader("Cache-Control", "no-cache");
+                    ex.responseHeader("Access-Control-Allow-Origin", "*");
+                    out = JsonWriter.to(ex.respondStreaming(200));
+                    opened = true;
+                }
+                // JSON never holds a raw newline, so the data fits on one line
+                if (name != null) out.raw("event: ").raw(name).raw("\n");
+                out.raw("data: ");
+                data.write(out);
+                out.raw("\n\n").flush();
+            } catch (IOException e) {
+                broken = true;
+                log.debug("SSE client went away: {}", e.getMessage());
+            }
+        }
+
+        synchronized void close() {
+            if (out != null) {
+                try { out.close(); } catch (IOException ignored) {}
+            }
+        }
     }
 
     private static final String CHAT_HTML = """
@@ -256,6 +471,41 @@ function showToast(text, type, duration) {
   setTimeout(() => { t.remove(); }, duration);
 }
 
+// One WebSocket carries every turn (matched by id) and server pushes; without it, SSE per turn
+let wsReady = null, wsUnavailable = false, turnSeq = 0;
+const turns = new Map();
+function connectWs() {
+  if (wsUnavailable || !window.WebSocket) return Promise.resolve(null);
+  if (wsReady) return wsReady;
+  return wsReady = new Promise(resolve => {
+    let opened = false;
+    const s = new WebSocket((location.protocol === 'https:' ? 'wss://' : 'ws://') + location.host + '/ws');
+    s.onopen = () => {
+      opened = true;
+      s.send(JSON.stringify({ type: 'subscribe', senderId }));
+      resolve(s);
+    };
+    s.onmessage = e => {
+      const data = JSON.parse(e.data);
+      if (data.type === 'push') { addMsg(data.message, 'agent'); return; }
+      const turn = turns.get(data.id);
+      if (!turn) {
+        if (data.type === 'error') addMsg('Error: ' + data.error, 'error');
+        return;
+      }
+      turn.onEvent(data.type === 'delta' ? 'message' : data.type, data);
+      if (data.type !== 'delta') { turns.delete(data.id); turn.finish(); }
+    };
+    s.onclose = () => {
+      wsReady = null;
+      if (!opened) wsUnavailable = true;
+      for (const turn of turns.values()) { turn.onEvent('error', { error: 'connection lost' }); turn.finish(); }
+      turns.clear();
+      resolve(null);
+    };
+  });
+}
+
 async function send() {
   const text = input.value.trim();
   if (!text) return;
@@ -267,19 +517,56 @@ async function send() {
   typing.textContent = 'Agent is thinking...';
   msgs.appendChild(typing);
   msgs.scrollTop = msgs.scrollHeight;
-  try {
-    const res = await fetch('/api/chat', {
-      method: 'POST',
-      headers: { 'Content-Type': 'application/json' },
-      body: JSON.stringify({ message: text, senderId })
-    });
+  let bubble = null;
+  const onEvent = (name, data) => {
     typing.remove();
-    if (!res.ok) throw new Error('HTTP ' + res.status);
-    const data = await res.json();
-    if (data.error) {
+    if (name === 'error') {
       addMsg('Error: ' + data.error, 'error');
+    } else if (name === 'done') {
+      if (bubble) bubble.textContent = data.reply; else addMsg(data.reply, 'agent');
     } else {
-      addMsg(data.reply, 'agent');
+      if (!bubble) bubble = addMsg('', 'agent');
+      bubble.textContent += data.delta;
+      msgs.scrollTop = msgs.scrollHeight;
+    }
+  };
+  try {
+    const socket = await connectWs();
+    if (socket) {
+      await new Promise(resolve => {
+        const id = 't' + (++turnSeq);
+        turns.set(id, { onEvent, finish: resolve });
+        socket.send(JSON.stringify({ type: 'chat', id, message: text, senderId }));
+      });
+    } else {
+      const res = await fetch('/api/chat/stream', {
+        method: 'POST',
+        headers: { 'Content-Type': 'application/json' },
+        body: JSON.stringify({ message: text, senderId })
+      });
+      if (!res.ok) {
+        const data = await res.json().catch(() => ({}));
+        throw new Error(data.error || ('HTTP ' + res.status));
+      }
+      const reader = res.body.getReader();
+      const decoder = new TextDecoder();
+      let buf = '';
+      for (;;) {
+        const { value, done } = await reader.read();
+        if (done) break;
+        buf += decoder.decode(value, { stream: true });
+        let sep;
+        while ((sep = buf.indexOf('\\n\\n')) >= 0) {
+          const frame = buf.slice(0, sep);
+          buf = buf.slice(sep + 2);
+          let name = 'message', data = '';
+          for (const line of frame.split('\\n')) {
+            if (line.startsWith('event: ')) name = line.slice(7);
+            else if (line.startsWith('data: ')) data += line.slice(6);
+          }
+          onEvent(name, JSON.parse(data));
+        }
+      }
     }
   } catch (e) {
     typing.remove();
@@ -0,0 +1,239 @@
+package com.jclaw.channel;
+
+import com.jclaw.config.JClawConfig;
+import com.jclaw.http.Exchange;
+import com.jclaw.http.WebSocket;
+import com.jclaw.json.JsonReader;
+import com.jclaw.json.JsonWriter;
+import com.jclaw.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * WebSocket chat channel: one connection per browser carries any number of conversations,
+ * streams reply fragments as they are generated, and takes messages pushed with
+ * {@link #send} at any time. Connections arrive through the web chat server's {@code /ws}
+ * path ({@link WebChatChannel} hands them to {@link #accept}).
+ *
+ * <p>Messages are JSON objects, one per WebSocket text message. From the client:
+ * <pre>
+ *   {"type":"chat","id":"c1","senderId":"alice","message":"hi"}
+ *   {"type":"subscribe","senderId":"alice"}
+ * </pre>
+ * To the client: {@code {"type":"delta","id":"c1","delta":"..."}} as the reply is generated,
+ * then {@code {"type":"done","id":"c1","reply":"..."}}, or {@code {"type":"error","id":"c1",
+ * "error":"..."}} (with {@code "retryAfter":1} when the agent was busy); and
+ * {@code {"type":"push","to":"alice","message":"..."}} for {@link #send}. The {@code id} is
+ * the client's own, to match replies to turns running side by side.
+ *
+ * <p>Each turn runs on its own virtual thread, at most {@code maxTurnsPerConnection} at once
+ * per connection. A connection receives pushes for every sender it has chatted or subscribed
+ * as. Outgoing messages wait in the connection's bounded send queue (see {@link WebSocket}),
+ * so a slow browser holds back only its own turns' streaming, and is disconnected if it
+ * falls too far behind.
+ */
+public final class WebSocketChannel implements Channel {
+
+    private static final Logger log = LoggerFactory.getLogger(WebSocketChannel.class);
+
+    private final JClawConfig.WebSocketConfig config;
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+    private final Map<String, Set<Client>> bySender = new ConcurrentHashMap<>();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final LongAdder messagesIn;
+    private final LongAdder pushes;
+    private final LongAdder slowClients;
+    private volatile MessageHandler handler;
+
+    public WebSocketChannel(JClawConfig.WebSocketConfig config, Metrics metrics) {
+        this.config = config;
+        this.messagesIn = metrics.counter("ws.messagesIn");
+        this.pushes = metrics.counter("ws.pushes");
+        this.slowClients = metrics.counter("ws.slowClients");
+        metrics.gauge("ws.connections", clients::size);
+    }
+
+    @Override
+    public String id() {
+        return "websocket";
+    }
+
+    @Override
+    public void start(MessageHandler handler) {
+        this.handler = handler;
+        log.info("WebSocket channel ready at /ws");
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Push {@code message} to every connection that has chatted or subscribed as {@code to}. */
+    @Override
+    public void send(String to, String message) {
+        var targets = bySender.get(to);
+        if (targets == null || targets.isEmpty()) {
+            log.debug("WebSocket push dropped, no connection for {}", to);
+            return;
+        }
+        byte[] frame = encode(out -> out.beginObject()
+                .name("type").value("push").name("to").value(to).name("message").value(message).endObject());
+        for (var client : targets) {
+            if (client.socket.sendText(frame)) pushes.increment();
+        }
+    }
+
+    @Override
+    public void stop() {
+        for (var client : clients) client.socket.close(WebSocket.GOING_AWAY, "server shutting down");
+        stopped.countDown();
+        log.info("WebSocket channel stopped");
+    }
+
+    /** Take over {@code ex}'s connection as a WebSocket; returns when it closes. */
+    public void accept(Exchange ex) throws IOException {
+        if (handler == null || stopped.getCount() == 0) {
+            ex.responseHeader("Content-Type", "text/plain; charset=utf-8");
+            ex.respond(503, "WebSocket channel not running".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        WebSocket.accept(ex, config, new Client());
+    }
+
+    // ── Connections ────────────────────────────────────────────────────
+
+    /** One browser connection: its socket, turn limit and the senders it receives pushes for. */
+    private final class Client implements WebSocket.Listener {
+        private final Semaphore turns = new Semaphore(config.maxTurnsPerConnection());
+        private final Set<String> senders = ConcurrentHashMap.newKeySet();
+        private WebSocket socket;
+
+        @Override
+        public void onOpen(WebSocket socket) {
+            this.socket = socket;
+            clients.add(this);
+        }
+
+        @Override
+        public void onText(WebSocket socket, byte[] message) {
+            messagesIn.increment();
+            String type = null, id = null, senderId = null, text = null;
+            try {
+                var in = new JsonReader(message, 0, message.length);
+                in.beginObject();
+                while (in.hasNext()) {
+                    String name = in.nextName();
+                    if (in.peek() != JsonReader.Token.STRING) {
+                        in.skipValue();
+                        continue;
+                    }
+                    switch (name) {
+                        case "type" -> type = in.nextString();
+                        case "id" -> id = in.nextString();
+                        case "senderId" -> senderId = in.nextString();
+                        case "message" -> text = in.nextString();
+                        default -> in.skipValue();
+                    }
+                }
+                in.endObject();
+            } catch (IOException e) {
+                sendError(id, "Invalid JSON: " + e.getMessage(), false);
+                return;
+            }
+            if (senderId == null || senderId.isBlank()) senderId = "web-user";
+            switch (type == null ? "" : type) {
+                case "subscribe" -> subscribe(senderId);
+                case "chat" -> {
+                    if (text == null || text.isBlank()) {
+                        sendError(id, "empty message", false);
+                    } else if (!turns.tryAcquire()) {
+                        sendError(id, "Too many turns in progress on this connection", true);
+                    } else {
+                        subscribe(senderId);
+                        String turnId = id, sender = senderId, prompt = text;
+                        Thread.ofVirtual().name("ws-turn").start(() -> {
+                            try {
+                                runTurn(turnId, sender, prompt);
+                            } finally {
+                                turns.release();
+                            }
+                        });
+                    }
+                }
+                default -> sendError(id, "Unknown message type: " + type, false);
+            }
+        }
+
+        @Override
+        public void onClose(WebSocket socket, int code) {
+            clients.remove(this);
+            for (var sender : senders) {
+                bySender.computeIfPresent(sender, (_, set) -> {
+                    set.remove(this);
+                    return set.isEmpty() ? null : set;
+                });
+            }
+            if (code == WebSocket.TRY_AGAIN_LATER) slowClients.increment();
+            log.debug("WebSocket connection closed: {}", code);
+        }
+
+        private void subscribe(String senderId) {
+            if (senders.add(senderId)) {
+                bySender.computeIfAbsent(senderId, _ -> ConcurrentHashMap.newKeySet()).add(this);
+            }
+        }
+
+        private void runTurn(String id, String senderId, String text) {
+            try {
+                String reply = handler instanceof StreamingMessageHandler streaming
+                        ? streaming.onMessage(senderId, text, delta -> socket.sendText(encode(out -> out.beginObject()
+                                .name("type").value("delta").name("id").value(id).name("delta").value(delta).endObject())))
+                        : handler.onMessage(senderId, text);
+                socket.sendText(encode(out -> out.beginObject()
+                        .name("type").value("done").name("id").value(id).name("reply").value(reply).endObject()));
+            } catch (RejectedExecutionException e) {
+                log.warn("WebSocket chat message rejected: {}", e.getMessage());
+                sendError(id, e.getMessage(), true);
+            } catch (Exception e) {
+                log.error("Error handling WebSocket chat message: {}", e.getMessage(), e);
+                sendError(id, "Agent error: " + e.getMessage(), false);
+            }
+        }
+
+        private void sendError(String id, String error, boolean busy) {
+            socket.sendText(encode(out -> {
+                out.beginObject().name("type").value("error").name("id").value(id).name("error").value(error);
+                if (busy) out.name("retryAfter").value(1);
+                out.endObject();
+            }));
+        }
+    }
+
+    /** A JSON message, written member by member. */
+    @FunctionalInterface
+    private interface JsonBody {
+        void write(JsonWriter out) throws IOException;
+    }
+
+    private static byte[] encode(JsonBody body) {
+        var out = JsonWriter.inMemory();
+        try {
+            body.write(out);
+        } catch (IOException e) {
+            // An in-memory writer does no I/O
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+}
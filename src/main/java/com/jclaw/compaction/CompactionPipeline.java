@@ -0,0 +1,77 @@
+package com.jclaw.compaction;
+
+import com.jclaw.session.SessionEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ordered compaction strategies plus the model's context budget. A pipeline only runs once
+ * the context exceeds {@code contextTokens}, and then compacts it down to a lower target so
+ * that the next few turns fit without compacting again.
+ */
+public final class CompactionPipeline {
+
+    /** Strategies used when an agent does not configure {@code compaction}. */
+    public static final List<String> DEFAULT_STRATEGIES =
+            List.of(ToolOutputPruningStrategy.NAME, SlidingWindowStrategy.NAME);
+
+    private static final CompactionPipeline DISABLED = new CompactionPipeline(List.of(), 0);
+
+    private final List<CompactionStrategy> strategies;
+    private final int contextTokens;
+    private final int targetTokens;
+
+    private CompactionPipeline(List<CompactionStrategy> strategies, int contextTokens) {
+        this.strategies = strategies;
+        this.contextTokens = contextTokens;
+        this.targetTokens = contextTokens * 3 / 4;
+    }
+
+    /**
+     * Build a pipeline from strategy names ({@code prune-tool-outputs}, {@code summarize},
+     * {@code sliding-window}). A non-positive budget disables compaction.
+     */
+    public static CompactionPipeline of(List<String> names, int contextTokens, Summarizer summarizer) {
+        if (contextTokens <= 0) return DISABLED;
+        var strategies = new ArrayList<CompactionStrategy>();
+        for (String name : names == null || names.isEmpty() ? DEFAULT_STRATEGIES : names) {
+            strategies.add(switch (name) {
+                case ToolOutputPruningStrategy.NAME -> new ToolOutputPruningStrategy();
+                case SummarizingStrategy.NAME -> new SummarizingStrategy(summarizer);
+                case SlidingWindowStrategy.NAME -> new SlidingWindowStrategy();
+                default -> throw new IllegalStateException(
+                        "Unknown compaction strategy '%s' (valid: %s, %s, %s)".formatted(name,
+                                ToolOutputPruningStrategy.NAME, SummarizingStrategy.NAME, SlidingWindowStrategy.NAME));
+            });
+        }
+        return new CompactionPipeline(List.copyOf(strategies), contextTokens);
+    }
+
+    public boolean enabled() {
+        return contextTokens > 0;
+    }
+
+    /** True if {@code context} is over the model's budget. */
+    public boolean exceeds(List<SessionEntry> context) {
+        return enabled() && Tokens.estimate(context) > contextTokens;
+    }
+
+    /** Run every strategy in order. May call the model (summarization): never on the request path. */
+    public List<SessionEntry> compact(List<SessionEntry> context) {
+        var out = context;
+        for (var strategy : strategies) {
+            out = strategy.compact(out, targetTokens);
+        }
+        return out;
+    }
+
+    /** In-memory sliding window only; cheap enough to apply while seeding a turn. */
+    public List<SessionEntry> trim(List<SessionEntry> context) {
+        return exceeds(context) ? new SlidingWindowStrategy().compact(context, targetTokens) : context;
+    }
+
+    static int estimate(List<SessionEntry> context) {
+        return Tokens.estimate(context);
+    }
+}
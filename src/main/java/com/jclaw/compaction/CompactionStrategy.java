@@ -0,0 +1,22 @@
+package com.jclaw.compaction;
+
+import com.jclaw.session.SessionEntry;
+
+import java.util.List;
+
+/**
+ * One stage of a {@link CompactionPipeline}: shrinks the context sent to the model.
+ * Implementations must not modify the input list and should return it unchanged when
+ * there is nothing to do.
+ */
+public interface CompactionStrategy {
+
+    /** Config name of the strategy, as used in {@code agents.list[].compaction}. */
+    String name();
+
+    /**
+     * @param context     conversation context, oldest first
+     * @param tokenBudget estimated tokens the result should fit in
+     */
+    List<SessionEntry> compact(List<SessionEntry> context, int tokenBudget);
+}
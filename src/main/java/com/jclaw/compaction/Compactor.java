@@ -0,0 +1,131 @@
+package com.jclaw.compaction;
+
+import com.jclaw.metrics.Metrics;
+import com.jclaw.session.SessionEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Background context compaction for resident sessions.
+ *
+ * <p>After a turn, {@link #schedule} checks the session's context against its pipeline's
+ * budget and, if it is over, compacts it on a virtual thread. The result is the compacted
+ * prefix plus the transcript entry it covers up to; {@link #context} later combines it with
+ * whatever was appended since. The transcript itself is never rewritten, so compaction can
+ * lag behind or fail without losing anything.
+ *
+ * <p>At most one compaction per session runs at a time. State is dropped with
+ * {@link #evict} when the session leaves memory.
+ */
+public final class Compactor {
+
+    private static final Logger log = LoggerFactory.getLogger(Compactor.class);
+
+    private record Compacted(List<SessionEntry> entries, SessionEntry through) {}
+
+    private final Map<String, Compacted> compacted = new ConcurrentHashMap<>();
+    /** Sessions with a compaction result their model context has not picked up yet. */
+    private final Set<String> updated = ConcurrentHashMap.newKeySet();
+    private final Map<String, Object> inFlight = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final LongAdder runs;
+    private final LongAdder failures;
+    private final LongAdder tokensRemoved;
+    private final LongAdder nanos;
+
+    public Compactor(Metrics metrics) {
+        this.runs = metrics.counter("compaction.runs");
+        this.failures = metrics.counter("compaction.failures");
+        this.tokensRemoved = metrics.counter("compaction.tokensRemoved");
+        this.nanos = metrics.counter("compaction.nanos");
+    }
+
+    /**
+     * The context to give the model for a session: the latest compacted prefix followed by
+     * the transcript entries appended after it, or the transcript itself if nothing has been
+     * compacted (or the compaction point is no longer resident).
+     */
+    public List<SessionEntry> context(String sessionKey, List<SessionEntry> history) {
+        var c = compacted.get(sessionKey);
+        if (c == null) return history;
+        for (int i = history.size() - 1; i >= 0; i--) {
+            if (!history.get(i).equals(c.through())) continue;
+            if (i == history.size() - 1) return c.entries();
+            var out = new ArrayList<SessionEntry>(c.entries().size() + history.size() - i - 1);
+            out.addAll(c.entries());
+            out.addAll(history.subList(i + 1, history.size()));
+            return out;
+        }
+        return history;
+    }
+
+    /** True exactly once after a new compaction result was published for the session. */
+    public boolean takeUpdate(String sessionKey) {
+        return updated.remove(sessionKey);
+    }
+
+    /** Compact the session in the background if its context is over budget. Never blocks. */
+    public void schedule(String sessionKey, CompactionPipeline pipeline, List<SessionEntry> history) {
+        if (!pipeline.enabled() || history.isEmpty()) return;
+        var context = context(sessionKey, history);
+        if (!pipeline.exceeds(context)) return;
+        var token = new Object();
+        if (inFlight.putIfAbsent(sessionKey, token) != null) return;
+        var through = history.getLast();
+        try {
+            executor.execute(() -> run(sessionKey, pipeline, context, through, token));
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(sessionKey, token);
+        }
+    }
+
+    private void run(String sessionKey, CompactionPipeline pipeline, List<SessionEntry> context,
+                     SessionEntry through, Object token) {
+        long start = System.nanoTime();
+        List<SessionEntry> out;
+        try {
+            out = List.copyOf(pipeline.compact(context));
+        } catch (RuntimeException e) {
+            failures.increment();
+            inFlight.remove(sessionKey, token);
+            log.warn("Compaction failed for session '{}': {}", sessionKey, e.getMessage());
+            return;
+        }
+        nanos.add(System.nanoTime() - start);
+        runs.increment();
+        int before = CompactionPipeline.estimate(context);
+        int after = CompactionPipeline.estimate(out);
+        tokensRemoved.add(Math.max(0, before - after));
+        // Publish only if the session was not evicted meanwhile
+        inFlight.computeIfPresent(sessionKey, (_, current) -> {
+            if (current != token) return current;
+            compacted.put(sessionKey, new Compacted(out, through));
+            updated.add(sessionKey);
+            return null;
+        });
+        log.debug("Compacted session '{}': {} → {} entries, ~{} → ~{} tokens",
+                sessionKey, context.size(), out.size(), before, after);
+    }
+
+    /** Forget a session's compaction state and cancel publication of a running compaction. */
+    public void evict(String sessionKey) {
+        inFlight.remove(sessionKey);
+        compacted.remove(sessionKey);
+        updated.remove(sessionKey);
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,52 @@
+package com.jclaw.compaction;
+
+import com.google.adk.models.BaseLlm;
+import com.google.adk.models.LlmRequest;
+import com.google.genai.types.Content;
+import com.google.genai.types.Part;
+import com.jclaw.llm.ModelClientPool;
+import com.jclaw.session.SessionEntry;
+
+import java.util.List;
+
+/**
+ * {@link Summarizer} backed by the agent's own model: one non-streaming request with the
+ * transcript excerpt and a summarization prompt, no tools. Give it the model's background
+ * client ({@link ModelClientPool#background}), so the call counts against the model's
+ * concurrency but waits while turns are queued for it.
+ */
+public final class LlmSummarizer implements Summarizer {
+
+    private static final String PROMPT = """
+            Summarize the conversation below so it can replace the original messages in your context.
+            Keep facts, decisions, user preferences, names, numbers, file paths and open tasks.
+            Omit pleasantries. Reply with the summary only.
+
+            """;
+
+    private final BaseLlm llm;
+
+    public LlmSummarizer(BaseLlm llm) {
+        this.llm = llm;
+    }
+
+    @Override
+    public String summarize(List<SessionEntry> entries) {
+        var transcript = new StringBuilder(PROMPT);
+        for (var e : entries) {
+            transcript.append(e.role());
+            if (e.toolName() != null) transcript.append(" (").append(e.toolName()).append(')');
+            transcript.append(": ").append(e.content()).append('\n');
+        }
+        var request = LlmRequest.builder()
+                .contents(List.of(Content.builder().role("user").parts(Part.fromText(transcript.toString())).build()))
+                .build();
+        var response = llm.generateContent(request, false).blockingLast();
+        return response.content()
+                .flatMap(c -> c.parts())
+                .map(parts -> parts.stream()
+                        .map(p -> p.text().orElse(""))
+                        .reduce("", String::concat))
+                .orElse("");
+    }
+}
@@ -0,0 +1,41 @@
+package com.jclaw.compaction;
+
+import com.jclaw.session.SessionEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the most recent turns that fit the token budget. A leading summary digest (a
+ * {@code system} entry produced by {@link SummarizingStrategy}) is kept when it fits, so
+ * older turns stay represented after they slide out of the window.
+ */
+final class SlidingWindowStrategy implements CompactionStrategy {
+
+    static final String NAME = "sliding-window";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public List<SessionEntry> compact(List<SessionEntry> context, int tokenBudget) {
+        if (Tokens.estimate(context) <= tokenBudget) return context;
+        SessionEntry digest = !context.isEmpty() && "system".equals(context.getFirst().role())
+                ? context.getFirst() : null;
+        int budget = tokenBudget;
+        if (digest != null && Tokens.estimate(digest) <= tokenBudget / 2) {
+            budget -= Tokens.estimate(digest);
+        } else {
+            digest = null;
+        }
+        var body = digest != null ? context.subList(1, context.size()) : context;
+        // If not even the latest turn fits, keep it anyway rather than sending nothing
+        int start = Tokens.keepFrom(body, budget);
+        var out = new ArrayList<SessionEntry>(body.size() - start + 1);
+        if (digest != null) out.add(digest);
+        out.addAll(body.subList(start, body.size()));
+        return out;
+    }
+}
@@ -0,0 +1,14 @@
+package com.jclaw.compaction;
+
+import com.jclaw.session.SessionEntry;
+
+import java.util.List;
+
+/**
+ * Condenses a run of conversation entries into a short digest. Called off the request path.
+ */
+@FunctionalInterface
+public interface Summarizer {
+
+    String summarize(List<SessionEntry> entries);
+}
@@ -0,0 +1,52 @@
+package com.jclaw.compaction;
+
+import com.jclaw.session.SessionEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replaces older turns with a single {@code system} digest written by a {@link Summarizer}.
+ * The newest turns, up to half of the budget, are kept verbatim; everything before them
+ * (including an earlier digest) is folded into the new digest. If the summarizer fails the
+ * context is returned unchanged and later strategies in the pipeline still apply.
+ */
+final class SummarizingStrategy implements CompactionStrategy {
+
+    static final String NAME = "summarize";
+    static final String DIGEST_PREFIX = "Summary of the earlier conversation:\n";
+
+    private static final Logger log = LoggerFactory.getLogger(SummarizingStrategy.class);
+
+    private final Summarizer summarizer;
+
+    SummarizingStrategy(Summarizer summarizer) {
+        this.summarizer = summarizer;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public List<SessionEntry> compact(List<SessionEntry> context, int tokenBudget) {
+        if (Tokens.estimate(context) <= tokenBudget) return context;
+        int keepFrom = Tokens.keepFrom(context, tokenBudget / 2);
+        if (keepFrom == 0) return context;
+        String digest;
+        try {
+            digest = summarizer.summarize(context.subList(0, keepFrom));
+        } catch (RuntimeException e) {
+            log.warn("Summarization failed, keeping context as is: {}", e.getMessage());
+            return context;
+        }
+        if (digest == null || digest.isBlank()) return context;
+        var out = new ArrayList<SessionEntry>(context.size() - keepFrom + 1);
+        out.add(SessionEntry.system(DIGEST_PREFIX + digest.strip()));
+        out.addAll(context.subList(keepFrom, context.size()));
+        return out;
+    }
+}
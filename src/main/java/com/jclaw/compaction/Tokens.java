@@ -0,0 +1,55 @@
+package com.jclaw.compaction;
+
+import com.jclaw.session.SessionEntry;
+
+import java.util.List;
+
+/**
+ * Cheap token estimate (about four characters per token plus a small per-message overhead).
+ * Good enough to keep a context under budget without a model-specific tokenizer.
+ */
+final class Tokens {
+
+    private static final int PER_MESSAGE = 4;
+
+    private Tokens() {}
+
+    static int estimate(SessionEntry entry) {
+        int chars = entry.content() != null ? entry.content().length() : 0;
+        return PER_MESSAGE + (chars + 3) / 4;
+    }
+
+    static int estimate(List<SessionEntry> entries) {
+        int total = 0;
+        for (var e : entries) total += estimate(e);
+        return total;
+    }
+
+    /**
+     * Index of the first entry of the longest suffix that fits in {@code budget}, moved forward
+     * to a user message so the suffix never starts with an orphaned reply or tool output.
+     * Returns {@code entries.size()} when not even the last turn fits.
+     */
+    static int suffixStart(List<SessionEntry> entries, int budget) {
+        int used = 0;
+        int start = entries.size();
+        while (start > 0) {
+            int cost = estimate(entries.get(start - 1));
+            if (used + cost > budget) break;
+            used += cost;
+            start--;
+        }
+        while (start < entries.size() && !"user".equals(entries.get(start).role())) start++;
+        return start;
+    }
+
+    /** Like {@link #suffixStart}, but always keeps at least the latest turn, even over budget. */
+    static int keepFrom(List<SessionEntry> entries, int budget) {
+        int start = suffixStart(entries, budget);
+        if (start < entries.size()) return start;
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if ("user".equals(entries.get(i).role())) return i;
+        }
+        return Math.max(0, entries.size() - 1);
+    }
+}
@@ -0,0 +1,42 @@
+package com.jclaw.compaction;
+
+import com.jclaw.session.SessionEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Drops tool outputs from all but the most recent turns. Tool results (file contents, command
+ * output) are usually the bulkiest entries and rarely matter once the model has answered
+ * from them; the assistant reply that used them is kept.
+ */
+final class ToolOutputPruningStrategy implements CompactionStrategy {
+
+    static final String NAME = "prune-tool-outputs";
+    private static final int KEEP_RECENT_TURNS = 2;
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public List<SessionEntry> compact(List<SessionEntry> context, int tokenBudget) {
+        // Everything before the KEEP_RECENT_TURNS-th user message from the end is stale
+        int turns = 0;
+        int staleBefore = 0;
+        for (int i = context.size() - 1; i >= 0; i--) {
+            if ("user".equals(context.get(i).role()) && ++turns == KEEP_RECENT_TURNS) {
+                staleBefore = i;
+                break;
+            }
+        }
+        var out = new ArrayList<SessionEntry>(context.size());
+        for (int i = 0; i < context.size(); i++) {
+            var e = context.get(i);
+            if (i < staleBefore && "tool".equals(e.role())) continue;
+            out.add(e);
+        }
+        return out.size() == context.size() ? context : out;
+    }
+}
@@ -66,42 +66,98 @@ public final class ConfigLoader {
         Map<String, Object> root = yaml.load(in);
 
         var gatewayMap = getMap(root, "gateway");
+        var httpMap = getMap(gatewayMap, "http");
+        var wsMap = getMap(gatewayMap, "websocket");
+        var jobsMap = getMap(gatewayMap, "jobs");
         var gateway = new JClawConfig.GatewayConfig(
                 getInt(gatewayMap, "port", 8080),
                 getString(gatewayMap, "adminToken", "jclaw-admin"),
                 getInt(gatewayMap, "agentTimeoutSeconds", 60),
-                getInt(gatewayMap, "shutdownTimeoutSeconds", 10)
+                getInt(gatewayMap, "shutdownTimeoutSeconds", 10),
+                new JClawConfig.HttpConfig(
+                        getString(httpMap, "transport", "virtual"),
+                        getInt(httpMap, "backlog", 1024),
+                        getInt(httpMap, "maxConnections", 10_000),
+                        getInt(httpMap, "keepAliveSeconds", 30),
+                        getInt(httpMap, "maxRequestBytes", 1 << 20),
+                        getInt(httpMap, "maxHeaderBytes", 16 << 10)),
+                new JClawConfig.WebSocketConfig(
+                        getBoolean(wsMap, "enabled", true),
+                        getInt(wsMap, "maxMessageBytes", 1 << 20),
+                        getInt(wsMap, "sendQueueBytes", 1 << 20),
+                        getInt(wsMap, "sendTimeoutSeconds", 10),
+                        getInt(wsMap, "pingSeconds", 30),
+                        getInt(wsMap, "maxTurnsPerConnection", 8)),
+                new JClawConfig.JobsConfig(
+                        getInt(jobsMap, "maxJobs", 10_000),
+                        getInt(jobsMap, "ttlSeconds", 3600),
+                        getInt(jobsMap, "timeoutSeconds", 900),
+                        getInt(jobsMap, "webhookTimeoutSeconds", 10),
+                        getInt(jobsMap, "webhookAttempts", 3),
+                        getStringList(jobsMap, "webhookPrefixes")),
+                getString(gatewayMap, "uiDir", null)
         );
 
         // Parse models
         var modelList = new ArrayList<JClawConfig.ModelDef>();
         var rawModels = (List<Map<String, Object>>) root.getOrDefault("models", List.of());
         for (var entry : rawModels) {
+            var limitsMap = getMap(entry, "limits");
             modelList.add(new JClawConfig.ModelDef(
                     getString(entry, "id", ""),
                     getString(entry, "provider", "gemini"),
                     getString(entry, "model", ""),
                     getString(entry, "apiKeyEnvVar", null),
-                    getString(entry, "baseUrl", null)
+                    getString(entry, "baseUrl", null),
+                    getInt(entry, "contextTokens", 0),
+                    new JClawConfig.ModelLimits(
+                            getInt(limitsMap, "requestsPerMinute", 0),
+                            getInt(limitsMap, "tokensPerMinute", 0),
+                            getInt(limitsMap, "maxConcurrent", 16),
+                            getInt(limitsMap, "maxQueued", 64)),
+                    getInt(entry, "batchSize", 0),
+                    getInt(entry, "batchWindowMillis", 20),
+                    getBoolean(entry, "promptCaching", true)
             ));
         }
 
+        var clientMap = getMap(root, "modelClient");
+        var modelClient = new JClawConfig.ModelClientConfig(
+                getInt(clientMap, "maxConnectionsPerHost", 16),
+                getInt(clientMap, "keepAliveSeconds", 300),
+                getInt(clientMap, "connectTimeoutSeconds", 10),
+                getInt(clientMap, "readTimeoutSeconds", 60),
+                getBoolean(clientMap, "warmUp", true)
+        );
+
         var agentsMap = getMap(root, "agents");
         String defaultAgent = getString(agentsMap, "default", "assistant");
         var agentList = new ArrayList<JClawConfig.AgentDef>();
         var rawList = (List<Map<String, Object>>) agentsMap.getOrDefault("list", List.of());
         for (var entry : rawList) {
+            var failoverMap = getMap(entry, "failover");
             agentList.add(new JClawConfig.AgentDef(
                     getString(entry, "id", ""),
                     getString(entry, "modelId", ""),
                     getString(entry, "instruction", ""),
                     getString(entry, "workspace", ""),
-                    getStringList(entry, "skills")
+                    getStringList(entry, "skills"),
+                    getInt(entry, "skillsTopK", 0),
+                    getStringList(entry, "compaction"),
+                    parseResponseCache(entry),
+                    getStringList(entry, "fallbackModelIds"),
+                    new JClawConfig.FailoverConfig(
+                            getInt(failoverMap, "attemptTimeoutSeconds", 30),
+                            getBoolean(failoverMap, "hedge", false),
+                            getInt(failoverMap, "hedgeDelayMillis", 2000))
             ));
         }
         var defaultsMap = getMap(agentsMap, "defaults");
         var defaults = new JClawConfig.AgentDefaults(
-                getInt(defaultsMap, "maxConcurrent", 4)
+                getInt(defaultsMap, "maxConcurrent", 4),
+                getInt(defaultsMap, "maxQueued", 64),
+                getInt(defaultsMap, "maxQueuedPerAgent", 32),
+                getInt(defaultsMap, "maxQueuedPerSession", 4)
         );
         var agents = new JClawConfig.AgentsConfig(defaultAgent, agentList, defaults);
 
@@ -124,10 +180,28 @@ public final class ConfigLoader {
         var sessionMap = getMap(root, "session");
         var session = new JClawConfig.SessionConfig(
                 getString(sessionMap, "store", JCLAW_HOME.resolve("sessions").toString()),
-                getString(sessionMap, "dmScope", "main")
+                getString(sessionMap, "dmScope", "main"),
+                getInt(sessionMap, "maxResident", 10_000),
+                getInt(sessionMap, "idleTtlMinutes", 30),
+                getString(sessionMap, "durability", "batched"),
+                getInt(sessionMap, "syncIntervalMillis", 200),
+                getInt(sessionMap, "rehydrateEntries", 200)
         );
 
-        return new JClawConfig(gateway, modelList, agents, bindingsList, session);
+        return new JClawConfig(gateway, modelList, modelClient, agents, bindingsList, session);
+    }
+
+    private static JClawConfig.ResponseCacheConfig parseResponseCache(Map<String, Object> agent) {
+        if (!agent.containsKey("responseCache")) return null;
+        var cacheMap = getMap(agent, "responseCache");
+        if (!getBoolean(cacheMap, "enabled", true)) return null;
+        return new JClawConfig.ResponseCacheConfig(
+                getInt(cacheMap, "maxEntries", 1000),
+                getInt(cacheMap, "ttlSeconds", 3600),
+                getInt(cacheMap, "contextEntries", 0),
+                getString(cacheMap, "embeddingModelId", null),
+                getDouble(cacheMap, "similarity", 0.95)
+        );
     }
 
     @SuppressWarnings("unchecked")
@@ -150,6 +224,18 @@ public final class ConfigLoader {
         return defaultVal;
     }
 
+    private static double getDouble(Map<String, Object> map, String key, double defaultVal) {
+        Object val = map.get(key);
+        if (val instanceof Number n) return n.doubleValue();
+        return defaultVal;
+    }
+
+    private static boolean getBoolean(Map<String, Object> map, String key, boolean defaultVal) {
+        Object val = map.get(key);
+        if (val instanceof Boolean b) return b;
+        return defaultVal;
+    }
+
     @SuppressWarnings("unchecked")
     private static List<String> getStringList(Map<String, Object> map, String key) {
         Object val = map.get(key);
@@ -167,12 +253,48 @@ public final class ConfigLoader {
               adminToken: jclaw-admin
               agentTimeoutSeconds: 60
               shutdownTimeoutSeconds: 10
+              # http:
+              #   transport: virtual      # virtual（支持 keep-alive 和 pipelining）或 jdk（JDK 自带 HttpServer）
+              #   backlog: 1024           # 操作系统排队等待 accept 的连接数
+              #   maxConnections: 10000   # 最大连接数，超出时返回 503
+              #   keepAliveSeconds: 30    # 空闲连接保持时间
+              #   maxRequestBytes: 1048576  # 请求体上限，超出时返回 413
+              #   maxHeaderBytes: 16384   # 请求头上限，超出时返回 431
+              # websocket:                # /ws 上的 WebSocket 渠道（仅 virtual transport），一个连接承载多个会话并支持服务端推送
+              #   enabled: true
+              #   maxMessageBytes: 1048576  # 客户端单条消息上限，超出时关闭连接
+              #   sendQueueBytes: 1048576   # 每个连接的发送队列上限，满时发送方等待
+              #   sendTimeoutSeconds: 10    # 队列持续满的等待时间，超时视为慢客户端并断开
+              #   pingSeconds: 30           # 空闲多久发送 ping；两个周期无响应则断开
+              #   maxTurnsPerConnection: 8  # 每个连接同时运行的 agent 轮次上限
+              # jobs:                     # 异步任务：POST /api/chat?async=true 立即返回 jobId，GET /api/jobs/{id} 查询或通过 webhook 回调
+              #   maxJobs: 10000          # 同时保存的任务上限（运行中 + 已完成），满时淘汰最早完成的任务
+              #   ttlSeconds: 3600        # 任务完成后结果保留时间
+              #   timeoutSeconds: 900     # 异步任务的 turn 超时（替代 agentTimeoutSeconds）
+              #   webhookTimeoutSeconds: 10
+              #   webhookAttempts: 3      # webhook 投递失败时的尝试次数（指数退避）
+              #   webhookPrefixes: []     # 允许的 webhook 地址（如 https://hooks.example.com/jclaw/），须协议、主机、端口一致且路径在其下；为空时拒绝 webhook
+              # uiDir: ~/.jclaw/ui        # 自定义 Web UI 目录（index.html 替换内置页面），启动时加载并预压缩；同名 .gz/.br 文件作为预压缩版本
 
             models:
               - id: gemini-flash
                 provider: gemini
                 model: gemini-2.5-flash
                 # apiKeyEnvVar: GOOGLE_API_KEY  # Gemini 通过 ADK 自动读取，无需显式配置
+                contextTokens: 32000            # 历史上下文的 token 预算，超出后在后台压缩（0 = 不压缩）
+                # limits:                       # 按模型限流，慢或被限流的 provider 不影响其他模型的 agent
+                #   requestsPerMinute: 0        # 0 = 不限
+                #   tokensPerMinute: 0
+                #   maxConcurrent: 16           # 自适应并发上限（遇到 429/延迟升高时自动下调）
+                #   maxQueued: 64               # 该模型的等待队列上限
+                # promptCaching: true           # 缓存固定的提示词前缀（指令、技能目录、工具）；仅 Anthropic 需显式开启，其他 provider 自动缓存
+
+              # - id: local-qwen
+              #   provider: ollama
+              #   model: qwen3:1.7b
+              #   baseUrl: http://localhost:11434
+              #   batchSize: 4                # 合并并发请求一起发送，与服务端 OLLAMA_NUM_PARALLEL 一致（0 = 不合并）
+              #   batchWindowMillis: 20       # 等待同批请求的最长时间
 
               # - id: gpt4o
               #   provider: openai
@@ -180,6 +302,13 @@ public final class ConfigLoader {
               #   apiKeyEnvVar: OPENAI_API_KEY
               #   baseUrl: https://api.openai.com/v1
 
+            modelClient:                 # 所有 LangChain4j 模型共享的 HTTP 客户端（https 走 HTTP/2）
+              maxConnectionsPerHost: 16
+              keepAliveSeconds: 300
+              connectTimeoutSeconds: 10
+              readTimeoutSeconds: 60
+              warmUp: true               # 启动时预先建立到各 provider 的连接
+
             agents:
               default: assistant
               list:
@@ -190,17 +319,41 @@ public final class ConfigLoader {
                     and execute shell commands when needed.
                   workspace: ~/.jclaw/workspace/assistant
                   # skills: [all]  # 可用 skills 列表，默认为空，设为 [all] 加载全部
+                  # skillsTopK: 5  # skill 较多时每轮只附上与用户消息最相关的 K 个（0 = 总是注入完整目录）
+                  # compaction: [prune-tool-outputs, summarize, sliding-window]  # 默认 [prune-tool-outputs, sliding-window]
+                  # fallbackModelIds: [gpt4o]  # 主模型出错或超时时依次切换到这些模型
+                  # failover:
+                  #   attemptTimeoutSeconds: 30  # 单个模型开始响应的超时
+                  #   hedge: false               # 主模型超过 p95 延迟仍未响应时，同时请求下一个模型，取先到者
+                  #   hedgeDelayMillis: 2000     # 延迟样本不足时使用的对冲等待时间
+                  # responseCache:             # 回复缓存：相同问题直接返回缓存结果，不占用并发名额
+                  #   maxEntries: 1000
+                  #   ttlSeconds: 3600
+                  #   contextEntries: 0        # 只缓存历史不超过 N 条的 turn（0 = 仅会话首轮）
+                  #   embeddingModelId: embed  # 可选：用向量相似度匹配近似问题（openai / ollama 模型）
+                  #   similarity: 0.95
 
               defaults:
                 maxConcurrent: 4
+                maxQueued: 64            # 等待中的 turn 总数上限，超出直接返回 busy
+                maxQueuedPerAgent: 32
+                maxQueuedPerSession: 4
 
             bindings:
               - id: webchat-assistant
                 channel: webchat
                 agentId: assistant
+              - id: websocket-assistant
+                channel: websocket
+                agentId: assistant
 
             session:
               store: ~/.jclaw/sessions
               dmScope: main
+              maxResident: 10000       # 内存中常驻的 session 上限，超出后落盘并淘汰
+              idleTtlMinutes: 30       # 空闲超时后落盘并淘汰，下次访问时自动恢复
+              durability: batched      # none | batched（后台定期 fsync）| per-turn（每轮等待 fsync，多会话合并提交）
+              syncIntervalMillis: 200
+              rehydrateEntries: 200    # 恢复被淘汰的 session 时只从索引读取最近 N 条（0 = 全部）
             """;
 }
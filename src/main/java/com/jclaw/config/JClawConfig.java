@@ -9,22 +9,141 @@ import java.util.Map;
 public record JClawConfig(
         GatewayConfig gateway,
         List<ModelDef> models,
+        ModelClientConfig modelClient,
         AgentsConfig agents,
         List<BindingConfig> bindings,
         SessionConfig session
 ) {
-    public record GatewayConfig(int port, String adminToken, int agentTimeoutSeconds, int shutdownTimeoutSeconds) {
-        public GatewayConfig() { this(8080, "jclaw-admin", 60, 10); }
+    /**
+     * @param uiDir directory whose files the web channel serves in place of (or beside) its
+     *              built-in chat page; null serves the built-in page only
+     */
+    public record GatewayConfig(int port, String adminToken, int agentTimeoutSeconds, int shutdownTimeoutSeconds,
+                                HttpConfig http, WebSocketConfig websocket, JobsConfig jobs, String uiDir) {
+        public GatewayConfig() {
+            this(8080, "jclaw-admin", 60, 10, new HttpConfig(), new WebSocketConfig(), new JobsConfig(), null);
+        }
     }
 
+    /**
+     * HTTP server behind the web channel.
+     *
+     * @param transport        {@code virtual} (keep-alive, pipelining, one virtual thread per
+     *                         connection) or {@code jdk} (the JDK's built-in server)
+     * @param backlog          pending connections the OS queues before refusing new ones
+     * @param maxConnections   open connections; more are answered 503 and closed
+     * @param keepAliveSeconds how long an idle connection is kept open for its next request
+     * @param maxRequestBytes  largest request body accepted; larger ones are answered 413
+     * @param maxHeaderBytes   largest request line plus headers accepted; larger ones are answered 431
+     */
+    public record HttpConfig(
+            String transport,
+            int backlog,
+            int maxConnections,
+            int keepAliveSeconds,
+            int maxRequestBytes,
+            int maxHeaderBytes
+    ) {
+        public HttpConfig() { this("virtual", 1024, 10_000, 30, 1 << 20, 16 << 10); }
+    }
+
+    /**
+     * WebSocket channel at {@code /ws} on the web channel's port (virtual transport only).
+     *
+     * @param enabled               accept WebSocket connections
+     * @param maxMessageBytes       largest message accepted from a client; larger ones close the connection
+     * @param sendQueueBytes        bytes queued for one connection before senders wait for the client
+     * @param sendTimeoutSeconds    how long a sender waits on a full queue before the client is
+     *                              dropped as too slow
+     * @param pingSeconds           idle time after which the server pings; a client silent for two
+     *                              intervals is disconnected
+     * @param maxTurnsPerConnection agent turns one connection may have running at once
+     */
+    public record WebSocketConfig(
+            boolean enabled,
+            int maxMessageBytes,
+            int sendQueueBytes,
+            int sendTimeoutSeconds,
+            int pingSeconds,
+            int maxTurnsPerConnection
+    ) {
+        public WebSocketConfig() { this(true, 1 << 20, 1 << 20, 10, 30, 8); }
+    }
+
+    /**
+     * Asynchronous chat jobs ({@code POST /api/chat?async=true}).
+     *
+     * @param maxJobs               jobs held at once, running or finished; when full, the oldest
+     *                              finished job is dropped early, and with none finished new jobs are refused
+     * @param ttlSeconds            how long a finished job's result can still be fetched
+     * @param timeoutSeconds        turn timeout for jobs, in place of {@code agentTimeoutSeconds}
+     * @param webhookTimeoutSeconds time allowed for one webhook delivery
+     * @param webhookAttempts       deliveries tried before a webhook is given up on
+     * @param webhookPrefixes       where webhooks may go, as URLs: a webhook needs the same scheme,
+     *                              host and port as one of them and a path under its path; empty
+     *                              refuses webhooks
+     */
+    public record JobsConfig(
+            int maxJobs,
+            int ttlSeconds,
+            int timeoutSeconds,
+            int webhookTimeoutSeconds,
+            int webhookAttempts,
+            List<String> webhookPrefixes
+    ) {
+        public JobsConfig() { this(10_000, 3600, 900, 10, 3, List.of()); }
+    }
+
+    /**
+     * @param contextTokens estimated tokens of conversation history sent to the model before it
+     *                      is compacted; 0 disables compaction
+     * @param limits        rate and concurrency limits applied to every agent on this model
+     * @param batchSize     local providers ({@code ollama}): requests sent together, matching the
+     *                      server's parallel slots; 0 disables batching
+     * @param batchWindowMillis how long a request waits for others to join its batch
+     * @param promptCaching ask the provider to cache the stable prompt prefix (instruction, skill
+     *                      catalog, tools); only Anthropic needs asking, others cache on their own
+     */
     public record ModelDef(
             String id,
             String provider,
             String model,
             String apiKeyEnvVar,
-            String baseUrl
+            String baseUrl,
+            int contextTokens,
+            ModelLimits limits,
+            int batchSize,
+            int batchWindowMillis,
+            boolean promptCaching
     ) {}
 
+    /**
+     * @param requestsPerMinute model calls per minute; 0 = unlimited
+     * @param tokensPerMinute   prompt plus completion tokens per minute; 0 = unlimited
+     * @param maxConcurrent     upper bound of the adaptive limit on calls running on the model at once
+     * @param maxQueued         calls allowed to wait for the model before new ones are rejected
+     */
+    public record ModelLimits(int requestsPerMinute, int tokensPerMinute, int maxConcurrent, int maxQueued) {
+        public ModelLimits() { this(0, 0, 16, 64); }
+    }
+
+    /**
+     * HTTP client shared by every LangChain4j-backed model.
+     *
+     * @param maxConnectionsPerHost concurrent requests (HTTP/1.1 connections) allowed per provider host
+     * @param keepAliveSeconds      how long idle connections stay open for reuse
+     * @param warmUp                open connections to every configured provider at startup
+     */
+    public record ModelClientConfig(
+            int maxConnectionsPerHost,
+            int keepAliveSeconds,
+            int connectTimeoutSeconds,
+            int readTimeoutSeconds,
+            boolean warmUp
+    ) {
+        public ModelClientConfig() { this(16, 300, 10, 60, true); }
+    }
+
     public record AgentsConfig(
             String defaultAgent,
             List<AgentDef> list,
@@ -33,16 +152,67 @@ public record JClawConfig(
         public AgentsConfig() { this("assistant", List.of(), new AgentDefaults()); }
     }
 
+    /**
+     * @param skillsTopK  when the agent has more skills than this, each turn lists only the K
+     *                    most relevant to the user message instead of the whole catalog; 0 = always
+     *                    list the whole catalog
+     * @param compaction context compaction strategies, applied in order when the history exceeds
+     *                   the model's {@code contextTokens}: {@code prune-tool-outputs}, {@code summarize},
+     *                   {@code sliding-window}; empty uses pruning plus the sliding window
+     * @param responseCache reply cache consulted before a turn is admitted; null disables it
+     * @param fallbackModelIds models tried in order when {@code modelId} fails or times out
+     * @param failover      failover and hedging policy for {@code fallbackModelIds}
+     */
     public record AgentDef(
             String id,
             String modelId,
             String instruction,
             String workspace,
-            List<String> skills
+            List<String> skills,
+            int skillsTopK,
+            List<String> compaction,
+            ResponseCacheConfig responseCache,
+            List<String> fallbackModelIds,
+            FailoverConfig failover
     ) {}
 
-    public record AgentDefaults(int maxConcurrent) {
-        public AgentDefaults() { this(4); }
+    /**
+     * @param attemptTimeoutSeconds time a model gets to start responding before the next one is
+     *                              tried; 0 waits for the model's own timeout
+     * @param hedge                 also send a slow request to the next model and keep the first answer
+     * @param hedgeDelayMillis      delay before hedging until enough latencies are recorded for a p95
+     */
+    public record FailoverConfig(int attemptTimeoutSeconds, boolean hedge, int hedgeDelayMillis) {
+        public FailoverConfig() { this(30, false, 2000); }
+    }
+
+    /**
+     * @param maxEntries       replies kept before the least recently used one is dropped
+     * @param ttlSeconds       how long a cached reply may be served
+     * @param contextEntries   only turns whose session history has at most this many entries are
+     *                         cached; 0 caches only the first turn of a session
+     * @param embeddingModelId model ({@code openai} or {@code ollama}) that embeds messages for
+     *                         similarity matches; null serves exact matches only
+     * @param similarity       minimum cosine similarity for a similarity match
+     */
+    public record ResponseCacheConfig(
+            int maxEntries,
+            int ttlSeconds,
+            int contextEntries,
+            String embeddingModelId,
+            double similarity
+    ) {
+        public ResponseCacheConfig() { this(1000, 3600, 0, null, 0.95); }
+    }
+
+    /**
+     * @param maxConcurrent       agent turns running at once across all sessions
+     * @param maxQueued           turns allowed to wait for a slot before new ones are rejected
+     * @param maxQueuedPerAgent   waiting turns allowed per agent
+     * @param maxQueuedPerSession waiting turns allowed per session
+     */
+    public record AgentDefaults(int maxConcurrent, int maxQueued, int maxQueuedPerAgent, int maxQueuedPerSession) {
+        public AgentDefaults() { this(4, 64, 32, 4); }
     }
 
     public record BindingConfig(
@@ -52,10 +222,22 @@ public record JClawConfig(
             Map<String, String> filter
     ) {}
 
+    /**
+     * @param maxResident     sessions kept in memory before the least valuable is flushed and evicted
+     * @param idleTtlMinutes  idle time after which a session is flushed and evicted
+     * @param durability      {@code none}, {@code batched} or {@code per-turn} fsync policy for the store
+     * @param syncIntervalMillis fsync interval for {@code batched} durability; 0 syncs after every write batch
+     * @param rehydrateEntries  entries loaded back into memory when an evicted session returns; 0 loads all
+     */
     public record SessionConfig(
             String store,
-            String dmScope
+            String dmScope,
+            int maxResident,
+            int idleTtlMinutes,
+            String durability,
+            int syncIntervalMillis,
+            int rehydrateEntries
     ) {
-        public SessionConfig() { this("~/.jclaw/sessions", "main"); }
+        public SessionConfig() { this("~/.jclaw/sessions", "main", 10_000, 30, "batched", 200, 200); }
     }
 }
@@ -0,0 +1,59 @@
+package com.jclaw.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * One HTTP request and its response, independent of the {@link HttpTransport} serving it.
+ *
+ * <p>A handler answers with either {@link #respond} or {@link #respondStreaming}, once. If it
+ * returns without answering, the transport answers 500; a streamed body left open is ended
+ * for it.
+ */
+public interface Exchange {
+
+    String method();
+
+    /** Decoded request path, without the query. */
+    String path();
+
+    /** Raw query string, or null if there is none. */
+    String query();
+
+    /** First value of a request header (case-insensitive name), or null. */
+    String requestHeader(String name);
+
+    /**
+     * The request body. The transport has already refused bodies over its size limit, so
+     * reading it whole is safe.
+     */
+    InputStream requestBody();
+
+    /** Set a response header; call before answering. */
+    void responseHeader(String name, String value);
+
+    /** Answer with a complete body. */
+    void respond(int status, byte[] body) throws IOException;
+
+    /**
+     * Send the status and headers now and return a stream for a body of unknown length; each
+     * {@code flush()} pushes what was written to the client, and {@code close()} ends the response.
+     */
+    OutputStream respondStreaming(int status) throws IOException;
+
+    /** Whether this transport can hand the connection over with {@link #upgrade}. */
+    default boolean supportsUpgrade() {
+        return false;
+    }
+
+    /**
+     * Answer {@code 101 Switching Protocols} to {@code protocol}, with the headers set so far,
+     * then run {@code session} on the connection's streams, on the calling thread. Returns
+     * once {@code session} has, and the connection is then closed; it serves no further HTTP
+     * requests. Only where {@link #supportsUpgrade} is true.
+     */
+    default void upgrade(String protocol, UpgradeHandler session) throws IOException {
+        throw new UnsupportedOperationException("This HTTP transport cannot switch protocols");
+    }
+}
@@ -0,0 +1,520 @@
+package com.jclaw.http;
+
+import com.jclaw.config.JClawConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One client connection of the {@link VirtualThreadHttpTransport}: reads HTTP/1.1 requests
+ * one after another (pipelined ones included) and runs the handler for each on the
+ * connection's own virtual thread, until the client closes, asks to close, idles past the
+ * keep-alive time, or sends something malformed. A handler may also take the connection over
+ * for another protocol with {@link Exchange#upgrade}.
+ */
+final class HttpConnection {
+
+    private static final Logger log = LoggerFactory.getLogger(HttpConnection.class);
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final Socket socket;
+    private final JClawConfig.HttpConfig config;
+    private final HttpHandler handler;
+    private final LongAdder requests;
+    private final LongAdder tooLarge;
+    private InputStream in;
+    private OutputStream out;
+
+    HttpConnection(Socket socket, JClawConfig.HttpConfig config, HttpHandler handler,
+                   LongAdder requests, LongAdder tooLarge) {
+        this.socket = socket;
+        this.config = config;
+        this.handler = handler;
+        this.requests = requests;
+        this.tooLarge = tooLarge;
+    }
+
+    void serve() throws IOException {
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(config.keepAliveSeconds()));
+        in = new BufferedInputStream(socket.getInputStream(), 8192);
+        out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+        while (true) {
+            Request request;
+            try {
+                request = readHead();
+            } catch (SocketTimeoutException e) {
+                return;
+            } catch (Malformed e) {
+                writeError(e.status);
+                return;
+            }
+            if (request == null) return;
+            requests.increment();
+
+            InputStream body;
+            try {
+                body = body(request);
+            } catch (Malformed e) {
+                writeError(e.status);
+                return;
+            }
+            var exchange = new ConnectionExchange(request, body);
+            try {
+                handler.handle(exchange);
+            } catch (IOException | RuntimeException e) {
+                if (exchange.committed) {
+                    // Part of a response is out; the only way to signal failure is to hang up
+                    log.debug("HTTP handler failed mid-response: {}", e.getMessage());
+                    return;
+                }
+                log.debug("HTTP handler failed: {}", e.getMessage());
+                exchange.keepAlive = false;
+                if (e instanceof TooLarge) tooLarge.increment();
+                int status = e instanceof TooLarge ? 413 : e instanceof Malformed m ? m.status : 500;
+                exchange.respond(status, new byte[0]);
+            }
+            if (exchange.upgraded) return;
+            if (!exchange.committed) exchange.respond(500, new byte[0]);
+            exchange.finish();
+            if (!exchange.keepAlive || !drain(body)) {
+                out.flush();
+                return;
+            }
+            // More pipelined requests already here: answer them before flushing
+            if (in.available() == 0) out.flush();
+        }
+    }
+
+    // ── Requests ────────────────────────────────────────────────────────
+
+    private record Request(String method, String path, String query, boolean http11, Map<String, String> headers) {
+        String header(String name) {
+            return headers.get(name);
+        }
+    }
+
+    /** Request line and headers; null if the client closed the connection between requests. */
+    private Request readHead() throws IOException {
+        int[] budget = {config.maxHeaderBytes()};
+        String line;
+        do {
+            line = readLine(budget);
+            if (line == null) return null;
+        } while (line.isEmpty());  // stray CRLF between requests is allowed
+
+        String[] parts = line.split(" ");
+        if (parts.length != 3 || !parts[2].startsWith("HTTP/1.")) throw new Malformed(400);
+        URI uri;
+        try {
+            uri = new URI(parts[1]);
+        } catch (URISyntaxException e) {
+            throw new Malformed(400);
+        }
+
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        while (true) {
+            String header = readLine(budget);
+            if (header == null) throw new Malformed(400);
+            if (header.isEmpty()) break;
+            int colon = header.indexOf(':');
+            if (colon <= 0) throw new Malformed(400);
+            headers.merge(header.substring(0, colon).strip(), header.substring(colon + 1).strip(),
+                    (a, b) -> a + ", " + b);
+        }
+        return new Request(parts[0], uri.getPath(), uri.getRawQuery(), parts[2].equals("HTTP/1.1"), headers);
+    }
+
+    /** One CRLF- (or LF-) terminated line, charged to the header budget; null on end of stream before any byte. */
+    private String readLine(int[] budget) throws IOException {
+        var line = new StringBuilder();
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                if (line.isEmpty()) return null;
+                throw new Malformed(400);
+            }
+            if (--budget[0] < 0) throw new Malformed(431);
+            if (b == '\n') break;
+            line.append((char) b);
+        }
+        int end = line.length();
+        if (end > 0 && line.charAt(end - 1) == '\r') line.setLength(end - 1);
+        return line.toString();
+    }
+
+    private InputStream body(Request request) throws IOException {
+        String encoding = request.header("Transfer-Encoding");
+        String length = request.header("Content-Length");
+        InputStream body;
+        if (encoding != null) {
+            if (!encoding.equalsIgnoreCase("chunked")) throw new Malformed(501);
+            body = new ChunkedBody();
+        } else if (length != null) {
+            // Digits only: no sign, and no list of lengths from repeated headers
+            long n = parseDigits(length, 10, 18);
+            if (n < 0) throw new Malformed(400);
+            if (n > config.maxRequestBytes()) {
+                tooLarge.increment();
+                throw new Malformed(413);
+            }
+            body = new FixedBody(n);
+        } else {
+            return InputStream.nullInputStream();
+        }
+        if (request.http11() && "100-continue".equalsIgnoreCase(request.header("Expect"))) {
+            out.write(CONTINUE);
+            out.flush();
+        }
+        return body;
+    }
+
+    /**
+     * A non-negative number written with 1 to {@code maxDigits} digits of {@code radix} and
+     * nothing else, or -1. Stricter than {@link Long#parseLong}, which takes a sign.
+     */
+    static long parseDigits(String s, int radix, int maxDigits) {
+        if (s.isEmpty() || s.length() > maxDigits) return -1;
+        long n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            int digit = c < 0x80 ? Character.digit(c, radix) : -1;
+            if (digit < 0) return -1;
+            n = n * radix + digit;
+        }
+        return n;
+    }
+
+    /** Skip what the handler left unread, so the next request starts in the right place. */
+    private static boolean drain(InputStream body) {
+        try {
+            body.transferTo(OutputStream.nullOutputStream());
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** A body of known length. */
+    private final class FixedBody extends InputStream {
+        private long remaining;
+
+        FixedBody(long length) {
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) return -1;
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n < 0) throw new IOException("Connection closed mid-body");
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(remaining, in.available());
+        }
+    }
+
+    /** A chunked body, refused once it passes the size limit. */
+    private final class ChunkedBody extends InputStream {
+        private long chunkRemaining;
+        private long total;
+        private boolean done;
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (done) return -1;
+            if (chunkRemaining == 0 && !nextChunk()) return -1;
+            int n = in.read(b, off, (int) Math.min(len, chunkRemaining));
+            if (n < 0) throw new IOException("Connection closed mid-body");
+            chunkRemaining -= n;
+            if (chunkRemaining == 0) {
+                // Chunk data ends with CRLF
+                int cr = in.read();
+                int lf = cr == '\r' ? in.read() : cr;
+                if (lf < 0) throw new IOException("Connection closed mid-body");
+                if (lf != '\n') throw new Malformed(400);
+            }
+            return n;
+        }
+
+        private boolean nextChunk() throws IOException {
+            int[] budget = {config.maxHeaderBytes()};
+            String line = readLine(budget);
+            if (line == null) throw new IOException("Connection closed mid-body");
+            int semicolon = line.indexOf(';');
+            // Hex digits only (no sign or prefix), at most 15 so the size cannot overflow
+            chunkRemaining = parseDigits((semicolon >= 0 ? line.substring(0, semicolon) : line).stripTrailing(), 16, 15);
+            if (chunkRemaining < 0) throw new Malformed(400);
+            if (chunkRemaining == 0) {
+                // Trailer section, ignored
+                String trailer;
+                while ((trailer = readLine(budget)) != null && !trailer.isEmpty()) { }
+                if (trailer == null) throw new IOException("Connection closed mid-body");
+                done = true;
+                return false;
+            }
+            total += chunkRemaining;
+            if (total > config.maxRequestBytes()) throw new TooLarge();
+            return true;
+        }
+    }
+
+    // ── Responses ───────────────────────────────────────────────────────
+
+    private final class ConnectionExchange implements Exchange {
+        private final Request request;
+        private final InputStream body;
+        private final Map<String, String> responseHeaders = new LinkedHashMap<>();
+        private boolean keepAlive;
+        private boolean committed;
+        private boolean upgraded;
+        private OutputStream stream;
+
+        ConnectionExchange(Request request, InputStream body) {
+            this.request = request;
+            this.body = body;
+            String connection = request.header("Connection");
+            this.keepAlive = request.http11()
+                    ? !"close".equalsIgnoreCase(connection)
+                    : "keep-alive".equalsIgnoreCase(connection);
+        }
+
+        @Override
+        public String method() {
+            return request.method();
+        }
+
+        @Override
+        public String path() {
+            return request.path();
+        }
+
+        @Override
+        public String query() {
+            return request.query();
+        }
+
+        @Override
+        public String requestHeader(String name) {
+            return request.header(name);
+        }
+
+        @Override
+        public InputStream requestBody() {
+            return body;
+        }
+
+        @Override
+        public void responseHeader(String name, String value) {
+            if (name.equalsIgnoreCase("Connection") && value.equalsIgnoreCase("close")) keepAlive = false;
+            responseHeaders.put(name, value);
+        }
+
+        @Override
+        public void respond(int status, byte[] body) throws IOException {
+            writeHead(status, body.length);
+            if (!request.method().equals("HEAD")) out.write(body);
+        }
+
+        @Override
+        public OutputStream respondStreaming(int status) throws IOException {
+            // HTTP/1.0 has no chunked encoding: the body ends when the connection does
+            if (!request.http11()) keepAlive = false;
+            writeHead(status, -1);
+            out.flush();
+            if (request.method().equals("HEAD")) return stream = OutputStream.nullOutputStream();
+            return stream = request.http11() ? new ChunkedOutput() : new UnframedOutput();
+        }
+
+        @Override
+        public boolean supportsUpgrade() {
+            return true;
+        }
+
+        /** The session runs without the keep-alive read timeout; it keeps its own liveness. */
+        @Override
+        public void upgrade(String protocol, UpgradeHandler session) throws IOException {
+            if (committed) throw new IllegalStateException("Response already sent");
+            committed = true;
+            upgraded = true;
+            keepAlive = false;
+            var head = new StringBuilder(128).append("HTTP/1.1 101 Switching Protocols\r\n")
+                    .append("Upgrade: ").append(protocol).append("\r\nConnection: Upgrade\r\n");
+            responseHeaders.remove("Connection");
+            responseHeaders.forEach((name, value) -> head.append(name).append(": ").append(value).append("\r\n"));
+            out.write(head.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            socket.setSoTimeout(0);
+            session.handle(in, out);
+        }
+
+        /** End a streamed body the handler left open. */
+        void finish() throws IOException {
+            if (stream != null) stream.close();
+        }
+
+        private void writeHead(int status, long length) throws IOException {
+            if (committed) throw new IllegalStateException("Response already sent");
+            committed = true;
+            var head = new StringBuilder(128)
+                    .append(request.http11() ? "HTTP/1.1 " : "HTTP/1.0 ").append(status).append(' ')
+                    .append(reason(status)).append("\r\n");
+            responseHeaders.remove("Connection");
+            responseHeaders.forEach((name, value) -> head.append(name).append(": ").append(value).append("\r\n"));
+            if (status == 204 || status == 304) {
+                // No body and no framing: a 304's Content-Length would describe the cached body
+            } else if (length >= 0) {
+                head.append("Content-Length: ").append(length).append("\r\n");
+            } else if (request.http11()) {
+                head.append("Transfer-Encoding: chunked\r\n");
+            }
+            if (!keepAlive) {
+                head.append("Connection: close\r\n");
+            } else if (!request.http11()) {
+                head.append("Connection: keep-alive\r\n");
+            }
+            out.write(head.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    /** HTTP/1.1 streamed body: every write is one chunk. */
+    private final class ChunkedOutput extends OutputStream {
+        private boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) throw new IOException("Stream closed");
+            if (len == 0) return;
+            out.write(Integer.toHexString(len).getBytes(StandardCharsets.US_ASCII));
+            out.write(CRLF);
+            out.write(b, off, len);
+            out.write(CRLF);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            out.write(LAST_CHUNK);
+            out.flush();
+        }
+    }
+
+    /** HTTP/1.0 streamed body, ended by closing the connection. */
+    private final class UnframedOutput extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+
+    private void writeError(int status) throws IOException {
+        out.write(("HTTP/1.1 %d %s\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+                .formatted(status, reason(status))).getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    private static String reason(int status) {
+        return switch (status) {
+            case 200 -> "OK";
+            case 201 -> "Created";
+            case 202 -> "Accepted";
+            case 204 -> "No Content";
+            case 304 -> "Not Modified";
+            case 400 -> "Bad Request";
+            case 403 -> "Forbidden";
+            case 404 -> "Not Found";
+            case 405 -> "Method Not Allowed";
+            case 413 -> "Content Too Large";
+            case 426 -> "Upgrade Required";
+            case 429 -> "Too Many Requests";
+            case 431 -> "Request Header Fields Too Large";
+            case 500 -> "Internal Server Error";
+            case 501 -> "Not Implemented";
+            case 503 -> "Service Unavailable";
+            default -> "Status " + status;
+        };
+    }
+
+    /** A request the connection cannot continue after; answered with {@code status} and closed. */
+    private static final class Malformed extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        Malformed(int status) {
+            super("HTTP " + status, null);
+            this.status = status;
+        }
+    }
+
+    /** A request body passed the size limit while the handler was reading it. */
+    static final class TooLarge extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        TooLarge() {
+            super("Request body too large");
+        }
+    }
+}
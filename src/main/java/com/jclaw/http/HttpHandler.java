@@ -0,0 +1,10 @@
+package com.jclaw.http;
+
+import java.io.IOException;
+
+/** Handles one HTTP request; see {@link Exchange} for what it must do before returning. */
+@FunctionalInterface
+public interface HttpHandler {
+
+    void handle(Exchange exchange) throws IOException;
+}
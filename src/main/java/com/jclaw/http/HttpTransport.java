@@ -0,0 +1,25 @@
+package com.jclaw.http;
+
+import com.jclaw.config.JClawConfig;
+import com.jclaw.metrics.Metrics;
+
+import java.io.IOException;
+
+/** An HTTP server that a channel runs its handler on; chosen by {@code gateway.http.transport}. */
+public interface HttpTransport {
+
+    /** Bind and start serving in the background. */
+    void start(HttpHandler handler) throws IOException;
+
+    /** Stop accepting connections, give running requests a moment to finish, then close the rest. */
+    void stop();
+
+    static HttpTransport create(int port, JClawConfig.HttpConfig config, Metrics metrics) {
+        return switch (config.transport()) {
+            case "virtual" -> new VirtualThreadHttpTransport(port, config, metrics);
+            case "jdk" -> new JdkHttpTransport(port, config, metrics);
+            default -> throw new IllegalStateException(
+                    "Unknown HTTP transport '%s' (valid: virtual, jdk)".formatted(config.transport()));
+        };
+    }
+}
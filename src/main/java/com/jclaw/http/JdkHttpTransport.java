@@ -0,0 +1,185 @@
+package com.jclaw.http;
+
+import com.jclaw.config.JClawConfig;
+import com.jclaw.metrics.Metrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The JDK's built-in {@link HttpServer}, with a virtual thread per request. Honours
+ * {@code backlog} and {@code maxRequestBytes}: a declared {@code Content-Length} over the
+ * limit is refused up front, and any body, chunked ones included, fails with 413 once the
+ * handler has read past the limit. Connection handling is the JDK's own.
+ */
+final class JdkHttpTransport implements HttpTransport {
+
+    private static final Logger log = LoggerFactory.getLogger(JdkHttpTransport.class);
+
+    private final int port;
+    private final JClawConfig.HttpConfig config;
+    private final LongAdder requests;
+    private final LongAdder tooLarge;
+    private HttpServer server;
+
+    JdkHttpTransport(int port, JClawConfig.HttpConfig config, Metrics metrics) {
+        this.port = port;
+        this.config = config;
+        this.requests = metrics.counter("http.requests");
+        this.tooLarge = metrics.counter("http.tooLarge");
+    }
+
+    @Override
+    public void start(HttpHandler handler) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), config.backlog());
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/", ex -> serve(ex, handler));
+        server.start();
+    }
+
+    @Override
+    public void stop() {
+        if (server != null) server.stop(1);
+    }
+
+    private void serve(HttpExchange ex, HttpHandler handler) throws IOException {
+        requests.increment();
+        var exchange = new JdkExchange(ex, new LimitedBody(ex.getRequestBody(), config.maxRequestBytes()));
+        // The exchange is closed after the catch, so a failed handler can still be answered
+        try (ex) {
+            try {
+                String length = ex.getRequestHeaders().getFirst("Content-Length");
+                if (length != null && parseLength(length) > config.maxRequestBytes()) {
+                    tooLarge.increment();
+                    exchange.responseHeader("Connection", "close");
+                    exchange.respond(413, new byte[0]);
+                    return;
+                }
+                handler.handle(exchange);
+                if (!exchange.answered) exchange.respond(500, new byte[0]);
+            } catch (IOException | RuntimeException e) {
+                log.debug("HTTP request failed: {}", e.getMessage());
+                boolean tooLong = e instanceof HttpConnection.TooLarge;
+                if (tooLong) tooLarge.increment();
+                if (!exchange.answered) {
+                    if (tooLong) exchange.responseHeader("Connection", "close");
+                    exchange.respond(tooLong ? 413 : 500, new byte[0]);
+                }
+            }
+        }
+    }
+
+    private static long parseLength(String value) {
+        try {
+            return Long.parseLong(value.strip());
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /** A request body that fails once more than {@code maxBytes} have been read from it. */
+    private static final class LimitedBody extends FilterInputStream {
+        private final long maxBytes;
+        private long total;
+
+        LimitedBody(InputStream in, long maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) count(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) count(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        private void count(long n) throws IOException {
+            total += n;
+            if (total > maxBytes) throw new HttpConnection.TooLarge();
+        }
+    }
+
+    private static final class JdkExchange implements Exchange {
+        private final HttpExchange ex;
+        private final InputStream body;
+        private boolean answered;
+
+        JdkExchange(HttpExchange ex, InputStream body) {
+            this.ex = ex;
+            this.body = body;
+        }
+
+        @Override
+        public String method() {
+            return ex.getRequestMethod();
+        }
+
+        @Override
+        public String path() {
+            return ex.getRequestURI().getPath();
+        }
+
+        @Override
+        public String query() {
+            return ex.getRequestURI().getRawQuery();
+        }
+
+        @Override
+        public String requestHeader(String name) {
+            return ex.getRequestHeaders().getFirst(name);
+        }
+
+        @Override
+        public InputStream requestBody() {
+            return body;
+        }
+
+        @Override
+        public void responseHeader(String name, String value) {
+            ex.getResponseHeaders().set(name, value);
+        }
+
+        @Override
+        public void respond(int status, byte[] body) throws IOException {
+            answered = true;
+            boolean head = "HEAD".equalsIgnoreCase(ex.getRequestMethod());
+            ex.sendResponseHeaders(status, head || body.length == 0 ? -1 : body.length);
+            if (!head && body.length > 0) {
+                try (var os = ex.getResponseBody()) {
+                    os.write(body);
+                }
+            }
+        }
+
+        @Override
+        public OutputStream respondStreaming(int status) throws IOException {
+            answered = true;
+            ex.sendResponseHeaders(status, 0);
+            return ex.getResponseBody();
+        }
+    }
+}
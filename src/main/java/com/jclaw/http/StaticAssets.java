@@ -0,0 +1,224 @@
+package com.jclaw.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Static files served from memory. Each asset is read, hashed and compressed once, when it is
+ * added, so serving one is a header lookup and a write of a ready byte array.
+ *
+ * <p>Every asset gets a gzip form, compressed here unless the UI directory has a {@code .gz}
+ * file beside it, and, if there is a {@code .br} file beside it, a brotli form (the JDK has
+ * no brotli encoder). A compressed form is kept only when it is smaller than the plain
+ * bytes. {@code Accept-Encoding} picks brotli, then gzip, then the plain bytes. Each form has
+ * its own strong ETag, and a request whose {@code If-None-Match} names any of them is
+ * answered 304. HTML is sent with {@code Cache-Control: no-cache}, so browsers revalidate it
+ * on each load (a 304 when it has not changed); other assets may be cached for an hour.
+ *
+ * <p>Assets are added at startup, before the server starts; serving does not change them.
+ */
+public final class StaticAssets {
+
+    private static final Logger log = LoggerFactory.getLogger(StaticAssets.class);
+
+    /** Files larger than this in a UI directory are skipped rather than held in memory. */
+    private static final long MAX_ASSET_BYTES = 16 << 20;
+
+    private static final Map<String, String> CONTENT_TYPES = Map.ofEntries(
+            Map.entry("html", "text/html; charset=utf-8"),
+            Map.entry("htm", "text/html; charset=utf-8"),
+            Map.entry("css", "text/css; charset=utf-8"),
+            Map.entry("js", "text/javascript; charset=utf-8"),
+            Map.entry("mjs", "text/javascript; charset=utf-8"),
+            Map.entry("json", "application/json"),
+            Map.entry("map", "application/json"),
+            Map.entry("txt", "text/plain; charset=utf-8"),
+            Map.entry("svg", "image/svg+xml"),
+            Map.entry("png", "image/png"),
+            Map.entry("jpg", "image/jpeg"),
+            Map.entry("jpeg", "image/jpeg"),
+            Map.entry("gif", "image/gif"),
+            Map.entry("webp", "image/webp"),
+            Map.entry("ico", "image/x-icon"),
+            Map.entry("woff", "font/woff"),
+            Map.entry("woff2", "font/woff2"),
+            Map.entry("wasm", "application/wasm"));
+
+    /** One encoding of an asset. */
+    private record Form(String coding, byte[] bytes, String etag) {}
+
+    /** An asset, in its plain form and whichever compressed forms are smaller. */
+    private record Asset(String contentType, String cacheControl, Form identity, Form gzip, Form brotli) {
+        boolean matches(String ifNoneMatch) {
+            for (var tag : ifNoneMatch.split(",")) {
+                tag = tag.strip();
+                if (tag.startsWith("W/")) tag = tag.substring(2);
+                if (tag.equals("*") || tag.equals(identity.etag())
+                        || (gzip != null && tag.equals(gzip.etag()))
+                        || (brotli != null && tag.equals(brotli.etag()))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final Map<String, Asset> assets = new HashMap<>();
+
+    /**
+     * Add an asset served at {@code path} (e.g. {@code /index.html}, which is also served at
+     * {@code /}). The content type follows the file extension.
+     */
+    public void add(String path, byte[] content) {
+        add(path, content, null, null);
+    }
+
+    /**
+     * Add every file under {@code dir}, replacing assets at the same paths. A {@code .br} or
+     * {@code .gz} file next to another file is used as that file's precompressed form rather
+     * than served itself. Hidden files are skipped.
+     */
+    public void addDirectory(Path dir) throws IOException {
+        List<Path> files;
+        try (var walk = Files.walk(dir)) {
+            files = walk.filter(Files::isRegularFile).toList();
+        }
+        int added = 0;
+        for (var file : files) {
+            var relative = dir.relativize(file);
+            String name = file.getFileName().toString();
+            if (name.startsWith(".") || isPrecompressed(file)) continue;
+            if (Files.size(file) > MAX_ASSET_BYTES) {
+                log.warn("Skipping UI file {}: larger than {} bytes", relative, MAX_ASSET_BYTES);
+                continue;
+            }
+            add("/" + relative.toString().replace(file.getFileSystem().getSeparator(), "/"), Files.readAllBytes(file),
+                    readIfPresent(file.resolveSibling(name + ".gz")), readIfPresent(file.resolveSibling(name + ".br")));
+            added++;
+        }
+        log.info("Loaded {} UI file(s) from {}", added, dir);
+    }
+
+    /**
+     * Answer {@code ex} if its path is an asset: the best encoding the client accepts, or 304
+     * if the client's copy is current. Returns false, having sent nothing, for any other path.
+     */
+    public boolean serve(Exchange ex) throws IOException {
+        String path = ex.path();
+        var asset = assets.get(path.endsWith("/") ? path + "index.html" : path);
+        if (asset == null) return false;
+        if (!"GET".equalsIgnoreCase(ex.method()) && !"HEAD".equalsIgnoreCase(ex.method())) {
+            ex.responseHeader("Allow", "GET, HEAD");
+            ex.respond(405, new byte[0]);
+            return true;
+        }
+        var form = negotiate(asset, ex.requestHeader("Accept-Encoding"));
+        ex.responseHeader("Cache-Control", asset.cacheControl());
+        ex.responseHeader("ETag", form.etag());
+        if (asset.gzip() != null || asset.brotli() != null) ex.responseHeader("Vary", "Accept-Encoding");
+        String ifNoneMatch = ex.requestHeader("If-None-Match");
+        if (ifNoneMatch != null && asset.matches(ifNoneMatch)) {
+            ex.respond(304, new byte[0]);
+            return true;
+        }
+        ex.responseHeader("Content-Type", asset.contentType());
+        if (form.coding() != null) ex.responseHeader("Content-Encoding", form.coding());
+        ex.respond(200, form.bytes());
+        return true;
+    }
+
+    private void add(String path, byte[] content, byte[] gzip, byte[] brotli) {
+        String contentType = contentType(path);
+        String etag = etag(content);
+        if (gzip == null) gzip = gzip(content);
+        var asset = new Asset(contentType,
+                contentType.startsWith("text/html") ? "no-cache" : "public, max-age=3600",
+                new Form(null, content, '"' + etag + '"'),
+                gzip.length < content.length ? new Form("gzip", gzip, "\"" + etag + "-gz\"") : null,
+                brotli != null && brotli.length < content.length ? new Form("br", brotli, "\"" + etag + "-br\"") : null);
+        assets.put(path, asset);
+    }
+
+    private static Form negotiate(Asset asset, String acceptEncoding) {
+        if (acceptEncoding == null) return asset.identity();
+        if (asset.brotli() != null && accepts(acceptEncoding, "br")) return asset.brotli();
+        if (asset.gzip() != null && accepts(acceptEncoding, "gzip")) return asset.gzip();
+        return asset.identity();
+    }
+
+    /** Whether {@code coding} is listed, or covered by {@code *}, with a non-zero quality. */
+    private static boolean accepts(String acceptEncoding, String coding) {
+        boolean any = false;
+        for (var item : acceptEncoding.split(",")) {
+            int semi = item.indexOf(';');
+            String name = (semi < 0 ? item : item.substring(0, semi)).strip();
+            boolean allowed = semi < 0 || quality(item.substring(semi + 1)) > 0;
+            if (name.equalsIgnoreCase(coding)) return allowed;
+            if (name.equals("*")) any = allowed;
+        }
+        return any;
+    }
+
+    private static double quality(String params) {
+        for (var param : params.split(";")) {
+            param = param.strip();
+            if (param.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(param.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    private static byte[] readIfPresent(Path file) throws IOException {
+        return Files.isRegularFile(file) ? Files.readAllBytes(file) : null;
+    }
+
+    private static boolean isPrecompressed(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(".br") && !name.endsWith(".gz")) return false;
+        return Files.isRegularFile(file.resolveSibling(name.substring(0, name.length() - 3)));
+    }
+
+    private static String contentType(String path) {
+        int dot = path.lastIndexOf('.');
+        String ext = dot > path.lastIndexOf('/') ? path.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+        return CONTENT_TYPES.getOrDefault(ext, "application/octet-stream");
+    }
+
+    private static String etag(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            return HexFormat.of().formatHex(digest, 0, 12);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    }
+
+    private static byte[] gzip(byte[] content) {
+        var bytes = new ByteArrayOutputStream(content.length / 4 + 64);
+        try (var gz = new GZIPOutputStream(bytes) {{ def.setLevel(Deflater.BEST_COMPRESSION); }}) {
+            gz.write(content);
+        } catch (IOException e) {
+            throw new IllegalStateException("gzip failed", e);
+        }
+        return bytes.toByteArray();
+    }
+}
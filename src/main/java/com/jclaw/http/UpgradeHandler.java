@@ -0,0 +1,16 @@
+package com.jclaw.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Speaks another protocol over a connection taken over with {@link Exchange#upgrade}. It has
+ * the connection to itself until it returns, after which the connection is closed; closing
+ * either stream closes the connection too.
+ */
+@FunctionalInterface
+public interface UpgradeHandler {
+
+    void handle(InputStream in, OutputStream out) throws IOException;
+}
@@ -0,0 +1,112 @@
+package com.jclaw.http;
+
+import com.jclaw.config.JClawConfig;
+import com.jclaw.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HTTP/1.1 server with one virtual thread per connection, doing plain blocking I/O; the JDK
+ * parks the virtual thread instead of a platform thread while a socket waits.
+ *
+ * <p>Connections are kept alive for {@code keepAliveSeconds} between requests, and pipelined
+ * requests are answered in order (responses are flushed once no further request is already
+ * buffered). Beyond {@code maxConnections} a new connection is answered 503 and closed.
+ */
+final class VirtualThreadHttpTransport implements HttpTransport {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadHttpTransport.class);
+
+    private static final byte[] BUSY = ("HTTP/1.1 503 Service Unavailable\r\n"
+            + "Content-Length: 0\r\nRetry-After: 1\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private final int port;
+    private final JClawConfig.HttpConfig config;
+    private final Semaphore slots;
+    private final Set<Socket> open = ConcurrentHashMap.newKeySet();
+    private final LongAdder requests;
+    private final LongAdder rejected;
+    private final LongAdder tooLarge;
+    private ServerSocket server;
+    private volatile boolean stopping;
+
+    VirtualThreadHttpTransport(int port, JClawConfig.HttpConfig config, Metrics metrics) {
+        this.port = port;
+        this.config = config;
+        this.slots = new Semaphore(config.maxConnections());
+        this.requests = metrics.counter("http.requests");
+        this.rejected = metrics.counter("http.rejectedConnections");
+        this.tooLarge = metrics.counter("http.tooLarge");
+        metrics.gauge("http.connections", open::size);
+    }
+
+    @Override
+    public void start(HttpHandler handler) throws IOException {
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(port), config.backlog());
+        Thread.ofVirtual().name("http-accept").start(() -> acceptLoop(handler));
+    }
+
+    @Override
+    public void stop() {
+        stopping = true;
+        try {
+            if (server != null) server.close();
+        } catch (IOException ignored) {}
+        // Give running requests a second, as HttpServer.stop(1) does, then cut the rest
+        try {
+            if (slots.tryAcquire(config.maxConnections(), 1, TimeUnit.SECONDS)) return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (var socket : open) {
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    private void acceptLoop(HttpHandler handler) {
+        while (!stopping) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (!stopping) log.error("HTTP accept failed: {}", e.getMessage());
+                return;
+            }
+            if (!slots.tryAcquire()) {
+                rejected.increment();
+                Thread.startVirtualThread(() -> reject(socket));
+                continue;
+            }
+            open.add(socket);
+            Thread.startVirtualThread(() -> {
+                try (socket) {
+                    new HttpConnection(socket, config, handler, requests, tooLarge).serve();
+                } catch (IOException e) {
+                    log.debug("HTTP connection closed: {}", e.getMessage());
+                } finally {
+                    open.remove(socket);
+                    slots.release();
+                }
+            });
+        }
+    }
+
+    private static void reject(Socket socket) {
+        try (socket) {
+            socket.getOutputStream().write(BUSY);
+        } catch (IOException ignored) {}
+    }
+}
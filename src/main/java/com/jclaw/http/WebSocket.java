@@ -0,0 +1,463 @@
+package com.jclaw.http;
+
+import com.jclaw.config.JClawConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A server-side WebSocket (RFC 6455) over a connection taken over with
+ * {@link Exchange#upgrade}. Text messages only; fragmented messages are reassembled.
+ *
+ * <p>The connection's own thread reads frames and hands each complete message to the
+ * {@link Listener}. Outgoing frames go through a per-connection queue that a writer thread
+ * drains, writing whatever has accumulated in one flush, so any thread may send. The queue is
+ * bounded by {@code sendQueueBytes}: a sender waits while it is full, and a client that has
+ * not caught up within {@code sendTimeoutSeconds} is cut off rather than buffered without
+ * limit: the socket is closed at once, since a close frame would queue behind the writes the
+ * client is not reading, and the listener is told 1013. An idle connection is pinged every {@code pingSeconds} and dropped
+ * if the client has been silent for two intervals. A client's pings are answered with one
+ * pong, for the latest, written ahead of the queue; a client that keeps pinging without
+ * reading the answers is disconnected with 1008.
+ */
+public final class WebSocket {
+
+    private static final Logger log = LoggerFactory.getLogger(WebSocket.class);
+
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private static final int CONTINUATION = 0x0;
+    private static final int TEXT = 0x1;
+    private static final int BINARY = 0x2;
+    private static final int CLOSE = 0x8;
+    private static final int PING = 0x9;
+    private static final int PONG = 0xA;
+
+    /** Pings a client may send while the pong for them waits to be written. */
+    static final int MAX_UNANSWERED_PINGS = 64;
+
+    public static final int NORMAL_CLOSURE = 1000;
+    public static final int GOING_AWAY = 1001;
+    public static final int PROTOCOL_ERROR = 1002;
+    public static final int UNSUPPORTED_DATA = 1003;
+    /** Reported when the connection ended without a close frame. */
+    public static final int ABNORMAL_CLOSURE = 1006;
+    public static final int POLICY_VIOLATION = 1008;
+    public static final int MESSAGE_TOO_BIG = 1009;
+    public static final int TRY_AGAIN_LATER = 1013;
+
+    /** Receives what the client sends, on the connection's reader thread, one call at a time. */
+    public interface Listener {
+
+        default void onOpen(WebSocket socket) {}
+
+        /** A complete text message, as its UTF-8 bytes. Long work belongs on another thread. */
+        void onText(WebSocket socket, byte[] message);
+
+        /**
+         * The connection has ended. {@code code} is the close code sent to the client (its own,
+         * echoed, or ours), or {@link #ABNORMAL_CLOSURE} if it ended without one.
+         */
+        default void onClose(WebSocket socket, int code) {}
+    }
+
+    private final JClawConfig.WebSocketConfig config;
+    private final Listener listener;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition queued = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+    private final CountDownLatch readerDone = new CountDownLatch(1);
+    private long queuedBytes;
+    /** Pong for the client's latest ping, not yet written; only one is kept (RFC 6455, 5.5.3). */
+    private byte[] pong;
+    /** Pings received since a pong was last taken for writing. */
+    private int unansweredPings;
+    /** A close frame is queued (or the connection failed): nothing more is sent. */
+    private boolean closing;
+    private int closeCode = ABNORMAL_CLOSURE;
+    private volatile long lastHeard;
+    private InputStream in;
+    private OutputStream out;
+
+    private WebSocket(JClawConfig.WebSocketConfig config, Listener listener) {
+        this.config = config;
+        this.listener = listener;
+    }
+
+    /**
+     * Complete the opening handshake for {@code ex} and serve the WebSocket on its connection
+     * until it closes; a request that is not a valid handshake is answered with an HTTP error.
+     */
+    public static void accept(Exchange ex, JClawConfig.WebSocketConfig config, Listener listener) throws IOException {
+        if (!ex.supportsUpgrade()) {
+            reject(ex, 501, "WebSocket needs the virtual HTTP transport");
+            return;
+        }
+        String key = ex.requestHeader("Sec-WebSocket-Key");
+        if (!"GET".equals(ex.method()) || key == null
+                || !hasToken(ex.requestHeader("Upgrade"), "websocket")
+                || !hasToken(ex.requestHeader("Connection"), "upgrade")) {
+            reject(ex, 400, "Not a WebSocket handshake");
+            return;
+        }
+        if (!"13".equals(ex.requestHeader("Sec-WebSocket-Version"))) {
+            ex.responseHeader("Sec-WebSocket-Version", "13");
+            reject(ex, 426, "Unsupported WebSocket version");
+            return;
+        }
+        ex.responseHeader("Sec-WebSocket-Accept", acceptKey(key));
+        var socket = new WebSocket(config, listener);
+        ex.upgrade("websocket", socket::run);
+    }
+
+    /** Whether the connection still takes messages; false once closing has begun. */
+    public boolean isOpen() {
+        lock.lock();
+        try {
+            return !closing;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queue a text message of UTF-8 bytes. Waits while the send queue is full; returns false
+     * if the connection is closing, or if the client did not make room in time, in which case
+     * its socket is closed and the connection ends with {@link #TRY_AGAIN_LATER}.
+     */
+    public boolean sendText(byte[] utf8) {
+        var frame = frame(TEXT, utf8);
+        lock.lock();
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.sendTimeoutSeconds());
+            // One message larger than the whole queue still goes once the queue is empty
+            while (!closing && queuedBytes > 0 && queuedBytes + frame.length > config.sendQueueBytes()) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    log.debug("WebSocket client too slow: {} bytes queued", queuedBytes);
+                    closeLocked(TRY_AGAIN_LATER, "send queue full");
+                    // The writer is likely stuck in a write the client is not reading, and the
+                    // reader in a read: closing the socket ends both
+                    closeQuietly();
+                    return false;
+                }
+                drained.awaitNanos(left);
+            }
+            if (closing) return false;
+            enqueueLocked(frame);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean sendText(String text) {
+        return sendText(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Start the closing handshake; messages already queued are sent first. */
+    public void close(int code, String reason) {
+        lock.lock();
+        try {
+            closeLocked(code, reason);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ── Connection ──────────────────────────────────────────────────────
+
+    private void run(InputStream in, OutputStream out) {
+        this.in = in;
+        this.out = out;
+        lastHeard = System.nanoTime();
+        var writer = Thread.ofVirtual().name("ws-writer").start(this::writeLoop);
+        try {
+            listener.onOpen(this);
+            readLoop();
+        } catch (IOException e) {
+            log.debug("WebSocket read ended: {}", e.getMessage());
+        } finally {
+            readerDone.countDown();
+            int code;
+            lock.lock();
+            try {
+                closing = true;
+                code = closeCode;
+                queued.signalAll();
+                drained.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                // Let the writer send the close frame; a client not reading gets cut off
+                if (!writer.join(java.time.Duration.ofSeconds(2))) closeQuietly();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            listener.onClose(this, code);
+        }
+    }
+
+    private void readLoop() throws IOException {
+        byte[] message = new byte[256];
+        int length = 0;
+        boolean fragmented = false;
+        byte[] mask = new byte[4];
+        while (true) {
+            int b0 = in.read();
+            if (b0 < 0) return;
+            int b1 = readByte();
+            lastHeard = System.nanoTime();
+            boolean fin = (b0 & 0x80) != 0;
+            int opcode = b0 & 0x0F;
+            if ((b0 & 0x70) != 0 || (b1 & 0x80) == 0) {
+                close(PROTOCOL_ERROR, "reserved bits set or frame not masked");
+                return;
+            }
+            long size = b1 & 0x7F;
+            if (size == 126) {
+                size = (readByte() << 8) | readByte();
+            } else if (size == 127) {
+                size = 0;
+                for (int i = 0; i < 8; i++) size = (size << 8) | readByte();
+            }
+            readFully(mask, 0, 4);
+
+            if (opcode >= CLOSE) {
+                if (!fin || size > 125) {
+                    close(PROTOCOL_ERROR, "bad control frame");
+                    return;
+                }
+                byte[] payload = new byte[(int) size];
+                readFully(payload, 0, payload.length);
+                unmask(payload, 0, payload.length, mask);
+                switch (opcode) {
+                    case CLOSE -> {
+                        close(payload.length >= 2 ? ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF) : NORMAL_CLOSURE, "");
+                        return;
+                    }
+                    case PING -> {
+                        if (!pong(payload)) return;
+                    }
+                    case PONG -> {}
+                    default -> {
+                        close(PROTOCOL_ERROR, "unknown opcode");
+                        return;
+                    }
+                }
+                continue;
+            }
+
+            if (opcode == BINARY) {
+                close(UNSUPPORTED_DATA, "binary messages are not supported");
+                return;
+            }
+            if (opcode == TEXT ? fragmented : opcode != CONTINUATION || !fragmented) {
+                close(PROTOCOL_ERROR, "unexpected frame");
+                return;
+            }
+            if (opcode == TEXT) length = 0;
+            if (size < 0 || length + size > config.maxMessageBytes()) {
+                close(MESSAGE_TOO_BIG, "message too big");
+                return;
+            }
+            if (length + size > message.length) {
+                message = Arrays.copyOf(message, (int) Math.max(length + size, message.length * 2L));
+            }
+            readFully(message, length, (int) size);
+            unmask(message, length, (int) size, mask);
+            length += (int) size;
+            fragmented = !fin;
+            if (fin) listener.onText(this, Arrays.copyOf(message, length));
+        }
+    }
+
+    /**
+     * Write queued frames as they come, flushing after each batch; ping when idle. Ends once
+     * the close frame is written, or on a write error.
+     */
+    private void writeLoop() {
+        long pingNanos = TimeUnit.SECONDS.toNanos(config.pingSeconds());
+        long lastWritten = System.nanoTime();
+        var batch = new ArrayList<byte[]>();
+        try {
+            while (true) {
+                lock.lock();
+                try {
+                    while (queue.isEmpty() && pong == null && !closing) {
+                        long now = System.nanoTime();
+                        if (now - lastWritten < pingNanos) {
+                            queued.awaitNanos(pingNanos - (now - lastWritten));
+                            continue;
+                        }
+                        if (now - lastHeard > 2 * pingNanos) {
+                            log.debug("WebSocket client silent for {}s, dropping it", 2 * config.pingSeconds());
+                            closing = true;
+                            closeQuietly();
+                            return;
+                        }
+                        enqueueLocked(frame(PING, new byte[0]));
+                    }
+                    if (queue.isEmpty() && pong == null) break;
+                    if (pong != null) {
+                        batch.add(pong);
+                        pong = null;
+                        unansweredPings = 0;
+                    }
+                    batch.addAll(queue);
+                    queue.clear();
+                    queuedBytes = 0;
+                    drained.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                for (var frame : batch) out.write(frame);
+                out.flush();
+                batch.clear();
+                lastWritten = System.nanoTime();
+            }
+            // Close frame sent: give the client a moment to answer before hanging up
+            if (!readerDone.await(2, TimeUnit.SECONDS)) closeQuietly();
+        } catch (IOException e) {
+            log.debug("WebSocket write failed: {}", e.getMessage());
+            lock.lock();
+            try {
+                closing = true;
+                drained.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            closeQuietly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void closeLocked(int code, String reason) {
+        if (closing) return;
+        byte[] text = reason.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = new byte[2 + Math.min(text.length, 123)];
+        payload[0] = (byte) (code >> 8);
+        payload[1] = (byte) code;
+        System.arraycopy(text, 0, payload, 2, payload.length - 2);
+        enqueueLocked(frame(CLOSE, payload));
+        pong = null;
+        closeCode = code;
+        closing = true;
+        drained.signalAll();
+    }
+
+    /**
+     * Answer a ping, replacing any pong not yet written. Returns false if the client has sent
+     * too many pings without reading the answers, after starting to close the connection.
+     */
+    private boolean pong(byte[] payload) {
+        lock.lock();
+        try {
+            if (closing) return true;
+            if (++unansweredPings > MAX_UNANSWERED_PINGS) {
+                log.debug("WebSocket client sent {} pings without reading the answers", unansweredPings);
+                closeLocked(POLICY_VIOLATION, "too many pings");
+                return false;
+            }
+            pong = frame(PONG, payload);
+            queued.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueueLocked(byte[] frame) {
+        queue.add(frame);
+        queuedBytes += frame.length;
+        queued.signal();
+    }
+
+    /** Closing the input stream closes the socket, which also ends a blocked read. */
+    private void closeQuietly() {
+        try {
+            in.close();
+        } catch (IOException ignored) {}
+    }
+
+    // ── Framing ─────────────────────────────────────────────────────────
+
+    /** An unmasked, unfragmented server frame. */
+    private static byte[] frame(int opcode, byte[] payload) {
+        int n = payload.length;
+        int head = n < 126 ? 2 : n < 65536 ? 4 : 10;
+        byte[] frame = new byte[head + n];
+        frame[0] = (byte) (0x80 | opcode);
+        if (n < 126) {
+            frame[1] = (byte) n;
+        } else if (n < 65536) {
+            frame[1] = 126;
+            frame[2] = (byte) (n >> 8);
+            frame[3] = (byte) n;
+        } else {
+            frame[1] = 127;
+            for (int i = 0; i < 8; i++) frame[2 + i] = (byte) ((long) n >>> (56 - 8 * i));
+        }
+        System.arraycopy(payload, 0, frame, head, n);
+        return frame;
+    }
+
+    private static void unmask(byte[] data, int offset, int length, byte[] mask) {
+        for (int i = 0; i < length; i++) data[offset + i] ^= mask[i & 3];
+    }
+
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b < 0) throw new IOException("Connection closed mid-frame");
+        return b;
+    }
+
+    private void readFully(byte[] buf, int offset, int length) throws IOException {
+        if (in.readNBytes(buf, offset, length) < length) throw new IOException("Connection closed mid-frame");
+    }
+
+    // ── Handshake ───────────────────────────────────────────────────────
+
+    private static void reject(Exchange ex, int status, String message) throws IOException {
+        ex.responseHeader("Content-Type", "text/plain; charset=utf-8");
+        ex.respond(status, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static boolean hasToken(String header, String token) {
+        if (header == null) return false;
+        for (var part : header.split(",")) {
+            if (part.strip().equalsIgnoreCase(token)) return true;
+        }
+        return false;
+    }
+
+    private static String acceptKey(String key) {
+        try {
+            var sha1 = MessageDigest.getInstance("SHA-1");
+            return Base64.getEncoder().encodeToString(
+                    sha1.digest((key.strip() + ACCEPT_GUID).getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 unavailable", e);
+        }
+    }
+}
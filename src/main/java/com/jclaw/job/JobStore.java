@@ -0,0 +1,312 @@
+package com.jclaw.job;
+
+import com.jclaw.config.JClawConfig;
+import com.jclaw.json.JsonWriter;
+import com.jclaw.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Agent turns run as jobs: started at once, their result fetched later by id or delivered to
+ * a webhook, so a long turn holds neither a client connection nor a thread while it runs.
+ *
+ * <p>The store is bounded. It holds at most {@code maxJobs} jobs, pending or finished; a
+ * finished job is kept for {@code ttlSeconds} after it completes. When the store is full the
+ * oldest finished job is dropped early, and if every job is still pending a new one is
+ * refused with a {@link RejectedExecutionException} (busy, like a full agent queue). Finished
+ * jobs expire in the order they finished, so expiry and eviction both take from the head of
+ * one queue; both happen as jobs are added or looked up, with no sweeper thread.
+ *
+ * <p>A webhook receives the job's JSON (as {@code GET /api/jobs/{id}} returns it) in a POST
+ * when the job finishes. A failed delivery, or a non-2xx answer, is retried with doubling
+ * delays up to {@code webhookAttempts} times. Webhooks are refused unless
+ * {@code webhookPrefixes} lists where they may go, so a client cannot make the server POST to
+ * loopback, cloud metadata or other internal addresses.
+ */
+public final class JobStore {
+
+    private static final Logger log = LoggerFactory.getLogger(JobStore.class);
+
+    private final JClawConfig.JobsConfig config;
+    private final long ttlNanos;
+    private final Map<String, Job> jobs = new HashMap<>();
+    /** Finished jobs still held, oldest first: the next to expire or be evicted. */
+    private final ArrayDeque<Job> finished = new ArrayDeque<>();
+    private final SecureRandom random = new SecureRandom();
+    /** Parsed {@code webhookPrefixes}: a webhook must match one's scheme, host and port, under its path. */
+    private final List<URI> webhookPrefixes;
+    private final HttpClient webhookClient;
+    private final LongAdder submitted;
+    private final LongAdder rejected;
+    private final LongAdder evicted;
+    private final LongAdder webhooksDelivered;
+    private final LongAdder webhooksFailed;
+
+    public JobStore(JClawConfig.JobsConfig config, Metrics metrics) {
+        this.config = config;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(config.ttlSeconds());
+        this.webhookPrefixes = config.webhookPrefixes().stream().map(JobStore::webhookPrefix).toList();
+        this.webhookClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(config.webhookTimeoutSeconds()))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        this.submitted = metrics.counter("jobs.submitted");
+        this.rejected = metrics.counter("jobs.rejected");
+        this.evicted = metrics.counter("jobs.evicted");
+        this.webhooksDelivered = metrics.counter("jobs.webhooksDelivered");
+        this.webhooksFailed = metrics.counter("jobs.webhooksFailed");
+        metrics.gauge("jobs.stored", this::size);
+    }
+
+    /** A job's state. Fields change once, when the turn completes. */
+    public static final class Job {
+        private final String id;
+        private final long createdAt = System.currentTimeMillis();
+        private final URI webhook;
+        private volatile String status = "pending";
+        private volatile String reply;
+        private volatile String error;
+        private volatile long finishedAt;
+        /** {@link System#nanoTime} at completion, for expiry. */
+        private long finishedNanos;
+
+        private Job(String id, URI webhook) {
+            this.id = id;
+            this.webhook = webhook;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        /** {@code pending}, {@code done} or {@code failed}. */
+        public String status() {
+            return status;
+        }
+
+        /** Write the job as a JSON object: id, status, reply or error, and timestamps (epoch millis). */
+        public void write(JsonWriter out) throws IOException {
+            String status = this.status;
+            out.beginObject().name("id").value(id).name("status").value(status);
+            if ("done".equals(status)) out.name("reply").value(reply);
+            if ("failed".equals(status)) out.name("error").value(error);
+            out.name("createdAt").value(createdAt);
+            if (finishedAt != 0) out.name("finishedAt").value(finishedAt);
+            out.endObject();
+        }
+    }
+
+    /**
+     * Parse and check a webhook URL: absolute http(s), without user info, and matching one of
+     * the configured prefixes; with none configured, webhooks are refused. Throws
+     * {@link IllegalArgumentException} otherwise.
+     */
+    public URI webhook(String url) {
+        if (webhookPrefixes.isEmpty()) {
+            throw new IllegalArgumentException("Webhooks are not enabled on this server");
+        }
+        URI uri;
+        try {
+            uri = URI.create(url).normalize();
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid webhook URL: " + url);
+        }
+        if (!isHttp(uri)) {
+            throw new IllegalArgumentException("Webhook must be an absolute http(s) URL: " + url);
+        }
+        if (uri.getRawUserInfo() != null || webhookPrefixes.stream().noneMatch(prefix -> allows(prefix, uri))) {
+            throw new IllegalArgumentException("Webhook URL not allowed: " + url);
+        }
+        return uri;
+    }
+
+    private static URI webhookPrefix(String prefix) {
+        URI uri;
+        try {
+            uri = URI.create(prefix).normalize();
+        } catch (IllegalArgumentException e) {
+            uri = null;
+        }
+        if (uri == null || !isHttp(uri) || uri.getRawUserInfo() != null) {
+            throw new IllegalStateException("jobs.webhookPrefixes: '%s' is not an http(s) URL".formatted(prefix));
+        }
+        return uri;
+    }
+
+    private static boolean isHttp(URI uri) {
+        return ("http".equalsIgnoreCase(uri.getScheme()) || "https".equalsIgnoreCase(uri.getScheme()))
+                && uri.getHost() != null;
+    }
+
+    /**
+     * Whether {@code uri} goes to the prefix's scheme, host and port, at or under its path. A
+     * prefix path not ending in {@code /} covers itself and what lies below it, so
+     * {@code /hook} does not cover {@code /hooks}.
+     */
+    static boolean allows(URI prefix, URI uri) {
+        if (!prefix.getScheme().equalsIgnoreCase(uri.getScheme())
+                || !prefix.getHost().equalsIgnoreCase(uri.getHost())
+                || port(prefix) != port(uri)) {
+            return false;
+        }
+        String base = prefix.getRawPath();
+        String path = uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        if (base.isEmpty() || base.endsWith("/")) return path.startsWith(base);
+        return path.equals(base) || path.startsWith(base + "/");
+    }
+
+    private static int port(URI uri) {
+        if (uri.getPort() != -1) return uri.getPort();
+        return "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+    }
+
+    /**
+     * Add a job and start its turn. {@code webhook} may be null. Throws
+     * {@link RejectedExecutionException} when the store is full of pending jobs, or when the
+     * turn is refused at once (agent busy), in which case no job is kept.
+     */
+    public Job submit(Supplier<CompletableFuture<String>> turn, URI webhook) {
+        var job = new Job(newId(), webhook);
+        synchronized (this) {
+            expire(System.nanoTime());
+            if (jobs.size() >= config.maxJobs()) {
+                if (finished.isEmpty()) {
+                    rejected.increment();
+                    throw new RejectedExecutionException("Too many jobs in progress (%d)".formatted(jobs.size()));
+                }
+                jobs.remove(finished.poll().id);
+                evicted.increment();
+            }
+            jobs.put(job.id, job);
+        }
+        CompletableFuture<String> future;
+        try {
+            future = turn.get();
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        if (future.isCompletedExceptionally() && cause(future) instanceof RejectedExecutionException busy) {
+            synchronized (this) {
+                jobs.remove(job.id);
+            }
+            rejected.increment();
+            throw busy;
+        }
+        submitted.increment();
+        future.whenComplete((reply, failure) -> complete(job, reply, failure));
+        return job;
+    }
+
+    /** The job with this id, or null if there is none or it has expired. */
+    public synchronized Job get(String id) {
+        expire(System.nanoTime());
+        return jobs.get(id);
+    }
+
+    /** Jobs held, pending and finished. */
+    public synchronized int size() {
+        return jobs.size();
+    }
+
+    /** Release the webhook client; webhooks of jobs finishing after this are not delivered. */
+    public void close() {
+        webhookClient.close();
+    }
+
+    private void complete(Job job, String reply, Throwable failure) {
+        if (failure instanceof CompletionException && failure.getCause() != null) failure = failure.getCause();
+        job.finishedAt = System.currentTimeMillis();
+        // Status last: a reader that sees it finished also sees the reply or error
+        if (failure == null) {
+            job.reply = reply;
+            job.status = "done";
+        } else {
+            job.error = failure.getMessage() != null ? failure.getMessage() : failure.toString();
+            job.status = "failed";
+            log.warn("Job {} failed: {}", job.id, job.error);
+        }
+        synchronized (this) {
+            job.finishedNanos = System.nanoTime();
+            finished.add(job);
+        }
+        if (job.webhook != null) deliver(job, 1);
+    }
+
+    /** POST the job to its webhook, retrying with doubling delays (1s, 2s, 4s, ...) on failure. */
+    private void deliver(Job job, int attempt) {
+        byte[] body;
+        try {
+            var out = JsonWriter.inMemory();
+            job.write(out);
+            body = out.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        var request = HttpRequest.newBuilder(job.webhook)
+                .timeout(Duration.ofSeconds(config.webhookTimeoutSeconds()))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        webhookClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, failure) -> {
+            if (failure == null && response.statusCode() / 100 == 2) {
+                webhooksDelivered.increment();
+                return;
+            }
+            String reason = failure != null ? String.valueOf(failure.getMessage()) : "HTTP " + response.statusCode();
+            if (attempt >= config.webhookAttempts()) {
+                webhooksFailed.increment();
+                log.warn("Webhook for job {} failed after {} attempt(s): {}", job.id, attempt, reason);
+                return;
+            }
+            log.debug("Webhook for job {} failed ({}), retrying", job.id, reason);
+            CompletableFuture.delayedExecutor(1L << (attempt - 1), TimeUnit.SECONDS)
+                    .execute(() -> deliver(job, attempt + 1));
+        });
+    }
+
+    /** Drop finished jobs past their TTL; they sit at the head of the queue. */
+    private void expire(long now) {
+        Job head;
+        while ((head = finished.peek()) != null && now - head.finishedNanos > ttlNanos) {
+            finished.poll();
+            jobs.remove(head.id);
+        }
+    }
+
+    private String newId() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        return HexFormat.of().formatHex(bytes);
+    }
+
+    private static Throwable cause(CompletableFuture<?> future) {
+        try {
+            future.join();
+            return null;
+        } catch (CompletionException e) {
+            return e.getCause();
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.jclaw.json;
+
+import java.io.IOException;
+
+/** Input that is not the JSON the reader was asked for: bad syntax, or an unexpected token. */
+public final class JsonException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public JsonException(String message) {
+        super(message);
+    }
+}
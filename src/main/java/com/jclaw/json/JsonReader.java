@@ -0,0 +1,405 @@
+package com.jclaw.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming (pull) JSON reader over UTF-8 bytes, from an {@link InputStream} or a byte range.
+ * The input is never decoded as a whole; only the strings the caller asks for become Strings,
+ * and what the caller does not want is skipped byte by byte with {@link #skipValue}.
+ *
+ * <pre>{@code
+ * reader.beginObject();
+ * while (reader.hasNext()) {
+ *     switch (reader.nextName()) {
+ *         case "message" -> message = reader.nextString();
+ *         default -> reader.skipValue();
+ *     }
+ * }
+ * reader.endObject();
+ * }</pre>
+ *
+ * <p>Strings handle the full escape set, including {@code \}{@code u} escapes and surrogate
+ * pairs written as two of them; malformed UTF-8 and unpaired surrogates decode as U+FFFD.
+ * Any syntax error throws {@link JsonException}. Not thread-safe.
+ */
+public final class JsonReader {
+
+    /** The kind of the next token, as returned by {@link #peek}. */
+    public enum Token { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END }
+
+    private static final int MAX_DEPTH = 256;
+    private static final int MAX_BUFFER = 64 * 1024;
+
+    // What the reader expects next, per open container
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int NONEMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private final InputStream in;
+    private byte[] buf;
+    private int pos;
+    private int limit;
+
+    private int[] stack = new int[8];
+    private int depth = 1;
+    private Token peeked;
+    private boolean literal;
+    private String number;
+    /** Bytes of a string that did not sit unescaped in the buffer, decoded once complete. */
+    private byte[] scratch;
+
+    /**
+     * A reader over {@code in}. Its buffer starts at what {@code in} says is available (a
+     * small request body usually fits whole), between 256 bytes and 8 KiB, and grows for
+     * larger input.
+     */
+    public JsonReader(InputStream in) throws IOException {
+        this.in = in;
+        this.buf = new byte[Math.clamp(in.available() + 1L, 256, 8192)];
+    }
+
+    /** A reader over {@code length} bytes of {@code bytes} from {@code offset}, which it does not copy. */
+    public JsonReader(byte[] bytes, int offset, int length) {
+        this.in = null;
+        this.buf = bytes;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+    /** The kind of the next token, without consuming it. */
+    public Token peek() throws IOException {
+        if (peeked == null) peeked = doPeek();
+        return peeked;
+    }
+
+    /** Whether the current object or array has another member. */
+    public boolean hasNext() throws IOException {
+        var token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END;
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        depth--;
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        depth--;
+    }
+
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        return readString();
+    }
+
+    /** The next string; a number is returned as written. */
+    public String nextString() throws IOException {
+        var token = peek();
+        if (token == Token.NUMBER) {
+            peeked = null;
+            return number;
+        }
+        expect(Token.STRING);
+        return readString();
+    }
+
+    /** The next string, or null for a JSON {@code null}. */
+    public String nextStringOrNull() throws IOException {
+        if (peek() == Token.NULL) {
+            peeked = null;
+            return null;
+        }
+        return nextString();
+    }
+
+    public long nextLong() throws IOException {
+        expect(Token.NUMBER);
+        try {
+            return Long.parseLong(number);
+        } catch (NumberFormatException e) {
+            throw new JsonException("Not a long: " + number);
+        }
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        return literal;
+    }
+
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+    }
+
+    /** Skip the next value, whole objects and arrays included, without decoding it. */
+    public void skipValue() throws IOException {
+        int open = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT -> { beginObject(); open++; }
+                case BEGIN_ARRAY -> { beginArray(); open++; }
+                case END_OBJECT -> { endObject(); open--; }
+                case END_ARRAY -> { endArray(); open--; }
+                case NAME, STRING -> { peeked = null; skipString(); }
+                case NUMBER, BOOLEAN, NULL -> peeked = null;
+                case END -> throw new JsonException("Unexpected end of input");
+            }
+        } while (open > 0);
+    }
+
+    private void expect(Token token) throws IOException {
+        var actual = peek();
+        if (actual != token) throw new JsonException("Expected " + token + " but was " + actual);
+        peeked = null;
+    }
+
+    private void push(int scope) throws JsonException {
+        if (depth == MAX_DEPTH) throw new JsonException("JSON nested deeper than " + MAX_DEPTH);
+        if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+        stack[depth++] = scope;
+    }
+
+    private Token doPeek() throws IOException {
+        int scope = stack[depth - 1];
+        switch (scope) {
+            case EMPTY_ARRAY -> {
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                int c = nextNonWhitespace();
+                if (c == ']') return Token.END_ARRAY;
+                if (c >= 0) pos--;
+            }
+            case NONEMPTY_ARRAY -> {
+                int c = nextNonWhitespace();
+                if (c == ']') return Token.END_ARRAY;
+                if (c != ',') throw syntax("',' or ']'", c);
+            }
+            case EMPTY_OBJECT, NONEMPTY_OBJECT -> {
+                stack[depth - 1] = DANGLING_NAME;
+                int c = nextNonWhitespace();
+                if (scope == NONEMPTY_OBJECT) {
+                    if (c == '}') return Token.END_OBJECT;
+                    if (c != ',') throw syntax("',' or '}'", c);
+                    c = nextNonWhitespace();
+                } else if (c == '}') {
+                    return Token.END_OBJECT;
+                }
+                if (c != '"') throw syntax("a member name", c);
+                return Token.NAME;
+            }
+            case DANGLING_NAME -> {
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                int c = nextNonWhitespace();
+                if (c != ':') throw syntax("':'", c);
+            }
+            case EMPTY_DOCUMENT -> stack[depth - 1] = NONEMPTY_DOCUMENT;
+            default -> {
+                int c = nextNonWhitespace();
+                if (c == -1) return Token.END;
+                throw syntax("end of input", c);
+            }
+        }
+        int c = nextNonWhitespace();
+        return switch (c) {
+            case '{' -> Token.BEGIN_OBJECT;
+            case '[' -> Token.BEGIN_ARRAY;
+            case '"' -> Token.STRING;
+            case 't' -> { readLiteral("rue"); literal = true; yield Token.BOOLEAN; }
+            case 'f' -> { readLiteral("alse"); literal = false; yield Token.BOOLEAN; }
+            case 'n' -> { readLiteral("ull"); yield Token.NULL; }
+            case '-', '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' -> { readNumber(c); yield Token.NUMBER; }
+            default -> throw syntax("a value", c);
+        };
+    }
+
+    private void readLiteral(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            int c = read();
+            if (c != rest.charAt(i)) throw syntax("'" + rest.charAt(i) + "'", c);
+        }
+    }
+
+    private void readNumber(int first) throws IOException {
+        var sb = new StringBuilder().append((char) first);
+        while (true) {
+            if (pos == limit && !fill()) break;
+            byte b = buf[pos];
+            if ((b >= '0' && b <= '9') || b == '.' || b == 'e' || b == 'E' || b == '+' || b == '-') {
+                sb.append((char) b);
+                pos++;
+            } else {
+                break;
+            }
+        }
+        number = sb.toString();
+    }
+
+    /**
+     * Read the string whose opening quote was consumed by {@link #peek}. One that lies in the
+     * buffer without escapes is decoded in place; otherwise its bytes are gathered, runs
+     * between escapes copied in bulk and escapes resolved to UTF-8, and decoded at the end.
+     */
+    private String readString() throws IOException {
+        int n = 0;
+        boolean gathering = false;
+        while (true) {
+            int start = pos;
+            while (pos < limit && buf[pos] != '"' && buf[pos] != '\\') pos++;
+            if (!gathering && pos < limit && buf[pos] == '"') {
+                pos++;
+                return new String(buf, start, pos - 1 - start, StandardCharsets.UTF_8);
+            }
+            gathering = true;
+            // 6 bytes covers the most one escape can produce: U+FFFD and a three-byte char
+            n = gather(n, start, pos - start, 6);
+            if (pos == limit) {
+                if (!fill()) throw new JsonException("Unterminated string");
+                continue;
+            }
+            if (buf[pos++] == '"') break;
+            int esc = read();
+            switch (esc) {
+                case '"', '\\', '/' -> scratch[n++] = (byte) esc;
+                case 'n' -> scratch[n++] = '\n';
+                case 'r' -> scratch[n++] = '\r';
+                case 't' -> scratch[n++] = '\t';
+                case 'b' -> scratch[n++] = '\b';
+                case 'f' -> scratch[n++] = '\f';
+                case 'u' -> n = putEscapedChar(n);
+                default -> throw syntax("an escape", esc);
+            }
+        }
+        return new String(scratch, 0, n, StandardCharsets.UTF_8);
+    }
+
+    /** Append {@code length} bytes of the buffer to {@code scratch}, leaving room for {@code extra} more. */
+    private int gather(int n, int from, int length, int extra) {
+        if (scratch == null || n + length + extra > scratch.length) {
+            int size = Math.max(n + length + extra, scratch == null ? 256 : scratch.length * 2);
+            scratch = scratch == null ? new byte[size] : Arrays.copyOf(scratch, size);
+        }
+        System.arraycopy(buf, from, scratch, n, length);
+        return n + length;
+    }
+
+    /**
+     * Resolve a {@code \}{@code u} escape into {@code scratch} as UTF-8, joining a surrogate
+     * pair escaped as two of them. An unpaired surrogate becomes U+FFFD.
+     */
+    private int putEscapedChar(int n) throws IOException {
+        char c = readHex4();
+        if (Character.isHighSurrogate(c)) {
+            if (available(2) && buf[pos] == '\\' && buf[pos + 1] == 'u') {
+                pos += 2;
+                char low = readHex4();
+                if (Character.isLowSurrogate(low)) return putCodePoint(n, Character.toCodePoint(c, low));
+                n = putCodePoint(n, 0xFFFD);
+                c = low;
+            }
+        }
+        return putCodePoint(n, Character.isSurrogate(c) ? 0xFFFD : c);
+    }
+
+    private char readHex4() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int c = read();
+            int digit = Character.digit(c, 16);
+            if (c < 0 || digit < 0) throw syntax("a hex digit", c);
+            value = (value << 4) | digit;
+        }
+        return (char) value;
+    }
+
+    private int putCodePoint(int n, int cp) {
+        if (cp < 0x80) {
+            scratch[n++] = (byte) cp;
+        } else if (cp < 0x800) {
+            scratch[n++] = (byte) (0xC0 | (cp >> 6));
+            scratch[n++] = (byte) (0x80 | (cp & 0x3F));
+        } else if (cp < 0x10000) {
+            scratch[n++] = (byte) (0xE0 | (cp >> 12));
+            scratch[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            scratch[n++] = (byte) (0x80 | (cp & 0x3F));
+        } else {
+            scratch[n++] = (byte) (0xF0 | (cp >> 18));
+            scratch[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+            scratch[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            scratch[n++] = (byte) (0x80 | (cp & 0x3F));
+        }
+        return n;
+    }
+
+    private void skipString() throws IOException {
+        while (true) {
+            if (pos == limit && !fill()) throw new JsonException("Unterminated string");
+            byte b = buf[pos++];
+            if (b == '"') return;
+            if (b == '\\' && read() < 0) throw new JsonException("Unterminated string");
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (true) {
+            int c = read();
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return c;
+        }
+    }
+
+    /** The next byte, or -1 at the end of input. Just after a read, {@code pos--} steps back over it. */
+    private int read() throws IOException {
+        if (pos == limit && !fill()) return -1;
+        return buf[pos++] & 0xFF;
+    }
+
+    /** Whether {@code n} unread bytes are in the buffer, reading more input if needed. */
+    private boolean available(int n) throws IOException {
+        while (limit - pos < n) {
+            if (!fill()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Read more input, keeping the unread bytes and the last consumed byte (so it can be
+     * stepped back over). A buffer that was full when it ran out is doubled, up to 64 KiB, so
+     * large bodies are read in fewer calls. Returns false at the end of input.
+     */
+    private boolean fill() throws IOException {
+        if (in == null) return false;
+        boolean wasFull = limit == buf.length;
+        int keep = pos > 0 ? pos - 1 : 0;
+        if (keep > 0) {
+            System.arraycopy(buf, keep, buf, 0, limit - keep);
+            limit -= keep;
+            pos -= keep;
+        }
+        if (limit == buf.length || (wasFull && buf.length < MAX_BUFFER)) buf = Arrays.copyOf(buf, buf.length * 2);
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n <= 0) return false;
+        limit += n;
+        return true;
+    }
+
+    private static JsonException syntax(String expected, int actual) {
+        return new JsonException(actual < 0
+                ? "Expected " + expected + " but input ended"
+                : "Expected " + expected + " but found '" + (char) actual + "'");
+    }
+}
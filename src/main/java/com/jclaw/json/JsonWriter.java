@@ -0,0 +1,295 @@
+package com.jclaw.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming JSON writer that encodes straight to UTF-8 bytes, without an intermediate String.
+ * Strings get the full escape set (quotes, backslash, control characters); everything else,
+ * including supplementary characters, is written as UTF-8. An unpaired surrogate is written
+ * as {@code ?}.
+ *
+ * <p>Commas and colons are placed by the writer: {@code beginObject().name("a").value(1)
+ * .name("b").value("x").endObject()}. Top-level values are not separated, so one writer can
+ * emit a stream of documents, e.g. JSONL with {@link #raw}{@code ("\n")} after each.
+ *
+ * <p>Bytes are encoded into a small array owned by the writer and handed on in bulk when it
+ * fills and on {@link #flush}: to an {@link OutputStream}, to an {@link Output}'s buffer, or,
+ * for {@link #inMemory}, kept until {@link #toByteArray}. Not thread-safe.
+ */
+public final class JsonWriter implements Closeable {
+
+    /** Destination for encoded bytes: a reusable buffer that the owner drains when it fills up. */
+    public interface Output {
+        /** Return a buffer with at least {@code bytes} bytes remaining. */
+        ByteBuffer require(int bytes) throws IOException;
+    }
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_DEPTH = 63;
+
+    private final Output out;
+    private final OutputStream stream;
+    private byte[] buf;
+    private int count;
+    /** Bit {@code d} is set once the container at depth {@code d} holds a value. */
+    private long started;
+    private int depth;
+    private boolean afterName;
+
+    private JsonWriter(Output out, OutputStream stream, int bufferSize) {
+        this.out = out;
+        this.stream = stream;
+        this.buf = new byte[bufferSize];
+    }
+
+    /**
+     * A writer into {@code out}'s buffer, through 1 KiB of its own; call {@link #flush} to have
+     * everything written so far in {@code out}'s buffer.
+     */
+    public JsonWriter(Output out) {
+        this(out, null, 1024);
+    }
+
+    /** A writer onto {@code stream}; bytes reach it when 2 KiB are pending and on {@link #flush}. */
+    public static JsonWriter to(OutputStream stream) {
+        return new JsonWriter(null, stream, 2048);
+    }
+
+    /** A writer that keeps everything in memory, for a complete body; see {@link #toByteArray}. */
+    public static JsonWriter inMemory() {
+        return new JsonWriter(null, null, 256);
+    }
+
+    /** Everything written to an {@link #inMemory} writer. */
+    public byte[] toByteArray() {
+        if (out != null || stream != null) throw new IllegalStateException("Not an in-memory writer");
+        return Arrays.copyOf(buf, count);
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        return openContainer('{');
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return closeContainer('}');
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        return openContainer('[');
+    }
+
+    public JsonWriter endArray() throws IOException {
+        return closeContainer(']');
+    }
+
+    /** Write an object member's name; the next call writes its value. */
+    public JsonWriter name(String name) throws IOException {
+        if (depth == 0 || afterName) throw new IllegalStateException("Member name outside an object");
+        separate();
+        string(name);
+        put((byte) ':');
+        afterName = true;
+        return this;
+    }
+
+    /** Write a string, or {@code null} for null. */
+    public JsonWriter value(String value) throws IOException {
+        beforeValue();
+        if (value == null) {
+            ascii("null");
+        } else {
+            string(value);
+        }
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        if (value == Long.MIN_VALUE) {
+            ascii("-9223372036854775808");
+            return this;
+        }
+        // 20 bytes: a sign and the 19 digits of Long.MAX_VALUE
+        require(20);
+        if (value < 0) {
+            buf[count++] = '-';
+            value = -value;
+        }
+        int start = count;
+        do {
+            buf[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = count - 1; i < j; i++, j--) {
+            byte t = buf[i];
+            buf[i] = buf[j];
+            buf[j] = t;
+        }
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        ascii(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        beforeValue();
+        ascii("null");
+        return this;
+    }
+
+    /**
+     * Write ASCII text as is, outside the JSON structure: line separators, or framing such as
+     * a Server-Sent Events {@code data:} prefix.
+     */
+    public JsonWriter raw(String ascii) throws IOException {
+        ascii(ascii);
+        return this;
+    }
+
+    /**
+     * Hand pending bytes on: write them to the stream and flush it, or put them in the
+     * {@link Output}'s buffer. Nothing to do for an in-memory writer.
+     */
+    public void flush() throws IOException {
+        drain();
+        if (stream != null) stream.flush();
+    }
+
+    /** Hand pending bytes on, then close the stream if there is one. */
+    @Override
+    public void close() throws IOException {
+        drain();
+        if (stream != null) stream.close();
+    }
+
+    private JsonWriter openContainer(char bracket) throws IOException {
+        beforeValue();
+        if (depth == MAX_DEPTH) throw new IllegalStateException("JSON nested deeper than " + MAX_DEPTH);
+        put((byte) bracket);
+        depth++;
+        started &= ~(1L << depth);
+        return this;
+    }
+
+    private JsonWriter closeContainer(char bracket) throws IOException {
+        if (depth == 0 || afterName) throw new IllegalStateException("Unbalanced " + bracket);
+        depth--;
+        put((byte) bracket);
+        return this;
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+        } else if (depth > 0) {
+            separate();
+        }
+    }
+
+    private void separate() throws IOException {
+        long bit = 1L << depth;
+        if ((started & bit) != 0) {
+            put((byte) ',');
+        } else {
+            started |= bit;
+        }
+    }
+
+    private void put(byte b) throws IOException {
+        require(1);
+        buf[count++] = b;
+    }
+
+    private void ascii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) put((byte) s.charAt(i));
+    }
+
+    private void string(String s) throws IOException {
+        put((byte) '"');
+        byte[] b = buf;
+        int n = count;
+        int length = s.length();
+        int i = 0;
+        while (i < length) {
+            // A run of plain ASCII, as much as fits: one byte per char, no checks for room
+            int end = Math.min(length, i + b.length - n);
+            char c = 0;
+            while (i < end && (c = s.charAt(i)) >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                b[n++] = (byte) c;
+                i++;
+            }
+            if (i == length) break;
+            // 6 bytes covers the longest output of one char: a six-byte unicode escape
+            if (i == end || b.length - n < 6) {
+                count = n;
+                require(6);
+                b = buf;
+                n = count;
+                continue;
+            }
+            i++;
+            if (c < 0x80) {
+                b[n++] = '\\';
+                switch (c) {
+                    case '"' -> b[n++] = '"';
+                    case '\\' -> b[n++] = '\\';
+                    case '\n' -> b[n++] = 'n';
+                    case '\r' -> b[n++] = 'r';
+                    case '\t' -> b[n++] = 't';
+                    default -> {
+                        b[n++] = 'u';
+                        b[n++] = '0';
+                        b[n++] = '0';
+                        b[n++] = HEX[c >> 4];
+                        b[n++] = HEX[c & 0xF];
+                    }
+                }
+            } else if (c < 0x800) {
+                b[n++] = (byte) (0xC0 | (c >> 6));
+                b[n++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i < length && Character.isLowSurrogate(s.charAt(i))) {
+                int cp = Character.toCodePoint(c, s.charAt(i++));
+                b[n++] = (byte) (0xF0 | (cp >> 18));
+                b[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                b[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                b[n++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                b[n++] = '?';
+            } else {
+                b[n++] = (byte) (0xE0 | (c >> 12));
+                b[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                b[n++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        count = n;
+        put((byte) '"');
+    }
+
+    /** Make room for {@code bytes} more: hand pending bytes on, or grow an in-memory writer. */
+    private void require(int bytes) throws IOException {
+        if (buf.length - count >= bytes) return;
+        if (out == null && stream == null) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + bytes));
+        } else {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        if (count == 0 || (out == null && stream == null)) return;
+        if (stream != null) {
+            stream.write(buf, 0, count);
+        } else {
+            out.require(count).put(buf, 0, count);
+        }
+        count = 0;
+    }
+}
@@ -0,0 +1,176 @@
+package com.jclaw.llm;
+
+import com.google.adk.models.BaseLlm;
+import com.google.adk.models.BaseLlmConnection;
+import com.google.adk.models.LlmRequest;
+import com.google.adk.models.LlmResponse;
+import com.jclaw.metrics.Metrics;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.subjects.CompletableSubject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Micro-batching in front of a local model server (Ollama), whose throughput comes from
+ * decoding its parallel slots together.
+ *
+ * <p>Ollama has no batch endpoint; requests that are in flight at the same time share a
+ * server batch. So calls are held for up to {@code batchWindowMillis} to collect companions
+ * and then released together, and at most {@code batchSize} (the server's parallel slots)
+ * are in flight at once: the rest wait here instead of in the server's queue. A call that
+ * has waited its window is sent as soon as a slot frees up.
+ */
+final class BatchingLlm extends BaseLlm {
+
+    private final BaseLlm delegate;
+    private final int batchSize;
+    private final long windowMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private int inFlight;
+    private boolean flushScheduled;
+
+    private final LongAdder batches;
+    private final LongAdder dispatched;
+    private final LongAdder waitNanos;
+
+    private static final class Pending {
+        final CompletableSubject go = CompletableSubject.create();
+        final long queuedAt = System.nanoTime();
+        /** Given a slot; guarded by the lock. */
+        boolean released;
+    }
+
+    BatchingLlm(String modelId, BaseLlm delegate, int batchSize, int windowMillis, Metrics metrics) {
+        super(delegate.model());
+        this.delegate = delegate;
+        this.batchSize = batchSize;
+        this.windowMillis = windowMillis;
+        this.batches = metrics.counter("llm.batch.batches");
+        this.dispatched = metrics.counter("llm.batch.requests");
+        this.waitNanos = metrics.counter("llm.batch.waitNanos");
+        metrics.gauge("llm.batch.pending." + modelId, () -> {
+            lock.lock();
+            try {
+                return pending.size();
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    @Override
+    public Flowable<LlmResponse> generateContent(LlmRequest request, boolean stream) {
+        return Flowable.defer(() -> {
+            var entry = new Pending();
+            return delegate.generateContent(request, stream)
+                    .delaySubscription(entry.go.toFlowable())
+                    .doOnSubscribe(_ -> enqueue(entry))
+                    .doFinally(() -> done(entry));
+        });
+    }
+
+    @Override
+    public BaseLlmConnection connect(LlmRequest request) {
+        return delegate.connect(request);
+    }
+
+    private void enqueue(Pending entry) {
+        List<Pending> release = new ArrayList<>();
+        long flushIn = -1;
+        lock.lock();
+        try {
+            pending.add(entry);
+            int free = batchSize - inFlight;
+            if (free > 0 && pending.size() >= free) {
+                // Enough to fill every free slot: no reason to wait
+                take(free, release);
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                flushIn = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+            }
+        } finally {
+            lock.unlock();
+        }
+        dispatch(release);
+        scheduleFlush(flushIn);
+    }
+
+    /** The window ended: send what has been collected, up to the free slots. */
+    private void flush() {
+        List<Pending> release = new ArrayList<>();
+        lock.lock();
+        try {
+            flushScheduled = false;
+            take(batchSize - inFlight, release);
+        } finally {
+            lock.unlock();
+        }
+        dispatch(release);
+    }
+
+    /**
+     * A call ended, or was cancelled while waiting. A freed slot goes to calls that already
+     * waited a full window; newer ones wait for their window's batch, with a flush scheduled
+     * for when the oldest one's window ends if none is pending.
+     */
+    private void done(Pending entry) {
+        List<Pending> release = new ArrayList<>();
+        long now = System.nanoTime();
+        long window = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        long flushIn = -1;
+        lock.lock();
+        try {
+            if (!entry.released) {
+                pending.remove(entry);
+            } else {
+                inFlight--;
+                if (!pending.isEmpty() && now - pending.peek().queuedAt >= window) {
+                    take(batchSize - inFlight, release);
+                }
+            }
+            // Without a flush to come, a call that has not waited its window would wait for the next arrival
+            if (!pending.isEmpty() && !flushScheduled) {
+                flushScheduled = true;
+                flushIn = Math.max(0, pending.peek().queuedAt + window - now);
+            }
+        } finally {
+            lock.unlock();
+        }
+        dispatch(release);
+        scheduleFlush(flushIn);
+    }
+
+    /** Run {@link #flush} after {@code nanos}; nothing if negative. */
+    private void scheduleFlush(long nanos) {
+        if (nanos >= 0) CompletableFuture.delayedExecutor(nanos, TimeUnit.NANOSECONDS).execute(this::flush);
+    }
+
+    /** Caller holds the lock. */
+    private void take(int slots, List<Pending> release) {
+        while (slots-- > 0 && !pending.isEmpty()) {
+            var entry = pending.poll();
+            entry.released = true;
+            release.add(entry);
+            inFlight++;
+        }
+    }
+
+    private void dispatch(List<Pending> release) {
+        if (release.isEmpty()) return;
+        long now = System.nanoTime();
+        batches.increment();
+        dispatched.add(release.size());
+        for (var entry : release) {
+            waitNanos.add(now - entry.queuedAt);
+            entry.go.onComplete();
+        }
+    }
+}
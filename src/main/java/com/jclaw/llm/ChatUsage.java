@@ -0,0 +1,60 @@
+package com.jclaw.llm;
+
+import com.google.genai.types.GenerateContentResponseUsageMetadata;
+import dev.langchain4j.model.anthropic.AnthropicTokenUsage;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.chat.listener.ChatModelResponseContext;
+import dev.langchain4j.model.openai.OpenAiTokenUsage;
+
+/**
+ * Carries token usage of LangChain4j models to {@link LimitedLlm}. ADK's LangChain4j adapter
+ * drops usage when it converts a response, so this listener captures it instead.
+ *
+ * <p>LangChain4j calls listeners on the thread that then delivers the (final) response to the
+ * adapter, right before delivery, and the adapter emits on that same thread; so the usage is
+ * handed over in a thread-local that {@link #take()} clears on the next emission.
+ */
+final class ChatUsage implements ChatModelListener {
+
+    static final ChatUsage LISTENER = new ChatUsage();
+
+    private static final ThreadLocal<GenerateContentResponseUsageMetadata> LAST = new ThreadLocal<>();
+
+    private ChatUsage() {}
+
+    @Override
+    public void onResponse(ChatModelResponseContext context) {
+        var usage = context.chatResponse().tokenUsage();
+        if (usage == null) return;
+        int input = orZero(usage.inputTokenCount());
+        int output = orZero(usage.outputTokenCount());
+        int cached = 0;
+        switch (usage) {
+            case AnthropicTokenUsage anthropic -> {
+                // Anthropic counts cached and newly cached prompt tokens apart from input_tokens
+                cached = orZero(anthropic.cacheReadInputTokens());
+                input += cached + orZero(anthropic.cacheCreationInputTokens());
+            }
+            case OpenAiTokenUsage openAi when openAi.inputTokensDetails() != null ->
+                    cached = orZero(openAi.inputTokensDetails().cachedTokens());
+            default -> {}
+        }
+        LAST.set(GenerateContentResponseUsageMetadata.builder()
+                .promptTokenCount(input)
+                .cachedContentTokenCount(cached)
+                .candidatesTokenCount(output)
+                .totalTokenCount(input + output)
+                .build());
+    }
+
+    /** Usage captured on this thread since the last call, or null. */
+    static GenerateContentResponseUsageMetadata take() {
+        var usage = LAST.get();
+        if (usage != null) LAST.remove();
+        return usage;
+    }
+
+    private static int orZero(Integer n) {
+        return n != null ? n : 0;
+    }
+}
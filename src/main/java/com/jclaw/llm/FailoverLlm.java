@@ -0,0 +1,207 @@
+package com.jclaw.llm;
+
+import com.google.adk.models.BaseLlm;
+import com.google.adk.models.BaseLlmConnection;
+import com.google.adk.models.LlmRequest;
+import com.google.adk.models.LlmResponse;
+import com.jclaw.config.JClawConfig;
+import com.jclaw.metrics.Metrics;
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.subjects.CompletableSubject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An agent's ordered list of models behind one {@link BaseLlm}.
+ *
+ * <p>Failover: a call goes to the first model; if it fails, or sends nothing within
+ * {@code attemptTimeoutSeconds}, the next model is tried, and so on. Once a model has started
+ * responding its answer is kept, errors included, so a streamed reply is never mixed from two
+ * models.
+ *
+ * <p>Hedging (optional): if the first model has not responded after its recent p95 time to
+ * first response, the same request also goes to the next model (with failover behind it), and
+ * whichever responds first wins; the other call is cancelled. If the first model fails
+ * before that point the hedge starts at once. A failure on one side leaves the other running,
+ * and the call fails only when both sides have failed, with the hedge's error.
+ *
+ * <p>Each attempt holds a permit of the model it calls, taken by that model's
+ * {@link LimitedLlm} when the attempt is sent and returned when it ends or is cancelled, so a
+ * fallback's capacity is used only while the fallback is actually being called.
+ */
+public final class FailoverLlm extends BaseLlm {
+
+    private static final Logger log = LoggerFactory.getLogger(FailoverLlm.class);
+
+    /** Latency samples needed before the p95 replaces the configured hedge delay. */
+    private static final int MIN_SAMPLES = 20;
+
+    private final String agentId;
+    private final List<String> modelIds;
+    private final List<BaseLlm> models;
+    private final JClawConfig.FailoverConfig config;
+    /** Recent time-to-first-response of the first model, in nanos; guarded by itself. */
+    private final long[] latencies = new long[128];
+    private int next;
+    private int samples;
+
+    private final LongAdder failovers;
+    private final LongAdder hedges;
+    private final LongAdder hedgeWins;
+
+    /** @param models in order of preference, with their model ids in {@code modelIds} */
+    public FailoverLlm(String agentId, List<String> modelIds, List<BaseLlm> models,
+                       JClawConfig.FailoverConfig config, Metrics metrics) {
+        super(models.getFirst().model());
+        this.agentId = agentId;
+        this.modelIds = List.copyOf(modelIds);
+        this.models = List.copyOf(models);
+        this.config = config;
+        this.failovers = metrics.counter("llm.failovers");
+        this.hedges = metrics.counter("llm.hedges");
+        this.hedgeWins = metrics.counter("llm.hedgeWins");
+    }
+
+    @Override
+    public Flowable<LlmResponse> generateContent(LlmRequest request, boolean stream) {
+        if (!config.hedge() || models.size() < 2) return chain(request, stream, 0);
+        return Flowable.defer(() -> {
+            // Completed when the first model fails before responding: start the hedge right away
+            var primaryFailed = CompletableSubject.create();
+            var outcome = new HedgeOutcome();
+            var primary = attempt(request, stream, 0)
+                    .onErrorResumeNext(e -> {
+                        if (!(e instanceof AttemptFailed)) return Flowable.error(e);
+                        Throwable hedgeError = outcome.primaryFailed();
+                        if (hedgeError != null) return Flowable.error(hedgeError);
+                        primaryFailed.onComplete();
+                        return Flowable.never();
+                    });
+            long delay = hedgeDelayNanos();
+            var trigger = Completable.ambArray(Completable.timer(delay, TimeUnit.NANOSECONDS), primaryFailed)
+                    .doOnComplete(() -> {
+                        if (!primaryFailed.hasComplete()) {
+                            hedges.increment();
+                            log.debug("Agent '{}': hedging to model '{}' after {} ms",
+                                    agentId, modelIds.get(1), TimeUnit.NANOSECONDS.toMillis(delay));
+                        }
+                    });
+            boolean[] won = {false};
+            var hedge = chain(request, stream, 1)
+                    .delaySubscription(trigger.toFlowable())
+                    .doOnNext(_ -> {
+                        if (!won[0] && !primaryFailed.hasComplete()) hedgeWins.increment();
+                        won[0] = true;
+                    })
+                    // An error would win the race too: while the first model runs, leave it to finish
+                    .onErrorResumeNext(e -> {
+                        if (won[0] || !outcome.hedgeFailed(e)) return Flowable.error(e);
+                        log.debug("Agent '{}': hedge failed ({}), waiting for model '{}'",
+                                agentId, describe(e), modelIds.getFirst());
+                        return Flowable.never();
+                    });
+            return Flowable.ambArray(primary, hedge);
+        });
+    }
+
+    @Override
+    public BaseLlmConnection connect(LlmRequest request) {
+        return models.getFirst().connect(request);
+    }
+
+    /** Model {@code index}, failing over to the ones after it. */
+    private Flowable<LlmResponse> chain(LlmRequest request, boolean stream, int index) {
+        var call = attempt(request, stream, index);
+        if (index == models.size() - 1) {
+            return call.onErrorResumeNext(e -> Flowable.error(e instanceof AttemptFailed f ? f.getCause() : e));
+        }
+        return call.onErrorResumeNext(e -> {
+            if (!(e instanceof AttemptFailed f)) return Flowable.error(e);
+            failovers.increment();
+            log.warn("Agent '{}': model '{}' failed ({}), failing over to '{}'",
+                    agentId, modelIds.get(index), describe(f.getCause()), modelIds.get(index + 1));
+            return chain(request, stream, index + 1);
+        });
+    }
+
+    /**
+     * One call to model {@code index}. Errors before the first response (including the attempt
+     * timeout) are wrapped in {@link AttemptFailed}, which allows failover; later errors are not.
+     */
+    private Flowable<LlmResponse> attempt(LlmRequest request, boolean stream, int index) {
+        return Flowable.defer(() -> {
+            long start = System.nanoTime();
+            boolean[] responded = {false};
+            Flowable<LlmResponse> call = models.get(index).generateContent(request, stream);
+            if (config.attemptTimeoutSeconds() > 0) {
+                call = call.timeout(Flowable.timer(config.attemptTimeoutSeconds(), TimeUnit.SECONDS),
+                        _ -> Flowable.never());
+            }
+            return call
+                    .doOnNext(_ -> {
+                        if (responded[0]) return;
+                        responded[0] = true;
+                        if (index == 0) recordLatency(System.nanoTime() - start);
+                    })
+                    .onErrorResumeNext(e -> Flowable.error(responded[0] ? e : new AttemptFailed(e)));
+        });
+    }
+
+    private void recordLatency(long nanos) {
+        synchronized (latencies) {
+            latencies[next] = nanos;
+            next = (next + 1) % latencies.length;
+            samples = Math.min(samples + 1, latencies.length);
+        }
+    }
+
+    /** p95 of the first model's recent time to first response, or the configured delay until known. */
+    private long hedgeDelayNanos() {
+        long[] sorted;
+        synchronized (latencies) {
+            if (samples < MIN_SAMPLES) return TimeUnit.MILLISECONDS.toNanos(config.hedgeDelayMillis());
+            sorted = Arrays.copyOf(latencies, samples);
+        }
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(sorted.length * 0.95) - 1];
+    }
+
+    private static String describe(Throwable error) {
+        return error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName();
+    }
+
+    /** Which sides of a hedged call have failed before responding; each side reports once. */
+    private static final class HedgeOutcome {
+        private boolean primaryFailed;
+        private Throwable hedgeError;
+
+        /** The first model failed; returns the hedge's error if it failed already, else null. */
+        synchronized Throwable primaryFailed() {
+            primaryFailed = true;
+            return hedgeError;
+        }
+
+        /** The hedge failed; returns whether the first model is still running, holding the error for it. */
+        synchronized boolean hedgeFailed(Throwable error) {
+            if (primaryFailed) return false;
+            hedgeError = error;
+            return true;
+        }
+    }
+
+    /** A model failed before it produced anything, so the next one may be tried. */
+    private static final class AttemptFailed extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        AttemptFailed(Throwable cause) {
+            super(cause.getMessage(), cause, false, false);
+        }
+    }
+}
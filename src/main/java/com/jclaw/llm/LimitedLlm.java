@@ -0,0 +1,138 @@
+package com.jclaw.llm;
+
+import com.google.adk.models.BaseLlm;
+import com.google.adk.models.BaseLlmConnection;
+import com.google.adk.models.LlmRequest;
+import com.google.adk.models.LlmResponse;
+import com.google.genai.types.Content;
+import com.google.genai.types.GenerateContentResponseUsageMetadata;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Single;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * {@link BaseLlm} that paces calls through the model's {@link ModelLimiter}: each call holds
+ * one of the model's permits from the moment it is sent until it completes, fails or is
+ * cancelled, first waits for the model's request/token budget without holding a permit
+ * (neither wait blocks a thread), and reports its outcome, reported token usage and overload
+ * errors back to the limiter; streamed calls of turns also report their time to first token.
+ * A {@link #background} view takes low-priority permits instead.
+ *
+ * <p>Responses of LangChain4j models get the usage captured by {@link ChatUsage} attached, so
+ * token counts (including prompt-cache hits) reach ADK events for every provider.
+ */
+final class LimitedLlm extends BaseLlm {
+
+    private final Supplier<BaseLlm> delegate;
+    private final ModelLimiter limiter;
+    private final boolean background;
+
+    /** @param delegate resolved on first use and then reused */
+    LimitedLlm(String model, Supplier<BaseLlm> delegate, ModelLimiter limiter) {
+        this(model, memoize(delegate), limiter, false);
+    }
+
+    private LimitedLlm(String model, Supplier<BaseLlm> delegate, ModelLimiter limiter, boolean background) {
+        super(model);
+        this.delegate = delegate;
+        this.limiter = limiter;
+        this.background = background;
+    }
+
+    /** The same model and client, with calls taking {@link ModelLimiter#acquireBackground} permits. */
+    LimitedLlm background() {
+        return new LimitedLlm(model(), delegate, limiter, true);
+    }
+
+    @Override
+    public Flowable<LlmResponse> generateContent(LlmRequest request, boolean stream) {
+        return Flowable.defer(() -> {
+            // Wait for the rate budget before queueing for a permit, so a delayed call holds no slot
+            long estimated = estimateTokens(request);
+            long delay = limiter.reserve(estimated);
+            Flowable<LlmResponse> call = Flowable.defer(() -> {
+                var permit = background ? limiter.acquireBackground() : limiter.acquire();
+                // Cancelled while waiting: withdraw the request, or give back a permit already granted
+                return Single.fromCompletionStage(permit)
+                        .doOnDispose(() -> {
+                            if (!permit.cancel(false)) permit.thenAccept(ModelLimiter.Permit::close);
+                        })
+                        .flatMapPublisher(p -> send(request, stream, estimated).doFinally(p::close));
+            });
+            return delay > 0 ? call.delaySubscription(delay, TimeUnit.NANOSECONDS) : call;
+        });
+    }
+
+    private Flowable<LlmResponse> send(LlmRequest request, boolean stream, long estimated) {
+        return Flowable.defer(() -> {
+            long sentAt = System.nanoTime();
+            // Only a turn's streamed call measures time to first token; otherwise the first
+            // response is the whole answer, whose time grows with its length
+            boolean[] sample = {stream && !background};
+            boolean[] slow = {false};
+            GenerateContentResponseUsageMetadata[] usage = {null};
+            return delegate.get().generateContent(request, stream)
+                    .map(response -> {
+                        if (sample[0]) {
+                            sample[0] = false;
+                            slow[0] = limiter.onFirstResponse(System.nanoTime() - sentAt);
+                        }
+                        if (response.usageMetadata().isEmpty()) {
+                            var captured = ChatUsage.take();
+                            if (captured != null) response = response.toBuilder().usageMetadata(captured).build();
+                        }
+                        // Streamed usage is cumulative: the latest report covers the whole call
+                        response.usageMetadata().ifPresent(u -> usage[0] = u);
+                        return response;
+                    })
+                    .doOnComplete(() -> limiter.onComplete(estimated, usage[0], !slow[0]))
+                    .doOnError(limiter::onError);
+        });
+    }
+
+    @Override
+    public BaseLlmConnection connect(LlmRequest request) {
+        return delegate.get().connect(request);
+    }
+
+    /** Rough prompt size: four characters per token, plus a little per message. */
+    private static long estimateTokens(LlmRequest request) {
+        long chars = 0;
+        int messages = 0;
+        for (var content : request.contents()) {
+            chars += textLength(content);
+            messages++;
+        }
+        var system = request.config().flatMap(c -> c.systemInstruction());
+        if (system.isPresent()) chars += textLength(system.get());
+        return chars / 4 + 4L * messages;
+    }
+
+    private static long textLength(Content content) {
+        long n = 0;
+        for (var part : content.parts().orElse(List.of())) {
+            n += part.text().map(String::length).orElse(0);
+        }
+        return n;
+    }
+
+    private static <T> Supplier<T> memoize(Supplier<T> supplier) {
+        return new Supplier<>() {
+            private volatile T value;
+
+            @Override
+            public T get() {
+                T v = value;
+                if (v == null) {
+                    synchronized (this) {
+                        if ((v = value) == null) value = v = supplier.get();
+                    }
+                }
+                return v;
+            }
+        };
+    }
+}
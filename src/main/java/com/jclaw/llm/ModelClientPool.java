@@ -0,0 +1,222 @@
+package com.jclaw.llm;
+
+import com.google.adk.models.BaseLlm;
+import com.google.adk.models.LlmRegistry;
+import com.google.adk.models.langchain4j.LangChain4j;
+import com.jclaw.config.JClawConfig;
+import com.jclaw.metrics.Metrics;
+import dev.langchain4j.exception.HttpException;
+import dev.langchain4j.http.client.HttpMethod;
+import dev.langchain4j.http.client.HttpRequest;
+import dev.langchain4j.http.client.jdk.JdkHttpClient;
+import dev.langchain4j.model.anthropic.AnthropicChatModel;
+import dev.langchain4j.model.anthropic.AnthropicStreamingChatModel;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.ollama.OllamaEmbeddingModel;
+import dev.langchain4j.model.ollama.OllamaChatModel;
+import dev.langchain4j.model.ollama.OllamaStreamingChatModel;
+import dev.langchain4j.model.openai.OpenAiChatModel;
+import dev.langchain4j.model.openai.OpenAiEmbeddingModel;
+import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One LLM client per {@link JClawConfig.ModelDef}, shared by every agent (and every rebuild of
+ * an agent) that uses the model. All LangChain4j models send through a single
+ * {@link SharedHttpClient}, so agents on the same provider share TCP/TLS connections: HTTP/2
+ * for https endpoints, pooled HTTP/1.1 keep-alive connections for plain http (e.g. Ollama).
+ *
+ * <p>Every client is paced by its model's {@link ModelLimiter}. Gemini models keep ADK's
+ * native client (resolved by model name on first use) behind the same limiter.
+ */
+public final class ModelClientPool {
+
+    private static final Logger log = LoggerFactory.getLogger(ModelClientPool.class);
+
+    private static final List<ChatModelListener> USAGE = List.of(ChatUsage.LISTENER);
+
+    private final JClawConfig.ModelClientConfig config;
+    private final Metrics metrics;
+    private final SharedHttpClient shared;
+    private final Map<JClawConfig.ModelDef, LimitedLlm> clients = new ConcurrentHashMap<>();
+    private final Map<JClawConfig.ModelDef, LimitedLlm> backgroundClients = new ConcurrentHashMap<>();
+    private final Map<JClawConfig.ModelDef, ModelLimiter> limiters = new ConcurrentHashMap<>();
+    private final Map<JClawConfig.ModelDef, EmbeddingModel> embedders = new ConcurrentHashMap<>();
+
+    public ModelClientPool(JClawConfig.ModelClientConfig config, Metrics metrics) {
+        this.config = config;
+        this.metrics = metrics;
+        // Read once by the JDK client when its connection pool is first created
+        if (System.getProperty("jdk.httpclient.keepalive.timeout") == null) {
+            System.setProperty("jdk.httpclient.keepalive.timeout", String.valueOf(config.keepAliveSeconds()));
+        }
+        // No h2c upgrade attempts against plain-http (typically local) servers
+        this.shared = new SharedHttpClient(jdkClient(HttpClient.Version.HTTP_2), jdkClient(HttpClient.Version.HTTP_1_1),
+                config.maxConnectionsPerHost(),
+                metrics.counter("llm.http.requests"), metrics.counter("llm.http.waits"));
+        metrics.gauge("llm.clients", clients::size);
+    }
+
+    /** The pooled, rate-limited LLM for a model definition. */
+    public BaseLlm get(JClawConfig.ModelDef modelDef) {
+        return client(modelDef);
+    }
+
+    private LimitedLlm client(JClawConfig.ModelDef modelDef) {
+        return clients.computeIfAbsent(modelDef, def -> {
+            if (provider(def).equals("gemini")) {
+                return new LimitedLlm(def.model(), () -> LlmRegistry.getLlm(def.model()), limiter(def));
+            }
+            BaseLlm client = batching(def, create(def));
+            return new LimitedLlm(def.model(), () -> client, limiter(def));
+        });
+    }
+
+    /**
+     * The pooled client for a model definition, for background work: its calls wait while
+     * turns are queued for the model (see {@link ModelLimiter#acquireBackground}).
+     */
+    public BaseLlm background(JClawConfig.ModelDef modelDef) {
+        return backgroundClients.computeIfAbsent(modelDef, def -> client(def).background());
+    }
+
+    /** The limiter shared by every call on a model. */
+    public ModelLimiter limiter(JClawConfig.ModelDef modelDef) {
+        return limiters.computeIfAbsent(modelDef, def -> new ModelLimiter(def.id(),
+                def.limits() != null ? def.limits() : new JClawConfig.ModelLimits(), metrics));
+    }
+
+    /** The pooled embedding model for a model definition; only {@code openai} and {@code ollama} embed. */
+    public EmbeddingModel embeddingModel(JClawConfig.ModelDef modelDef) {
+        return embedders.computeIfAbsent(modelDef, this::createEmbedder);
+    }
+
+    /**
+     * Open a connection to each distinct provider endpoint in the background, so the first
+     * turn does not pay for DNS, TCP and TLS setup.
+     */
+    public void warmUp(Collection<JClawConfig.ModelDef> models) {
+        if (!config.warmUp()) return;
+        var origins = new LinkedHashSet<String>();
+        for (var m : models) {
+            if (m.baseUrl() == null || m.baseUrl().isBlank() || provider(m).equals("gemini")) continue;
+            origins.add(URI.create(m.baseUrl()).resolve("/").toString());
+        }
+        for (var origin : origins) {
+            Thread.ofVirtual().name("llm-warmup").start(() -> {
+                var request = HttpRequest.builder().method(HttpMethod.GET).url(origin).build();
+                try {
+                    shared.execute(request);
+                    log.debug("Connection warm-up to {} done", origin);
+                } catch (HttpException e) {
+                    // Any HTTP status means the connection is up
+                    log.debug("Connection warm-up to {} done (status {})", origin, e.statusCode());
+                } catch (RuntimeException e) {
+                    log.warn("Connection warm-up failed for {}: {}", origin, e.getMessage());
+                }
+            });
+        }
+    }
+
+    private BaseLlm create(JClawConfig.ModelDef modelDef) {
+        String model = modelDef.model();
+        String apiKey = resolveApiKey(modelDef);
+        String baseUrl = modelDef.baseUrl();
+        var timeout = Duration.ofSeconds(config.readTimeoutSeconds());
+
+        return switch (provider(modelDef)) {
+            case "ollama" -> {
+                log.info("Model '{}': using Ollama at {}, model={}", modelDef.id(), baseUrl, model);
+                yield new LangChain4j(
+                        OllamaChatModel.builder().httpClientBuilder(httpClient()).timeout(timeout)
+                                .modelName(model).baseUrl(baseUrl).listeners(USAGE).build(),
+                        OllamaStreamingChatModel.builder().httpClientBuilder(httpClient()).timeout(timeout)
+                                .modelName(model).baseUrl(baseUrl).listeners(USAGE).build(),
+                        model);
+            }
+            case "anthropic" -> {
+                log.info("Model '{}': using Anthropic at {}, model={}", modelDef.id(), baseUrl, model);
+                // Anthropic caches a prompt prefix only where asked to; OpenAI and Gemini do it on their own
+                boolean caching = modelDef.promptCaching();
+                yield new LangChain4j(
+                        AnthropicChatModel.builder().httpClientBuilder(httpClient()).timeout(timeout)
+                                .apiKey(apiKey).modelName(model).baseUrl(baseUrl).listeners(USAGE)
+                                .cacheSystemMessages(caching).cacheTools(caching).build(),
+                        AnthropicStreamingChatModel.builder().httpClientBuilder(httpClient()).timeout(timeout)
+                                .apiKey(apiKey).modelName(model).baseUrl(baseUrl).listeners(USAGE)
+                                .cacheSystemMessages(caching).cacheTools(caching).build(),
+                        model);
+            }
+            case "openai" -> {
+                log.info("Model '{}': using OpenAI-compatible at {}, model={}", modelDef.id(), baseUrl, model);
+                yield new LangChain4j(
+                        OpenAiChatModel.builder().httpClientBuilder(httpClient()).timeout(timeout)
+                                .apiKey(apiKey).modelName(model).baseUrl(baseUrl).listeners(USAGE).build(),
+                        OpenAiStreamingChatModel.builder().httpClientBuilder(httpClient()).timeout(timeout)
+                                .apiKey(apiKey).modelName(model).baseUrl(baseUrl).listeners(USAGE).build(),
+                        model);
+            }
+            default -> throw new IllegalStateException(
+                    "Model '%s': unknown provider '%s'".formatted(modelDef.id(), modelDef.provider()));
+        };
+    }
+
+    /** Local model servers batch concurrent requests; feed them in batches if configured. */
+    private BaseLlm batching(JClawConfig.ModelDef modelDef, BaseLlm client) {
+        if (modelDef.batchSize() <= 0) return client;
+        if (!provider(modelDef).equals("ollama")) {
+            log.warn("Model '{}': batchSize applies to local providers only, ignored for '{}'",
+                    modelDef.id(), modelDef.provider());
+            return client;
+        }
+        log.info("Model '{}': batching up to {} requests within {} ms",
+                modelDef.id(), modelDef.batchSize(), modelDef.batchWindowMillis());
+        return new BatchingLlm(modelDef.id(), client, modelDef.batchSize(), modelDef.batchWindowMillis(), metrics);
+    }
+
+    private EmbeddingModel createEmbedder(JClawConfig.ModelDef modelDef) {
+        var timeout = Duration.ofSeconds(config.readTimeoutSeconds());
+        return switch (provider(modelDef)) {
+            case "ollama" -> OllamaEmbeddingModel.builder().httpClientBuilder(httpClient()).timeout(timeout)
+                    .modelName(modelDef.model()).baseUrl(modelDef.baseUrl()).build();
+            case "openai" -> OpenAiEmbeddingModel.builder().httpClientBuilder(httpClient()).timeout(timeout)
+                    .apiKey(resolveApiKey(modelDef)).modelName(modelDef.model()).baseUrl(modelDef.baseUrl()).build();
+            default -> throw new IllegalStateException(
+                    "Model '%s': provider '%s' has no embedding support (valid: openai, ollama)"
+                            .formatted(modelDef.id(), modelDef.provider()));
+        };
+    }
+
+    private SharedHttpClient.Builder httpClient() {
+        return new SharedHttpClient.Builder(shared);
+    }
+
+    /** One JDK client, and so one connection pool; the read timeout bounds each request. */
+    private dev.langchain4j.http.client.HttpClient jdkClient(HttpClient.Version version) {
+        return JdkHttpClient.builder()
+                .httpClientBuilder(HttpClient.newBuilder().version(version))
+                .connectTimeout(Duration.ofSeconds(config.connectTimeoutSeconds()))
+                .readTimeout(Duration.ofSeconds(config.readTimeoutSeconds()))
+                .build();
+    }
+
+    private static String provider(JClawConfig.ModelDef modelDef) {
+        return modelDef.provider() != null ? modelDef.provider() : "gemini";
+    }
+
+    private static String resolveApiKey(JClawConfig.ModelDef modelDef) {
+        if (modelDef.apiKeyEnvVar() == null || modelDef.apiKeyEnvVar().isBlank()) return null;
+        return System.getenv(modelDef.apiKeyEnvVar());
+    }
+}
@@ -0,0 +1,263 @@
+package com.jclaw.llm;
+
+import com.google.genai.errors.ApiException;
+import com.google.genai.types.GenerateContentResponseUsageMetadata;
+import com.jclaw.config.JClawConfig;
+import com.jclaw.metrics.Metrics;
+import com.jclaw.metrics.TokenUsage;
+import dev.langchain4j.exception.HttpException;
+import dev.langchain4j.exception.RateLimitException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.http.HttpTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+/**
+ * Throttle for one {@link JClawConfig.ModelDef}, so a slow or rate-limited provider only
+ * holds back the agents that use it.
+ *
+ * <ul>
+ *   <li>Concurrency: each call to the model holds a {@link Permit} while it runs (see
+ *       {@link LimitedLlm}). The number of permits is an AIMD limit between 1 and
+ *       {@code maxConcurrent}: it grows by one per limit's worth of healthy calls and is
+ *       halved on a 429/503 or timeout, and cut by 10% when the time to first token of a
+ *       turn's streamed call rises well above its baseline (a whole answer's time depends
+ *       on its length, so other calls are not sampled). Calls beyond the limit wait in the model's own FIFO queue,
+ *       bounded by {@code maxQueued}. Background work ({@link #acquireBackground}) waits in
+ *       a second queue that is served only when no turn's call is waiting.</li>
+ *   <li>Rate: each model call reserves one request and its estimated tokens from per-minute
+ *       buckets ({@link TokenBucket}) and is delayed, before it asks for a permit, until the
+ *       budget allows it; the token
+ *       estimate is corrected with the usage the provider reports.</li>
+ * </ul>
+ */
+public final class ModelLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(ModelLimiter.class);
+
+    /** Time to first token above this multiple of the baseline counts as congestion. */
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double BACKOFF_RATIO = 0.5;
+    private static final double LATENCY_BACKOFF_RATIO = 0.9;
+
+    private final String modelId;
+    private final int maxLimit;
+    private final int maxQueued;
+    /** Null when unlimited. */
+    private final TokenBucket requests;
+    private final TokenBucket tokens;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<CompletableFuture<Permit>> waiting = new ArrayDeque<>();
+    private final ArrayDeque<CompletableFuture<Permit>> background = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    /** Slowly rising minimum of time to first token, in nanos; 0 until the first sample. */
+    private double baselineNanos;
+
+    private final LongAdder rateDelays;
+    private final LongAdder overloads;
+    private final LongAdder rejected;
+    private final TokenUsage totalTokens;
+    private final TokenUsage modelTokens;
+
+    public ModelLimiter(String modelId, JClawConfig.ModelLimits limits, Metrics metrics) {
+        this.modelId = modelId;
+        this.maxLimit = Math.max(1, limits.maxConcurrent());
+        this.maxQueued = limits.maxQueued();
+        this.requests = limits.requestsPerMinute() > 0 ? new TokenBucket(limits.requestsPerMinute()) : null;
+        this.tokens = limits.tokensPerMinute() > 0 ? new TokenBucket(limits.tokensPerMinute()) : null;
+        this.limit = Math.max(1, maxLimit / 2.0);
+        this.rateDelays = metrics.counter("llm.rateDelays");
+        this.overloads = metrics.counter("llm.overloads");
+        this.rejected = metrics.counter("llm.rejected");
+        this.totalTokens = new TokenUsage(metrics, "llm.tokens", null);
+        this.modelTokens = new TokenUsage(metrics, "llm.tokens", modelId);
+        metrics.gauge("llm.limit." + modelId, this::limit);
+        metrics.gauge("llm.inFlight." + modelId, () -> locked(() -> inFlight));
+        metrics.gauge("llm.queued." + modelId, () -> locked(() -> waiting.size() + background.size()));
+    }
+
+    /** A call's share of the model's concurrency. Close it when the call ends. */
+    public final class Permit implements AutoCloseable {
+        private boolean closed;
+
+        private Permit() {}
+
+        @Override
+        public void close() {
+            List<CompletableFuture<Permit>> granted = new ArrayList<>(1);
+            lock.lock();
+            try {
+                if (closed) return;
+                closed = true;
+                inFlight--;
+                grant(granted);
+            } finally {
+                lock.unlock();
+            }
+            complete(granted);
+        }
+    }
+
+    /**
+     * Request a permit. The future completes when the model has capacity, or fails fast with
+     * a {@link RejectedExecutionException} when the model's queue is full.
+     */
+    public CompletableFuture<Permit> acquire() {
+        return enqueue(waiting, "calls");
+    }
+
+    /**
+     * Request a permit for background work, such as a compaction summary: granted only when
+     * no other call is waiting for the model, so it never delays a turn. Bounded like
+     * {@link #acquire}.
+     */
+    public CompletableFuture<Permit> acquireBackground() {
+        return enqueue(background, "background calls");
+    }
+
+    private CompletableFuture<Permit> enqueue(ArrayDeque<CompletableFuture<Permit>> queue, String what) {
+        var request = new CompletableFuture<Permit>();
+        List<CompletableFuture<Permit>> granted = new ArrayList<>(1);
+        lock.lock();
+        try {
+            if (queue.size() >= maxQueued && inFlight >= (int) limit) {
+                rejected.increment();
+                return CompletableFuture.failedFuture(new RejectedExecutionException(
+                        "Model '%s' busy: %d %s already waiting".formatted(modelId, queue.size(), what)));
+            }
+            queue.add(request);
+            grant(granted);
+        } finally {
+            lock.unlock();
+        }
+        complete(granted);
+        return request;
+    }
+
+    /** Current concurrency limit. */
+    public long limit() {
+        return locked(() -> (int) limit);
+    }
+
+    // ── Signals from model calls ──────────────────────────────────────
+
+    /** Reserve one request and {@code estimatedTokens}; returns the nanos to wait before sending. */
+    long reserve(long estimatedTokens) {
+        long delay = 0;
+        if (requests != null) delay = requests.reserve(1);
+        if (tokens != null) delay = Math.max(delay, tokens.reserve(estimatedTokens));
+        if (delay > 0) rateDelays.increment();
+        return delay;
+    }
+
+    /**
+     * Time from sending a streamed call to its first token; drives the latency back-off.
+     * Returns whether it was slow enough to cut the limit.
+     */
+    boolean onFirstResponse(long latencyNanos) {
+        lock.lock();
+        try {
+            if (baselineNanos == 0 || latencyNanos < baselineNanos) {
+                baselineNanos = latencyNanos;
+            } else {
+                // Let the baseline follow a provider that got slower for good
+                baselineNanos += (latencyNanos - baselineNanos) * 0.01;
+            }
+            if (latencyNanos <= baselineNanos * LATENCY_TOLERANCE) return false;
+            limit = Math.max(1, limit * LATENCY_BACKOFF_RATIO);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A call finished; {@code usage} is what the provider reported, or null if nothing was.
+     * A {@code healthy} call (not slow to its first token) raises the limit.
+     */
+    void onComplete(long estimatedTokens, GenerateContentResponseUsageMetadata usage, boolean healthy) {
+        if (healthy) {
+            List<CompletableFuture<Permit>> granted = new ArrayList<>(1);
+            lock.lock();
+            try {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+                grant(granted);
+            } finally {
+                lock.unlock();
+            }
+            complete(granted);
+        }
+        if (usage == null) return;
+        int prompt = usage.promptTokenCount().orElse(0);
+        int cached = usage.cachedContentTokenCount().orElse(0);
+        int output = usage.candidatesTokenCount().orElse(0);
+        totalTokens.add(prompt, cached, output);
+        modelTokens.add(prompt, cached, output);
+        if (tokens != null) tokens.adjust(usage.totalTokenCount().orElse(prompt + output) - estimatedTokens);
+    }
+
+    /** A call failed; overload errors halve the concurrency limit. */
+    void onError(Throwable error) {
+        if (!isOverload(error)) return;
+        overloads.increment();
+        lock.lock();
+        try {
+            limit = Math.max(1, limit * BACKOFF_RATIO);
+        } finally {
+            lock.unlock();
+        }
+        log.warn("Model '{}' overloaded ({}), concurrency limit now {}", modelId, error.getMessage(), limit());
+    }
+
+    /** Rate limited, unavailable or timed out, anywhere in the cause chain. */
+    static boolean isOverload(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof RateLimitException || t instanceof HttpTimeoutException
+                    || t instanceof TimeoutException || t instanceof dev.langchain4j.exception.TimeoutException) {
+                return true;
+            }
+            if (t instanceof HttpException e && (e.statusCode() == 429 || e.statusCode() == 503)) return true;
+            if (t instanceof ApiException e && (e.code() == 429 || e.code() == 503)) return true;
+            if (t.getCause() == t) break;
+        }
+        return false;
+    }
+
+    /** Hand permits to waiters while under the limit, foreground before background. Caller holds the lock. */
+    private void grant(List<CompletableFuture<Permit>> granted) {
+        while (inFlight < (int) limit && !(waiting.isEmpty() && background.isEmpty())) {
+            var next = waiting.isEmpty() ? background.poll() : waiting.poll();
+            if (next.isDone()) continue;
+            inFlight++;
+            granted.add(next);
+        }
+    }
+
+    private void complete(List<CompletableFuture<Permit>> granted) {
+        for (var request : granted) {
+            var permit = new Permit();
+            // Cancelled by its caller meanwhile: give the permit back
+            if (!request.complete(permit)) permit.close();
+        }
+    }
+
+    private long locked(IntSupplier read) {
+        lock.lock();
+        try {
+            return read.getAsInt();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
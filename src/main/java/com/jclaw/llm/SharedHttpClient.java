@@ -0,0 +1,142 @@
+package com.jclaw.llm;
+
+import dev.langchain4j.exception.HttpException;
+import dev.langchain4j.http.client.HttpClient;
+import dev.langchain4j.http.client.HttpClientBuilder;
+import dev.langchain4j.http.client.HttpRequest;
+import dev.langchain4j.http.client.SuccessfulHttpResponse;
+import dev.langchain4j.http.client.sse.ServerSentEvent;
+import dev.langchain4j.http.client.sse.ServerSentEventListener;
+import dev.langchain4j.http.client.sse.ServerSentEventParser;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LangChain4j {@link HttpClient} shared by all pooled models: one JDK client (and so one
+ * connection pool) per scheme, with a per-host cap on concurrent requests. Streaming requests
+ * hold their permit until the event stream closes.
+ */
+final class SharedHttpClient implements HttpClient {
+
+    private final HttpClient https;
+    private final HttpClient http;
+    private final int maxPerHost;
+    private final Map<String, Semaphore> hosts = new ConcurrentHashMap<>();
+    private final LongAdder requests;
+    private final LongAdder waits;
+
+    SharedHttpClient(HttpClient https, HttpClient http, int maxPerHost, LongAdder requests, LongAdder waits) {
+        this.https = https;
+        this.http = http;
+        this.maxPerHost = Math.max(1, maxPerHost);
+        this.requests = requests;
+        this.waits = waits;
+    }
+
+    @Override
+    public SuccessfulHttpResponse execute(HttpRequest request) throws HttpException {
+        var permit = acquire(request);
+        try {
+            return clientFor(request).execute(request);
+        } finally {
+            permit.release();
+        }
+    }
+
+    @Override
+    public void execute(HttpRequest request, ServerSentEventParser parser, ServerSentEventListener listener) {
+        var permit = acquire(request);
+        var released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) permit.release();
+        };
+        try {
+            clientFor(request).execute(request, parser, new ServerSentEventListener() {
+                @Override
+                public void onOpen(SuccessfulHttpResponse response) {
+                    listener.onOpen(response);
+                }
+
+                @Override
+                public void onEvent(ServerSentEvent event) {
+                    listener.onEvent(event);
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    release.run();
+                    listener.onError(error);
+                }
+
+                @Override
+                public void onClose() {
+                    release.run();
+                    listener.onClose();
+                }
+            });
+        } catch (RuntimeException e) {
+            release.run();
+            throw e;
+        }
+    }
+
+    private HttpClient clientFor(HttpRequest request) {
+        return request.url().startsWith("https:") ? https : http;
+    }
+
+    private Semaphore acquire(HttpRequest request) {
+        var uri = URI.create(request.url());
+        var permit = hosts.computeIfAbsent(uri.getScheme() + "://" + uri.getAuthority(),
+                _ -> new Semaphore(maxPerHost));
+        requests.increment();
+        if (!permit.tryAcquire()) {
+            waits.increment();
+            permit.acquireUninterruptibly();
+        }
+        return permit;
+    }
+
+    /** Hands the shared client to every model builder; per-model timeouts are ignored. */
+    static final class Builder implements HttpClientBuilder {
+        private final SharedHttpClient client;
+        private Duration connectTimeout;
+        private Duration readTimeout;
+
+        Builder(SharedHttpClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public Duration connectTimeout() {
+            return connectTimeout;
+        }
+
+        @Override
+        public HttpClientBuilder connectTimeout(Duration timeout) {
+            this.connectTimeout = timeout;
+            return this;
+        }
+
+        @Override
+        public Duration readTimeout() {
+            return readTimeout;
+        }
+
+        @Override
+        public HttpClientBuilder readTimeout(Duration timeout) {
+            this.readTimeout = timeout;
+            return this;
+        }
+
+        @Override
+        public HttpClient build() {
+            return client;
+        }
+    }
+}
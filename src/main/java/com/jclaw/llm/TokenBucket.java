@@ -0,0 +1,46 @@
+package com.jclaw.llm;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-minute budget (requests or tokens) refilled continuously. A reservation is always
+ * granted but may leave the bucket in debt; the caller waits for the returned delay, so
+ * callers are paced in arrival order without anyone polling.
+ */
+final class TokenBucket {
+
+    private final double capacity;
+    private final double perNano;
+    private double available;
+    private long refilledAt;
+
+    /** @param perMinute budget per minute; the bucket also holds at most one minute's worth */
+    TokenBucket(long perMinute) {
+        this.capacity = perMinute;
+        this.perNano = perMinute / (double) TimeUnit.MINUTES.toNanos(1);
+        this.available = perMinute;
+        this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * Take {@code amount} from the budget and return how long to wait, in nanoseconds, before
+     * spending it. Amounts above the capacity are capped so a huge request cannot stall the bucket.
+     */
+    synchronized long reserve(long amount) {
+        refill();
+        available -= Math.min(amount, capacity);
+        return available >= 0 ? 0 : (long) Math.ceil(-available / perNano);
+    }
+
+    /** Correct an earlier reservation once the real amount is known (positive: more was spent). */
+    synchronized void adjust(long delta) {
+        refill();
+        available = Math.max(-capacity, available - delta);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        available = Math.min(capacity, available + (now - refilledAt) * perNano);
+        refilledAt = now;
+    }
+}
@@ -0,0 +1,37 @@
+package com.jclaw.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Minimal in-process metrics: named counters and gauges, dumped as a flat map.
+ * Counters are {@link LongAdder}s so hot paths pay no contention; gauges are
+ * sampled only when a snapshot is taken.
+ */
+public final class Metrics {
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    /** Get or create a counter. Callers should keep the returned adder rather than look it up per event. */
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, _ -> new LongAdder());
+    }
+
+    /** Register a gauge whose value is read at snapshot time. Re-registering replaces the supplier. */
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /** Current value of every counter and gauge, sorted by name. */
+    public SortedMap<String, Long> snapshot() {
+        var out = new TreeMap<String, Long>();
+        counters.forEach((name, adder) -> out.put(name, adder.sum()));
+        gauges.forEach((name, supplier) -> out.put(name, supplier.getAsLong()));
+        return out;
+    }
+}
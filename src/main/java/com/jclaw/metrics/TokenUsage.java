@@ -0,0 +1,36 @@
+package com.jclaw.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token counters for one model or agent, or for all of them: {@code <prefix>.prompt.<key>},
+ * {@code <prefix>.cached.<key>} (the part of the prompt served from the provider's prompt
+ * cache) and {@code <prefix>.output.<key>}, plus a {@code <prefix>.cachedPercent.<key>} gauge,
+ * the share of prompt tokens that were cached. A null key leaves off the {@code .<key>}.
+ */
+public final class TokenUsage {
+
+    private final LongAdder prompt;
+    private final LongAdder cached;
+    private final LongAdder output;
+
+    public TokenUsage(Metrics metrics, String prefix, String key) {
+        String suffix = key == null ? "" : "." + key;
+        this.prompt = metrics.counter(prefix + ".prompt" + suffix);
+        this.cached = metrics.counter(prefix + ".cached" + suffix);
+        this.output = metrics.counter(prefix + ".output" + suffix);
+        metrics.gauge(prefix + ".cachedPercent" + suffix, this::cachedPercent);
+    }
+
+    public void add(long promptTokens, long cachedTokens, long outputTokens) {
+        prompt.add(promptTokens);
+        cached.add(cachedTokens);
+        output.add(outputTokens);
+    }
+
+    /** Cached share of prompt tokens so far, 0 to 100. */
+    public long cachedPercent() {
+        long p = prompt.sum();
+        return p == 0 ? 0 : cached.sum() * 100 / p;
+    }
+}
@@ -6,38 +6,70 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * Deterministic message routing — resolves which agent handles an incoming message.
- * Iterates bindings in order; first match on channel wins.
- * The optional {@code filter} field in BindingConfig is reserved for future
- * fine-grained routing (e.g. by peerId, teamId, roles) but not evaluated yet.
+ * The first binding in config order whose channel and {@code filter} match wins; without a
+ * match the default agent handles the message.
+ *
+ * <p>Bindings are validated and compiled into a {@link RouteTable} up front, so an invalid
+ * binding fails at load rather than on a message, and resolving is a few hash lookups. A
+ * {@link #reload} compiles a new table and swaps it in whole; messages being routed at that
+ * moment see either the old table or the new one.
  */
 public final class RouteResolver {
 
     private static final Logger log = LoggerFactory.getLogger(RouteResolver.class);
 
-    private final List<BindingConfig> bindings;
-    private final String defaultAgentId;
+    private volatile RouteTable table;
 
     public RouteResolver(JClawConfig config) {
-        this.bindings = config.bindings() != null ? config.bindings() : List.of();
-        this.defaultAgentId = config.agents().defaultAgent();
+        this.table = compile(config);
+        log.info("Routing table compiled: {} binding(s), default agent={}", table.size(), table.defaultAgentId());
     }
 
     /**
-     * Resolve the target agent for an incoming message.
-     * Matches by channel name; first hit wins. Falls back to default agent.
+     * Replace the routing table with one compiled from {@code config}. If the new bindings are
+     * invalid the current table stays in place and the error is thrown.
      */
+    public void reload(JClawConfig config) {
+        var next = compile(config);
+        table = next;
+        log.info("Routing table reloaded: {} binding(s), default agent={}", next.size(), next.defaultAgentId());
+    }
+
+    /** Resolve the target agent for a message that carries nothing but its channel. */
     public String resolve(String channel) {
-        for (var binding : bindings) {
-            if (binding.channel() != null && binding.channel().equals(channel)) {
-                log.debug("Binding matched: id={}, channel={}, agentId={}",
-                        binding.id(), channel, binding.agentId());
-                return binding.agentId();
-            }
+        return resolve(channel, null, null, null, null);
+    }
+
+    /** Resolve the target agent for a message from {@code peerId} on {@code channel}. */
+    public String resolve(String channel, String peerId) {
+        return resolve(channel, peerId, null, null, null);
+    }
+
+    /**
+     * Resolve the target agent for an incoming message. Sender attributes the channel does not
+     * know may be null; a binding filtering on one of them does not match.
+     */
+    public String resolve(String channel, String peerId, String groupId, String teamId, Set<String> roles) {
+        var current = table;
+        var route = current.resolve(channel, peerId, groupId, teamId, roles);
+        if (route != null) {
+            log.debug("Binding matched: id={}, agentId={}", route.id(), route.agentId());
+            return route.agentId();
         }
-        log.debug("No binding matched for channel={}, using default agent={}", channel, defaultAgentId);
-        return defaultAgentId;
+        log.debug("No binding matched for channel={}, using default agent={}", channel, current.defaultAgentId());
+        return current.defaultAgentId();
+    }
+
+    private static RouteTable compile(JClawConfig config) {
+        List<BindingConfig> bindings = config.bindings() != null ? config.bindings() : List.of();
+        Set<String> agentIds = config.agents().list().stream()
+                .map(JClawConfig.AgentDef::id)
+                .collect(Collectors.toUnmodifiableSet());
+        return RouteTable.compile(bindings, config.agents().defaultAgent(), agentIds);
     }
 }
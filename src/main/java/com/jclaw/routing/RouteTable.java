@@ -0,0 +1,207 @@
+package com.jclaw.routing;
+
+import com.jclaw.config.JClawConfig.BindingConfig;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Bindings compiled for lookup. Per channel, a binding whose filter has an exact
+ * {@code peerId}, {@code groupId} or {@code teamId} (tried in that order) is filed under that
+ * value; the rest (patterns, roles only, no filter) are kept in a list. Resolving a message
+ * costs at most three hash lookups plus a scan of that list, and the first binding in config
+ * order whose whole filter matches still wins.
+ *
+ * <p>Filter values: exact text, a glob with {@code *} and {@code ?}, or a regular expression
+ * between slashes ({@code /team-\d+/}). {@code roles} is a comma-separated list; a sender
+ * with any of the roles matches.
+ */
+final class RouteTable {
+
+    static final Set<String> DIMENSIONS = Set.of("peerId", "groupId", "teamId", "roles");
+
+    private static final Route[] NONE = {};
+
+    /** One filter value: exact text, or a pattern for globs and regular expressions. */
+    private record ValueFilter(String exact, Pattern pattern) {
+        boolean matches(String value) {
+            if (value == null) return false;
+            return exact != null ? exact.equals(value) : pattern.matcher(value).matches();
+        }
+    }
+
+    /** A compiled binding; {@code order} is its position in the config, null filters match anything. */
+    record Route(int order, String id, String agentId,
+                 ValueFilter peerId, ValueFilter groupId, ValueFilter teamId, String[] roles) {
+
+        boolean matches(String peer, String group, String team, Set<String> senderRoles) {
+            return (peerId == null || peerId.matches(peer))
+                    && (groupId == null || groupId.matches(group))
+                    && (teamId == null || teamId.matches(team))
+                    && hasAnyRole(senderRoles);
+        }
+
+        private boolean hasAnyRole(Set<String> senderRoles) {
+            if (roles == null) return true;
+            if (senderRoles == null) return false;
+            for (var role : roles) {
+                if (senderRoles.contains(role)) return true;
+            }
+            return false;
+        }
+    }
+
+    private static final class ChannelRoutes {
+        final Map<String, Route[]> byPeer = new HashMap<>();
+        final Map<String, Route[]> byGroup = new HashMap<>();
+        final Map<String, Route[]> byTeam = new HashMap<>();
+        Route[] rest = NONE;
+    }
+
+    private final Map<String, ChannelRoutes> channels;
+    private final String defaultAgentId;
+    private final int size;
+
+    private RouteTable(Map<String, ChannelRoutes> channels, String defaultAgentId, int size) {
+        this.channels = channels;
+        this.defaultAgentId = defaultAgentId;
+        this.size = size;
+    }
+
+    /**
+     * Compile and validate bindings: every binding needs a channel, a known agent and a filter
+     * over known dimensions with valid patterns, and the default agent must exist.
+     */
+    static RouteTable compile(List<BindingConfig> bindings, String defaultAgentId, Set<String> agentIds) {
+        if (!agentIds.contains(defaultAgentId)) {
+            throw new IllegalStateException("Default agent '%s' is not defined (defined: %s)".formatted(defaultAgentId, agentIds));
+        }
+        Map<String, Map<String, List<Route>>> byPeer = new HashMap<>();
+        Map<String, Map<String, List<Route>>> byGroup = new HashMap<>();
+        Map<String, Map<String, List<Route>>> byTeam = new HashMap<>();
+        Map<String, List<Route>> rest = new HashMap<>();
+        for (int i = 0; i < bindings.size(); i++) {
+            var binding = bindings.get(i);
+            String name = binding.id() != null ? binding.id() : "#" + (i + 1);
+            if (binding.channel() == null || binding.channel().isBlank()) {
+                throw new IllegalStateException("Binding '%s': missing 'channel'".formatted(name));
+            }
+            if (!agentIds.contains(binding.agentId())) {
+                throw new IllegalStateException("Binding '%s': unknown agent '%s' (defined: %s)"
+                        .formatted(name, binding.agentId(), agentIds));
+            }
+            Map<String, String> filter = binding.filter() != null ? binding.filter() : Map.of();
+            for (var key : filter.keySet()) {
+                if (!DIMENSIONS.contains(key)) {
+                    throw new IllegalStateException("Binding '%s': unknown filter '%s' (valid: peerId, groupId, teamId, roles)"
+                            .formatted(name, key));
+                }
+            }
+            var route = new Route(i, name, binding.agentId(),
+                    valueFilter(name, filter.get("peerId")), valueFilter(name, filter.get("groupId")),
+                    valueFilter(name, filter.get("teamId")), roles(filter.get("roles")));
+            String channel = binding.channel();
+            if (isExact(filter.get("peerId"))) {
+                add(byPeer, channel, filter.get("peerId"), route);
+            } else if (isExact(filter.get("groupId"))) {
+                add(byGroup, channel, filter.get("groupId"), route);
+            } else if (isExact(filter.get("teamId"))) {
+                add(byTeam, channel, filter.get("teamId"), route);
+            } else {
+                rest.computeIfAbsent(channel, _ -> new ArrayList<>()).add(route);
+            }
+        }
+        Map<String, ChannelRoutes> channels = new HashMap<>();
+        freeze(byPeer, channels, routes -> routes.byPeer);
+        freeze(byGroup, channels, routes -> routes.byGroup);
+        freeze(byTeam, channels, routes -> routes.byTeam);
+        rest.forEach((channel, routes) ->
+                channels.computeIfAbsent(channel, _ -> new ChannelRoutes()).rest = routes.toArray(NONE));
+        return new RouteTable(channels, defaultAgentId, bindings.size());
+    }
+
+    /**
+     * The first binding, in config order, of {@code channel} whose filter matches; null if none
+     * does. Any of the sender attributes may be null, which no filter on it matches.
+     */
+    Route resolve(String channel, String peerId, String groupId, String teamId, Set<String> roles) {
+        var routes = channels.get(channel);
+        if (routes == null) return null;
+        Route best = null;
+        if (peerId != null) best = first(routes.byPeer.get(peerId), best, peerId, groupId, teamId, roles);
+        if (groupId != null) best = first(routes.byGroup.get(groupId), best, peerId, groupId, teamId, roles);
+        if (teamId != null) best = first(routes.byTeam.get(teamId), best, peerId, groupId, teamId, roles);
+        return first(routes.rest, best, peerId, groupId, teamId, roles);
+    }
+
+    String defaultAgentId() {
+        return defaultAgentId;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** The first matching route of {@code candidates} (in config order) if it comes before {@code best}. */
+    private static Route first(Route[] candidates, Route best, String peerId, String groupId, String teamId,
+                               Set<String> roles) {
+        if (candidates == null) return best;
+        for (var route : candidates) {
+            if (best != null && route.order() > best.order()) return best;
+            if (route.matches(peerId, groupId, teamId, roles)) return route;
+        }
+        return best;
+    }
+
+    private static void add(Map<String, Map<String, List<Route>>> index, String channel, String value, Route route) {
+        index.computeIfAbsent(channel, _ -> new HashMap<>()).computeIfAbsent(value, _ -> new ArrayList<>()).add(route);
+    }
+
+    private static void freeze(Map<String, Map<String, List<Route>>> index, Map<String, ChannelRoutes> channels,
+                               Function<ChannelRoutes, Map<String, Route[]>> target) {
+        index.forEach((channel, byValue) -> {
+            var routes = target.apply(channels.computeIfAbsent(channel, _ -> new ChannelRoutes()));
+            byValue.forEach((value, list) -> routes.put(value, list.toArray(NONE)));
+        });
+    }
+
+    private static boolean isExact(String value) {
+        return value != null && !isRegex(value) && value.indexOf('*') < 0 && value.indexOf('?') < 0;
+    }
+
+    private static boolean isRegex(String value) {
+        return value.length() >= 2 && value.startsWith("/") && value.endsWith("/");
+    }
+
+    private static ValueFilter valueFilter(String binding, String value) {
+        if (value == null) return null;
+        if (isExact(value)) return new ValueFilter(value, null);
+        try {
+            if (isRegex(value)) return new ValueFilter(null, Pattern.compile(value.substring(1, value.length() - 1)));
+            var regex = new StringBuilder();
+            for (var part : value.split("(?=[*?])|(?<=[*?])")) {
+                regex.append(switch (part) {
+                    case "*" -> ".*";
+                    case "?" -> ".";
+                    default -> Pattern.quote(part);
+                });
+            }
+            return new ValueFilter(null, Pattern.compile(regex.toString()));
+        } catch (PatternSyntaxException e) {
+            throw new IllegalStateException("Binding '%s': invalid pattern '%s': %s"
+                    .formatted(binding, value, e.getDescription()));
+        }
+    }
+
+    private static String[] roles(String value) {
+        if (value == null) return null;
+        return Arrays.stream(value.split(",")).map(String::strip).filter(r -> !r.isEmpty()).toArray(String[]::new);
+    }
+}
@@ -0,0 +1,532 @@
+package com.jclaw.session;
+
+import com.jclaw.json.JsonWriter;
+import com.jclaw.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Append-only, file-per-session store: {@code <store>/<key>.jsonl}, one {@link SessionEntry} per line,
+ * plus a {@link SessionIndex} sidecar ({@code <key>.idx}) with the offset of every line.
+ *
+ * <p>Session keys can carry client-supplied ids, so a key is percent-encoded into its file
+ * name: only lowercase letters, digits, {@code .}, {@code _} and {@code -} are kept as is,
+ * every other UTF-8 byte becomes {@code %XX}. The encoding is reversible, so distinct keys
+ * never share a file (even on case-insensitive file systems), and a name can hold no path
+ * separator. Files named by the old scheme ({@code :} replaced with {@code _}) are renamed on
+ * first use.
+ *
+ * <p>Appends are queued and written by a single background writer, which encodes entries as
+ * UTF-8 straight into a reusable direct buffer and appends them to the session's file. The
+ * writer drains the queue in batches, so every session that became dirty during a batch is
+ * fsync'd once per batch no matter how many turns committed in it (group commit).
+ *
+ * <p>Rehydration reads only the last N entries: their start offset comes from the index and
+ * the tail of the memory-mapped data file is decoded in place, so a returning session costs
+ * O(N) regardless of how long its history is.
+ *
+ * <p>On opening a file for append, a torn last line left by a crash is truncated away and a
+ * stale index is rebuilt.
+ */
+public final class JsonlSessionStore implements SessionStore {
+
+    private static final Logger log = LoggerFactory.getLogger(JsonlSessionStore.class);
+    private static final int MAX_BATCH = 4096;
+    private static final int MAX_OPEN_FILES = 256;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final Path dir;
+    private final Durability durability;
+    private final long syncIntervalNanos;
+    private final BlockingQueue<Op> queue = new LinkedBlockingQueue<>(65_536);
+    private final Thread writer;
+
+    // Writer-thread state
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final JsonWriter json = new JsonWriter(this::require);
+    /** Offsets of lines encoded into {@link #buffer}; one batch never holds more than MAX_BATCH + 1. */
+    private final ByteBuffer offsets = ByteBuffer.allocateDirect(SessionIndex.ENTRY_BYTES * (MAX_BATCH + 1));
+    private final LinkedHashMap<String, SessionFile> open = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<SessionFile> dirty = new HashSet<>();
+    private SessionFile current;
+
+    /** An open session: data file, index file and the logical end of data (including buffered bytes). */
+    private static final class SessionFile {
+        final FileChannel data;
+        final FileChannel index;
+        long end;
+
+        SessionFile(FileChannel data, FileChannel index) throws IOException {
+            this.data = data;
+            this.index = index;
+            this.end = data.size();
+        }
+    }
+
+    private final LongAdder entriesWritten;
+    private final LongAdder fsyncs;
+    private final LongAdder groupCommits;
+
+    private sealed interface Op permits Append, Barrier, Delete, Stop {}
+    private record Append(String key, SessionEntry entry) implements Op {}
+    private record Barrier(boolean fsync, CompletableFuture<Void> done) implements Op {}
+    private record Delete(String key, CompletableFuture<Void> done) implements Op {}
+    private record Stop() implements Op {}
+
+    public JsonlSessionStore(Path dir, Durability durability, long syncIntervalMillis, Metrics metrics) {
+        this.dir = dir;
+        this.durability = durability;
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+        this.entriesWritten = metrics.counter("session.store.entries");
+        this.fsyncs = metrics.counter("session.store.fsyncs");
+        this.groupCommits = metrics.counter("session.store.groupCommits");
+        this.writer = Thread.ofPlatform().daemon().name("session-writer").start(this::writerLoop);
+    }
+
+    @Override
+    public void append(String sessionKey, SessionEntry entry) {
+        enqueue(new Append(sessionKey, entry));
+    }
+
+    @Override
+    public void commit(String sessionKey) {
+        if (durability != Durability.PER_TURN) return;
+        try {
+            barrier(true).join();
+        } catch (CompletionException e) {
+            log.error("Failed to commit session '{}': {}", sessionKey, e.getCause().getMessage());
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        try {
+            barrier(true).join();
+        } catch (CompletionException e) {
+            throw new IOException("Session store flush failed", e.getCause());
+        }
+    }
+
+    @Override
+    public List<SessionEntry> load(String sessionKey, int lastN) throws IOException {
+        // Make sure entries still queued for this session are in the file before reading it
+        try {
+            barrier(false).join();
+        } catch (CompletionException e) {
+            throw new IOException("Session store write failed", e.getCause());
+        }
+        if (lastN <= 0) return List.of();
+        FileChannel data;
+        try {
+            data = FileChannel.open(fileFor(sessionKey), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            // Not written since the file naming changed: read the old file, the writer renames it on first append
+            var legacy = legacyFor(sessionKey, ".jsonl");
+            if (legacy == null || !Files.isRegularFile(legacy)) return List.of();
+            try (var old = FileChannel.open(legacy, StandardOpenOption.READ)) {
+                long start = SessionIndex.scanTailStart(old, lastN);
+                return decodeLines(sessionKey, old.map(FileChannel.MapMode.READ_ONLY, start, old.size() - start));
+            } catch (NoSuchFileException renamed) {
+                return load(sessionKey, lastN);
+            }
+        }
+        try (data) {
+            long size = data.size();
+            long start = tailStart(sessionKey, data, lastN);
+            if (size - start > Integer.MAX_VALUE) {
+                throw new IOException("Session '%s': tail of %d entries exceeds 2GB".formatted(sessionKey, lastN));
+            }
+            return decodeLines(sessionKey, data.map(FileChannel.MapMode.READ_ONLY, start, size - start));
+        }
+    }
+
+    /** Offset of the first of the last {@code lastN} lines: from the index if it is consistent, else by scanning. */
+    private long tailStart(String sessionKey, FileChannel data, int lastN) throws IOException {
+        try (var index = FileChannel.open(indexFor(sessionKey), StandardOpenOption.READ)) {
+            if (SessionIndex.isValid(data, index)) {
+                long count = SessionIndex.count(index);
+                return count > lastN ? SessionIndex.offsetAt(index, count - lastN) : 0;
+            }
+            log.debug("Session '{}': index is stale, scanning data file", sessionKey);
+        } catch (NoSuchFileException e) {
+            log.debug("Session '{}': no index, scanning data file", sessionKey);
+        }
+        return SessionIndex.scanTailStart(data, lastN);
+    }
+
+    private List<SessionEntry> decodeLines(String sessionKey, ByteBuffer region) {
+        var entries = new ArrayList<SessionEntry>();
+        byte[] line = new byte[256];
+        int lineStart = 0;
+        int limit = region.limit();
+        for (int i = 0; i <= limit; i++) {
+            if (i < limit && region.get(i) != '\n') continue;
+            int len = i - lineStart;
+            if (len > 0) {
+                if (line.length < len) line = new byte[Math.max(len, line.length * 2)];
+                region.get(lineStart, line, 0, len);
+                var entry = SessionCodec.decode(line, len);
+                if (entry != null) {
+                    entries.add(entry);
+                } else {
+                    log.warn("Skipping malformed line in session '{}'", sessionKey);
+                }
+            }
+            lineStart = i + 1;
+        }
+        return entries;
+    }
+
+    @Override
+    public void delete(String sessionKey) throws IOException {
+        var done = new CompletableFuture<Void>();
+        enqueue(new Delete(sessionKey, done));
+        try {
+            done.join();
+        } catch (CompletionException e) {
+            throw new IOException("Failed to delete session '%s'".formatted(sessionKey), e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            flush();
+        } catch (IOException e) {
+            log.error("Final session store flush failed: {}", e.getMessage());
+        }
+        enqueue(new Stop());
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private CompletableFuture<Void> barrier(boolean fsync) {
+        var done = new CompletableFuture<Void>();
+        enqueue(new Barrier(fsync, done));
+        return done;
+    }
+
+    /** Blocks only when the writer is a full queue behind, which pushes back on producers. */
+    private void enqueue(Op op) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(op);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private Path fileFor(String sessionKey) {
+        return pathFor(sessionKey, ".jsonl");
+    }
+
+    private Path indexFor(String sessionKey) {
+        return pathFor(sessionKey, ".idx");
+    }
+
+    /** A file of the session directly in {@link #dir}; the encoded name cannot leave it, and this checks. */
+    private Path pathFor(String sessionKey, String suffix) {
+        var path = dir.resolve(fileName(sessionKey) + suffix).normalize();
+        if (!dir.normalize().equals(path.getParent())) {
+            throw new IllegalStateException("Session '%s' resolves outside the store".formatted(sessionKey));
+        }
+        return path;
+    }
+
+    /** Percent-encode a session key into a file name; see the class comment. */
+    static String fileName(String sessionKey) {
+        byte[] bytes = sessionKey.getBytes(StandardCharsets.UTF_8);
+        var name = new StringBuilder(bytes.length + 8);
+        for (byte b : bytes) {
+            if ((b >= 'a' && b <= 'z') || (b >= '0' && b <= '9') || b == '.' || b == '_' || b == '-') {
+                name.append((char) b);
+            } else {
+                name.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+            }
+        }
+        return name.toString();
+    }
+
+    /**
+     * The file name the store used before keys were encoded, if it is a plain name in {@link #dir};
+     * null for keys whose old name could have escaped the directory.
+     */
+    private Path legacyFor(String sessionKey, String suffix) {
+        String name = sessionKey.replace(":", "_");
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!(Character.isLetterOrDigit(c) || c == '.' || c == '_' || c == '-')) return null;
+        }
+        if (name.startsWith(".")) return null;
+        return dir.resolve(name + suffix);
+    }
+
+    /** Give a session stored under its old file name its encoded name. Writer thread only. */
+    private void adoptLegacy(String key) throws IOException {
+        var data = fileFor(key);
+        var legacy = legacyFor(key, ".jsonl");
+        if (legacy == null || legacy.equals(data) || Files.exists(data) || !Files.isRegularFile(legacy)) return;
+        log.info("Session '{}': renaming {} to {}", key, legacy.getFileName(), data.getFileName());
+        Files.move(legacy, data);
+        var legacyIndex = legacyFor(key, ".idx");
+        if (Files.isRegularFile(legacyIndex)) Files.move(legacyIndex, indexFor(key));
+    }
+
+    // ── Writer thread ───────────────────────────────────────────────────
+
+    private void writerLoop() {
+        var batch = new ArrayList<Op>();
+        var waiters = new ArrayList<Barrier>();
+        long lastSync = System.nanoTime();
+        boolean running = true;
+        while (running) {
+            try {
+                // Wake up on a timer only while a batched sync is due; otherwise wait for work
+                long untilSync = syncIntervalNanos - (System.nanoTime() - lastSync);
+                Op first = durability == Durability.BATCHED && !dirty.isEmpty() && untilSync > 0
+                        ? queue.poll(untilSync, TimeUnit.NANOSECONDS)
+                        : dirty.isEmpty() || durability != Durability.BATCHED ? queue.take() : queue.poll();
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH);
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            }
+
+            IOException failure = null;
+            boolean fsync = false;
+            for (Op op : batch) {
+                try {
+                    switch (op) {
+                        case Append a -> write(a);
+                        case Barrier b -> {
+                            waiters.add(b);
+                            fsync |= b.fsync();
+                        }
+                        case Delete d -> delete(d);
+                        case Stop _ -> running = false;
+                    }
+                } catch (IOException e) {
+                    log.error("Session store write failed: {}", e.getMessage());
+                    failure = e;
+                }
+            }
+            try {
+                drain();
+                long now = System.nanoTime();
+                if (fsync || (durability == Durability.BATCHED && !dirty.isEmpty() && now - lastSync >= syncIntervalNanos)) {
+                    syncDirty();
+                    lastSync = now;
+                    if (waiters.size() > 1) groupCommits.increment();
+                }
+            } catch (IOException e) {
+                log.error("Session store sync failed: {}", e.getMessage());
+                failure = e;
+            }
+            for (var w : waiters) {
+                if (failure != null) w.done().completeExceptionally(failure);
+                else w.done().complete(null);
+            }
+            waiters.clear();
+            batch.clear();
+        }
+        closeAll();
+    }
+
+    private void write(Append a) throws IOException {
+        var file = openFile(a.key());
+        if (file != current) {
+            drain();
+            current = file;
+        }
+        long lineStart = current.end + buffer.position();
+        SessionCodec.encode(a.entry(), json);
+        offsets.putLong(lineStart);
+        dirty.add(file);
+        entriesWritten.increment();
+    }
+
+    private ByteBuffer require(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) drain();
+        return buffer;
+    }
+
+    /**
+     * Write buffered bytes to the current file, then the offsets of the lines they completed,
+     * so the index never points past the data. A line split across drains is completed by
+     * the next one; its offset is written with it.
+     */
+    private void drain() throws IOException {
+        buffer.flip();
+        if (buffer.hasRemaining()) {
+            current.end += buffer.remaining();
+            while (buffer.hasRemaining()) current.data.write(buffer);
+        }
+        buffer.clear();
+        if (offsets.position() > 0) SessionIndex.writeFully(current.index, offsets);
+    }
+
+    private void syncDirty() throws IOException {
+        for (var file : dirty) {
+            file.data.force(false);
+            file.index.force(false);
+            fsyncs.increment();
+        }
+        dirty.clear();
+    }
+
+    private void delete(Delete d) {
+        try {
+            drain();
+            var file = open.remove(d.key());
+            if (file != null) {
+                dirty.remove(file);
+                if (file == current) current = null;
+                close(file);
+            }
+            Files.deleteIfExists(fileFor(d.key()));
+            Files.deleteIfExists(indexFor(d.key()));
+            var legacy = legacyFor(d.key(), ".jsonl");
+            if (legacy != null) {
+                Files.deleteIfExists(legacy);
+                Files.deleteIfExists(legacyFor(d.key(), ".idx"));
+            }
+            d.done().complete(null);
+        } catch (IOException e) {
+            d.done().completeExceptionally(e);
+        }
+    }
+
+    private SessionFile openFile(String key) throws IOException {
+        var file = open.get(key);
+        if (file != null) return file;
+        Files.createDirectories(dir);
+        adoptLegacy(key);
+        var data = FileChannel.open(fileFor(key),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel index;
+        try {
+            truncateTornTail(key, data);
+            data.position(data.size());
+            index = FileChannel.open(indexFor(key),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            data.close();
+            throw e;
+        }
+        file = new SessionFile(data, index);
+        open.put(key, file);
+        try {
+            if (!SessionIndex.isValid(data, index)) {
+                log.info("Session '{}': rebuilding offset index", key);
+                SessionIndex.rebuild(data, index);
+            }
+        } finally {
+            if (open.size() > MAX_OPEN_FILES) {
+                closeEldest();
+            }
+        }
+        return file;
+    }
+
+    private void closeEldest() throws IOException {
+        Iterator<Map.Entry<String, SessionFile>> it = open.entrySet().iterator();
+        var eldest = it.next().getValue();
+        it.remove();
+        if (eldest == current) {
+            drain();
+            current = null;
+        }
+        if (dirty.remove(eldest) && durability != Durability.NONE) {
+            eldest.data.force(false);
+            eldest.index.force(false);
+            fsyncs.increment();
+        }
+        close(eldest);
+    }
+
+    private static void close(SessionFile file) throws IOException {
+        try (file.data; file.index) {
+            // closes both channels
+        }
+    }
+
+    /** Crash recovery: drop a partial last line so the next append starts on a line boundary. */
+    private void truncateTornTail(String key, FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size == 0) return;
+        var probe = ByteBuffer.allocate(4096);
+        long end = size;
+        while (end > 0) {
+            long start = Math.max(0, end - probe.capacity());
+            probe.clear().limit((int) (end - start));
+            channel.read(probe, start);
+            for (int i = probe.position() - 1; i >= 0; i--) {
+                if (probe.get(i) == '\n') {
+                    long keep = start + i + 1;
+                    if (keep != size) {
+                        log.warn("Session '{}': truncating torn tail ({} bytes)", key, size - keep);
+                        channel.truncate(keep);
+                    }
+                    return;
+                }
+            }
+            end = start;
+        }
+        log.warn("Session '{}': no complete line found, truncating {} bytes", key, size);
+        channel.truncate(0);
+    }
+
+    private void closeAll() {
+        try {
+            drain();
+        } catch (IOException e) {
+            log.error("Session store final write failed: {}", e.getMessage());
+        }
+        for (var file : open.values()) {
+            try {
+                if (dirty.contains(file) && durability != Durability.NONE) {
+                    file.data.force(false);
+                    file.index.force(false);
+                }
+                close(file);
+            } catch (IOException e) {
+                log.error("Failed to close session file: {}", e.getMessage());
+            }
+        }
+        open.clear();
+        dirty.clear();
+        current = null;
+    }
+}
@@ -0,0 +1,300 @@
+package com.jclaw.session;
+
+import com.jclaw.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Size- and idle-bounded set of resident session transcripts.
+ *
+ * <p>Eviction uses a segmented LRU: new sessions enter a probation segment and are promoted
+ * to a protected segment (80% of capacity) when their second turn ends, so a burst of
+ * one-off senders cannot flush out active conversations. Accesses are counted per turn
+ * ({@link #endTurn}), not per call: one turn reads the history and appends several entries,
+ * and would otherwise promote every newcomer during its first turn. Other accesses only
+ * refresh a session's recency within its segment. Sessions idle longer than the TTL are
+ * expired by {@link #expireIdle()}.
+ *
+ * <p>Every append is written through to the append-only {@link SessionStore}, so eviction
+ * only has to seal a transcript; the next access rehydrates it from the store. Loads and
+ * seals of the same key are serialized by a striped lock, so a session is never loaded
+ * while an older resident copy can still accept appends.
+ */
+final class SessionCache {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionCache.class);
+    private static final int STRIPES = 64;
+    private static final int PROMOTE_AFTER_TURNS = 2;
+
+    private final SessionStore store;
+    private final int maxResident;
+    private final int protectedCapacity;
+    private final long idleTtlNanos;
+    /** Tail of the stored transcript that a rehydrated session holds in memory. */
+    private final int rehydrateEntries;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Node> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Node> protectedSegment = new LinkedHashMap<>();
+    /** Evicted but not yet sealed; a load of the same key takes the transcript back instead. */
+    private final Map<String, Transcript> evicting = new ConcurrentHashMap<>();
+    private final Object[] stripes = new Object[STRIPES];
+    private final List<Consumer<String>> evictionListeners = new CopyOnWriteArrayList<>();
+
+    private final LongAdder evictions;
+    private final LongAdder expirations;
+    private final LongAdder loads;
+
+    private static final class Node {
+        final Transcript transcript;
+        long lastAccess;
+        /** Turns ended while resident; a probation entry is promoted at {@link #PROMOTE_AFTER_TURNS}. */
+        int turns;
+
+        Node(Transcript transcript, long now) {
+            this.transcript = transcript;
+            this.lastAccess = now;
+        }
+    }
+
+    SessionCache(SessionStore store, int maxResident, long idleTtlNanos, int rehydrateEntries, Metrics metrics) {
+        this.store = store;
+        this.rehydrateEntries = rehydrateEntries > 0 ? rehydrateEntries : Integer.MAX_VALUE;
+        this.maxResident = Math.max(1, maxResident);
+        this.protectedCapacity = Math.max(1, this.maxResident * 4 / 5);
+        this.idleTtlNanos = idleTtlNanos;
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Object();
+        this.evictions = metrics.counter("session.evictions");
+        this.expirations = metrics.counter("session.expirations");
+        this.loads = metrics.counter("session.loads");
+        metrics.gauge("session.resident", this::size);
+    }
+
+    /** Append an entry to a session, writing it through to the store. */
+    void append(String key, SessionEntry entry) {
+        // A transcript sealed by a concurrent eviction refuses the append; retry on the rehydrated copy
+        while (!get(key).append(entry, e -> store.append(key, e))) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /** Return the resident transcript for a session, rehydrating it from the store if needed. */
+    Transcript get(String key) {
+        var resident = lookup(key);
+        if (resident != null) return resident;
+
+        var evicted = new ArrayList<Map.Entry<String, Transcript>>();
+        Transcript transcript;
+        synchronized (stripe(key)) {
+            transcript = lookup(key);
+            if (transcript == null) {
+                transcript = evicting.remove(key);
+                if (transcript == null) {
+                    transcript = new Transcript(loadQuietly(key));
+                }
+                insert(key, transcript, evicted);
+            }
+        }
+        seal(evicted);
+        return transcript;
+    }
+
+    /**
+     * Count a finished turn for a resident session, promoting it to the protected segment on
+     * its second turn. Does nothing for a session that is not resident.
+     */
+    void endTurn(String key) {
+        lock.lock();
+        try {
+            var node = probation.get(key);
+            if (node == null) {
+                node = protectedSegment.get(key);
+                if (node != null) node.turns++;
+                return;
+            }
+            if (++node.turns < PROMOTE_AFTER_TURNS) return;
+            probation.remove(key);
+            demoteIfFull();
+            node.lastAccess = System.nanoTime();
+            protectedSegment.put(key, node);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Register a callback invoked with the key of every session that leaves memory (evicted, expired or deleted). */
+    void addEvictionListener(Consumer<String> listener) {
+        evictionListeners.add(listener);
+    }
+
+    /** Drop a session from memory and from the store. */
+    void delete(String key) throws IOException {
+        synchronized (stripe(key)) {
+            evicting.remove(key);
+            lock.lock();
+            try {
+                if (probation.remove(key) == null) protectedSegment.remove(key);
+            } finally {
+                lock.unlock();
+            }
+            store.delete(key);
+        }
+        notifyEvicted(key);
+    }
+
+    /** Evict every session idle longer than the TTL. */
+    void expireIdle() {
+        long cutoff = System.nanoTime() - idleTtlNanos;
+        var expired = new ArrayList<Map.Entry<String, Transcript>>();
+        lock.lock();
+        try {
+            expireSegment(probation, cutoff, expired);
+            expireSegment(protectedSegment, cutoff, expired);
+        } finally {
+            lock.unlock();
+        }
+        expirations.add(expired.size());
+        seal(expired);
+    }
+
+    /** Seal and drop every resident session (shutdown). */
+    void evictAll() {
+        var all = new ArrayList<Map.Entry<String, Transcript>>();
+        lock.lock();
+        try {
+            for (var segment : List.of(probation, protectedSegment)) {
+                for (var e : segment.entrySet()) {
+                    evicting.put(e.getKey(), e.getValue().transcript);
+                    all.add(Map.entry(e.getKey(), e.getValue().transcript));
+                }
+                segment.clear();
+            }
+        } finally {
+            lock.unlock();
+        }
+        seal(all);
+    }
+
+    long size() {
+        lock.lock();
+        try {
+            return probation.size() + protectedSegment.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ── Segmented LRU ───────────────────────────────────────────────────
+
+    /** Refresh a resident session's recency within its own segment; promotion is by turn only. */
+    private Transcript lookup(String key) {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            var segment = protectedSegment;
+            var node = segment.remove(key);
+            if (node == null) {
+                segment = probation;
+                node = segment.remove(key);
+                if (node == null) return null;
+            }
+            node.lastAccess = now;
+            segment.put(key, node);
+            return node.transcript;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void insert(String key, Transcript transcript, List<Map.Entry<String, Transcript>> evicted) {
+        lock.lock();
+        try {
+            probation.put(key, new Node(transcript, System.nanoTime()));
+            while (probation.size() + protectedSegment.size() > maxResident) {
+                // Never evict the entry just inserted; fall back to the protected LRU instead
+                var segment = probation.size() > 1 || protectedSegment.isEmpty() ? probation : protectedSegment;
+                var eldest = segment.entrySet().iterator().next();
+                segment.remove(eldest.getKey());
+                evicting.put(eldest.getKey(), eldest.getValue().transcript);
+                evicted.add(Map.entry(eldest.getKey(), eldest.getValue().transcript));
+            }
+        } finally {
+            lock.unlock();
+        }
+        evictions.add(evicted.size());
+    }
+
+    /** Make room in the protected segment by moving its LRU entry back to probation. Caller holds the lock. */
+    private void demoteIfFull() {
+        if (protectedSegment.size() < protectedCapacity) return;
+        var eldest = protectedSegment.entrySet().iterator().next();
+        protectedSegment.remove(eldest.getKey());
+        probation.put(eldest.getKey(), eldest.getValue());
+    }
+
+    /** Segments are kept in access order, so expiry stops at the first live entry. Caller holds the lock. */
+    private void expireSegment(LinkedHashMap<String, Node> segment, long cutoff,
+                               List<Map.Entry<String, Transcript>> expired) {
+        Iterator<Map.Entry<String, Node>> it = segment.entrySet().iterator();
+        while (it.hasNext()) {
+            var e = it.next();
+            if (e.getValue().lastAccess - cutoff > 0) break;
+            it.remove();
+            evicting.put(e.getKey(), e.getValue().transcript);
+            expired.add(Map.entry(e.getKey(), e.getValue().transcript));
+        }
+    }
+
+    // ── Store I/O ───────────────────────────────────────────────────────
+
+    private void seal(List<Map.Entry<String, Transcript>> evicted) {
+        for (var e : evicted) {
+            String key = e.getKey();
+            var transcript = e.getValue();
+            boolean sealed;
+            synchronized (stripe(key)) {
+                // Already taken back by a concurrent load: still resident, nothing to seal
+                sealed = evicting.remove(key, transcript);
+                if (sealed) transcript.seal();
+            }
+            if (sealed) notifyEvicted(key);
+        }
+    }
+
+    private void notifyEvicted(String key) {
+        for (var listener : evictionListeners) {
+            try {
+                listener.accept(key);
+            } catch (RuntimeException e) {
+                log.warn("Eviction listener failed for session '{}': {}", key, e.getMessage());
+            }
+        }
+    }
+
+    private List<SessionEntry> loadQuietly(String key) {
+        try {
+            var entries = store.load(key, rehydrateEntries);
+            if (!entries.isEmpty()) loads.increment();
+            return entries;
+        } catch (IOException e) {
+            log.error("Failed to rehydrate session '{}': {}", key, e.getMessage());
+            return List.of();
+        }
+    }
+
+    private Object stripe(String key) {
+        return stripes[(key.hashCode() & 0x7fffffff) % STRIPES];
+    }
+}
@@ -0,0 +1,59 @@
+package com.jclaw.session;
+
+import com.jclaw.json.JsonReader;
+import com.jclaw.json.JsonWriter;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+/**
+ * JSONL line format for session entries:
+ * {@code {"role":"...","content":"...","timestamp":"...","toolCallId":"...","toolName":"..."}}.
+ * Tool fields are omitted when null. Built on the shared {@link JsonWriter} and
+ * {@link JsonReader}, so transcripts round-trip exactly: encoding writes UTF-8 bytes straight
+ * into the store's buffer, decoding reads one line's bytes without first making a String of it.
+ */
+final class SessionCodec {
+
+    private SessionCodec() {}
+
+    /** Encode one entry as a JSON line, including the trailing newline, and flush it into the output. */
+    static void encode(SessionEntry e, JsonWriter out) throws IOException {
+        out.beginObject()
+                .name("role").value(e.role())
+                .name("content").value(e.content())
+                .name("timestamp").value(e.timestamp() != null ? e.timestamp().toString() : null);
+        if (e.toolCallId() != null) out.name("toolCallId").value(e.toolCallId());
+        if (e.toolName() != null) out.name("toolName").value(e.toolName());
+        out.endObject().raw("\n").flush();
+    }
+
+    /**
+     * Decode the line in {@code bytes[0..length)}. Returns null for a blank or malformed line
+     * (e.g. a torn write). Unknown fields are skipped.
+     */
+    static SessionEntry decode(byte[] bytes, int length) {
+        String role = null, content = null, timestamp = null, toolCallId = null, toolName = null;
+        try {
+            var in = new JsonReader(bytes, 0, length);
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "role" -> role = in.nextStringOrNull();
+                    case "content" -> content = in.nextStringOrNull();
+                    case "timestamp" -> timestamp = in.nextStringOrNull();
+                    case "toolCallId" -> toolCallId = in.nextStringOrNull();
+                    case "toolName" -> toolName = in.nextStringOrNull();
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            if (in.peek() != JsonReader.Token.END || role == null) return null;
+            return new SessionEntry(role, content, timestamp != null ? Instant.parse(timestamp) : null,
+                    toolCallId, toolName);
+        } catch (IOException | DateTimeParseException e) {
+            return null;
+        }
+    }
+}
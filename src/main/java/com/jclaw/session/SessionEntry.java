@@ -23,4 +23,8 @@ public record SessionEntry(
     public static SessionEntry system(String content) {
         return new SessionEntry("system", content, Instant.now(), null, null);
     }
+
+    public static SessionEntry tool(String content, String toolCallId, String toolName) {
+        return new SessionEntry("tool", content, Instant.now(), toolCallId, toolName);
+    }
 }
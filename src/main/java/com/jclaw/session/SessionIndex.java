@@ -0,0 +1,101 @@
+package com.jclaw.session;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Offset index for a session's JSONL file: {@code <key>.idx} holds one big-endian 8-byte
+ * file offset per line, in order. With it, the last N entries of a session can be located
+ * with a single read instead of scanning the whole transcript.
+ *
+ * <p>The index is written after the data it points to, so after a crash it can only lag
+ * behind; {@link #isValid} detects that (or any other mismatch) and callers fall back to a
+ * scan of the memory-mapped data file.
+ */
+final class SessionIndex {
+
+    static final int ENTRY_BYTES = Long.BYTES;
+
+    private SessionIndex() {}
+
+    /** Number of complete offsets in an index file. */
+    static long count(FileChannel index) throws IOException {
+        return index.size() / ENTRY_BYTES;
+    }
+
+    /** Read the offset of line {@code i}. */
+    static long offsetAt(FileChannel index, long i) throws IOException {
+        var buf = ByteBuffer.allocate(ENTRY_BYTES);
+        while (buf.hasRemaining()) {
+            if (index.read(buf, i * ENTRY_BYTES + buf.position()) < 0) throw new IOException("index truncated");
+        }
+        return buf.flip().getLong();
+    }
+
+    /**
+     * An index is valid if its last offset starts the last line of the data file:
+     * preceded by a newline (or the start of file) and followed by exactly one newline, at the end.
+     */
+    static boolean isValid(FileChannel data, FileChannel index) throws IOException {
+        long size = data.size();
+        long count = count(index);
+        if (count == 0) return size == 0;
+        long last = offsetAt(index, count - 1);
+        if (last < 0 || last >= size) return false;
+        long from = Math.max(0, last - 1);
+        if (size - from > Integer.MAX_VALUE) return false;
+        MappedByteBuffer tail = data.map(FileChannel.MapMode.READ_ONLY, from, size - from);
+        if (last > 0 && tail.get(0) != '\n') return false;
+        int lineStart = (int) (last - from);
+        for (int i = lineStart; i < tail.limit() - 1; i++) {
+            if (tail.get(i) == '\n') return false;
+        }
+        return tail.get(tail.limit() - 1) == '\n';
+    }
+
+    /** Rewrite the index from a full scan of the data file. */
+    static void rebuild(FileChannel data, FileChannel index) throws IOException {
+        index.truncate(0);
+        long size = data.size();
+        var out = ByteBuffer.allocate(ENTRY_BYTES * 1024);
+        long lineStart = 0;
+        for (long base = 0; base < size; base += Integer.MAX_VALUE) {
+            long len = Math.min(Integer.MAX_VALUE, size - base);
+            MappedByteBuffer region = data.map(FileChannel.MapMode.READ_ONLY, base, len);
+            for (int i = 0; i < len; i++) {
+                if (region.get(i) != '\n') continue;
+                if (!out.hasRemaining()) writeFully(index, out);
+                out.putLong(lineStart);
+                lineStart = base + i + 1;
+            }
+        }
+        writeFully(index, out);
+    }
+
+    /**
+     * Without a usable index: find the start of the last {@code lastN} lines by scanning the
+     * mapped data file backwards from the end. Only the tail that is returned gets touched.
+     */
+    static long scanTailStart(FileChannel data, int lastN) throws IOException {
+        long size = data.size();
+        long from = Math.max(0, size - Integer.MAX_VALUE);
+        MappedByteBuffer region = data.map(FileChannel.MapMode.READ_ONLY, from, size - from);
+        int newlines = 0;
+        // A trailing newline ends the last line; it does not start another one
+        for (int i = region.limit() - 2; i >= 0; i--) {
+            if (region.get(i) == '\n' && ++newlines == lastN) {
+                return from + i + 1;
+            }
+        }
+        return from;
+    }
+
+    /** Append the buffered offsets to the index file and clear the buffer. */
+    static void writeFully(FileChannel index, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) index.write(out, index.size());
+        out.clear();
+    }
+}
@@ -1,25 +1,42 @@
 package com.jclaw.session;
 
 import com.jclaw.config.JClawConfig;
+import com.jclaw.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * Manages session keys and conversation history.
  * Mirrors OpenClaw's session key generation logic with configurable dmScope.
+ * Every entry is appended to the session store as it arrives; only recently used sessions
+ * stay in memory (bounded by {@code session.maxResident} and {@code session.idleTtlMinutes}),
+ * the rest are rehydrated from the store transparently on their next access. A rehydrated
+ * session holds the last {@code session.rehydrateEntries} entries; the full log stays on disk.
  */
 public final class SessionManager {
 
+    private static final Logger log = LoggerFactory.getLogger(SessionManager.class);
+
     private final JClawConfig.SessionConfig config;
-    private final ConcurrentHashMap<String, CopyOnWriteArrayList<SessionEntry>> sessions = new ConcurrentHashMap<>();
+    private final SessionStore store;
+    private final SessionCache cache;
+    private final Thread sweeper;
 
-    public SessionManager(JClawConfig.SessionConfig config) {
+    public SessionManager(JClawConfig.SessionConfig config, Metrics metrics) {
         this.config = config;
+        String storePath = config.store().replace("~", System.getProperty("user.home"));
+        var idleTtl = Duration.ofMinutes(config.idleTtlMinutes());
+        this.store = new JsonlSessionStore(Path.of(storePath),
+                SessionStore.Durability.parse(config.durability()), config.syncIntervalMillis(), metrics);
+        this.cache = new SessionCache(store, config.maxResident(), idleTtl.toNanos(),
+                config.rehydrateEntries(), metrics);
+        this.sweeper = startSweeper(idleTtl);
     }
 
     /**
@@ -40,42 +57,77 @@ public final class SessionManager {
     }
 
     public void append(String sessionKey, SessionEntry entry) {
-        sessions.computeIfAbsent(sessionKey, _ -> new CopyOnWriteArrayList<>()).add(entry);
+        cache.append(sessionKey, entry);
+    }
+
+    /**
+     * Mark the end of a turn. With {@code session.durability: per-turn} this blocks until the
+     * turn's entries are fsync'd; concurrent turns share a single sync. The turn also counts
+     * toward keeping the session resident.
+     */
+    public void commit(String sessionKey) {
+        cache.endTurn(sessionKey);
+        store.commit(sessionKey);
     }
 
+    /**
+     * Immutable snapshot of the session transcript. Cheap to take; later appends are not visible in it.
+     */
     public List<SessionEntry> getHistory(String sessionKey) {
-        return sessions.getOrDefault(sessionKey, new CopyOnWriteArrayList<>());
+        return cache.get(sessionKey).snapshot();
+    }
+
+    /**
+     * Immutable snapshot of at most the last {@code lastN} entries of the session transcript.
+     */
+    public List<SessionEntry> getHistory(String sessionKey, int lastN) {
+        return cache.get(sessionKey).tail(lastN);
+    }
+
+    /**
+     * Register a callback invoked with the session key whenever a transcript leaves memory
+     * (evicted, expired or cleared), so state derived from it can be released too.
+     */
+    public void addEvictionListener(Consumer<String> listener) {
+        cache.addEvictionListener(listener);
     }
 
     public void clear(String sessionKey) {
-        sessions.remove(sessionKey);
+        try {
+            cache.delete(sessionKey);
+        } catch (IOException e) {
+            log.error("Failed to delete stored session '{}': {}", sessionKey, e.getMessage());
+        }
     }
 
     /**
-     * Persist session to JSONL file (simple implementation).
+     * Force every entry appended so far (this session's included) to disk now.
      */
     public void persist(String sessionKey) throws IOException {
-        String storePath = config.store().replace("~", System.getProperty("user.home"));
-        Path dir = Path.of(storePath);
-        Files.createDirectories(dir);
-
-        String safeKey = sessionKey.replace(":", "_");
-        Path file = dir.resolve(safeKey + ".jsonl");
-
-        var history = getHistory(sessionKey);
-        var lines = history.stream()
-                .map(e -> "{\"role\":\"%s\",\"content\":\"%s\",\"timestamp\":\"%s\"}"
-                        .formatted(e.role(), escapeJson(e.content()), e.timestamp()))
-                .toList();
-        Files.write(file, lines);
+        store.flush();
+    }
+
+    /**
+     * Stop idle expiry, drop resident sessions and flush the store.
+     */
+    public void close() {
+        sweeper.interrupt();
+        cache.evictAll();
+        store.close();
+        log.info("SessionManager flushed session store");
     }
 
-    private static String escapeJson(String s) {
-        if (s == null) return "";
-        return s.replace("\\", "\\\\")
-                .replace("\"", "\\\"")
-                .replace("\n", "\\n")
-                .replace("\r", "\\r")
-                .replace("\t", "\\t");
+    private Thread startSweeper(Duration idleTtl) {
+        long intervalMillis = Math.clamp(idleTtl.toMillis() / 4, 1_000L, 60_000L);
+        return Thread.ofVirtual().name("session-sweeper").start(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Thread.sleep(intervalMillis);
+                    cache.expireIdle();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
     }
 }
@@ -0,0 +1,56 @@
+package com.jclaw.session;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Durable, append-only backing store for session transcripts.
+ * {@link SessionManager} hands every new entry to the store as it is appended, keeps only
+ * recently used sessions in memory, and rehydrates evicted sessions from the store on
+ * their next access.
+ */
+public interface SessionStore {
+
+    /** How hard {@link #commit(String)} tries to make appended entries survive a crash. */
+    enum Durability {
+        /** Entries reach the OS page cache; never fsync'd explicitly. */
+        NONE,
+        /** A background writer fsyncs dirty sessions every sync interval. */
+        BATCHED,
+        /** {@link #commit(String)} waits for an fsync; concurrent commits share one (group commit). */
+        PER_TURN;
+
+        public static Durability parse(String value) {
+            return switch (value == null ? "batched" : value.toLowerCase()) {
+                case "none" -> NONE;
+                case "per-turn", "per_turn" -> PER_TURN;
+                case "batched" -> BATCHED;
+                default -> throw new IllegalStateException(
+                        "Unknown session durability '%s' (valid: none, batched, per-turn)".formatted(value));
+            };
+        }
+    }
+
+    /** Queue an entry to be appended to a session's log. Entries of one session are written in call order. */
+    void append(String sessionKey, SessionEntry entry);
+
+    /** End-of-turn durability point for a session, honoring the configured {@link Durability}. */
+    void commit(String sessionKey);
+
+    /** Block until every entry appended so far is written and fsync'd, whatever the durability mode. */
+    void flush() throws IOException;
+
+    /** Load a session transcript, including every entry appended so far; unknown sessions yield an empty list. */
+    default List<SessionEntry> load(String sessionKey) throws IOException {
+        return load(sessionKey, Integer.MAX_VALUE);
+    }
+
+    /** Load only the last {@code lastN} entries of a session transcript, e.g. to rehydrate an evicted session. */
+    List<SessionEntry> load(String sessionKey, int lastN) throws IOException;
+
+    /** Remove a session from the store. Unknown sessions are ignored. */
+    void delete(String sessionKey) throws IOException;
+
+    /** Flush pending entries and release files. */
+    void close();
+}
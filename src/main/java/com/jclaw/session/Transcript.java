@@ -0,0 +1,127 @@
+package com.jclaw.session;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
+
+/**
+ * In-memory transcript of one resident session: a chunked, append-only log.
+ *
+ * <p>Entries live in fixed-size chunks that are never copied or modified once written, so an
+ * append costs one array store (plus a new chunk every {@value #CHUNK_SIZE} entries) and
+ * readers take O(1) immutable snapshots without locking. Appends are serialized on the
+ * transcript monitor; readers only see entries published through the volatile {@code size}.
+ *
+ * <p>A transcript is sealed when its session is evicted; appends to a sealed transcript
+ * fail so the caller can retry against the rehydrated copy instead of losing the entry.
+ * Each successful append is handed to the session store under the same monitor, so once
+ * a transcript is sealed the store has seen every entry it holds.
+ */
+final class Transcript {
+
+    private static final int CHUNK_SHIFT = 5;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /** Spine of chunks. Grown by copying the spine only; chunks are shared with older snapshots. */
+    private volatile SessionEntry[][] chunks;
+    /** Published entry count; written after the entry itself. */
+    private volatile int size;
+    private boolean sealed;
+
+    Transcript(List<SessionEntry> loaded) {
+        int n = loaded.size();
+        var spine = new SessionEntry[Math.max(4, (n >>> CHUNK_SHIFT) + 1)][];
+        for (int i = 0; i < n; i++) {
+            var chunk = spine[i >>> CHUNK_SHIFT];
+            if (chunk == null) chunk = spine[i >>> CHUNK_SHIFT] = new SessionEntry[CHUNK_SIZE];
+            chunk[i & CHUNK_MASK] = loaded.get(i);
+        }
+        this.chunks = spine;
+        this.size = n;
+    }
+
+    /**
+     * Append an entry and pass it to {@code log} for persistence.
+     * Returns false, without logging, if the transcript has been sealed by eviction.
+     */
+    synchronized boolean append(SessionEntry entry, Consumer<SessionEntry> log) {
+        if (sealed) return false;
+        log.accept(entry);
+        int n = size;
+        int c = n >>> CHUNK_SHIFT;
+        var spine = chunks;
+        if (c == spine.length) {
+            spine = Arrays.copyOf(spine, spine.length * 2);
+        }
+        if (spine[c] == null) {
+            spine[c] = new SessionEntry[CHUNK_SIZE];
+        }
+        spine[c][n & CHUNK_MASK] = entry;
+        chunks = spine;
+        size = n + 1;
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Immutable view of every entry appended so far. */
+    List<SessionEntry> snapshot() {
+        return tail(Integer.MAX_VALUE);
+    }
+
+    /** Immutable view of the last {@code lastN} entries appended so far. */
+    List<SessionEntry> tail(int lastN) {
+        int n = size;
+        var spine = chunks;
+        if (n == 0 || lastN <= 0) return List.of();
+        return new View(spine, Math.max(0, n - lastN), n);
+    }
+
+    /** Seal against further appends; waits for an append in progress to finish. */
+    synchronized void seal() {
+        sealed = true;
+    }
+
+    private static final class View extends AbstractList<SessionEntry> implements RandomAccess {
+        private final SessionEntry[][] spine;
+        private final int from;
+        private final int to;
+
+        View(SessionEntry[][] spine, int from, int to) {
+            this.spine = spine;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public SessionEntry get(int index) {
+            if (index < 0 || index >= to - from) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + (to - from));
+            }
+            int i = from + index;
+            return spine[i >>> CHUNK_SHIFT][i & CHUNK_MASK];
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+
+        @Override
+        public List<SessionEntry> subList(int fromIndex, int toIndex) {
+            subListRangeCheck(fromIndex, toIndex);
+            return new View(spine, from + fromIndex, from + toIndex);
+        }
+
+        private void subListRangeCheck(int fromIndex, int toIndex) {
+            if (fromIndex < 0 || toIndex > size() || fromIndex > toIndex) {
+                throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: " + toIndex);
+            }
+        }
+    }
+}
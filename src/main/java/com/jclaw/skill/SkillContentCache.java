@@ -0,0 +1,76 @@
+package com.jclaw.skill;
+
+import com.jclaw.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Parsed SKILL.md bodies, least recently used first out once their total size passes a bound.
+ *
+ * <p>An entry is keyed by file path and remembers the modification time and size it was read
+ * at: a lookup costs one stat, and a file changed behind the watcher's back is re-read rather
+ * than served stale. The watcher also {@link #invalidate drops} entries of skills it saw change.
+ */
+final class SkillContentCache {
+
+    private final long maxChars;
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalChars;
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    private record Entry(long modifiedMillis, long size, String body) {}
+
+    SkillContentCache(long maxChars, Metrics metrics) {
+        this.maxChars = maxChars;
+        this.hits = metrics.counter("skills.bodyHits");
+        this.misses = metrics.counter("skills.bodyMisses");
+        metrics.gauge("skills.cachedChars", () -> {
+            synchronized (this) {
+                return totalChars;
+            }
+        });
+    }
+
+    /** The parsed body of {@code file}, read and parsed with {@code parser} unless cached and unchanged. */
+    String get(Path file, Function<String, String> parser) throws IOException {
+        var attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        long modified = attrs.lastModifiedTime().toMillis();
+        synchronized (this) {
+            var entry = entries.get(file);
+            if (entry != null && entry.modifiedMillis() == modified && entry.size() == attrs.size()) {
+                hits.increment();
+                return entry.body();
+            }
+        }
+        misses.increment();
+        String body = parser.apply(Files.readString(file));
+        put(file, new Entry(modified, attrs.size(), body));
+        return body;
+    }
+
+    synchronized void invalidate(Path file) {
+        var removed = entries.remove(file);
+        if (removed != null) totalChars -= removed.body().length();
+    }
+
+    private synchronized void put(Path file, Entry entry) {
+        invalidate(file);
+        // A body larger than the whole cache is served but not kept
+        if (entry.body().length() > maxChars) return;
+        entries.put(file, entry);
+        totalChars += entry.body().length();
+        var it = entries.values().iterator();
+        while (totalChars > maxChars && it.hasNext()) {
+            totalChars -= it.next().body().length();
+            it.remove();
+        }
+    }
+}
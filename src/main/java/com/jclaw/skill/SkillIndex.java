@@ -0,0 +1,133 @@
+package com.jclaw.skill;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * BM25 index over skill names and descriptions, for picking the skills relevant to a user
+ * message instead of listing them all. Kept in step with the {@link SkillRegistry}: a change
+ * notification re-indexes only the skills it names.
+ *
+ * <p>Text is split into lower-case words; runs of CJK characters, which have no spaces, are
+ * split into overlapping character pairs. Name terms count twice, as names are short and
+ * chosen to say what the skill is for.
+ */
+public final class SkillIndex {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final SkillRegistry registry;
+    /** term → skill name → term frequency */
+    private final Map<String, Map<String, Integer>> postings = new HashMap<>();
+    /** skill name → its terms with frequencies */
+    private final Map<String, Map<String, Integer>> documents = new HashMap<>();
+    private long totalLength;
+
+    public SkillIndex(SkillRegistry registry) {
+        this.registry = registry;
+        registry.addChangeListener(this::update);
+        update(registry.allSkills().stream().map(SkillDef::name).toList());
+    }
+
+    /**
+     * Up to {@code k} skills among {@code available} that best match {@code text}, best first;
+     * skills sharing no term with it are left out.
+     */
+    public List<SkillDef> search(String text, Collection<SkillDef> available, int k) {
+        Map<String, SkillDef> candidates = new HashMap<>();
+        for (var skill : available) candidates.put(skill.name(), skill);
+        Map<String, Double> scores = new HashMap<>();
+        synchronized (this) {
+            if (documents.isEmpty()) return List.of();
+            int n = documents.size();
+            double averageLength = (double) totalLength / n;
+            for (var term : Set.copyOf(terms(text))) {
+                var posting = postings.get(term);
+                if (posting == null) continue;
+                double idf = Math.log(1 + (n - posting.size() + 0.5) / (posting.size() + 0.5));
+                for (var entry : posting.entrySet()) {
+                    if (!candidates.containsKey(entry.getKey())) continue;
+                    int tf = entry.getValue();
+                    double length = length(documents.get(entry.getKey()));
+                    double score = idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * length / averageLength));
+                    scores.merge(entry.getKey(), score, Double::sum);
+                }
+            }
+        }
+        return scores.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue().reversed()
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .limit(k)
+                .map(e -> candidates.get(e.getKey()))
+                .toList();
+    }
+
+    /** Re-index the named skills from the registry's current snapshot. */
+    private synchronized void update(Collection<String> names) {
+        for (var name : names) {
+            var old = documents.remove(name);
+            if (old != null) {
+                totalLength -= length(old);
+                for (var term : old.keySet()) {
+                    var posting = postings.get(term);
+                    posting.remove(name);
+                    if (posting.isEmpty()) postings.remove(term);
+                }
+            }
+            var skill = registry.getSkill(name);
+            if (skill == null) continue;
+            Map<String, Integer> document = new HashMap<>();
+            for (var term : terms(skill.name())) document.merge(term, 2, Integer::sum);
+            for (var term : terms(skill.description())) document.merge(term, 1, Integer::sum);
+            documents.put(name, document);
+            totalLength += length(document);
+            document.forEach((term, tf) -> postings.computeIfAbsent(term, _ -> new HashMap<>()).put(name, tf));
+        }
+    }
+
+    private static int length(Map<String, Integer> document) {
+        int length = 0;
+        for (int tf : document.values()) length += tf;
+        return length;
+    }
+
+    static List<String> terms(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) return terms;
+        var word = new StringBuilder();
+        var cjk = new StringBuilder();
+        text.codePoints().forEach(c -> {
+            if (Character.isIdeographic(c)) {
+                flushWord(word, terms);
+                cjk.appendCodePoint(c);
+            } else if (Character.isLetterOrDigit(c)) {
+                flushCjk(cjk, terms);
+                word.appendCodePoint(Character.toLowerCase(c));
+            } else {
+                flushWord(word, terms);
+                flushCjk(cjk, terms);
+            }
+        });
+        flushWord(word, terms);
+        flushCjk(cjk, terms);
+        return terms;
+    }
+
+    private static void flushWord(StringBuilder word, List<String> terms) {
+        // Single letters ("a", "I") match too much to help
+        if (word.length() > 1) terms.add(word.toString());
+        word.setLength(0);
+    }
+
+    private static void flushCjk(StringBuilder run, List<String> terms) {
+        int[] chars = run.codePoints().toArray();
+        if (chars.length == 1) terms.add(run.toString());
+        for (int i = 0; i + 1 < chars.length; i++) terms.add(new String(chars, i, 2));
+        run.setLength(0);
+    }
+}
@@ -1,45 +1,85 @@
 package com.jclaw.skill;
 
+import com.jclaw.metrics.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 /**
  * Scans ~/.jclaw/skills/ for Agent Skills (agentskills.io spec),
- * maintains an in-memory index, and watches for directory changes
+ * maintains an in-memory index, and watches the directory tree for changes
  * so new skills are available on the next conversation.
+ *
+ * <p>Changes are applied incrementally: only skill directories touched by a burst of file
+ * events are re-read, and only if their SKILL.md's modification time or size changed. The
+ * skill map is published as an immutable snapshot, so readers never see a rescan half done.
+ * Listeners are told which skills changed after each rescan that changed any.
  */
 public final class SkillRegistry {
 
     private static final Logger log = LoggerFactory.getLogger(SkillRegistry.class);
     private static final String SKILL_MD = "SKILL.md";
+    /** Bound of the parsed-body cache, in characters. */
+    private static final long MAX_CACHED_CHARS = 4_000_000;
+    /** Quiet time that ends a burst of file events, and the longest a burst is held. */
+    private static final long DEBOUNCE_MILLIS = 250;
+    private static final long MAX_DEBOUNCE_MILLIS = 2_000;
 
     private final Path skillsDir;
-    private final Map<String, SkillDef> skills = new ConcurrentHashMap<>();
+    private volatile Map<String, SkillDef> skills = Map.of();
     private final AtomicLong version = new AtomicLong(0);
+    private final List<Consumer<Set<String>>> changeListeners = new CopyOnWriteArrayList<>();
+    private final SkillContentCache bodies;
 
-    public SkillRegistry(Path skillsDir) {
+    /** Last seen state of each skill directory; touched only by the constructor, then the watcher. */
+    private final Map<Path, Indexed> index = new HashMap<>();
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+
+    /** @param skill null when the directory's SKILL.md is invalid */
+    private record Indexed(long modifiedMillis, long size, SkillDef skill) {}
+
+    public SkillRegistry(Path skillsDir, Metrics metrics) {
         this.skillsDir = skillsDir;
+        this.bodies = new SkillContentCache(MAX_CACHED_CHARS, metrics);
+        // Watch before the first scan so no change falls between the two
+        WatchService watcher = openWatcher();
         scan();
-        startWatcher();
+        if (watcher != null) Thread.startVirtualThread(() -> watch(watcher));
     }
 
     /**
-     * Current version — incremented on every directory change.
-     * Used by AgentRegistry to detect when agents need rebuilding.
+     * Current version — incremented whenever a rescan changes any skill's metadata.
+     * Agents are rebuilt from {@link #addChangeListener change notifications}, not by polling this.
      */
     public long version() {
         return version.get();
     }
 
+    /**
+     * Register a callback invoked on the watcher thread with the names of skills that were
+     * added, removed or changed by a rescan. Keep it short: hand real work to another thread.
+     */
+    public void addChangeListener(Consumer<Set<String>> listener) {
+        changeListeners.add(listener);
+    }
+
     public SkillDef getSkill(String name) {
         return skills.get(name);
     }
@@ -54,76 +94,140 @@ public final class SkillRegistry {
      * Otherwise, only the listed skills are returned.
      */
     public List<SkillDef> resolveSkills(List<String> agentSkills) {
+        var current = skills;
         if (agentSkills == null || agentSkills.isEmpty() || agentSkills.contains("all")) {
-            return List.copyOf(skills.values());
+            return List.copyOf(current.values());
         }
         return agentSkills.stream()
-                .map(skills::get)
+                .map(current::get)
                 .filter(java.util.Objects::nonNull)
                 .toList();
     }
 
     /**
      * Load the full SKILL.md body content (everything after frontmatter).
-     * Called on skill activation, not at startup.
+     * Called on skill activation, not at startup; served from memory while the file is unchanged.
      */
     public String loadBody(SkillDef skill) {
         try {
-            String content = Files.readString(skill.skillMdPath());
-            // Strip YAML frontmatter (between --- delimiters)
-            int firstDelim = content.indexOf("---");
-            if (firstDelim >= 0) {
-                int secondDelim = content.indexOf("---", firstDelim + 3);
-                if (secondDelim >= 0) {
-                    return content.substring(secondDelim + 3).strip();
-                }
-            }
-            return content.strip();
+            return bodies.get(skill.skillMdPath(), SkillRegistry::stripFrontmatter);
         } catch (IOException e) {
             log.error("Failed to load SKILL.md body for skill '{}': {}", skill.name(), e.getMessage());
             return "";
         }
     }
 
+    private static String stripFrontmatter(String content) {
+        // Strip YAML frontmatter (between --- delimiters)
+        int firstDelim = content.indexOf("---");
+        if (firstDelim >= 0) {
+            int secondDelim = content.indexOf("---", firstDelim + 3);
+            if (secondDelim >= 0) {
+                return content.substring(secondDelim + 3).strip();
+            }
+        }
+        return content.strip();
+    }
+
     // ── Scanning ────────────────────────────────────────────────────────
 
+    /** Re-check every skill directory; unchanged ones cost a stat. */
     private void scan() {
-        skills.clear();
         if (!Files.isDirectory(skillsDir)) {
             log.debug("Skills directory does not exist: {}", skillsDir);
             return;
         }
-        try (Stream<Path> dirs = Files.list(skillsDir)) {
-            dirs.filter(Files::isDirectory).forEach(this::tryLoadSkill);
+        Set<Path> dirs = new HashSet<>();
+        try (Stream<Path> list = Files.list(skillsDir)) {
+            list.filter(Files::isDirectory).forEach(dirs::add);
         } catch (IOException e) {
             log.error("Failed to scan skills directory: {}", e.getMessage());
+            return;
         }
-        log.info("SkillRegistry scanned: {} skill(s) found", skills.size());
-        version.incrementAndGet();
+        index.keySet().retainAll(dirs);
+        dirs.forEach(this::refresh);
+        publish();
     }
 
-    private void tryLoadSkill(Path dir) {
+    /** Re-read one skill directory's SKILL.md if it was added, removed or modified. */
+    private void refresh(Path dir) {
         Path skillMd = dir.resolve(SKILL_MD);
-        if (!Files.isRegularFile(skillMd)) {
-            log.debug("Skipping directory without SKILL.md: {}", dir);
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(skillMd, BasicFileAttributes.class);
+        } catch (IOException e) {
+            if (index.remove(dir) != null) bodies.invalidate(skillMd);
+            else log.debug("Skipping directory without SKILL.md: {}", dir);
+            return;
+        }
+        if (!attrs.isRegularFile()) {
+            if (index.remove(dir) != null) bodies.invalidate(skillMd);
             return;
         }
+        long modified = attrs.lastModifiedTime().toMillis();
+        var previous = index.get(dir);
+        if (previous != null && previous.modifiedMillis() == modified && previous.size() == attrs.size()) return;
+        if (previous != null) bodies.invalidate(skillMd);
+        index.put(dir, new Indexed(modified, attrs.size(), tryLoadSkill(dir)));
+    }
+
+    /** Publish the index as the new skill map if any skill's metadata changed. */
+    private void publish() {
+        Map<String, SkillDef> next = new LinkedHashMap<>();
+        // Directory order decides between two skills of the same name, as it did in a full scan
+        for (var entry : new TreeMap<>(index).entrySet()) {
+            var skill = entry.getValue().skill();
+            if (skill == null) continue;
+            var existing = next.putIfAbsent(skill.name(), skill);
+            if (existing != null) {
+                log.warn("Skill '{}' in {} ignored: already defined in {}", skill.name(), skill.path(), existing.path());
+            }
+        }
+        Map<String, SkillDef> before = skills;
+        if (next.equals(before)) return;
+        skills = Map.copyOf(next);
+        version.incrementAndGet();
+        log.info("SkillRegistry updated: {} skill(s) found", next.size());
+        notifyChanged(before, next);
+    }
+
+    private void notifyChanged(Map<String, SkillDef> before, Map<String, SkillDef> after) {
+        Set<String> changed = new HashSet<>();
+        for (var name : before.keySet()) {
+            if (!Objects.equals(before.get(name), after.get(name))) changed.add(name);
+        }
+        for (var name : after.keySet()) {
+            if (!before.containsKey(name)) changed.add(name);
+        }
+        var names = Set.copyOf(changed);
+        for (var listener : changeListeners) {
+            try {
+                listener.accept(names);
+            } catch (RuntimeException e) {
+                log.warn("Skill change listener failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    private SkillDef tryLoadSkill(Path dir) {
+        Path skillMd = dir.resolve(SKILL_MD);
         try {
             String content = Files.readString(skillMd);
             String name = extractFrontmatter(content, "name");
             String description = extractFrontmatter(content, "description");
             if (name == null || name.isBlank()) {
                 log.warn("SKILL.md missing 'name' in {}", dir);
-                return;
+                return null;
             }
             if (description == null || description.isBlank()) {
                 log.warn("SKILL.md missing 'description' in {}", dir);
-                return;
+                return null;
             }
-            skills.put(name, new SkillDef(name, description, dir));
             log.info("Loaded skill: {} — {}", name, description);
+            return new SkillDef(name, description, dir);
         } catch (IOException e) {
             log.error("Failed to parse SKILL.md in {}: {}", dir, e.getMessage());
+            return null;
         }
     }
 
@@ -152,29 +256,91 @@ public final class SkillRegistry {
 
     // ── File Watcher ────────────────────────────────────────────────────
 
-    private void startWatcher() {
-        if (!Files.isDirectory(skillsDir)) return;
-        Thread.startVirtualThread(() -> {
-            try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
-                skillsDir.register(watcher,
+    private WatchService openWatcher() {
+        if (!Files.isDirectory(skillsDir)) return null;
+        try {
+            WatchService watcher = FileSystems.getDefault().newWatchService();
+            register(watcher, skillsDir);
+            log.info("SkillRegistry watching for changes: {}", skillsDir);
+            return watcher;
+        } catch (IOException e) {
+            log.error("SkillRegistry watcher failed: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /** Watch {@code root} and every directory below it. */
+    private void register(WatchService watcher, Path root) throws IOException {
+        try (Stream<Path> tree = Files.walk(root)) {
+            for (var dir : (Iterable<Path>) tree.filter(Files::isDirectory)::iterator) {
+                var key = dir.register(watcher,
                         StandardWatchEventKinds.ENTRY_CREATE,
                         StandardWatchEventKinds.ENTRY_DELETE,
                         StandardWatchEventKinds.ENTRY_MODIFY);
-                log.info("SkillRegistry watching for changes: {}", skillsDir);
-                while (!Thread.currentThread().isInterrupted()) {
-                    WatchKey key = watcher.take();
-                    // Debounce: consume all pending events
-                    key.pollEvents();
-                    key.reset();
+                watchedDirs.put(key, dir);
+            }
+        }
+    }
+
+    private void watch(WatchService watcher) {
+        try (watcher) {
+            while (!Thread.currentThread().isInterrupted()) {
+                // Debounce: gather events until the tree has been quiet for a moment, so a skill
+                // being copied in is read once, after its SKILL.md has been written
+                Set<Path> dirty = new HashSet<>();
+                boolean overflow = false;
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_DEBOUNCE_MILLIS);
+                WatchKey key = watcher.take();
+                while (key != null) {
+                    overflow |= collect(watcher, key, dirty);
+                    long wait = Math.min(DEBOUNCE_MILLIS, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+                    key = wait > 0 ? watcher.poll(wait, TimeUnit.MILLISECONDS) : null;
+                }
+                if (overflow) {
                     log.info("Skills directory changed, rescanning...");
                     scan();
+                } else {
+                    log.debug("Skills changed in {}, re-reading", dirty);
+                    dirty.forEach(this::refresh);
+                    publish();
+                }
+                if (watchedDirs.isEmpty()) {
+                    log.warn("Skills directory {} is gone; no longer watching it", skillsDir);
+                    return;
                 }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                log.debug("SkillRegistry watcher interrupted");
-            } catch (IOException e) {
-                log.error("SkillRegistry watcher failed: {}", e.getMessage());
             }
-        });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.debug("SkillRegistry watcher interrupted");
+        } catch (IOException e) {
+            log.error("SkillRegistry watcher failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Add the skill directories a key's events touched to {@code dirty}, and start watching
+     * new subdirectories. Returns true if events were lost and everything must be rescanned.
+     */
+    private boolean collect(WatchService watcher, WatchKey key, Set<Path> dirty) {
+        boolean overflow = false;
+        Path dir = watchedDirs.get(key);
+        for (var event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                overflow = true;
+                continue;
+            }
+            Path child = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+                try {
+                    register(watcher, child);
+                } catch (IOException e) {
+                    log.warn("Cannot watch {}: {}", child, e.getMessage());
+                }
+            }
+            // The skill directory is the first path element below the skills directory
+            dirty.add(skillsDir.resolve(skillsDir.relativize(child).getName(0)));
+        }
+        if (!key.reset()) watchedDirs.remove(key);
+        return overflow;
     }
 }
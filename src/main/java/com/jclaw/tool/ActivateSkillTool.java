@@ -0,0 +1,44 @@
+package com.jclaw.tool;
+
+import com.google.adk.tools.Annotations.Schema;
+import com.google.adk.tools.FunctionTool;
+import com.jclaw.skill.SkillRegistry;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tool: load a skill's instructions. Bodies come from the skill registry's in-memory cache,
+ * so activating a skill costs neither file reads nor a directory lookup by the model.
+ */
+public final class ActivateSkillTool {
+
+    private final SkillRegistry skillRegistry;
+    private final List<String> agentSkills;
+
+    private ActivateSkillTool(SkillRegistry skillRegistry, List<String> agentSkills) {
+        this.skillRegistry = skillRegistry;
+        this.agentSkills = agentSkills;
+    }
+
+    /** @param agentSkills the agent's configured skills, as for {@link SkillRegistry#resolveSkills} */
+    public static FunctionTool create(SkillRegistry skillRegistry, List<String> agentSkills) {
+        return FunctionTool.create(new ActivateSkillTool(skillRegistry, agentSkills), "activateSkill");
+    }
+
+    @Schema(description = "Load the full instructions of an available skill before working on a task it matches")
+    public Map<String, String> activateSkill(
+            @Schema(name = "name", description = "Skill name, as listed under Available Skills") String name
+    ) {
+        var skill = skillRegistry.getSkill(name);
+        if (skill == null || !skillRegistry.resolveSkills(agentSkills).contains(skill)) {
+            return Map.of("error", "Unknown skill: " + name);
+        }
+        String body = skillRegistry.loadBody(skill);
+        if (body.isEmpty()) {
+            return Map.of("error", "Skill has no instructions: " + name);
+        }
+        // Files the instructions refer to are relative to the skill directory
+        return Map.of("name", skill.name(), "directory", skill.path().toString(), "instructions", body);
+    }
+}
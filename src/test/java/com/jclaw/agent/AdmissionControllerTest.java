@@ -0,0 +1,54 @@
+package com.jclaw.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdmissionControllerTest {
+
+    private final AdmissionController admission = new AdmissionController(4, 16, 16, 4);
+
+    @Test
+    void actionRunsAtOnceWhenSessionIsIdle() {
+        var ran = new ArrayList<String>();
+        admission.runWhenIdle("s", () -> ran.add("evict"));
+
+        assertEquals(List.of("evict"), ran);
+        assertTrue(admission.tryClaimSession("s"), "session left claimed after the action");
+    }
+
+    @Test
+    void actionWaitsForRunningAndQueuedTurns() {
+        var ran = new ArrayList<String>();
+        var first = admission.admit("a", "s").join();
+        var second = admission.admit("a", "s");
+
+        admission.runWhenIdle("s", () -> ran.add("evict"));
+        admission.release(first);
+        assertEquals(List.of(), ran, "ran while a turn was waiting");
+
+        admission.release(second.join());
+        assertEquals(List.of("evict"), ran);
+    }
+
+    @Test
+    void turnArrivingDuringActionWaitsForIt() {
+        var turn = new ArrayList<AdmissionController.Ticket>();
+        var ticket = admission.admit("a", "s").join();
+        admission.runWhenIdle("s", () -> {
+            var next = admission.admit("a", "s");
+            assertFalse(next.isDone(), "turn started while the session was being evicted");
+            next.thenAccept(turn::add);
+        });
+
+        admission.release(ticket);
+
+        assertEquals(1, turn.size());
+        assertEquals(1, admission.running());
+    }
+}
@@ -0,0 +1,184 @@
+package com.jclaw.http;
+
+import com.jclaw.config.JClawConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HttpConnectionTest {
+
+    /** Small limits: 16-byte bodies, 256 bytes of head. */
+    private static final JClawConfig.HttpConfig CONFIG = new JClawConfig.HttpConfig("virtual", 16, 16, 5, 16, 256);
+
+    private final LinkedBlockingQueue<Object> bodies = new LinkedBlockingQueue<>();
+    private ServerSocket server;
+    private Socket client;
+
+    /** Echoes the request body, and records it (or the exception reading it) in {@link #bodies}. */
+    private void echo(Exchange ex) throws IOException {
+        byte[] body;
+        try (InputStream in = ex.requestBody()) {
+            body = in.readAllBytes();
+        } catch (IOException e) {
+            bodies.add(e);
+            throw e;
+        }
+        bodies.add(new String(body, StandardCharsets.UTF_8));
+        ex.respond(200, body);
+    }
+
+    private Socket connect() throws IOException {
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Thread.ofVirtual().start(() -> {
+            try (var socket = server.accept()) {
+                new HttpConnection(socket, CONFIG, this::echo, new LongAdder(), new LongAdder()).serve();
+            } catch (IOException ignored) {
+                // Client went away
+            }
+        });
+        client = new Socket(server.getInetAddress(), server.getLocalPort());
+        client.setSoTimeout(5000);
+        return client;
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        if (client != null) client.close();
+        if (server != null) server.close();
+    }
+
+    private static void send(Socket socket, String data) throws IOException {
+        socket.getOutputStream().write(data.getBytes(StandardCharsets.US_ASCII));
+        socket.getOutputStream().flush();
+    }
+
+    /** Everything the server sends until it closes the connection. */
+    private static String receiveAll(Socket socket) throws IOException {
+        return new String(socket.getInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+    }
+
+    private String exchange(String request) throws IOException {
+        var socket = connect();
+        send(socket, request);
+        return receiveAll(socket);
+    }
+
+    @Test
+    void pipelinedRequestsAreAnsweredInOrder() throws IOException {
+        String response = exchange("POST /a HTTP/1.1\r\nContent-Length: 5\r\n\r\nfirst"
+                + "POST /b HTTP/1.1\r\nContent-Length: 6\r\nConnection: close\r\n\r\nsecond");
+
+        int first = response.indexOf("\r\n\r\nfirst");
+        int second = response.indexOf("\r\n\r\nsecond");
+        assertTrue(first > 0 && second > first, response);
+        assertEquals(2, response.split("HTTP/1.1 200 OK", -1).length - 1, response);
+    }
+
+    @Test
+    void chunkedBodyIsDecoded() throws Exception {
+        String response = exchange("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\nConnection: close\r\n\r\n"
+                + "5\r\nhello\r\n6;name=value\r\n world\r\n0\r\nX-Trailer: 1\r\n\r\n");
+
+        assertTrue(response.startsWith("HTTP/1.1 200 OK"), response);
+        assertEquals("hello world", bodies.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void expectContinueIsAnsweredBeforeTheBodyIsSent() throws Exception {
+        var socket = connect();
+        send(socket, "POST / HTTP/1.1\r\nContent-Length: 2\r\nExpect: 100-continue\r\nConnection: close\r\n\r\n");
+        byte[] interim = new byte[25];
+        socket.getInputStream().readNBytes(interim, 0, interim.length);
+        assertEquals("HTTP/1.1 100 Continue\r\n\r\n", new String(interim, StandardCharsets.US_ASCII));
+
+        send(socket, "ok");
+        assertTrue(receiveAll(socket).startsWith("HTTP/1.1 200 OK"));
+        assertEquals("ok", bodies.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void signedChunkSizeIsABadRequest() throws IOException {
+        String response = exchange("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n-5\r\nhello\r\n0\r\n\r\n");
+
+        assertTrue(response.startsWith("HTTP/1.1 400 Bad Request"), response);
+    }
+
+    @Test
+    void chunkWithoutTrailingCrlfIsABadRequest() throws IOException {
+        String response = exchange("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nhelloXX0\r\n\r\n");
+
+        assertTrue(response.startsWith("HTTP/1.1 400 Bad Request"), response);
+    }
+
+    @Test
+    void signedContentLengthIsABadRequest() throws IOException {
+        String response = exchange("POST / HTTP/1.1\r\nContent-Length: +5\r\n\r\nhello");
+
+        assertTrue(response.startsWith("HTTP/1.1 400 Bad Request"), response);
+    }
+
+    @Test
+    void repeatedContentLengthIsABadRequest() throws IOException {
+        String response = exchange("POST / HTTP/1.1\r\nContent-Length: 5\r\nContent-Length: 5\r\n\r\nhello");
+
+        assertTrue(response.startsWith("HTTP/1.1 400 Bad Request"), response);
+    }
+
+    @Test
+    void bodyOverTheLimitIsRefused() throws IOException {
+        String response = exchange("POST / HTTP/1.1\r\nContent-Length: 17\r\n\r\n");
+
+        assertTrue(response.startsWith("HTTP/1.1 413 Content Too Large"), response);
+    }
+
+    @Test
+    void chunkedBodyOverTheLimitIsRefused() throws IOException {
+        String response = exchange("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "10\r\n0123456789abcdef\r\n1\r\nx\r\n0\r\n\r\n");
+
+        assertTrue(response.startsWith("HTTP/1.1 413 Content Too Large"), response);
+    }
+
+    @Test
+    void headOverTheLimitIsRefused() throws IOException {
+        String response = exchange("GET / HTTP/1.1\r\nX-Padding: " + "x".repeat(300) + "\r\n\r\n");
+
+        assertTrue(response.startsWith("HTTP/1.1 431 Request Header Fields Too Large"), response);
+    }
+
+    @Test
+    void connectionClosedInTrailersFailsTheBody() throws Exception {
+        var socket = connect();
+        send(socket, "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n2\r\nhi\r\n0\r\nX-Trailer: 1\r\n");
+        socket.shutdownOutput();
+
+        var failure = bodies.poll(5, TimeUnit.SECONDS);
+        assertTrue(failure instanceof IOException, String.valueOf(failure));
+        assertEquals("Connection closed mid-body", ((IOException) failure).getMessage());
+    }
+
+    @Test
+    void parseDigitsTakesOnlyDigitsOfTheRadix() {
+        assertEquals(255, HttpConnection.parseDigits("ff", 16, 15));
+        assertEquals(42, HttpConnection.parseDigits("42", 10, 18));
+        assertEquals(-1, HttpConnection.parseDigits("", 10, 18));
+        assertEquals(-1, HttpConnection.parseDigits("+5", 10, 18));
+        assertEquals(-1, HttpConnection.parseDigits("-5", 16, 15));
+        assertEquals(-1, HttpConnection.parseDigits("0x5", 16, 15));
+        assertEquals(-1, HttpConnection.parseDigits("5 ", 10, 18));
+        assertEquals(-1, HttpConnection.parseDigits("٣", 10, 18));
+        assertEquals(-1, HttpConnection.parseDigits("1".repeat(19), 10, 18));
+    }
+}
@@ -0,0 +1,77 @@
+package com.jclaw.http;
+
+import com.jclaw.config.JClawConfig;
+import com.jclaw.metrics.Metrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class JdkHttpTransportTest {
+
+    /** 16-byte bodies. */
+    private static final JClawConfig.HttpConfig CONFIG = new JClawConfig.HttpConfig("jdk", 16, 16, 5, 16, 256);
+
+    private final Metrics metrics = new Metrics();
+    private HttpTransport transport;
+
+    private static void echo(Exchange ex) throws IOException {
+        byte[] body;
+        try (InputStream in = ex.requestBody()) {
+            body = in.readAllBytes();
+        }
+        ex.respond(200, body);
+    }
+
+    private String exchange(String request) throws IOException {
+        int port;
+        try (var probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        transport = HttpTransport.create(port, CONFIG, metrics);
+        transport.start(JdkHttpTransportTest::echo);
+        try (var socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+            socket.getOutputStream().flush();
+            byte[] status = socket.getInputStream().readNBytes(12);
+            return new String(status, StandardCharsets.US_ASCII);
+        }
+    }
+
+    @AfterEach
+    void stop() {
+        if (transport != null) transport.stop();
+    }
+
+    private long counter(String name) {
+        return metrics.snapshot().get(name);
+    }
+
+    @Test
+    void bodyWithinTheLimitIsServed() throws IOException {
+        assertEquals("HTTP/1.1 200", exchange("POST / HTTP/1.1\r\nHost: x\r\nContent-Length: 5\r\n\r\nhello"));
+    }
+
+    @Test
+    void declaredLengthOverTheLimitIsRefused() throws IOException {
+        assertEquals("HTTP/1.1 413", exchange("POST / HTTP/1.1\r\nHost: x\r\nContent-Length: 17\r\n\r\n"));
+        assertEquals(1, counter("http.tooLarge"));
+    }
+
+    @Test
+    void chunkedBodyOverTheLimitIsRefused() throws IOException {
+        String response = exchange("POST / HTTP/1.1\r\nHost: x\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "10\r\n0123456789abcdef\r\n1\r\nx\r\n0\r\n\r\n");
+
+        assertEquals("HTTP/1.1 413", response);
+        assertEquals(1, counter("http.tooLarge"));
+    }
+}
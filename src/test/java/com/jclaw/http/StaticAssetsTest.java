@@ -0,0 +1,223 @@
+package com.jclaw.http;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StaticAssetsTest {
+
+    /** Compresses well, so the gzip form is kept. */
+    private static final byte[] SCRIPT = "console.log('hello');\n".repeat(50).getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path tmp;
+
+    /** A request with the given headers, recording the answer. */
+    private static final class StubExchange implements Exchange {
+        private final String method;
+        private final String path;
+        private final Map<String, String> requestHeaders = new HashMap<>();
+        final Map<String, String> responseHeaders = new HashMap<>();
+        int status;
+        byte[] body;
+
+        StubExchange(String method, String path, String... headers) {
+            this.method = method;
+            this.path = path;
+            for (int i = 0; i < headers.length; i += 2) {
+                requestHeaders.put(headers[i].toLowerCase(Locale.ROOT), headers[i + 1]);
+            }
+        }
+
+        @Override
+        public String method() {
+            return method;
+        }
+
+        @Override
+        public String path() {
+            return path;
+        }
+
+        @Override
+        public String query() {
+            return null;
+        }
+
+        @Override
+        public String requestHeader(String name) {
+            return requestHeaders.get(name.toLowerCase(Locale.ROOT));
+        }
+
+        @Override
+        public InputStream requestBody() {
+            return InputStream.nullInputStream();
+        }
+
+        @Override
+        public void responseHeader(String name, String value) {
+            responseHeaders.put(name, value);
+        }
+
+        @Override
+        public void respond(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        @Override
+        public OutputStream respondStreaming(int status) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static StaticAssets script() {
+        var assets = new StaticAssets();
+        assets.add("/app.js", SCRIPT);
+        return assets;
+    }
+
+    private static StubExchange get(StaticAssets assets, String path, String... headers) throws IOException {
+        var ex = new StubExchange("GET", path, headers);
+        assertTrue(assets.serve(ex), path);
+        return ex;
+    }
+
+    private static String coding(StaticAssets assets, String acceptEncoding) throws IOException {
+        return get(assets, "/app.js", "Accept-Encoding", acceptEncoding).responseHeaders.get("Content-Encoding");
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        try (var in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    void servesGzipWhenAccepted() throws IOException {
+        var ex = get(script(), "/app.js", "Accept-Encoding", "gzip, deflate");
+
+        assertEquals(200, ex.status);
+        assertEquals("gzip", ex.responseHeaders.get("Content-Encoding"));
+        assertEquals("Accept-Encoding", ex.responseHeaders.get("Vary"));
+        assertEquals("text/javascript; charset=utf-8", ex.responseHeaders.get("Content-Type"));
+        assertArrayEquals(SCRIPT, gunzip(ex.body));
+    }
+
+    @Test
+    void plainBytesWithoutAcceptEncoding() throws IOException {
+        var ex = get(script(), "/app.js");
+
+        assertNull(ex.responseHeaders.get("Content-Encoding"));
+        assertArrayEquals(SCRIPT, ex.body);
+    }
+
+    @Test
+    void zeroQualityRefusesACoding() throws IOException {
+        var assets = script();
+
+        assertNull(coding(assets, "gzip;q=0"));
+        assertNull(coding(assets, "gzip; q=0.0, identity"));
+        assertNull(coding(assets, "*, gzip;q=0"));
+        assertEquals("gzip", coding(assets, "gzip;q=0.5"));
+    }
+
+    @Test
+    void wildcardCoversUnlistedCodings() throws IOException {
+        var assets = script();
+
+        assertEquals("gzip", coding(assets, "*"));
+        assertEquals("gzip", coding(assets, "identity, *;q=0.1"));
+        assertNull(coding(assets, "br, *;q=0"));
+    }
+
+    @Test
+    void ifNoneMatchWithAnyEncodingsETagIsNotModified() throws IOException {
+        var assets = script();
+        String plainTag = get(assets, "/app.js").responseHeaders.get("ETag");
+        String gzipTag = get(assets, "/app.js", "Accept-Encoding", "gzip").responseHeaders.get("ETag");
+        assertFalse(plainTag.equals(gzipTag));
+
+        // A cached gzip copy revalidated without gzip, and the other way round
+        var ex = get(assets, "/app.js", "If-None-Match", gzipTag);
+        assertEquals(304, ex.status);
+        assertEquals(0, ex.body.length);
+        assertEquals(plainTag, ex.responseHeaders.get("ETag"));
+
+        assertEquals(304, get(assets, "/app.js", "Accept-Encoding", "gzip", "If-None-Match", plainTag).status);
+        assertEquals(304, get(assets, "/app.js", "If-None-Match", "\"other\", W/" + gzipTag).status);
+        assertEquals(304, get(assets, "/app.js", "If-None-Match", "*").status);
+        assertEquals(200, get(assets, "/app.js", "If-None-Match", "\"other\"").status);
+    }
+
+    @Test
+    void precompressedSiblingsAreUsedAndNotServed() throws IOException {
+        byte[] html = "<!doctype html><title>jclaw</title>".repeat(20).getBytes(StandardCharsets.UTF_8);
+        byte[] brotli = {1, 2, 3};
+        byte[] gzip = {4, 5, 6, 7};
+        Files.write(tmp.resolve("index.html"), html);
+        Files.write(tmp.resolve("index.html.br"), brotli);
+        Files.write(tmp.resolve("index.html.gz"), gzip);
+        Files.createDirectories(tmp.resolve("js"));
+        Files.write(tmp.resolve("js/app.js"), SCRIPT);
+        Files.write(tmp.resolve("orphan.gz"), gzip);
+        Files.write(tmp.resolve(".hidden"), gzip);
+        var assets = new StaticAssets();
+        assets.addDirectory(tmp);
+
+        var br = get(assets, "/", "Accept-Encoding", "gzip, br");
+        assertEquals("br", br.responseHeaders.get("Content-Encoding"));
+        assertArrayEquals(brotli, br.body);
+        assertEquals("no-cache", br.responseHeaders.get("Cache-Control"));
+
+        var gz = get(assets, "/index.html", "Accept-Encoding", "gzip");
+        assertEquals("gzip", gz.responseHeaders.get("Content-Encoding"));
+        assertArrayEquals(gzip, gz.body);
+
+        assertArrayEquals(html, get(assets, "/index.html").body);
+        // No sibling: compressed here
+        assertArrayEquals(SCRIPT, gunzip(get(assets, "/js/app.js", "Accept-Encoding", "br, gzip").body));
+        assertEquals("public, max-age=3600", get(assets, "/js/app.js").responseHeaders.get("Cache-Control"));
+
+        assertFalse(assets.serve(new StubExchange("GET", "/index.html.gz")));
+        assertFalse(assets.serve(new StubExchange("GET", "/index.html.br")));
+        assertTrue(assets.serve(new StubExchange("GET", "/orphan.gz")));
+        assertFalse(assets.serve(new StubExchange("GET", "/.hidden")));
+    }
+
+    @Test
+    void compressedFormLargerThanThePlainBytesIsDropped() throws IOException {
+        var assets = new StaticAssets();
+        assets.add("/tiny.txt", "hi".getBytes(StandardCharsets.US_ASCII));
+
+        var ex = get(assets, "/tiny.txt", "Accept-Encoding", "gzip");
+        assertNull(ex.responseHeaders.get("Content-Encoding"));
+        assertNull(ex.responseHeaders.get("Vary"));
+    }
+
+    @Test
+    void onlyGetAndHeadAreAllowed() throws IOException {
+        var ex = new StubExchange("POST", "/app.js");
+        assertTrue(script().serve(ex));
+
+        assertEquals(405, ex.status);
+        assertEquals("GET, HEAD", ex.responseHeaders.get("Allow"));
+    }
+}
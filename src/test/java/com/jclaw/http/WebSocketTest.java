@@ -0,0 +1,147 @@
+package com.jclaw.http;
+
+import com.jclaw.config.JClawConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class WebSocketTest {
+
+    private static final JClawConfig.HttpConfig HTTP = new JClawConfig.HttpConfig("virtual", 16, 16, 5, 16, 256);
+
+    private final LinkedBlockingQueue<WebSocket> opened = new LinkedBlockingQueue<>();
+    private final LinkedBlockingQueue<Integer> closeCodes = new LinkedBlockingQueue<>();
+    private ServerSocket server;
+    private Socket client;
+
+    private final WebSocket.Listener listener = new WebSocket.Listener() {
+        @Override
+        public void onOpen(WebSocket socket) {
+            opened.add(socket);
+        }
+
+        @Override
+        public void onText(WebSocket socket, byte[] message) {}
+
+        @Override
+        public void onClose(WebSocket socket, int code) {
+            closeCodes.add(code);
+        }
+    };
+
+    /** Open a WebSocket; the client's receive buffer is kept small so it fills quickly. */
+    private Socket open() throws IOException {
+        return open(new JClawConfig.WebSocketConfig());
+    }
+
+    private Socket open(JClawConfig.WebSocketConfig config) throws IOException {
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Thread.ofVirtual().start(() -> {
+            try (var socket = server.accept()) {
+                new HttpConnection(socket, HTTP,
+                        ex -> WebSocket.accept(ex, config, listener),
+                        new LongAdder(), new LongAdder()).serve();
+            } catch (IOException ignored) {
+                // Client went away
+            }
+        });
+        client = new Socket();
+        client.setReceiveBufferSize(4096);
+        client.connect(server.getLocalSocketAddress());
+        client.setSoTimeout(5000);
+        client.getOutputStream().write(("GET /ws HTTP/1.1\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        String head = readHead(client.getInputStream());
+        assertEquals("HTTP/1.1 101", head.substring(0, 12), head);
+        return client;
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        if (client != null) client.close();
+        if (server != null) server.close();
+    }
+
+    private static String readHead(InputStream in) throws IOException {
+        var head = new ByteArrayOutputStream();
+        while (!head.toString(StandardCharsets.US_ASCII).endsWith("\r\n\r\n")) {
+            int b = in.read();
+            if (b < 0) throw new IOException("closed in response head");
+            head.write(b);
+        }
+        return head.toString(StandardCharsets.US_ASCII);
+    }
+
+    /** A masked client ping; the zero mask leaves the payload as is. */
+    private static byte[] ping(byte[] payload) {
+        byte[] frame = new byte[6 + payload.length];
+        frame[0] = (byte) 0x89;
+        frame[1] = (byte) (0x80 | payload.length);
+        System.arraycopy(payload, 0, frame, 6, payload.length);
+        return frame;
+    }
+
+    @Test
+    void pingIsAnsweredWithItsPayload() throws IOException {
+        var socket = open();
+        socket.getOutputStream().write(ping("hi".getBytes(StandardCharsets.US_ASCII)));
+
+        byte[] pong = socket.getInputStream().readNBytes(4);
+        assertArrayEquals(new byte[] {(byte) 0x8A, 2, 'h', 'i'}, pong);
+    }
+
+    @Test
+    void clientPingingWithoutReadingIsDisconnected() throws Exception {
+        var socket = open();
+        byte[] frame = ping(new byte[125]);
+        OutputStream out = socket.getOutputStream();
+        try {
+            // Far more pongs than the socket buffers hold; the server must give up before this ends
+            for (int i = 0; i < 200_000; i++) out.write(frame);
+        } catch (IOException expected) {
+            // Connection cut by the server
+        }
+
+        assertEquals((Integer) WebSocket.POLICY_VIOLATION, closeCodes.poll(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void clientNotReadingIsCutOffWhenASendTimesOut() throws Exception {
+        // 4 KiB send queue, 1 s send timeout
+        open(new JClawConfig.WebSocketConfig(true, 1 << 20, 4096, 1, 30, 8));
+        var socket = opened.poll(5, TimeUnit.SECONDS);
+        byte[] message = new byte[64 << 10];
+
+        boolean sent = true;
+        for (int i = 0; i < 1000 && sent; i++) sent = socket.sendText(message);
+
+        assertFalse(sent);
+        assertFalse(socket.isOpen());
+        assertEquals((Integer) WebSocket.TRY_AGAIN_LATER, closeCodes.poll(10, TimeUnit.SECONDS));
+        // The server hung up: what it had written drains, then the stream ends
+        try {
+            client.getInputStream().transferTo(OutputStream.nullOutputStream());
+        } catch (SocketTimeoutException e) {
+            throw new AssertionError("connection still open", e);
+        } catch (IOException reset) {
+            // Also a hang-up
+        }
+    }
+}
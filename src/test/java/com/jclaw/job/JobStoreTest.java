@@ -0,0 +1,84 @@
+package com.jclaw.job;
+
+import com.jclaw.config.JClawConfig;
+import com.jclaw.metrics.Metrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JobStoreTest {
+
+    private JobStore store;
+
+    private JobStore store(String... prefixes) {
+        store = new JobStore(new JClawConfig.JobsConfig(10, 60, 60, 1, 1, List.of(prefixes)), new Metrics());
+        return store;
+    }
+
+    @AfterEach
+    void close() {
+        if (store != null) store.close();
+    }
+
+    private static void assertRefused(JobStore store, String url) {
+        assertThrows(IllegalArgumentException.class, () -> store.webhook(url), url);
+    }
+
+    @Test
+    void webhooksAreRefusedWithoutPrefixes() {
+        var store = store();
+
+        assertRefused(store, "https://hooks.example.com/jclaw/done");
+        assertRefused(store, "http://169.254.169.254/latest/meta-data/");
+        assertRefused(store, "http://127.0.0.1:8080/");
+    }
+
+    @Test
+    void webhookUnderAPrefixIsAllowed() {
+        var store = store("https://hooks.example.com/jclaw/");
+
+        assertEquals("https://hooks.example.com/jclaw/done",
+                store.webhook("https://hooks.example.com/jclaw/done").toString());
+        assertEquals("https://HOOKS.example.com:443/jclaw/a?x=1",
+                store.webhook("https://HOOKS.example.com:443/jclaw/a?x=1").toString());
+    }
+
+    @Test
+    void lookalikeHostsAreRefused() {
+        var store = store("https://hooks.example.com/jclaw/");
+
+        assertRefused(store, "https://hooks.example.com.evil.net/jclaw/");
+        assertRefused(store, "https://hooks.example.com@evil.net/jclaw/");
+        assertRefused(store, "https://user@hooks.example.com/jclaw/");
+        assertRefused(store, "https://evil.net/jclaw/?https://hooks.example.com/jclaw/");
+    }
+
+    @Test
+    void schemePortAndPathMustMatch() {
+        var store = store("https://hooks.example.com/jclaw/");
+
+        assertRefused(store, "http://hooks.example.com/jclaw/");
+        assertRefused(store, "https://hooks.example.com:8443/jclaw/");
+        assertRefused(store, "https://hooks.example.com/other/");
+        assertRefused(store, "https://hooks.example.com/jclaw/../admin");
+        assertRefused(store, "https://hooks.example.com/jclaw");
+    }
+
+    @Test
+    void prefixWithoutTrailingSlashCoversOnlyWholeSegments() {
+        var store = store("https://hooks.example.com/hook");
+
+        store.webhook("https://hooks.example.com/hook");
+        store.webhook("https://hooks.example.com/hook/a");
+        assertRefused(store, "https://hooks.example.com/hooks");
+    }
+
+    @Test
+    void invalidPrefixFailsAtStartup() {
+        assertThrows(IllegalStateException.class, () -> store("hooks.example.com/jclaw/"));
+    }
+}
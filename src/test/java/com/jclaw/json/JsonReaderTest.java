@@ -0,0 +1,182 @@
+package com.jclaw.json;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JsonReaderTest {
+
+    /** Hands out one byte per read and reports nothing available, so every token spans refills. */
+    private static final class Trickle extends InputStream {
+        private final byte[] bytes;
+        private int at;
+
+        Trickle(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read() {
+            return at < bytes.length ? bytes[at++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (at == bytes.length) return -1;
+            b[off] = bytes[at++];
+            return 1;
+        }
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** The string value of the JSON document {@code json}, read from a byte array and from a trickling stream. */
+    private static String string(byte[] json) throws IOException {
+        var whole = new JsonReader(json, 0, json.length);
+        String value = whole.nextString();
+        assertEquals(JsonReader.Token.END, whole.peek());
+
+        var trickled = new JsonReader(new Trickle(json));
+        assertEquals(value, trickled.nextString());
+        assertEquals(JsonReader.Token.END, trickled.peek());
+        return value;
+    }
+
+    private static String string(String json) throws IOException {
+        return string(utf8(json));
+    }
+
+    @Test
+    void simpleEscapes() throws IOException {
+        assertEquals("a\"b\\c/d\n\r\t\b\f", string("\"a\\\"b\\\\c\\/d\\n\\r\\t\\b\\f\""));
+    }
+
+    @Test
+    void unicodeEscapes() throws IOException {
+        assertEquals("\u00e9\u4e2d\u0000A", string("\"\\u00e9\\u4E2D\\u0000\\u0041\""));
+    }
+
+    @Test
+    void surrogatePairEscapes() throws IOException {
+        assertEquals("x\uD83D\uDE00y", string("\"x\\ud83d\\ude00y\""));
+    }
+
+    @Test
+    void unpairedSurrogatesDecodeAsReplacementCharacters() throws IOException {
+        assertEquals("\uFFFDx", string("\"\\ud83dx\""));
+        assertEquals("\uFFFD", string("\"\\ud83d\""));
+        assertEquals("x\uFFFD", string("\"x\\ude00\""));
+        assertEquals("\uFFFDA", string("\"\\ud83d\\u0041\""));
+        assertEquals("\uFFFD\uFFFD", string("\"\\ude00\\ud83d\""));
+    }
+
+    @Test
+    void multiByteUtf8AndMalformedBytes() throws IOException {
+        assertEquals("é中\uD83D\uDE00", string("\"é中\uD83D\uDE00\""));
+        assertEquals("a\uFFFDb", string(new byte[] {'"', 'a', (byte) 0xff, 'b', '"'}));
+        assertEquals("a\uFFFDb", string(new byte[] {'"', 'a', (byte) 0xe4, 'b', '"'}));
+    }
+
+    @Test
+    void tokensSplitAcrossRefills() throws IOException {
+        // Longer than the initial 256-byte buffer, so the reader both refills and grows
+        String message = "m".repeat(300) + "\\u00e9\\ud83d\\ude00";
+        byte[] json = utf8("{\"count\":1234567890123,\"message\":\"" + message + "\",\"ratio\":-1.25e-3,"
+                + "\"flags\":[true,false,null],\"nested\":{\"a\":[{}]}}");
+
+        var in = new JsonReader(new Trickle(json));
+        in.beginObject();
+        assertEquals("count", in.nextName());
+        assertEquals(1234567890123L, in.nextLong());
+        assertEquals("message", in.nextName());
+        assertEquals("m".repeat(300) + "\u00e9\uD83D\uDE00", in.nextString());
+        assertEquals("ratio", in.nextName());
+        assertEquals("-1.25e-3", in.nextString());
+        assertEquals("flags", in.nextName());
+        in.beginArray();
+        assertEquals(true, in.nextBoolean());
+        assertEquals(false, in.nextBoolean());
+        in.nextNull();
+        in.endArray();
+        assertEquals("nested", in.nextName());
+        in.skipValue();
+        assertFalse(in.hasNext());
+        in.endObject();
+        assertEquals(JsonReader.Token.END, in.peek());
+    }
+
+    @Test
+    void stringOf100KbRoundTrips() throws IOException {
+        var value = new StringBuilder();
+        for (int i = 0; value.length() < 100 * 1024; i++) {
+            value.append("line ").append(i).append(": \"quoted\" \\ tab\t é 中 \uD83D\uDE00\n");
+        }
+        var out = JsonWriter.inMemory();
+        out.beginObject().name("content").value(value.toString()).endObject();
+        byte[] json = out.toByteArray();
+
+        for (var in : new JsonReader[] {new JsonReader(json, 0, json.length),
+                new JsonReader(new ByteArrayInputStream(json)), new JsonReader(new Trickle(json))}) {
+            in.beginObject();
+            assertEquals("content", in.nextName());
+            assertEquals(value.toString(), in.nextString());
+            in.endObject();
+        }
+    }
+
+    @Test
+    void skipValueSkipsNestedValues() throws IOException {
+        byte[] json = utf8("{\"skip\":{\"a\":[1,\"}]\",{\"b\":null}],\"c\":\"\\\"\"},\"keep\":7}");
+        var in = new JsonReader(json, 0, json.length);
+        in.beginObject();
+        assertEquals("skip", in.nextName());
+        in.skipValue();
+        assertEquals("keep", in.nextName());
+        assertEquals(7L, in.nextLong());
+        in.endObject();
+    }
+
+    @Test
+    void malformedInputIsRejected() {
+        for (var json : new String[] {"\"unterminated", "{\"a\" 1}", "{\"a\":1,}", "[1 2]", "{\"a\":1}}",
+                "tru", "{1:2}"}) {
+            byte[] bytes = utf8(json);
+            assertThrows(JsonException.class, () -> {
+                var in = new JsonReader(bytes, 0, bytes.length);
+                in.skipValue();
+                if (in.peek() != JsonReader.Token.END) in.skipValue();
+            }, json);
+        }
+    }
+
+    @Test
+    void badEscapesAreRejected() {
+        for (var json : new String[] {"\"\\x\"", "\"\\u12g4\"", "\"\\u12\"", "\"\\"}) {
+            byte[] bytes = utf8(json);
+            assertThrows(JsonException.class, () -> new JsonReader(bytes, 0, bytes.length).nextString(), json);
+            assertThrows(JsonException.class, () -> new JsonReader(new Trickle(bytes)).nextString(), json);
+        }
+    }
+
+    @Test
+    void nestingDeeperThanTheLimitIsRejected() {
+        byte[] json = utf8("[".repeat(300) + "]".repeat(300));
+        assertThrows(JsonException.class, () -> new JsonReader(json, 0, json.length).skipValue());
+    }
+
+    @Test
+    void longOverflowIsRejected() {
+        byte[] json = utf8("99999999999999999999");
+        assertThrows(JsonException.class, () -> new JsonReader(json, 0, json.length).nextLong());
+    }
+}
@@ -0,0 +1,102 @@
+package com.jclaw.json;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JsonWriterTest {
+
+    private static String string(String value) throws IOException {
+        return new String(JsonWriter.inMemory().value(value).toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void escapesQuotesBackslashesAndControlCharacters() throws IOException {
+        assertEquals("\"a\\\"b\\\\c/d\\n\\r\\t\\u0000\\u001f\\u0008\"", string("a\"b\\c/d\n\r\t\u0000\u001f\b"));
+    }
+
+    @Test
+    void writesUtf8IncludingSurrogatePairs() throws IOException {
+        byte[] json = JsonWriter.inMemory().value("é中\uD83D\uDE00").toByteArray();
+        assertArrayEquals("\"é中\uD83D\uDE00\"".getBytes(StandardCharsets.UTF_8), json);
+        assertEquals(1 + 2 + 3 + 4 + 1, json.length);
+    }
+
+    @Test
+    void unpairedSurrogatesAreWrittenAsQuestionMarks() throws IOException {
+        assertEquals("\"a?b\"", string("a\uD83Db"));
+        assertEquals("\"a?\"", string("a\uDE00"));
+        assertEquals("\"??\"", string("\uDE00\uD83D"));
+        assertEquals("\"?\"", string("\uD83D"));
+    }
+
+    @Test
+    void separatesNamesAndValues() throws IOException {
+        var out = JsonWriter.inMemory();
+        out.beginObject()
+                .name("s").value("x")
+                .name("n").value(Long.MIN_VALUE)
+                .name("z").value(0)
+                .name("b").value(true)
+                .name("null").nullValue()
+                .name("a").beginArray().value(1).beginObject().endObject().beginArray().endArray().endArray()
+                .endObject()
+                .raw("\n");
+
+        assertEquals("{\"s\":\"x\",\"n\":-9223372036854775808,\"z\":0,\"b\":true,\"null\":null,"
+                + "\"a\":[1,{},[]]}\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void nullStringIsWrittenAsNull() throws IOException {
+        assertEquals("null", string(null));
+    }
+
+    @Test
+    void misplacedNamesAndValuesAreRejected() {
+        assertThrows(IllegalStateException.class, () -> JsonWriter.inMemory().name("a"));
+        assertThrows(IllegalStateException.class, () -> JsonWriter.inMemory().endArray());
+        assertThrows(IllegalStateException.class, () -> JsonWriter.inMemory().beginObject().name("a").endObject());
+        assertThrows(IllegalStateException.class, () -> JsonWriter.inMemory().beginObject().name("a").name("b"));
+    }
+
+    @Test
+    void stringOf100KbRoundTripsThroughEveryOutput() throws IOException {
+        var value = new StringBuilder();
+        for (int i = 0; value.length() < 100 * 1024; i++) {
+            value.append("line ").append(i).append(": \"quoted\" \\ é 中 \uD83D\uDE00\u0001\n");
+        }
+        byte[] expected = JsonWriter.inMemory().value(value.toString()).toByteArray();
+
+        var stream = new ByteArrayOutputStream();
+        try (var out = JsonWriter.to(stream)) {
+            out.value(value.toString());
+        }
+        assertArrayEquals(expected, stream.toByteArray());
+
+        // An Output whose buffer is drained each time it runs short
+        var drained = new ByteArrayOutputStream();
+        var buffer = ByteBuffer.allocate(4096);
+        var out = new JsonWriter(bytes -> {
+            if (buffer.remaining() < bytes) {
+                drained.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+            return buffer;
+        });
+        out.value(value.toString());
+        out.flush();
+        drained.write(buffer.array(), 0, buffer.position());
+        assertArrayEquals(expected, drained.toByteArray());
+
+        var in = new JsonReader(expected, 0, expected.length);
+        assertEquals(value.toString(), in.nextString());
+    }
+}
@@ -0,0 +1,105 @@
+package com.jclaw.llm;
+
+import com.google.adk.models.BaseLlm;
+import com.google.adk.models.BaseLlmConnection;
+import com.google.adk.models.LlmRequest;
+import com.google.adk.models.LlmResponse;
+import com.google.genai.types.Content;
+import com.google.genai.types.Part;
+import com.jclaw.metrics.Metrics;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.processors.PublishProcessor;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchingLlmTest {
+
+    /** A model whose calls stay open until the test completes them, in the order they were sent. */
+    private static final class ManualLlm extends BaseLlm {
+        final List<PublishProcessor<LlmResponse>> calls = new CopyOnWriteArrayList<>();
+
+        ManualLlm() {
+            super("manual");
+        }
+
+        @Override
+        public Flowable<LlmResponse> generateContent(LlmRequest request, boolean stream) {
+            return Flowable.defer(() -> {
+                var call = PublishProcessor.<LlmResponse>create();
+                calls.add(call);
+                return call;
+            });
+        }
+
+        @Override
+        public BaseLlmConnection connect(LlmRequest request) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private final ManualLlm model = new ManualLlm();
+
+    private static LlmRequest request() {
+        return LlmRequest.builder()
+                .contents(List.of(Content.builder().role("user").parts(Part.fromText("hi")).build()))
+                .build();
+    }
+
+    private void awaitCalls(int n) throws InterruptedException {
+        long deadline = System.nanoTime() + 2_000_000_000L;
+        while (model.calls.size() < n && System.nanoTime() < deadline) Thread.sleep(5);
+        assertEquals(n, model.calls.size());
+    }
+
+    @Test
+    void fullBatchIsSentWithoutWaiting() {
+        var llm = new BatchingLlm("m", model, 2, 60_000, new Metrics());
+        llm.generateContent(request(), false).test();
+        assertEquals(0, model.calls.size());
+
+        llm.generateContent(request(), false).test();
+        assertEquals(2, model.calls.size());
+    }
+
+    @Test
+    void callQueuedBehindABusySlotIsSentAfterItsWindow() throws InterruptedException {
+        var llm = new BatchingLlm("m", model, 1, 50, new Metrics());
+        var a = llm.generateContent(request(), false).test();
+        assertEquals(1, model.calls.size());
+
+        // B's flush at 50 ms finds the slot taken; C arrives at 40 ms and gets no flush of its own
+        var b = llm.generateContent(request(), false).test();
+        Thread.sleep(40);
+        var c = llm.generateContent(request(), false).test();
+        Thread.sleep(20);
+        model.calls.getFirst().onComplete();
+        a.assertComplete();
+        assertEquals(2, model.calls.size());
+
+        // B ends before C has waited its window: C must still go out when the window ends
+        Thread.sleep(10);
+        model.calls.get(1).onComplete();
+        b.assertComplete();
+        awaitCalls(3);
+        model.calls.get(2).onComplete();
+        c.assertComplete();
+    }
+
+    @Test
+    void cancelledWaitingCallIsNotSent() throws InterruptedException {
+        var llm = new BatchingLlm("m", model, 1, 20, new Metrics());
+        var a = llm.generateContent(request(), false).test();
+        var b = llm.generateContent(request(), false).test();
+        b.cancel();
+
+        model.calls.getFirst().onComplete();
+        a.assertComplete();
+        Thread.sleep(50);
+        assertTrue(model.calls.size() == 1, "cancelled call was sent");
+    }
+}
@@ -0,0 +1,143 @@
+package com.jclaw.llm;
+
+import com.google.adk.models.BaseLlm;
+import com.google.adk.models.LlmRequest;
+import com.google.adk.models.LlmResponse;
+import com.google.genai.types.Content;
+import com.google.genai.types.Part;
+import com.jclaw.config.JClawConfig;
+import com.jclaw.metrics.Metrics;
+import dev.langchain4j.exception.HttpException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FailoverLlmTest {
+
+    private final Metrics metrics = new Metrics();
+
+    private static JClawConfig.ModelDef def(String id, String model) {
+        return new JClawConfig.ModelDef(id, "stub", model, null, null, 0, null, 0, 0, false);
+    }
+
+    private static StubLlm stub(String id, String options) {
+        return new StubLlm(def(id, "echo?" + options));
+    }
+
+    private FailoverLlm failover(JClawConfig.FailoverConfig config, BaseLlm... models) {
+        var ids = List.of("a", "b", "c").subList(0, models.length);
+        return new FailoverLlm("agent", ids, List.of(models), config, metrics);
+    }
+
+    private static String ask(BaseLlm llm) {
+        var request = LlmRequest.builder()
+                .contents(List.of(Content.builder().role("user").parts(Part.fromText("hi")).build()))
+                .build();
+        LlmResponse response = llm.generateContent(request, false).blockingLast();
+        return response.content().orElseThrow().text();
+    }
+
+    private long counter(String name) {
+        return metrics.snapshot().get(name);
+    }
+
+    @Test
+    void failsOverToNextModelWhenFirstFails() {
+        var llm = failover(new JClawConfig.FailoverConfig(), stub("a", "failureRate=1"), stub("b", ""));
+
+        assertEquals("[b] hi", ask(llm));
+        assertEquals(1, counter("llm.failovers"));
+    }
+
+    @Test
+    void failsOverWhenFirstModelDoesNotStartInTime() {
+        var llm = failover(new JClawConfig.FailoverConfig(1, false, 0), stub("a", "delayMillis=10000"), stub("b", ""));
+
+        long start = System.nanoTime();
+        assertEquals("[b] hi", ask(llm));
+        assertTrue(System.nanoTime() - start < 5_000_000_000L, "waited for the slow model");
+    }
+
+    @Test
+    void lastModelErrorIsReportedAsIs() {
+        var llm = failover(new JClawConfig.FailoverConfig(),
+                stub("a", "failureRate=1"), stub("b", "failureRate=1&status=503"));
+
+        var e = assertThrows(HttpException.class, () -> ask(llm));
+        assertEquals(503, e.statusCode());
+        assertEquals(1, counter("llm.failovers"));
+    }
+
+    @Test
+    void hedgeAnswersWhenFirstModelIsSlow() {
+        var llm = failover(new JClawConfig.FailoverConfig(30, true, 50), stub("a", "delayMillis=5000"), stub("b", ""));
+
+        assertEquals("[b] hi", ask(llm));
+        assertEquals(1, counter("llm.hedges"));
+        assertEquals(1, counter("llm.hedgeWins"));
+    }
+
+    @Test
+    void fastFirstModelIsNotHedged() {
+        var llm = failover(new JClawConfig.FailoverConfig(30, true, 2000), stub("a", ""), stub("b", ""));
+
+        assertEquals("[a] hi", ask(llm));
+        assertEquals(0, counter("llm.hedges"));
+    }
+
+    @Test
+    void hedgeStartsAtOnceWhenFirstModelFails() {
+        var llm = failover(new JClawConfig.FailoverConfig(30, true, 60_000), stub("a", "failureRate=1"), stub("b", ""));
+
+        long start = System.nanoTime();
+        assertEquals("[b] hi", ask(llm));
+        assertTrue(System.nanoTime() - start < 5_000_000_000L, "hedge waited for its delay");
+    }
+
+    @Test
+    void failedHedgeLeavesTheSlowFirstModelRunning() {
+        var llm = failover(new JClawConfig.FailoverConfig(30, true, 50),
+                stub("a", "delayMillis=300"), stub("b", "failureRate=1&status=503"));
+
+        assertEquals("[a] hi", ask(llm));
+        assertEquals(1, counter("llm.hedges"));
+        assertEquals(0, counter("llm.hedgeWins"));
+    }
+
+    @Test
+    void hedgedCallFailsWhenBothSidesFail() {
+        var llm = failover(new JClawConfig.FailoverConfig(30, true, 50),
+                stub("a", "delayMillis=300&failureRate=1"), stub("b", "failureRate=1&status=503"));
+
+        var e = assertThrows(HttpException.class, () -> ask(llm));
+        assertEquals(503, e.statusCode());
+    }
+
+    @Test
+    void attemptsHoldPermitsOfTheModelTheyCall() {
+        var limits = new JClawConfig.ModelLimits(0, 0, 2, 4);
+        var limiterA = new ModelLimiter("a", limits, metrics);
+        var limiterB = new ModelLimiter("b", limits, metrics);
+        var a = new LimitedLlm("a", () -> stub("a", "delayMillis=5000"), limiterA);
+        var b = new LimitedLlm("b", () -> stub("b", ""), limiterB);
+        var llm = failover(new JClawConfig.FailoverConfig(30, true, 50), a, b);
+
+        assertEquals("[b] hi", ask(llm));
+
+        // The losing call to the first model was cancelled and gave its permit back
+        assertTrue(limiterA.acquire().isDone(), "cancelled attempt kept its permit");
+        assertTrue(limiterB.acquire().isDone());
+    }
+
+    @Test
+    void failedAttemptIsNotWrapped() {
+        var llm = failover(new JClawConfig.FailoverConfig(), stub("a", "failureRate=1"));
+
+        assertInstanceOf(HttpException.class, assertThrows(RuntimeException.class, () -> ask(llm)));
+    }
+}
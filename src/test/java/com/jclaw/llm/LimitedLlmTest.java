@@ -0,0 +1,166 @@
+package com.jclaw.llm;
+
+import com.google.adk.models.BaseLlm;
+import com.google.adk.models.BaseLlmConnection;
+import com.google.adk.models.LlmRequest;
+import com.google.adk.models.LlmResponse;
+import com.google.genai.types.Content;
+import com.google.genai.types.Part;
+import com.jclaw.config.JClawConfig;
+import com.jclaw.metrics.Metrics;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.processors.PublishProcessor;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LimitedLlmTest {
+
+    /** A model whose calls stay open until the test ends them. */
+    private static final class ManualLlm extends BaseLlm {
+        final PublishProcessor<LlmResponse> responses = PublishProcessor.create();
+        int calls;
+
+        ManualLlm() {
+            super("manual");
+        }
+
+        @Override
+        public Flowable<LlmResponse> generateContent(LlmRequest request, boolean stream) {
+            return Flowable.defer(() -> {
+                calls++;
+                return responses;
+            });
+        }
+
+        @Override
+        public BaseLlmConnection connect(LlmRequest request) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /** Answers at once, after {@code streamDelayMillis} when streamed or {@code wholeDelayMillis} when not. */
+    private static final class TimedLlm extends BaseLlm {
+        final long streamDelayMillis;
+        final long wholeDelayMillis;
+
+        TimedLlm(long streamDelayMillis, long wholeDelayMillis) {
+            super("timed");
+            this.streamDelayMillis = streamDelayMillis;
+            this.wholeDelayMillis = wholeDelayMillis;
+        }
+
+        @Override
+        public Flowable<LlmResponse> generateContent(LlmRequest request, boolean stream) {
+            return Flowable.just(reply()).delay(stream ? streamDelayMillis : wholeDelayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public BaseLlmConnection connect(LlmRequest request) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /** Starts at a limit of one permit. */
+    private final ModelLimiter limiter = new ModelLimiter("m", new JClawConfig.ModelLimits(0, 0, 2, 4), new Metrics());
+    private final ManualLlm model = new ManualLlm();
+    private final LimitedLlm llm = new LimitedLlm("manual", () -> model, limiter);
+
+    private static LlmRequest request() {
+        return LlmRequest.builder()
+                .contents(List.of(Content.builder().role("user").parts(Part.fromText("hi")).build()))
+                .build();
+    }
+
+    private static LlmResponse reply() {
+        return LlmResponse.builder().content(Content.fromParts(Part.fromText("hello"))).build();
+    }
+
+    @Test
+    void callHoldsPermitUntilItCompletes() {
+        var first = llm.generateContent(request(), false).test();
+        var second = llm.generateContent(request(), false).test();
+        assertEquals(1, model.calls, "second call went out over the limit");
+
+        model.responses.onNext(reply());
+        model.responses.onComplete();
+        first.assertComplete();
+        assertEquals(2, model.calls);
+        second.cancel();
+    }
+
+    @Test
+    void cancelledCallGivesItsPermitBack() {
+        var first = llm.generateContent(request(), false).test();
+        first.cancel();
+
+        var next = limiter.acquire();
+        assertTrue(next.isDone(), "cancelled call kept its permit");
+    }
+
+    @Test
+    void callCancelledWhileWaitingNeverStarts() {
+        var running = limiter.acquire().join();
+        var waiting = llm.generateContent(request(), false).test();
+        waiting.cancel();
+
+        running.close();
+        assertEquals(0, model.calls);
+        assertTrue(limiter.acquire().isDone(), "permit went to the cancelled call");
+    }
+
+    @Test
+    void backgroundCallWaitsForQueuedCalls() {
+        var running = limiter.acquire().join();
+        var background = llm.background().generateContent(request(), false).test();
+        var turn = llm.generateContent(request(), false).test();
+
+        running.close();
+        assertEquals(1, model.calls);
+        background.assertNotComplete();
+
+        model.responses.onComplete();
+        turn.assertComplete();
+        assertEquals(2, model.calls);
+        background.assertComplete();
+    }
+
+    @Test
+    void callWaitingForRateBudgetHoldsNoPermit() {
+        var limited = new ModelLimiter("m", new JClawConfig.ModelLimits(1, 0, 2, 4), new Metrics());
+        var llm = new LimitedLlm("timed", () -> new TimedLlm(0, 0), limited);
+        llm.generateContent(request(), false).blockingSubscribe();
+
+        // The minute's one request is spent: the next call waits for the budget
+        var delayed = llm.generateContent(request(), false).test();
+        assertTrue(limited.acquire().isDone(), "call waiting for the rate budget holds a permit");
+        delayed.cancel();
+    }
+
+    @Test
+    void slowStreamedFirstTokenCutsTheLimit() {
+        var limited = new ModelLimiter("m", new JClawConfig.ModelLimits(0, 0, 8, 4), new Metrics());
+        new LimitedLlm("timed", () -> new TimedLlm(0, 0), limited).generateContent(request(), true).blockingSubscribe();
+        assertEquals(4, limited.limit());
+
+        new LimitedLlm("timed", () -> new TimedLlm(50, 0), limited).generateContent(request(), true).blockingSubscribe();
+        assertEquals(3, limited.limit());
+    }
+
+    @Test
+    void wholeAnswersAndBackgroundCallsAreNotSampled() {
+        var limited = new ModelLimiter("m", new JClawConfig.ModelLimits(0, 0, 8, 4), new Metrics());
+        var fast = new LimitedLlm("timed", () -> new TimedLlm(0, 0), limited);
+        var slow = new LimitedLlm("timed", () -> new TimedLlm(50, 50), limited);
+        fast.generateContent(request(), true).blockingSubscribe();
+
+        slow.generateContent(request(), false).blockingSubscribe();
+        slow.background().generateContent(request(), true).blockingSubscribe();
+        assertFalse(limited.limit() < 4, "a long answer was taken for congestion");
+    }
+}
@@ -0,0 +1,62 @@
+package com.jclaw.llm;
+
+import com.jclaw.config.JClawConfig;
+import com.jclaw.metrics.Metrics;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ModelLimiterTest {
+
+    /** Starts at a limit of one permit. */
+    private final ModelLimiter limiter = new ModelLimiter("m", new JClawConfig.ModelLimits(0, 0, 2, 1), new Metrics());
+
+    @Test
+    void backgroundWorkWaitsForQueuedTurns() {
+        var running = limiter.acquire().join();
+        var summary = limiter.acquireBackground();
+        var turn = limiter.acquire();
+
+        running.close();
+        assertTrue(turn.isDone(), "queued turn should get the freed permit");
+        assertFalse(summary.isDone(), "background work went ahead of a turn");
+
+        turn.join().close();
+        assertTrue(summary.isDone());
+    }
+
+    @Test
+    void backgroundPermitCountsAgainstTheLimit() {
+        var summary = limiter.acquireBackground().join();
+        var turn = limiter.acquire();
+        assertFalse(turn.isDone());
+
+        summary.close();
+        assertTrue(turn.isDone());
+    }
+
+    @Test
+    void cancelledRequestDoesNotHoldAPermit() {
+        var running = limiter.acquire().join();
+        var cancelled = limiter.acquire();
+        cancelled.cancel(false);
+
+        running.close();
+        assertTrue(limiter.acquire().isDone(), "permit went to the cancelled request");
+    }
+
+    @Test
+    void fullQueueRejects() {
+        limiter.acquire().join();
+        limiter.acquire();
+
+        var e = assertThrows(CompletionException.class, () -> limiter.acquire().join());
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+    }
+}
@@ -0,0 +1,86 @@
+package com.jclaw.llm;
+
+import com.google.adk.models.BaseLlm;
+import com.google.adk.models.BaseLlmConnection;
+import com.google.adk.models.LlmRequest;
+import com.google.adk.models.LlmResponse;
+import com.google.genai.types.Content;
+import com.google.genai.types.Part;
+import com.jclaw.config.JClawConfig;
+import io.reactivex.rxjava3.core.Flowable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local model for exercising failover, hedging and limits without a provider. It echoes the
+ * last user message after a delay, and can be told to fail. Options go in the model name as a
+ * query string, e.g. {@code echo?delayMillis=800&jitterMillis=400&failureRate=0.2}.
+ */
+final class StubLlm extends BaseLlm {
+
+    private final String modelId;
+    private final long delayMillis;
+    private final long jitterMillis;
+    private final double failureRate;
+    private final int status;
+
+    StubLlm(JClawConfig.ModelDef modelDef) {
+        super(modelDef.model());
+        var options = options(modelDef.model());
+        this.modelId = modelDef.id();
+        this.delayMillis = Long.parseLong(options.getOrDefault("delayMillis", "0"));
+        this.jitterMillis = Long.parseLong(options.getOrDefault("jitterMillis", "0"));
+        this.failureRate = Double.parseDouble(options.getOrDefault("failureRate", "0"));
+        // Failures look like this HTTP status, so 429/503 exercise the overload back-off
+        this.status = Integer.parseInt(options.getOrDefault("status", "500"));
+    }
+
+    @Override
+    public Flowable<LlmResponse> generateContent(LlmRequest request, boolean stream) {
+        return Flowable.defer(() -> {
+            var random = ThreadLocalRandom.current();
+            long delay = delayMillis + (jitterMillis > 0 ? random.nextLong(jitterMillis + 1) : 0);
+            Flowable<LlmResponse> reply = random.nextDouble() < failureRate
+                    ? Flowable.error(new dev.langchain4j.exception.HttpException(status,
+                            "stub model '%s' failed".formatted(modelId)))
+                    : Flowable.just(LlmResponse.builder()
+                            .content(Content.builder().role("model")
+                                    .parts(Part.fromText("[%s] %s".formatted(modelId, lastUserText(request))))
+                                    .build())
+                            .turnComplete(true)
+                            .build());
+            return delay > 0 ? reply.delaySubscription(delay, TimeUnit.MILLISECONDS) : reply;
+        });
+    }
+
+    @Override
+    public BaseLlmConnection connect(LlmRequest request) {
+        throw new UnsupportedOperationException("stub model '%s' does not support live connections".formatted(modelId));
+    }
+
+    private static String lastUserText(LlmRequest request) {
+        List<Content> contents = request.contents();
+        for (int i = contents.size() - 1; i >= 0; i--) {
+            var content = contents.get(i);
+            if (!"user".equals(content.role().orElse("user"))) continue;
+            String text = content.text();
+            if (text != null && !text.isEmpty()) return text;
+        }
+        return "";
+    }
+
+    private static Map<String, String> options(String model) {
+        var options = new HashMap<String, String>();
+        int q = model.indexOf('?');
+        if (q < 0) return options;
+        for (var pair : model.substring(q + 1).split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) options.put(pair.substring(0, eq), pair.substring(eq + 1));
+        }
+        return options;
+    }
+}
@@ -0,0 +1,41 @@
+package com.jclaw.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TokenUsageTest {
+
+    private final Metrics metrics = new Metrics();
+
+    private long value(String name) {
+        return metrics.snapshot().get(name);
+    }
+
+    @Test
+    void countsPerKeyWithCachedShare() {
+        var usage = new TokenUsage(metrics, "agent.tokens", "main");
+        usage.add(1000, 0, 50);
+        usage.add(1000, 900, 50);
+
+        assertEquals(2000, value("agent.tokens.prompt.main"));
+        assertEquals(900, value("agent.tokens.cached.main"));
+        assertEquals(100, value("agent.tokens.output.main"));
+        assertEquals(45, value("agent.tokens.cachedPercent.main"));
+    }
+
+    @Test
+    void nullKeyNamesTotals() {
+        new TokenUsage(metrics, "llm.tokens", null).add(10, 5, 1);
+
+        assertEquals(10, value("llm.tokens.prompt"));
+        assertEquals(50, value("llm.tokens.cachedPercent"));
+    }
+
+    @Test
+    void noPromptMeansNoCachedShare() {
+        new TokenUsage(metrics, "llm.tokens", "m");
+
+        assertEquals(0, value("llm.tokens.cachedPercent.m"));
+    }
+}
@@ -0,0 +1,158 @@
+package com.jclaw.routing;
+
+import com.jclaw.config.JClawConfig.BindingConfig;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RouteTableTest {
+
+    private static final Set<String> AGENTS = Set.of("main", "a", "b", "c");
+
+    private static BindingConfig binding(String id, String agentId, Map<String, String> filter) {
+        return new BindingConfig(id, "web", agentId, filter);
+    }
+
+    private static RouteTable table(BindingConfig... bindings) {
+        return RouteTable.compile(List.of(bindings), "main", AGENTS);
+    }
+
+    /** The agent a web message from {@code peerId} goes to, or null for the default. */
+    private static String agent(RouteTable table, String peerId, String groupId, String teamId, Set<String> roles) {
+        var route = table.resolve("web", peerId, groupId, teamId, roles);
+        return route == null ? null : route.agentId();
+    }
+
+    private static String agent(RouteTable table, String peerId) {
+        return agent(table, peerId, null, null, null);
+    }
+
+    @Test
+    void earlierGlobBeatsLaterExactPeer() {
+        var table = table(
+                binding("glob", "a", Map.of("peerId", "user-*")),
+                binding("exact", "b", Map.of("peerId", "user-1")));
+
+        assertEquals("a", agent(table, "user-1"));
+    }
+
+    @Test
+    void earlierExactPeerBeatsLaterGlob() {
+        var table = table(
+                binding("exact", "b", Map.of("peerId", "user-1")),
+                binding("glob", "a", Map.of("peerId", "user-*")));
+
+        assertEquals("b", agent(table, "user-1"));
+        assertEquals("a", agent(table, "user-2"));
+    }
+
+    @Test
+    void bucketsMergeInConfigOrder() {
+        var table = table(
+                binding("team", "c", Map.of("teamId", "t1")),
+                binding("group", "b", Map.of("groupId", "g1")),
+                binding("peer", "a", Map.of("peerId", "p1")));
+
+        assertEquals("c", agent(table, "p1", "g1", "t1", null));
+        assertEquals("b", agent(table, "p1", "g1", "t2", null));
+        assertEquals("a", agent(table, "p1", "g2", null, null));
+    }
+
+    @Test
+    void everyDimensionOfAFilterMustMatch() {
+        var table = table(binding("both", "a", Map.of("peerId", "p1", "groupId", "g1")));
+
+        assertEquals("a", agent(table, "p1", "g1", null, null));
+        assertNull(agent(table, "p1", "g2", null, null));
+        assertNull(agent(table, "p1", null, null, null));
+    }
+
+    @Test
+    void globsMatchTheWholeValue() {
+        var table = table(
+                binding("star", "a", Map.of("peerId", "ops-*")),
+                binding("question", "b", Map.of("peerId", "u?")));
+
+        assertEquals("a", agent(table, "ops-"));
+        assertEquals("a", agent(table, "ops-alice"));
+        assertEquals("b", agent(table, "u1"));
+        assertNull(agent(table, "u12"));
+        assertNull(agent(table, "x-ops-alice"));
+    }
+
+    @Test
+    void globQuotesOtherRegexCharacters() {
+        var table = table(binding("dots", "a", Map.of("peerId", "a.b*")));
+
+        assertEquals("a", agent(table, "a.bc"));
+        assertNull(agent(table, "axbc"));
+    }
+
+    @Test
+    void slashesMarkARegularExpression() {
+        var table = table(binding("regex", "a", Map.of("teamId", "/team-\\d+/")));
+
+        assertEquals("a", agent(table, null, null, "team-42", null));
+        assertNull(agent(table, null, null, "team-x", null));
+        assertNull(agent(table, null, null, "my-team-42", null));
+    }
+
+    @Test
+    void rolesMatchAnyListedRole() {
+        var table = table(binding("staff", "a", Map.of("roles", "admin, ops")));
+
+        assertEquals("a", agent(table, "p", null, null, Set.of("ops")));
+        assertEquals("a", agent(table, "p", null, null, Set.of("viewer", "admin")));
+        assertNull(agent(table, "p", null, null, Set.of("viewer")));
+        assertNull(agent(table, "p", null, null, null));
+    }
+
+    @Test
+    void bindingWithoutFilterMatchesEveryMessageOfItsChannel() {
+        var table = table(binding("all", "a", null));
+
+        assertEquals("a", agent(table, null));
+        assertNull(table.resolve("telegram", "p", null, null, null));
+    }
+
+    @Test
+    void undefinedDefaultAgentIsRejected() {
+        var e = assertThrows(IllegalStateException.class,
+                () -> RouteTable.compile(List.of(), "missing", AGENTS));
+        assertTrue(e.getMessage().contains("Default agent 'missing'"), e.getMessage());
+    }
+
+    @Test
+    void bindingWithoutChannelIsRejected() {
+        var e = assertThrows(IllegalStateException.class,
+                () -> table(new BindingConfig("nochannel", " ", "a", null)));
+        assertTrue(e.getMessage().contains("missing 'channel'"), e.getMessage());
+    }
+
+    @Test
+    void unknownAgentIsRejected() {
+        var e = assertThrows(IllegalStateException.class, () -> table(binding(null, "nobody", null)));
+        assertTrue(e.getMessage().contains("Binding '#1': unknown agent 'nobody'"), e.getMessage());
+    }
+
+    @Test
+    void unknownFilterKeyIsRejected() {
+        var e = assertThrows(IllegalStateException.class,
+                () -> table(binding("typo", "a", Map.of("peer", "p1"))));
+        assertTrue(e.getMessage().contains("unknown filter 'peer'"), e.getMessage());
+    }
+
+    @Test
+    void invalidRegularExpressionIsRejected() {
+        var e = assertThrows(IllegalStateException.class,
+                () -> table(binding("bad", "a", Map.of("groupId", "/g[/"))));
+        assertTrue(e.getMessage().contains("invalid pattern '/g[/'"), e.getMessage());
+    }
+}
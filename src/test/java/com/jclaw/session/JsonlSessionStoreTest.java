@@ -0,0 +1,211 @@
+package com.jclaw.session;
+
+import com.jclaw.metrics.Metrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class JsonlSessionStoreTest {
+
+    @TempDir
+    Path tmp;
+
+    private JsonlSessionStore store;
+    private Metrics metrics;
+
+    @AfterEach
+    void closeStore() {
+        if (store != null) store.close();
+        store = null;
+    }
+
+    private JsonlSessionStore open(Path dir, SessionStore.Durability durability, long syncIntervalMillis) {
+        metrics = new Metrics();
+        store = new JsonlSessionStore(dir, durability, syncIntervalMillis, metrics);
+        return store;
+    }
+
+    private JsonlSessionStore open() {
+        return open(tmp.resolve("sessions"), SessionStore.Durability.BATCHED, 200);
+    }
+
+    private static void append(SessionStore store, String key, int from, int to) {
+        for (int i = from; i < to; i++) store.append(key, SessionEntry.user("message " + i));
+    }
+
+    private static List<String> contents(List<SessionEntry> entries) {
+        return entries.stream().map(SessionEntry::content).toList();
+    }
+
+    private long counter(String name) {
+        return metrics.snapshot().get(name);
+    }
+
+    @Test
+    void loadsAllEntriesOrOnlyTheTail() throws IOException {
+        var store = open();
+        append(store, "agent:a:main", 0, 10);
+
+        assertEquals(10, store.load("agent:a:main").size());
+        assertEquals(List.of("message 7", "message 8", "message 9"), contents(store.load("agent:a:main", 3)));
+        assertEquals(List.of(), store.load("agent:a:unknown"));
+    }
+
+    @Test
+    void clientSuppliedKeysStayInsideStoreDirectory() throws IOException {
+        var dir = tmp.resolve("store").resolve("sessions");
+        var store = open(dir, SessionStore.Durability.BATCHED, 200);
+        String key = "agent:a:webchat:direct:../../escaped";
+        append(store, key, 0, 2);
+        store.flush();
+
+        try (Stream<Path> files = Files.walk(tmp)) {
+            var outside = files.filter(Files::isRegularFile).filter(f -> !dir.equals(f.getParent())).toList();
+            assertEquals(List.of(), outside);
+        }
+        assertEquals(2, store.load(key).size());
+    }
+
+    @Test
+    void keysThatDifferOnlyInSeparatorsOrCaseUseDifferentFiles() throws IOException {
+        var store = open();
+        store.append("a:b", SessionEntry.user("colon"));
+        store.append("a_b", SessionEntry.user("underscore"));
+        store.append("A:b", SessionEntry.user("upper"));
+
+        assertEquals(List.of("colon"), contents(store.load("a:b")));
+        assertEquals(List.of("underscore"), contents(store.load("a_b")));
+        assertEquals(List.of("upper"), contents(store.load("A:b")));
+    }
+
+    @Test
+    void tornTailIsDroppedWhenFileIsReopened() throws IOException {
+        var dir = tmp.resolve("sessions");
+        var store = open(dir, SessionStore.Durability.BATCHED, 200);
+        append(store, "s", 0, 3);
+        closeStore();
+        // A crash in the middle of a write leaves a partial last line
+        var data = dir.resolve(JsonlSessionStore.fileName("s") + ".jsonl");
+        Files.write(data, "{\"role\":\"us".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        store = open(dir, SessionStore.Durability.BATCHED, 200);
+        store.append("s", SessionEntry.user("after crash"));
+
+        assertEquals(List.of("message 0", "message 1", "message 2", "after crash"), contents(store.load("s")));
+        store.flush();
+        assertEquals(4, Files.readAllLines(data).size(), "torn line was not truncated");
+    }
+
+    @Test
+    void staleIndexIsIgnoredForReadsAndRebuiltOnAppend() throws IOException {
+        var dir = tmp.resolve("sessions");
+        var store = open(dir, SessionStore.Durability.BATCHED, 200);
+        append(store, "s", 0, 5);
+        closeStore();
+        // The index is written after the data, so a crash can leave it behind
+        var index = dir.resolve(JsonlSessionStore.fileName("s") + ".idx");
+        try (var channel = FileChannel.open(index, StandardOpenOption.WRITE)) {
+            channel.truncate(2L * SessionIndex.ENTRY_BYTES);
+        }
+
+        store = open(dir, SessionStore.Durability.BATCHED, 200);
+        assertEquals(List.of("message 3", "message 4"), contents(store.load("s", 2)));
+
+        store.append("s", SessionEntry.user("message 5"));
+        store.flush();
+        assertEquals(6L * SessionIndex.ENTRY_BYTES, Files.size(index));
+        assertEquals(List.of("message 4", "message 5"), contents(store.load("s", 2)));
+    }
+
+    @Test
+    void missingIndexIsRebuilt() throws IOException {
+        var dir = tmp.resolve("sessions");
+        var store = open(dir, SessionStore.Durability.BATCHED, 200);
+        append(store, "s", 0, 4);
+        closeStore();
+        var index = dir.resolve(JsonlSessionStore.fileName("s") + ".idx");
+        Files.delete(index);
+
+        store = open(dir, SessionStore.Durability.BATCHED, 200);
+        assertEquals(List.of("message 3"), contents(store.load("s", 1)));
+        store.append("s", SessionEntry.user("message 4"));
+        store.flush();
+        assertEquals(5L * SessionIndex.ENTRY_BYTES, Files.size(index));
+    }
+
+    @Test
+    void oneFlushSyncsEachDirtySessionOnce() throws IOException {
+        var store = open(tmp.resolve("sessions"), SessionStore.Durability.NONE, 200);
+        for (int i = 0; i < 100; i++) store.append("session-" + (i % 3), SessionEntry.user("m" + i));
+        store.flush();
+
+        assertEquals(100, counter("session.store.entries"));
+        assertEquals(3, counter("session.store.fsyncs"));
+    }
+
+    @Test
+    void perTurnCommitsAreDurableWhenTheyReturn() throws Exception {
+        var store = open(tmp.resolve("sessions"), SessionStore.Durability.PER_TURN, 200);
+        int turns = 32;
+        var threads = new Thread[turns];
+        for (int i = 0; i < turns; i++) {
+            String key = "session-" + i;
+            threads[i] = Thread.ofVirtual().start(() -> {
+                store.append(key, SessionEntry.user("hi"));
+                store.commit(key);
+            });
+        }
+        for (var thread : threads) thread.join();
+
+        // Each session's file was synced once, whichever batch its commit landed in
+        assertEquals(turns, counter("session.store.fsyncs"));
+    }
+
+    @Test
+    void zeroSyncIntervalSyncsEveryBatchWithoutAFlush() throws Exception {
+        var store = open(tmp.resolve("sessions"), SessionStore.Durability.BATCHED, 0);
+        store.append("s", SessionEntry.user("hi"));
+
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (counter("session.store.fsyncs") == 0 && System.nanoTime() < deadline) Thread.sleep(10);
+        assertEquals(1, counter("session.store.fsyncs"));
+    }
+
+    @Test
+    void sessionStoredUnderLegacyFileNameIsAdopted() throws IOException {
+        var dir = tmp.resolve("sessions");
+        var store = open(dir, SessionStore.Durability.BATCHED, 200);
+        append(store, "agent:a:main", 0, 2);
+        closeStore();
+        Files.move(dir.resolve(JsonlSessionStore.fileName("agent:a:main") + ".jsonl"), dir.resolve("agent_a_main.jsonl"));
+        Files.move(dir.resolve(JsonlSessionStore.fileName("agent:a:main") + ".idx"), dir.resolve("agent_a_main.idx"));
+
+        store = open(dir, SessionStore.Durability.BATCHED, 200);
+        assertEquals(List.of("message 0", "message 1"), contents(store.load("agent:a:main")));
+
+        store.append("agent:a:main", SessionEntry.user("message 2"));
+        assertEquals(3, store.load("agent:a:main").size());
+        assertFalse(Files.exists(dir.resolve("agent_a_main.jsonl")));
+    }
+
+    @Test
+    void deleteRemovesTheSession() throws IOException {
+        var store = open();
+        append(store, "s", 0, 2);
+        store.delete("s");
+
+        assertEquals(List.of(), store.load("s"));
+    }
+}
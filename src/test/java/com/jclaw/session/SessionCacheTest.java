@@ -0,0 +1,96 @@
+package com.jclaw.session;
+
+import com.jclaw.metrics.Metrics;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionCacheTest {
+
+    /** Keeps entries in memory; enough for the cache, which only appends, loads and deletes. */
+    private static final class MemoryStore implements SessionStore {
+        final Map<String, List<SessionEntry>> sessions = new ConcurrentHashMap<>();
+
+        @Override
+        public void append(String sessionKey, SessionEntry entry) {
+            sessions.computeIfAbsent(sessionKey, _ -> new ArrayList<>()).add(entry);
+        }
+
+        @Override
+        public void commit(String sessionKey) {}
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public List<SessionEntry> load(String sessionKey, int lastN) {
+            var entries = sessions.getOrDefault(sessionKey, List.of());
+            return List.copyOf(entries.subList(Math.max(0, entries.size() - lastN), entries.size()));
+        }
+
+        @Override
+        public void delete(String sessionKey) {
+            sessions.remove(sessionKey);
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    private final MemoryStore store = new MemoryStore();
+    private final Set<String> evicted = ConcurrentHashMap.newKeySet();
+
+    private SessionCache cache(int maxResident) {
+        var cache = new SessionCache(store, maxResident, Long.MAX_VALUE, 0, new Metrics());
+        cache.addEvictionListener(evicted::add);
+        return cache;
+    }
+
+    /** What one agent turn does to the cache: read the history, append both sides, end the turn. */
+    private static void turn(SessionCache cache, String key) {
+        cache.get(key).snapshot();
+        cache.append(key, SessionEntry.user("hi"));
+        cache.append(key, SessionEntry.assistant("hello"));
+        cache.endTurn(key);
+    }
+
+    @Test
+    void burstOfOneOffSendersDoesNotEvictActiveSession() {
+        var cache = cache(10);
+        turn(cache, "active");
+        turn(cache, "active");
+
+        for (int i = 0; i < 1000; i++) turn(cache, "one-off-" + i);
+
+        assertFalse(evicted.contains("active"), "active session was evicted by one-off senders");
+        assertEquals(10, cache.size());
+    }
+
+    @Test
+    void sessionWithOneTurnStaysOnProbation() {
+        var cache = cache(10);
+        turn(cache, "newcomer");
+
+        for (int i = 0; i < 10; i++) turn(cache, "one-off-" + i);
+
+        assertTrue(evicted.contains("newcomer"), "a single turn should not protect a session");
+    }
+
+    @Test
+    void evictedSessionIsRehydratedFromStore() {
+        var cache = cache(2);
+        turn(cache, "a");
+        for (int i = 0; i < 5; i++) turn(cache, "one-off-" + i);
+        assertTrue(evicted.contains("a"));
+
+        assertEquals(2, cache.get("a").snapshot().size());
+    }
+}
@@ -0,0 +1,66 @@
+package com.jclaw.session;
+
+import com.jclaw.json.JsonWriter;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionCodecTest {
+
+    private static final Instant AT = Instant.parse("2026-01-02T03:04:05.678Z");
+
+    private static String encode(SessionEntry entry) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        SessionCodec.encode(entry, JsonWriter.to(bytes));
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    private static SessionEntry decode(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        return SessionCodec.decode(bytes, bytes.length);
+    }
+
+    @Test
+    void encodesOneLineWithoutNullToolFields() throws IOException {
+        assertEquals("{\"role\":\"user\",\"content\":\"hi \\\"there\\\"\\n\",\"timestamp\":\"2026-01-02T03:04:05.678Z\"}\n",
+                encode(new SessionEntry("user", "hi \"there\"\n", AT, null, null)));
+    }
+
+    @Test
+    void entriesRoundTrip() throws IOException {
+        var content = "é 中 \uD83D\uDE00 \\ \t\u0001 " + "x".repeat(100 * 1024);
+        for (var entry : new SessionEntry[] {
+                new SessionEntry("assistant", content, AT, null, null),
+                new SessionEntry("tool", "{\"ok\":true}", AT, "call-1", "web_search"),
+                new SessionEntry("system", null, null, null, null)}) {
+            String line = encode(entry);
+            assertTrue(line.endsWith("}\n"), line);
+            assertEquals(line.length() - 1, line.indexOf('\n'), line);
+            assertEquals(entry, decode(line.substring(0, line.length() - 1)));
+        }
+    }
+
+    @Test
+    void decodeSkipsUnknownFields() {
+        assertEquals(new SessionEntry("user", "hi", AT, null, null),
+                decode("{\"v\":2,\"role\":\"user\",\"meta\":{\"a\":[1,2]},\"content\":\"hi\","
+                        + "\"timestamp\":\"2026-01-02T03:04:05.678Z\"}"));
+    }
+
+    @Test
+    void malformedLinesDecodeAsNull() {
+        assertNull(decode(""));
+        assertNull(decode("   "));
+        assertNull(decode("{\"role\":\"user\",\"content\":\"torn"));
+        assertNull(decode("{\"content\":\"no role\"}"));
+        assertNull(decode("{\"role\":\"user\",\"timestamp\":\"yesterday\"}"));
+        assertNull(decode("{\"role\":\"user\"} trailing"));
+    }
+}